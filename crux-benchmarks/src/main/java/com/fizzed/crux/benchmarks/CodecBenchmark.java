@@ -0,0 +1,82 @@
+/*
+ * Copyright 2024 Fizzed, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fizzed.crux.benchmarks;
+
+import com.fizzed.crux.util.Base16;
+import com.fizzed.crux.util.Base32;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Base16 and Base32 encoding and decoding of typical sizes of ids (16 bytes)
+ * up to small payloads.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class CodecBenchmark {
+
+    @Param({ "16", "256" })
+    private int length;
+
+    private byte[] bytes;
+    private String base16;
+    private String base32;
+
+    @Setup
+    public void setup() {
+        // fixed seed so every run (and version) encodes the same bytes
+        this.bytes = new byte[this.length];
+        new Random(42L).nextBytes(this.bytes);
+        this.base16 = Base16.encode(this.bytes);
+        this.base32 = Base32.encode(this.bytes);
+    }
+
+    @Benchmark
+    public String base16Encode() {
+        return Base16.encode(this.bytes);
+    }
+
+    @Benchmark
+    public byte[] base16Decode() {
+        return Base16.decode(this.base16);
+    }
+
+    @Benchmark
+    public String base32Encode() {
+        return Base32.encode(this.bytes);
+    }
+
+    @Benchmark
+    public byte[] base32Decode() {
+        return Base32.decode(this.base32);
+    }
+
+}
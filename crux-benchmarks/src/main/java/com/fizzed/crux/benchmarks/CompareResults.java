@@ -0,0 +1,178 @@
+/*
+ * Copyright 2024 Fizzed, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fizzed.crux.benchmarks;
+
+import com.fizzed.crux.util.TextTable;
+import com.fizzed.crux.util.TextTable.Align;
+import static com.fizzed.crux.util.TextTable.Column.column;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares two runs of the benchmarks that were saved as CSV (with the JMH
+ * options "-rf csv -rff file.csv"), such as a release vs. the current
+ * version.
+ *
+ * java -cp benchmarks.jar com.fizzed.crux.benchmarks.CompareResults before.csv after.csv
+ */
+public class CompareResults {
+
+    static private class Result {
+
+        private String unit;
+        private double score;
+        private double error;
+
+    }
+
+    static public void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: CompareResults <before.csv> <after.csv>");
+            System.exit(1);
+        }
+
+        final Map<String,Result> before = read(Paths.get(args[0]));
+        final Map<String,Result> after = read(Paths.get(args[1]));
+
+        final TextTable table = new TextTable();
+        table.getColumns().add(column("Benchmark", Align.LEFT, 60));
+        table.getColumns().add(column("Unit", Align.LEFT, 8));
+        table.getColumns().add(column("Before", Align.RIGHT, 16));
+        table.getColumns().add(column("After", Align.RIGHT, 16));
+        table.getColumns().add(column("Change", Align.RIGHT, 8));
+
+        for (Map.Entry<String,Result> entry : after.entrySet()) {
+            final Result b = before.get(entry.getKey());
+            final Result a = entry.getValue();
+            table.getRows().add(new Object[] {
+                entry.getKey(),
+                a.unit,
+                b != null ? format(b) : "",
+                format(a),
+                b != null && b.score != 0 ? String.format("%+.1f%%", (a.score - b.score) / b.score * 100d) : "",
+            });
+        }
+
+        table.render(System.out::println);
+
+        System.out.println();
+        System.out.println("Change is relative to before (for time per op, negative is faster). A change");
+        System.out.println("within the error of both runs is likely noise.");
+    }
+
+    static private String format(Result result) {
+        return String.format("%.2f +/- %.2f", result.score, result.error);
+    }
+
+    static private Map<String,Result> read(Path file) throws IOException {
+        final List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        final Map<String,Result> results = new LinkedHashMap<>();
+
+        if (lines.isEmpty()) {
+            return results;
+        }
+
+        final List<String> header = parseCsvLine(lines.get(0));
+        final int benchmarkIndex = header.indexOf("Benchmark");
+        final int modeIndex = header.indexOf("Mode");
+        final int threadsIndex = header.indexOf("Threads");
+        final int scoreIndex = header.indexOf("Score");
+        final int errorIndex = header.indexOf("Score Error (99.9%)");
+        final int unitIndex = header.indexOf("Unit");
+
+        for (String line : lines.subList(1, lines.size())) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+
+            final List<String> values = parseCsvLine(line);
+
+            // the key includes any params, e.g. CodecBenchmark.base16Encode(length=16)
+            final StringBuilder key = new StringBuilder();
+            key.append(shortName(values.get(benchmarkIndex)));
+            final List<String> params = new ArrayList<>();
+            for (int i = 0; i < header.size(); i++) {
+                if (header.get(i).startsWith("Param: ") && i < values.size() && !values.get(i).isEmpty()) {
+                    params.add(header.get(i).substring(7) + "=" + values.get(i));
+                }
+            }
+            if (!params.isEmpty()) {
+                key.append('(').append(String.join(",", params)).append(')');
+            }
+            key.append(' ').append(values.get(modeIndex)).append(" t=").append(values.get(threadsIndex));
+
+            final Result result = new Result();
+            result.unit = values.get(unitIndex);
+            result.score = parseDouble(values.get(scoreIndex));
+            result.error = parseDouble(values.get(errorIndex));
+            results.put(key.toString(), result);
+        }
+
+        return results;
+    }
+
+    static private String shortName(String benchmark) {
+        // drop the package
+        final int classPos = benchmark.lastIndexOf('.', benchmark.lastIndexOf('.') - 1);
+        return classPos >= 0 ? benchmark.substring(classPos + 1) : benchmark;
+    }
+
+    static private double parseDouble(String value) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    static private List<String> parseCsvLine(String line) {
+        final List<String> values = new ArrayList<>();
+        final StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+
+        for (int i = 0; i < line.length(); i++) {
+            final char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i+1) == '"') {
+                    value.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    value.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(value.toString());
+                value.setLength(0);
+            } else {
+                value.append(c);
+            }
+        }
+        values.add(value.toString());
+
+        return values;
+    }
+
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2024 Fizzed, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fizzed.crux.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Realistic inputs for benchmarks, loaded from the classpath (one per line,
+ * with blank lines and # comments ignored).
+ */
+public class Corpus {
+
+    static public String[] load(String name) {
+        final String resource = "/corpus/" + name;
+        final List<String> lines = new ArrayList<>();
+
+        try (InputStream input = Corpus.class.getResourceAsStream(resource)) {
+            if (input == null) {
+                throw new IllegalArgumentException("Corpus " + resource + " not found");
+            }
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty() && !line.startsWith("#")) {
+                    lines.add(line);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return lines.toArray(new String[0]);
+    }
+
+    static public String[] urls() {
+        return load("urls.txt");
+    }
+
+    static public String[] contentTypes() {
+        return load("content-types.txt");
+    }
+
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2024 Fizzed, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fizzed.crux.benchmarks;
+
+import com.fizzed.crux.util.SecureCode;
+import com.fizzed.crux.util.SecureCodes;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Generating secure codes, both single threaded and contended (since the
+ * shared instance uses a single SecureRandom).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class SecureCodesBenchmark {
+
+    private final SecureCodes secureCodes = SecureCodes.getInstance();
+
+    @Benchmark
+    public SecureCode code16() {
+        return this.secureCodes.code16();
+    }
+
+    @Benchmark
+    public String code16String() {
+        return this.secureCodes.code16().toString();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public SecureCode code16Contended() {
+        return this.secureCodes.code16();
+    }
+
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2024 Fizzed, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fizzed.crux.benchmarks;
+
+import com.fizzed.crux.util.TimeDuration;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing durations as typically found in configuration files.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class TimeDurationBenchmark {
+
+    private final String[] durations = { "5s", "100ms", "2h", "1d", "30m", "1500ns", "90S", "250MS", "86400s" };
+    private int index;
+
+    @Benchmark
+    public TimeDuration parse() {
+        final int i = this.index;
+        this.index = (i + 1 == this.durations.length ? 0 : i + 1);
+        return TimeDuration.parse(this.durations[i]);
+    }
+
+    @Benchmark
+    public TimeDuration parseDefaultUnit() {
+        return TimeDuration.parse("15000", TimeUnit.MILLISECONDS);
+    }
+
+}
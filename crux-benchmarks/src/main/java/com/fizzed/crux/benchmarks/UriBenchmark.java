@@ -0,0 +1,95 @@
+/*
+ * Copyright 2024 Fizzed, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fizzed.crux.benchmarks;
+
+import com.fizzed.crux.uri.MutableUri;
+import com.fizzed.crux.uri.Uri;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Parsing and building uris, where each invocation takes the next url of the
+ * corpus (so the entire mix of real-world urls is measured).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class UriBenchmark {
+
+    private String[] urls;
+    private MutableUri[] mutableUris;
+    private int index;
+
+    @Setup
+    public void setup() {
+        this.urls = Corpus.urls();
+        this.mutableUris = new MutableUri[this.urls.length];
+        for (int i = 0; i < this.urls.length; i++) {
+            this.mutableUris[i] = new MutableUri(this.urls[i]);
+        }
+    }
+
+    private int next() {
+        final int i = this.index;
+        this.index = (i + 1 == this.urls.length ? 0 : i + 1);
+        return i;
+    }
+
+    @Benchmark
+    public MutableUri parse() {
+        return new MutableUri(this.urls[this.next()]);
+    }
+
+    @Benchmark
+    public void parseAndAccess(Blackhole bh) {
+        // includes decoding the path, query and fragment (if they're lazily decoded)
+        final MutableUri uri = new MutableUri(this.urls[this.next()]);
+        bh.consume(uri.getHost());
+        bh.consume(uri.getRels());
+        bh.consume(uri.getQuery());
+        bh.consume(uri.getFragment());
+    }
+
+    @Benchmark
+    public String toStringMutable() {
+        // a mutable uri must build its string every time
+        return this.mutableUris[this.next()].toString();
+    }
+
+    @Benchmark
+    public String parseAndToString() {
+        return new Uri(this.urls[this.next()]).toString();
+    }
+
+    @Benchmark
+    public Uri resolve() {
+        return this.mutableUris[this.next()].toUri().resolve("../a/./b?c=d");
+    }
+
+}
@@ -0,0 +1,376 @@
+/*
+ * Copyright 2024 Fizzed, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fizzed.crux.mediatype;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Negotiates the best media type (and charset) a server can produce for the
+ * Accept (and Accept-Charset) header of a request.
+ *
+ * https://tools.ietf.org/html/rfc7231#section-5.3
+ *
+ * The supported types are compiled once (in order of preference of the
+ * server) and each header is then parsed in a single pass, where every range
+ * (e.g. "text/*;q=0.8") is ranked against every supported type.  The most
+ * specific range that matches a supported type decides its quality, the
+ * supported type with the highest quality wins and ties go to the type the
+ * server prefers.  A range also matches the aliases of a supported type (e.g.
+ * "image/jpg" matches IMAGE_JPEG).  Parameters other than "q" are ignored and
+ * any malformed range is skipped.
+ *
+ * Decisions are cached by the raw header value in a bounded cache that is
+ * cleared once full, since most clients send the exact same header on every
+ * request.  A negotiator is immutable (other than its cache) and safe to
+ * share between threads.
+ */
+public class AcceptNegotiator {
+
+    static public final int DEFAULT_CACHE_SIZE = 256;
+
+    // headers longer than this are (almost certainly) not worth caching
+    static private final int MAX_CACHED_LENGTH = 512;
+    static private final Integer NONE = -1;
+
+    private final KnownMediaType[] mediaTypes;
+    private final String[] mediaTypeBases;              // e.g. "text" of "text/html"
+    private final String[][] mediaTypeLabels;           // label + labels of aliases
+    private final Charset[] charsets;
+    private final String[][] charsetNames;              // name + aliases
+    private final int cacheSize;
+    private final ConcurrentHashMap<String,Integer> mediaTypeDecisions;
+    private final ConcurrentHashMap<String,Integer> charsetDecisions;
+
+    public AcceptNegotiator(Collection<KnownMediaType> mediaTypes) {
+        this(mediaTypes, Collections.emptyList());
+    }
+
+    public AcceptNegotiator(Collection<KnownMediaType> mediaTypes, Collection<Charset> charsets) {
+        this(mediaTypes, charsets, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * Creates a new negotiator.
+     *
+     * @param mediaTypes The media types the server can produce in order of
+     *      preference
+     * @param charsets The charsets the server can produce in order of
+     *      preference
+     * @param cacheSize The max number of decisions to cache per header or 0
+     *      to disable caching
+     */
+    public AcceptNegotiator(Collection<KnownMediaType> mediaTypes, Collection<Charset> charsets, int cacheSize) {
+        Objects.requireNonNull(mediaTypes, "mediaTypes was null");
+        Objects.requireNonNull(charsets, "charsets was null");
+        if (cacheSize < 0) {
+            throw new IllegalArgumentException("cacheSize must be >= 0");
+        }
+
+        this.mediaTypes = mediaTypes.toArray(new KnownMediaType[0]);
+        this.mediaTypeBases = new String[this.mediaTypes.length];
+        this.mediaTypeLabels = new String[this.mediaTypes.length][];
+        for (int i = 0; i < this.mediaTypes.length; i++) {
+            final KnownMediaType mediaType = Objects.requireNonNull(this.mediaTypes[i], "mediaTypes had a null");
+            final String label = mediaType.getLabel();
+            this.mediaTypeBases[i] = label.substring(0, label.indexOf('/'));
+            final List<String> labels = new ArrayList<>();
+            for (KnownMediaType kmt : KnownMediaType.values()) {
+                if (kmt.isSame(mediaType)) {
+                    labels.add(kmt.getLabel());
+                }
+            }
+            this.mediaTypeLabels[i] = labels.toArray(new String[0]);
+        }
+
+        this.charsets = charsets.toArray(new Charset[0]);
+        this.charsetNames = new String[this.charsets.length][];
+        for (int i = 0; i < this.charsets.length; i++) {
+            final Charset charset = Objects.requireNonNull(this.charsets[i], "charsets had a null");
+            final List<String> names = new ArrayList<>();
+            names.add(charset.name());
+            names.addAll(charset.aliases());
+            this.charsetNames[i] = names.toArray(new String[0]);
+        }
+
+        this.cacheSize = cacheSize;
+        this.mediaTypeDecisions = cacheSize > 0 ? new ConcurrentHashMap<>() : null;
+        this.charsetDecisions = cacheSize > 0 ? new ConcurrentHashMap<>() : null;
+    }
+
+    static public AcceptNegotiator of(KnownMediaType... mediaTypes) {
+        return new AcceptNegotiator(Arrays.asList(mediaTypes));
+    }
+
+    public List<KnownMediaType> getMediaTypes() {
+        return Collections.unmodifiableList(Arrays.asList(this.mediaTypes));
+    }
+
+    public List<Charset> getCharsets() {
+        return Collections.unmodifiableList(Arrays.asList(this.charsets));
+    }
+
+    /**
+     * Negotiates the best media type for the value of an Accept header.
+     *
+     * @param accept The value of the header (e.g. "text/html, *&#47;*;q=0.1"),
+     *      where null or blank accepts anything
+     * @return The supported media type with the highest quality or null if
+     *      none of them are acceptable
+     */
+    public KnownMediaType negotiate(String accept) {
+        final int i = this.decide(accept, false, this.mediaTypeDecisions);
+        return i >= 0 ? this.mediaTypes[i] : null;
+    }
+
+    /**
+     * Negotiates the best charset for the value of an Accept-Charset header.
+     *
+     * @param acceptCharset The value of the header (e.g. "utf-8, *;q=0.5"),
+     *      where null or blank accepts anything
+     * @return The supported charset with the highest quality or null if none
+     *      of them are acceptable
+     */
+    public Charset negotiateCharset(String acceptCharset) {
+        final int i = this.decide(acceptCharset, true, this.charsetDecisions);
+        return i >= 0 ? this.charsets[i] : null;
+    }
+
+    private int decide(String header, boolean charset, ConcurrentHashMap<String,Integer> decisions) {
+        if (decisions == null || header == null || header.length() > MAX_CACHED_LENGTH) {
+            return this.select(header, charset);
+        }
+
+        Integer decision = decisions.get(header);
+
+        if (decision == null) {
+            final int i = this.select(header, charset);
+            decision = i >= 0 ? i : NONE;
+
+            // full, so the decisions simply start over since a client sends
+            // the same header on every request; the unsynchronized check may
+            // let racing threads overshoot the size by a few decisions
+            if (decisions.size() >= this.cacheSize) {
+                decisions.clear();
+            }
+
+            decisions.put(header, decision);
+        }
+
+        return decision;
+    }
+
+    private int select(String header, boolean charset) {
+        final int count = charset ? this.charsets.length : this.mediaTypes.length;
+
+        if (count == 0) {
+            return -1;
+        }
+
+        if (header == null || ContentType.isBlank(header)) {
+            return 0;
+        }
+
+        // the most specific range to match each supported type and its quality
+        final int[] specificities = new int[count];
+        final int[] qualities = new int[count];
+        final int length = header.length();
+
+        int i = 0;
+        while (i < length) {
+            // range e.g. "text/html" or "utf-8"
+            i = skipWhitespace(header, i);
+            final int start = i;
+            int slash = -1;
+            i = ContentType.scanToken(header, i);
+            if (!charset && i < length && header.charAt(i) == '/') {
+                slash = i;
+                i = ContentType.scanToken(header, i+1);
+            }
+            final int end = i;
+
+            boolean valid = end > start && (charset || (slash > start && end > slash+1));
+            int quality = 1000;
+
+            // *(";" name ["=" (token | quoted)])
+            while (valid) {
+                i = skipWhitespace(header, i);
+                if (i >= length || header.charAt(i) != ';') {
+                    break;
+                }
+                i = skipWhitespace(header, i+1);
+                final int nameStart = i;
+                i = ContentType.scanToken(header, i);
+                final int nameEnd = i;
+                if (nameEnd == nameStart) {
+                    valid = false;
+                } else if (i < length && header.charAt(i) == '=') {
+                    final int valueStart = ++i;
+                    if (i < length && header.charAt(i) == '"') {
+                        i = header.indexOf('"', i+1) + 1;
+                        if (i == 0) {
+                            valid = false;
+                            i = length;
+                        }
+                    } else {
+                        i = ContentType.scanToken(header, i);
+                    }
+                    if (valid && nameEnd-nameStart == 1 && (header.charAt(nameStart) == 'q' || header.charAt(nameStart) == 'Q')) {
+                        quality = parseQuality(header, valueStart, i);
+                        valid = quality >= 0;
+                    }
+                }
+            }
+
+            i = skipWhitespace(header, i);
+            if (valid && (i >= length || header.charAt(i) == ',')) {
+                if (charset) {
+                    this.rankCharset(header, start, end, quality, specificities, qualities);
+                } else {
+                    this.rankMediaType(header, start, slash, end, quality, specificities, qualities);
+                }
+            }
+
+            // onto the next range (skipping anything malformed)
+            while (i < length && header.charAt(i) != ',') {
+                i++;
+            }
+            i++;
+        }
+
+        int best = -1;
+        int bestQuality = 0;
+        for (int j = 0; j < count; j++) {
+            if (specificities[j] > 0 && qualities[j] > bestQuality) {
+                best = j;
+                bestQuality = qualities[j];
+            }
+        }
+        return best;
+    }
+
+    private void rankMediaType(String header, int start, int slash, int end, int quality, int[] specificities, int[] qualities) {
+        final boolean anyType = slash-start == 1 && header.charAt(start) == '*';
+        final boolean anySubType = end-slash == 2 && header.charAt(slash+1) == '*';
+
+        if (anyType && !anySubType) {
+            return;         // e.g. "*/html" is not valid
+        }
+
+        for (int j = 0; j < this.mediaTypes.length; j++) {
+            int specificity = 0;
+            if (anyType) {
+                specificity = 1;
+            } else if (anySubType) {
+                if (regionEquals(header, start, slash, this.mediaTypeBases[j])) {
+                    specificity = 2;
+                }
+            } else {
+                for (String label : this.mediaTypeLabels[j]) {
+                    if (regionEquals(header, start, end, label)) {
+                        specificity = 3;
+                        break;
+                    }
+                }
+            }
+            rank(j, specificity, quality, specificities, qualities);
+        }
+    }
+
+    private void rankCharset(String header, int start, int end, int quality, int[] specificities, int[] qualities) {
+        final boolean any = end-start == 1 && header.charAt(start) == '*';
+
+        for (int j = 0; j < this.charsets.length; j++) {
+            int specificity = 0;
+            if (any) {
+                specificity = 1;
+            } else {
+                for (String name : this.charsetNames[j]) {
+                    if (regionEquals(header, start, end, name)) {
+                        specificity = 2;
+                        break;
+                    }
+                }
+            }
+            rank(j, specificity, quality, specificities, qualities);
+        }
+    }
+
+    static private void rank(int j, int specificity, int quality, int[] specificities, int[] qualities) {
+        if (specificity > specificities[j]) {
+            specificities[j] = specificity;
+            qualities[j] = quality;
+        } else if (specificity > 0 && specificity == specificities[j] && quality > qualities[j]) {
+            qualities[j] = quality;
+        }
+    }
+
+    static private boolean regionEquals(String s, int start, int end, String value) {
+        return end-start == value.length() && s.regionMatches(true, start, value, 0, value.length());
+    }
+
+    static private int skipWhitespace(String s, int i) {
+        while (i < s.length() && (s.charAt(i) == ' ' || s.charAt(i) == '\t')) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Parses a qvalue into thousandths (so "0.8" is 800).
+     *
+     * qvalue = ( "0" [ "." 0*3DIGIT ] ) / ( "1" [ "." 0*3("0") ] )
+     *
+     * @return The quality or -1 if it was invalid
+     */
+    static private int parseQuality(String s, int start, int end) {
+        // lenient with a quoted value
+        if (end-start >= 2 && s.charAt(start) == '"') {
+            start++;
+            end--;
+        }
+
+        if (start >= end || (s.charAt(start) != '0' && s.charAt(start) != '1')) {
+            return -1;
+        }
+
+        int quality = (s.charAt(start) - '0') * 1000;
+
+        if (start+1 < end) {
+            if (s.charAt(start+1) != '.') {
+                return -1;
+            }
+            int scale = 100;
+            for (int i = start+2; i < end; i++) {
+                final char c = s.charAt(i);
+                if (c < '0' || c > '9' || scale == 0) {
+                    return -1;
+                }
+                quality += (c - '0') * scale;
+                scale /= 10;
+            }
+        }
+
+        return quality <= 1000 ? quality : -1;
+    }
+
+}
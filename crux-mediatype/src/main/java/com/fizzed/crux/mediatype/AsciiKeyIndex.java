@@ -0,0 +1,122 @@
+/*
+ * Copyright 2024 Fizzed, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fizzed.crux.mediatype;
+
+import java.util.Map;
+
+/**
+ * Immutable open-addressing hash table of lowercase ascii keys that is looked
+ * up case-insensitive by a region of any char sequence, so a lookup never
+ * needs to allocate a trimmed or lowercased copy of the key.  Only ascii
+ * letters are folded (unlike String.toLowerCase which depends on the default
+ * locale).
+ *
+ * @param <V> The type of value
+ */
+final class AsciiKeyIndex<V> {
+
+    private final String[] keys;
+    private final Object[] values;
+    private final int mask;
+
+    AsciiKeyIndex(Map<String,V> entries) {
+        // at most half full so probes stay short
+        int capacity = 2;
+        while (capacity < entries.size() * 2) {
+            capacity <<= 1;
+        }
+        this.keys = new String[capacity];
+        this.values = new Object[capacity];
+        this.mask = capacity - 1;
+
+        for (Map.Entry<String,V> entry : entries.entrySet()) {
+            final String key = entry.getKey();
+            for (int i = 0; i < key.length(); i++) {
+                if (key.charAt(i) >= 0x80 || fold(key.charAt(i)) != key.charAt(i)) {
+                    throw new IllegalArgumentException("Key " + key + " must be lowercase ascii");
+                }
+            }
+            int slot = hash(key, 0, key.length()) & this.mask;
+            while (this.keys[slot] != null) {
+                slot = (slot + 1) & this.mask;
+            }
+            this.keys[slot] = key;
+            this.values[slot] = entry.getValue();
+        }
+    }
+
+    /**
+     * Gets the value of the key equal (ignoring ascii case) to the region.
+     *
+     * @param s The chars
+     * @param start The start of the region (inclusive)
+     * @param end The end of the region (exclusive)
+     * @return The value or null if not found
+     */
+    @SuppressWarnings("unchecked")
+    V get(CharSequence s, int start, int end) {
+        int slot = hash(s, start, end) & this.mask;
+        String key;
+        while ((key = this.keys[slot]) != null) {
+            if (regionEquals(key, s, start, end)) {
+                return (V)this.values[slot];
+            }
+            slot = (slot + 1) & this.mask;
+        }
+        return null;
+    }
+
+    /**
+     * Gets the value of the key equal (ignoring ascii case) to the region
+     * after any leading and trailing whitespace is trimmed (the same as
+     * String.trim).
+     */
+    V getTrimmed(CharSequence s, int start, int end) {
+        while (start < end && s.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && s.charAt(end-1) <= ' ') {
+            end--;
+        }
+        return this.get(s, start, end);
+    }
+
+    static private int hash(CharSequence s, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + fold(s.charAt(i));
+        }
+        // spread the high bits since the table is small
+        return h ^ (h >>> 16);
+    }
+
+    static private boolean regionEquals(String key, CharSequence s, int start, int end) {
+        if (key.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < key.length(); i++) {
+            if (key.charAt(i) != fold(s.charAt(start + i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static private char fold(char c) {
+        return c >= 'A' && c <= 'Z' ? (char)(c + ('a' - 'A')) : c;
+    }
+
+}
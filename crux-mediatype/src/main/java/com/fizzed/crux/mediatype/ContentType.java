@@ -16,9 +16,6 @@
 package com.fizzed.crux.mediatype;
 
 import java.nio.charset.Charset;
-import java.util.Locale;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Code based almost entirely on okhttp ContentType utility class except this
@@ -35,11 +32,20 @@ import java.util.regex.Pattern;
  */
 public class ContentType {
 
-    private static final String TOKEN = "([a-zA-Z0-9-!#$%&'*+.^_`{|}~]+)";
-    private static final String QUOTED = "\"([^\"]*)\"";
-    private static final Pattern TYPE_SUBTYPE = Pattern.compile(TOKEN + "/" + TOKEN);
-    private static final Pattern PARAMETER = Pattern.compile(
-        ";\\s*(?:" + TOKEN + "=(?:" + TOKEN + "|" + QUOTED + "))?");
+    // chars of a token per rfc2045 (no ctls, spaces or tspecials)
+    static private final boolean[] TOKEN_CHARS = new boolean[128];
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            TOKEN_CHARS[c] = true;
+            TOKEN_CHARS[Character.toUpperCase(c)] = true;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            TOKEN_CHARS[c] = true;
+        }
+        for (char c : "-!#$%&'*+.^_`{|}~".toCharArray()) {
+            TOKEN_CHARS[c] = true;
+        }
+    }
 
     private final String parsed;
     private final KnownMediaType knownMediaType;
@@ -47,10 +53,6 @@ public class ContentType {
     private final String subtype;           // e.g. "png"
     private final String charset;
 
-    private ContentType(String parsed, String type, String subtype, String charset) {
-        this(parsed, type, subtype, charset, KnownMediaType.fromLabel(type + "/" + subtype).orElse(null));
-    }
-
     private ContentType(String parsed, String type, String subtype, String charset, KnownMediaType knownMediaType) {
         this.parsed = parsed;
         this.type = type;
@@ -68,22 +70,29 @@ public class ContentType {
      * media getType.
      */
     static public ContentType parse(String contentType) {
-        if (contentType == null || contentType.isEmpty() || contentType.trim().isEmpty()) {
+        if (contentType == null || isBlank(contentType)) {
             return new ContentType(contentType, null, null, null, KnownMediaType.APPLICATION_OCTET_STREAM);
         }
 
-        Matcher typeSubtype = TYPE_SUBTYPE.matcher(contentType);
-        if (!typeSubtype.lookingAt()) {
+        final int length = contentType.length();
+
+        // type "/" subtype
+        final int typeEnd = scanToken(contentType, 0);
+        if (typeEnd == 0 || typeEnd >= length || contentType.charAt(typeEnd) != '/') {
+            throw new IllegalArgumentException("No subtype found for: \"" + contentType + '"');
+        }
+        final int subtypeEnd = scanToken(contentType, typeEnd+1);
+        if (subtypeEnd == typeEnd+1) {
             throw new IllegalArgumentException("No subtype found for: \"" + contentType + '"');
         }
-        String type = typeSubtype.group(1).toLowerCase(Locale.US);
-        String subtype = typeSubtype.group(2).toLowerCase(Locale.US);
+        String type = lowerCase(contentType, 0, typeEnd);
+        String subtype = lowerCase(contentType, typeEnd+1, subtypeEnd);
 
+        // *(";" *whitespace [name "=" (token | quoted)])
         String charset = null;
-        Matcher parameter = PARAMETER.matcher(contentType);
-        for (int s = typeSubtype.end(); s < contentType.length(); s = parameter.end()) {
-            parameter.region(s, contentType.length());
-            if (!parameter.lookingAt()) {
+        int s = subtypeEnd;
+        while (s < length) {
+            if (contentType.charAt(s) != ';') {
                 throw new IllegalArgumentException("Parameter is not formatted correctly: \""
                     + contentType.substring(s)
                     + "\" for: \""
@@ -91,20 +100,46 @@ public class ContentType {
                     + '"');
             }
 
-            String name = parameter.group(1);
-            if (name == null || !name.equalsIgnoreCase("charset")) {
+            int i = s + 1;
+            while (i < length && isWhitespace(contentType.charAt(i))) {
+                i++;
+            }
+            // the parameter itself is optional (e.g. a trailing ";")
+            s = i;
+
+            final int nameEnd = scanToken(contentType, i);
+            if (nameEnd == i || nameEnd >= length || contentType.charAt(nameEnd) != '=') {
+                continue;
+            }
+
+            final int valueStart = nameEnd + 1;
+            int valueEnd = scanToken(contentType, valueStart);
+            final boolean quoted;
+            if (valueEnd > valueStart) {
+                quoted = false;
+                s = valueEnd;
+            } else if (valueStart < length && contentType.charAt(valueStart) == '"'
+                    && (valueEnd = contentType.indexOf('"', valueStart+1)) > 0) {
+                quoted = true;
+                s = valueEnd + 1;
+            } else {
+                continue;
+            }
+
+            if (nameEnd-i != 7 || !contentType.regionMatches(true, i, "charset", 0, 7)) {
                 continue;
             }
             String charsetParameter;
-            String token = parameter.group(2);
-            if (token != null) {
+            if (!quoted) {
                 // If the token is 'single-quoted' it's invalid! But we're lenient and strip the quotes.
-                charsetParameter = (token.startsWith("'") && token.endsWith("'") && token.length() > 2)
-                    ? token.substring(1, token.length() - 1)
-                    : token;
+                charsetParameter = (valueEnd-valueStart > 2
+                        && contentType.charAt(valueStart) == '\''
+                        && contentType.charAt(valueEnd-1) == '\'')
+                    ? contentType.substring(valueStart+1, valueEnd-1)
+                    : contentType.substring(valueStart, valueEnd);
             } else {
-                // Value is "double-quoted". That's valid and our regex group already strips the quotes.
-                charsetParameter = parameter.group(3);
+                // Value is "double-quoted". That's valid, we just strip the quotes.
+                charsetParameter = contentType.substring(valueStart+1, valueEnd);
             }
             if (charset != null && !charsetParameter.equalsIgnoreCase(charset)) {
                 throw new IllegalArgumentException("Multiple charsets defined: \""
@@ -118,7 +153,66 @@ public class ContentType {
             charset = charsetParameter;
         }
 
-        return new ContentType(contentType, type, subtype, charset);
+        // type "/" subtype is also its label
+        return new ContentType(contentType, type, subtype, charset, KnownMediaType.findByLabel(contentType, 0, subtypeEnd));
+    }
+
+    /**
+     * Same as {@link #parse(java.lang.String)} but repeated values are looked
+     * up in the shared, bounded {@link ContentTypeCache}.
+     *
+     * @param contentType
+     * @return
+     * @throws IllegalArgumentException if {@code string} is not a well-formed
+     * media getType.
+     */
+    static public ContentType parseCached(String contentType) {
+        return ContentTypeCache.getDefault().parse(contentType);
+    }
+
+    static int scanToken(String s, int i) {
+        final int length = s.length();
+        while (i < length) {
+            final char c = s.charAt(i);
+            if (c >= 128 || !TOKEN_CHARS[c]) {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    static private boolean isWhitespace(char c) {
+        // same as \s of a regex
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    static boolean isBlank(String s) {
+        // same as s.trim().isEmpty()
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static private String lowerCase(String s, int start, int end) {
+        // tokens are ascii, so only a-z needs to be lowercased (and usually already are)
+        for (int i = start; i < end; i++) {
+            final char c = s.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                final char[] chars = new char[end-start];
+                s.getChars(start, end, chars, 0);
+                for (int j = i-start; j < chars.length; j++) {
+                    if (chars[j] >= 'A' && chars[j] <= 'Z') {
+                        chars[j] = (char)(chars[j] + ('a' - 'A'));
+                    }
+                }
+                return new String(chars);
+            }
+        }
+        return s.substring(start, end);
     }
 
     /**
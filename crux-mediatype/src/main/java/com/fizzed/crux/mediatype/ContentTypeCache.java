@@ -0,0 +1,109 @@
+/*
+ * Copyright 2024 Fizzed, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fizzed.crux.mediatype;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bounded, thread-safe cache of raw header values to their parsed content
+ * type.  Almost all traffic carries a handful of identical values (e.g.
+ * "application/json; charset=utf-8"), so a repeated value only costs a hash
+ * lookup.  Values that are too long are never cached, and once the cache is
+ * full it is simply cleared, so a client sending unique values can never grow
+ * it past its max size.  Values that fail to parse are never cached.
+ */
+public class ContentTypeCache {
+
+    static public final int DEFAULT_MAX_SIZE = 256;
+    static public final int DEFAULT_MAX_LENGTH = 128;
+
+    static private final ContentTypeCache DEFAULT = new ContentTypeCache(DEFAULT_MAX_SIZE, DEFAULT_MAX_LENGTH);
+
+    private final int maxSize;
+    private final int maxLength;
+    private final ConcurrentHashMap<String,ContentType> cache;
+
+    public ContentTypeCache(int maxSize, int maxLength) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be > 0");
+        }
+        if (maxLength <= 0) {
+            throw new IllegalArgumentException("maxLength must be > 0");
+        }
+        this.maxSize = maxSize;
+        this.maxLength = maxLength;
+        this.cache = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Gets the cache shared by the entire jvm (e.g. used by
+     * {@link KnownMediaType#fromHeader(java.lang.String)}).
+     *
+     * @return The shared cache
+     */
+    static public ContentTypeCache getDefault() {
+        return DEFAULT;
+    }
+
+    public int getMaxSize() {
+        return this.maxSize;
+    }
+
+    public int getMaxLength() {
+        return this.maxLength;
+    }
+
+    public int size() {
+        return this.cache.size();
+    }
+
+    public void clear() {
+        this.cache.clear();
+    }
+
+    /**
+     * Parses the content type or returns the value cached from an earlier
+     * parse of the exact same string.
+     *
+     * @param contentType The raw content type (e.g. the value of a header)
+     * @return The parsed content type
+     * @throws IllegalArgumentException If the content type is not well-formed
+     * @see ContentType#parse(java.lang.String)
+     */
+    public ContentType parse(String contentType) {
+        if (contentType == null || contentType.length() > this.maxLength) {
+            return ContentType.parse(contentType);
+        }
+
+        ContentType parsed = this.cache.get(contentType);
+
+        if (parsed == null) {
+            parsed = ContentType.parse(contentType);
+
+            // full, so simply start over (the handful of common values are
+            // cached again right away); racing threads may each add a value
+            // before seeing the clear, which only overshoots by a few
+            if (this.cache.size() >= this.maxSize) {
+                this.cache.clear();
+            }
+
+            this.cache.put(contentType, parsed);
+        }
+
+        return parsed;
+    }
+
+}
@@ -89,6 +89,8 @@ public enum KnownMediaType {
     static private final Map<String,KnownMediaType> LABELS;
     static private final Map<String,KnownMediaType> EXTENSIONS;
     static private final Map<KnownMediaType,Set<KnownMediaType>> ALIASES;
+    static private final AsciiKeyIndex<KnownMediaType> LABEL_INDEX;
+    static private final AsciiKeyIndex<KnownMediaType> EXTENSION_INDEX;
     static {
         LABELS = new HashMap<>();
         EXTENSIONS = new HashMap<>();
@@ -121,6 +123,10 @@ public enum KnownMediaType {
                 aliases.add(mediaType);
             }
         }
+        
+        // case insensitive lookups w/o allocating a lowercased copy of the key
+        LABEL_INDEX = new AsciiKeyIndex<>(LABELS);
+        EXTENSION_INDEX = new AsciiKeyIndex<>(EXTENSIONS);
     }
     
     private final String label;
@@ -242,36 +248,95 @@ public enum KnownMediaType {
     // helpers
     
     static public Optional<KnownMediaType> fromLabel(String label) {
-        if (label != null) {
-            label = label.trim().toLowerCase();                     // sanitize a bit
-            return ofNullable(LABELS.get(label));
-        }
-        return Optional.empty();
+        return ofNullable(findByLabel(label));
     }
     
     static public Optional<KnownMediaType> fromExtension(String extension) {
-        if (extension != null) {
-            extension = extension.trim().toLowerCase();             // sanitize a bit
-            return ofNullable(EXTENSIONS.get(extension));
-        }
-        return Optional.empty();
+        return ofNullable(findByExtension(extension));
     }
     
     static public Optional<KnownMediaType> fromFileName(String filename) {
+        return ofNullable(findByFileName(filename));
+    }
+    
+    /**
+     * Finds the known media type by its label (e.g. "application/json"),
+     * ignoring case and any leading or trailing whitespace. Unlike
+     * {@link #fromLabel(java.lang.String)} this does not allocate.
+     * 
+     * @param label The label
+     * @return The known media type or null if not found
+     */
+    static public KnownMediaType findByLabel(CharSequence label) {
+        return label != null ? findByLabel(label, 0, label.length()) : null;
+    }
+    
+    static public KnownMediaType findByLabel(CharSequence label, KnownMediaType defaultValue) {
+        final KnownMediaType mediaType = findByLabel(label);
+        return mediaType != null ? mediaType : defaultValue;
+    }
+    
+    /**
+     * Finds the known media type by a region of chars that is its label
+     * (e.g. the "type/subtype" at the start of a header value).
+     * 
+     * @param s The chars
+     * @param start The start of the label (inclusive)
+     * @param end The end of the label (exclusive)
+     * @return The known media type or null if not found
+     */
+    static public KnownMediaType findByLabel(CharSequence s, int start, int end) {
+        return LABEL_INDEX.getTrimmed(s, start, end);
+    }
+    
+    /**
+     * Finds the known media type by its file extension (e.g. "jpg"), ignoring
+     * case and any leading or trailing whitespace. Unlike
+     * {@link #fromExtension(java.lang.String)} this does not allocate.
+     * 
+     * @param extension The file extension (without a leading period)
+     * @return The known media type or null if not found
+     */
+    static public KnownMediaType findByExtension(CharSequence extension) {
+        return extension != null ? findByExtension(extension, 0, extension.length()) : null;
+    }
+    
+    static public KnownMediaType findByExtension(CharSequence extension, KnownMediaType defaultValue) {
+        final KnownMediaType mediaType = findByExtension(extension);
+        return mediaType != null ? mediaType : defaultValue;
+    }
+    
+    static public KnownMediaType findByExtension(CharSequence s, int start, int end) {
+        return EXTENSION_INDEX.getTrimmed(s, start, end);
+    }
+    
+    /**
+     * Finds the known media type by the file extension of the file name
+     * (e.g. "photo.JPG"), ignoring case. Unlike
+     * {@link #fromFileName(java.lang.String)} this does not allocate.
+     * 
+     * @param filename The file name (or path)
+     * @return The known media type or null if not found
+     */
+    static public KnownMediaType findByFileName(CharSequence filename) {
         if (filename != null && filename.length() > 1) {
-            filename = filename.toLowerCase();
-            // strip out first file extension
-            int periodPos = filename.lastIndexOf('.');
-            if (periodPos >= 0) {
-                String extension = filename.substring(periodPos+1);
-                return ofNullable(EXTENSIONS.get(extension));
+            // only the last file extension
+            for (int i = filename.length() - 1; i >= 0; i--) {
+                if (filename.charAt(i) == '.') {
+                    return EXTENSION_INDEX.get(filename, i+1, filename.length());
+                }
             }
         }
-        return Optional.empty();
+        return null;
+    }
+    
+    static public KnownMediaType findByFileName(CharSequence filename, KnownMediaType defaultValue) {
+        final KnownMediaType mediaType = findByFileName(filename);
+        return mediaType != null ? mediaType : defaultValue;
     }
     
     static public Optional<KnownMediaType> fromHeader(String header) {
-        ContentType contentType = ContentType.parse(header);
+        ContentType contentType = ContentType.parseCached(header);
         
         return ofNullable(contentType)
             .map(v -> v.getKnownMediaType());
@@ -0,0 +1,384 @@
+/*
+ * Copyright 2024 Fizzed, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fizzed.crux.mediatype;
+
+import com.fizzed.crux.util.ByteInput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+/**
+ * Detects the known media type of content by its leading (magic) bytes rather
+ * than trusting its file name.  Only a bounded prefix of the content is ever
+ * read and it is matched against a trie of signatures compiled once, so the
+ * cost does not depend on the size of the content (or the number of
+ * signatures).
+ *
+ * Binary signatures are matched at the very start of the content (some with
+ * bytes that may be anything, such as the size of a RIFF or MP4 box).  Short
+ * signatures that plain text could also start with (e.g. "BM" of a bitmap or
+ * "true" of a truetype font) must also have a valid header that follows.  Text
+ * signatures (e.g. "&lt;!DOCTYPE html") are matched case-insensitive after
+ * skipping a UTF-8 byte order mark and any whitespace, and must be followed by
+ * whitespace, "&gt;" or "/" (so "&lt;header&gt;" is not "&lt;head").  Containers that are
+ * shared by several types only detect the container (e.g. a docx, xlsx or jar
+ * is detected as a zip) or are not detected at all (e.g. ole2 or ebml).
+ */
+public class MediaTypeSniffer {
+
+    /**
+     * The max number of bytes of content that are ever read.
+     */
+    static public final int MAX_PREFIX_LENGTH = 256;
+
+    static private final int ANY = -1;
+
+    static private final class Node {
+
+        private final Node[] next = new Node[256];
+        private Node any;
+        private KnownMediaType mediaType;
+
+    }
+
+    static private final Node BINARY = new Node();
+    static private final Node TEXT = new Node();
+    static {
+        binary(KnownMediaType.IMAGE_PNG, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A);
+        binary(KnownMediaType.IMAGE_JPEG, 0xFF, 0xD8, 0xFF);
+        binary(KnownMediaType.IMAGE_GIF, "GIF87a");
+        binary(KnownMediaType.IMAGE_GIF, "GIF89a");
+        binary(KnownMediaType.IMAGE_BMP, "BM");
+        binary(KnownMediaType.IMAGE_TIFF, 'I', 'I', 0x2A, 0x00);
+        binary(KnownMediaType.IMAGE_TIFF, 'M', 'M', 0x00, 0x2A);
+        binary(KnownMediaType.IMAGE_WEBP, 'R', 'I', 'F', 'F', ANY, ANY, ANY, ANY, 'W', 'E', 'B', 'P');
+        binary(KnownMediaType.IMAGE_VND_ADOBE_PHOTOSHOP, "8BPS");
+        binary(KnownMediaType.IMAGE_X_ICO, 0x00, 0x00, 0x01, 0x00);
+        binary(KnownMediaType.IMAGE_JPEG2000, 0x00, 0x00, 0x00, 0x0C, 'j', 'P', ' ', ' ', 0x0D, 0x0A, 0x87, 0x0A);
+        binary(KnownMediaType.APPLICATION_PDF, "%PDF-");
+        binary(KnownMediaType.APPLICATION_ZIP, 'P', 'K', 0x03, 0x04);
+        binary(KnownMediaType.APPLICATION_ZIP, 'P', 'K', 0x05, 0x06);
+        binary(KnownMediaType.APPLICATION_ZIP, 'P', 'K', 0x07, 0x08);
+        binary(KnownMediaType.FONT_OTF, "OTTO");
+        binary(KnownMediaType.FONT_TTF, 0x00, 0x01, 0x00, 0x00, 0x00);
+        binary(KnownMediaType.FONT_TTF, "true");
+        binary(KnownMediaType.FONT_WOFF, "wOFF");
+        binary(KnownMediaType.FONT_WOFF2, "wOF2");
+        binary(KnownMediaType.VIDEO_X_FLV, 'F', 'L', 'V', 0x01);
+        binary(KnownMediaType.VIDEO_MPEG, 0x00, 0x00, 0x01, 0xBA);
+        binary(KnownMediaType.VIDEO_MPEG, 0x00, 0x00, 0x01, 0xB3);
+        binary(KnownMediaType.VIDEO_OGG, "OggS");
+        // iso base media files all start with a "ftyp" box and its major brand
+        for (String brand : new String[] { "isom", "iso2", "mp41", "mp42", "avc1", "M4V ", "dash" }) {
+            binary(KnownMediaType.VIDEO_MP4, "????ftyp" + brand);
+        }
+        for (String brand : new String[] { "3gp4", "3gp5", "3gp6", "3ge6", "3gg6" }) {
+            binary(KnownMediaType.VIDEO_3GPP, "????ftyp" + brand);
+        }
+        binary(KnownMediaType.VIDEO_QUICKTIME, "????ftypqt  ");
+
+        text(KnownMediaType.TEXT_HTML, "<!doctype html");
+        text(KnownMediaType.TEXT_HTML, "<html");
+        text(KnownMediaType.TEXT_HTML, "<head");
+        text(KnownMediaType.TEXT_HTML, "<body");
+        text(KnownMediaType.IMAGE_SVG_XML, "<svg");
+        text(KnownMediaType.APPLICATION_XML, "<?xml");
+    }
+
+    static private void binary(KnownMediaType mediaType, String signature) {
+        final byte[] bytes = signature.getBytes(StandardCharsets.ISO_8859_1);
+        final int[] values = new int[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            values[i] = bytes[i] == '?' ? ANY : bytes[i] & 0xFF;
+        }
+        add(BINARY, mediaType, values);
+    }
+
+    static private void binary(KnownMediaType mediaType, int... signature) {
+        add(BINARY, mediaType, signature);
+    }
+
+    static private void text(KnownMediaType mediaType, String signature) {
+        final byte[] bytes = signature.getBytes(StandardCharsets.ISO_8859_1);
+        final int[] values = new int[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            values[i] = lowerCase(bytes[i] & 0xFF);
+        }
+        add(TEXT, mediaType, values);
+    }
+
+    static private void add(Node root, KnownMediaType mediaType, int[] signature) {
+        if (signature.length > MAX_PREFIX_LENGTH) {
+            throw new IllegalArgumentException("Signature of " + mediaType + " is longer than the max prefix length");
+        }
+        Node node = root;
+        for (int value : signature) {
+            if (value == ANY) {
+                if (node.any == null) {
+                    node.any = new Node();
+                }
+                node = node.any;
+            } else {
+                if (node.next[value] == null) {
+                    node.next[value] = new Node();
+                }
+                node = node.next[value];
+            }
+        }
+        if (node.mediaType != null && node.mediaType != mediaType) {
+            throw new IllegalArgumentException("Uh oh - duplicate signature for " + mediaType
+                + " found with " + node.mediaType + ". You probably want to check your code.");
+        }
+        node.mediaType = mediaType;
+    }
+
+    /**
+     * Detects the media type of the content.
+     *
+     * @param bytes The content (or at least its prefix)
+     * @return The detected media type or null if not detected
+     */
+    static public KnownMediaType sniff(byte[] bytes) {
+        Objects.requireNonNull(bytes, "bytes cannot be null");
+        return sniff(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Detects the media type of the content.
+     *
+     * @param bytes The content (or at least its prefix)
+     * @param offset The offset of the content in the bytes
+     * @param length The length of the content
+     * @return The detected media type or null if not detected
+     */
+    static public KnownMediaType sniff(byte[] bytes, int offset, int length) {
+        Objects.requireNonNull(bytes, "bytes cannot be null");
+        if (offset < 0 || length < 0 || offset + length > bytes.length) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        length = Math.min(length, MAX_PREFIX_LENGTH);
+
+        final KnownMediaType mediaType = match(BINARY, bytes, offset, offset, offset+length, false);
+        if (mediaType != null) {
+            return mediaType;
+        }
+
+        // text is matched after any utf-8 bom and whitespace
+        int i = offset;
+        final int end = offset + length;
+        if (end-i >= 3 && (bytes[i] & 0xFF) == 0xEF && (bytes[i+1] & 0xFF) == 0xBB && (bytes[i+2] & 0xFF) == 0xBF) {
+            i += 3;
+        }
+        while (i < end && (bytes[i] == ' ' || bytes[i] == '\t' || bytes[i] == '\r' || bytes[i] == '\n')) {
+            i++;
+        }
+
+        return match(TEXT, bytes, i, i, end, true);
+    }
+
+    /**
+     * Detects the media type of the content remaining in the buffer without
+     * changing its position, limit or mark.
+     *
+     * @param buffer The content (or at least its prefix)
+     * @return The detected media type or null if not detected
+     */
+    static public KnownMediaType sniff(ByteBuffer buffer) {
+        Objects.requireNonNull(buffer, "buffer cannot be null");
+
+        if (buffer.hasArray()) {
+            return sniff(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        }
+
+        final byte[] prefix = new byte[Math.min(buffer.remaining(), MAX_PREFIX_LENGTH)];
+        for (int i = 0; i < prefix.length; i++) {
+            prefix[i] = buffer.get(buffer.position() + i);
+        }
+        return sniff(prefix);
+    }
+
+    /**
+     * Detects the media type of the content of the stream without consuming
+     * it. The stream is marked, at most {@link #MAX_PREFIX_LENGTH} bytes are
+     * read and then it is reset, so the caller can still read the stream from
+     * where it was.
+     *
+     * @param in The stream, which must support mark and reset (e.g. wrap it
+     *      in a BufferedInputStream if it does not)
+     * @return The detected media type or null if not detected
+     * @throws IOException If the stream throws an exception
+     * @throws IllegalArgumentException If the stream does not support mark
+     */
+    static public KnownMediaType sniff(InputStream in) throws IOException {
+        Objects.requireNonNull(in, "input cannot be null");
+
+        if (!in.markSupported()) {
+            throw new IllegalArgumentException("Input must support mark/reset to not be consumed"
+                + " (e.g. wrap it in a BufferedInputStream)");
+        }
+
+        in.mark(MAX_PREFIX_LENGTH);
+        try {
+            return sniff(readPrefix(in));
+        } finally {
+            in.reset();
+        }
+    }
+
+    /**
+     * Detects the media type of the content of the input without consuming
+     * it. A file is opened (and closed) just to read its prefix, a buffer is
+     * read without changing its position, limit or mark, while bytes or a
+     * stream are marked and reset.
+     *
+     * Requires crux-util (an optional dependency of this module).
+     *
+     * @param input The input
+     * @return The detected media type or null if not detected
+     * @throws IOException If the input throws an exception
+     * @throws IllegalArgumentException If the input is a stream that does not
+     *      support mark
+     */
+    static public KnownMediaType sniffInput(ByteInput input) throws IOException {
+        Objects.requireNonNull(input, "input cannot be null");
+
+        // a stream over a buffer would mark/reset the caller's own buffer
+        final ByteBuffer buffer = input.getBuffer();
+
+        if (buffer != null) {
+            return sniff(buffer);
+        }
+
+        final InputStream in = input.open();
+
+        if (in.markSupported()) {
+            // bytes or a stream (which we must not close)
+            return sniff(in);
+        }
+
+        if (input.size() >= 0) {
+            // a file is a new stream every time it's opened
+            try {
+                return sniff(readPrefix(in));
+            } finally {
+                in.close();
+            }
+        }
+
+        // otherwise its a stream that we would consume
+        return sniff(in);
+    }
+
+    static private byte[] readPrefix(InputStream in) throws IOException {
+        final byte[] prefix = new byte[MAX_PREFIX_LENGTH];
+        int length = 0;
+        while (length < prefix.length) {
+            final int read = in.read(prefix, length, prefix.length - length);
+            if (read < 0) {
+                break;
+            }
+            length += read;
+        }
+        if (length == prefix.length) {
+            return prefix;
+        }
+        final byte[] bytes = new byte[length];
+        System.arraycopy(prefix, 0, bytes, 0, length);
+        return bytes;
+    }
+
+    static private KnownMediaType match(Node node, byte[] bytes, int start, int i, int end, boolean text) {
+        // a longer signature is preferred, otherwise a literal byte over any byte
+        KnownMediaType mediaType = null;
+        if (i < end) {
+            final int value = text ? lowerCase(bytes[i] & 0xFF) : bytes[i] & 0xFF;
+            final Node next = node.next[value];
+            if (next != null) {
+                mediaType = match(next, bytes, start, i+1, end, text);
+            }
+            if (mediaType == null && node.any != null) {
+                mediaType = match(node.any, bytes, start, i+1, end, text);
+            }
+        }
+        if (mediaType != null) {
+            return mediaType;
+        }
+        if (node.mediaType == null) {
+            return null;
+        }
+        if (text) {
+            // a tag name must end where the signature does
+            return i < end && isDelimiter(bytes[i]) ? node.mediaType : null;
+        }
+        switch (node.mediaType) {
+            case IMAGE_BMP:
+                return isBmp(bytes, start, end) ? node.mediaType : null;
+            case FONT_TTF:
+                return isTtf(bytes, start, end) ? node.mediaType : null;
+            default:
+                return node.mediaType;
+        }
+    }
+
+    static private boolean isDelimiter(byte value) {
+        return value == ' ' || value == '\t' || value == '\r' || value == '\n' || value == '>' || value == '/';
+    }
+
+    static private boolean isBmp(byte[] bytes, int start, int end) {
+        // file header of 14 bytes followed by the size of the dib header
+        if (end - start < 18) {
+            return false;
+        }
+        final long fileSize = uint32LE(bytes, start+2);
+        final long dataOffset = uint32LE(bytes, start+10);
+        final long dibSize = uint32LE(bytes, start+14);
+        if (uint32LE(bytes, start+6) != 0) {
+            return false;           // reserved
+        }
+        if (dibSize != 12 && dibSize != 16 && dibSize != 40 && dibSize != 52
+                && dibSize != 56 && dibSize != 64 && dibSize != 108 && dibSize != 124) {
+            return false;
+        }
+        return dataOffset >= 14 + dibSize && fileSize >= dataOffset;
+    }
+
+    static private boolean isTtf(byte[] bytes, int start, int end) {
+        // offset table of the version, number of tables and its search range
+        if (end - start < 8) {
+            return false;
+        }
+        final int numTables = uint16BE(bytes, start+4);
+        final int searchRange = uint16BE(bytes, start+6);
+        return numTables > 0 && searchRange == 16 * Integer.highestOneBit(numTables);
+    }
+
+    static private int uint16BE(byte[] bytes, int i) {
+        return ((bytes[i] & 0xFF) << 8) | (bytes[i+1] & 0xFF);
+    }
+
+    static private long uint32LE(byte[] bytes, int i) {
+        return (bytes[i] & 0xFFL) | ((bytes[i+1] & 0xFFL) << 8)
+            | ((bytes[i+2] & 0xFFL) << 16) | ((bytes[i+3] & 0xFFL) << 24);
+    }
+
+    static private int lowerCase(int value) {
+        return value >= 'A' && value <= 'Z' ? value + ('a' - 'A') : value;
+    }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2024 Fizzed, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fizzed.crux.mediatype;
+
+import java.nio.charset.StandardCharsets;
+import static java.util.Arrays.asList;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import org.junit.Test;
+
+public class AcceptNegotiatorTest {
+
+    @Test
+    public void negotiate() {
+        AcceptNegotiator negotiator = AcceptNegotiator.of(
+            KnownMediaType.APPLICATION_JSON, KnownMediaType.TEXT_HTML, KnownMediaType.IMAGE_JPEG);
+
+        // no header accepts anything (so what we prefer)
+        assertThat(negotiator.negotiate(null), is(KnownMediaType.APPLICATION_JSON));
+        assertThat(negotiator.negotiate(" "), is(KnownMediaType.APPLICATION_JSON));
+        assertThat(negotiator.negotiate("*/*"), is(KnownMediaType.APPLICATION_JSON));
+
+        assertThat(negotiator.negotiate("text/html"), is(KnownMediaType.TEXT_HTML));
+        assertThat(negotiator.negotiate("TEXT/Html"), is(KnownMediaType.TEXT_HTML));
+        assertThat(negotiator.negotiate("text/*"), is(KnownMediaType.TEXT_HTML));
+        assertThat(negotiator.negotiate("text/plain"), is(nullValue()));
+        assertThat(negotiator.negotiate("image/jpg"), is(KnownMediaType.IMAGE_JPEG));
+
+        // typical browser
+        assertThat(negotiator.negotiate("text/html,application/xhtml+xml,application/xml;q=0.9,image/webp,*/*;q=0.8"),
+            is(KnownMediaType.TEXT_HTML));
+
+        // quality wins over our preference
+        assertThat(negotiator.negotiate("application/json;q=0.5, text/html"), is(KnownMediaType.TEXT_HTML));
+        assertThat(negotiator.negotiate("application/json; q=0.5 , text/html ; level=1; q=\"0.6\""), is(KnownMediaType.TEXT_HTML));
+
+        // more specific range wins even with a lower quality
+        assertThat(negotiator.negotiate("*/*, application/json;q=0.1"), is(KnownMediaType.TEXT_HTML));
+        assertThat(negotiator.negotiate("*/*, application/json;q=0"), is(KnownMediaType.TEXT_HTML));
+        assertThat(negotiator.negotiate("text/*;q=0, */*;q=0.1"), is(KnownMediaType.APPLICATION_JSON));
+
+        // nothing acceptable
+        assertThat(negotiator.negotiate("*/*;q=0"), is(nullValue()));
+        assertThat(negotiator.negotiate("video/*"), is(nullValue()));
+
+        // malformed ranges are skipped
+        assertThat(negotiator.negotiate("*/json, application, text/html;q=2, image/jpeg"), is(KnownMediaType.IMAGE_JPEG));
+        assertThat(negotiator.negotiate("application/json;q=0.5555, image/jpeg;q=\"0.1\""), is(KnownMediaType.IMAGE_JPEG));
+        assertThat(negotiator.negotiate("image/jpeg;q=\"0.1, application/json"), is(nullValue()));
+    }
+
+    @Test
+    public void negotiateCharset() {
+        AcceptNegotiator negotiator = new AcceptNegotiator(
+            asList(KnownMediaType.APPLICATION_JSON), asList(StandardCharsets.UTF_8, StandardCharsets.ISO_8859_1));
+
+        assertThat(negotiator.negotiateCharset(null), is(StandardCharsets.UTF_8));
+        assertThat(negotiator.negotiateCharset("iso-8859-1"), is(StandardCharsets.ISO_8859_1));
+        assertThat(negotiator.negotiateCharset("latin1, utf-8;q=0.5"), is(StandardCharsets.ISO_8859_1));
+        assertThat(negotiator.negotiateCharset("UTF8;q=0.9, *;q=0.1"), is(StandardCharsets.UTF_8));
+        assertThat(negotiator.negotiateCharset("utf-8;q=0, *"), is(StandardCharsets.ISO_8859_1));
+        assertThat(negotiator.negotiateCharset("us-ascii"), is(nullValue()));
+    }
+
+    @Test
+    public void cached() {
+        AcceptNegotiator negotiator = new AcceptNegotiator(
+            asList(KnownMediaType.APPLICATION_JSON, KnownMediaType.TEXT_HTML), asList(), 2);
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(negotiator.negotiate("text/html"), is(KnownMediaType.TEXT_HTML));
+            assertThat(negotiator.negotiate("text/plain"), is(nullValue()));
+            assertThat(negotiator.negotiate("application/*"), is(KnownMediaType.APPLICATION_JSON));
+        }
+
+        assertThat(negotiator.negotiateCharset("utf-8"), is(nullValue()));
+    }
+
+}
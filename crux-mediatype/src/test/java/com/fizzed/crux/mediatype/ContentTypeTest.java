@@ -18,7 +18,10 @@ package com.fizzed.crux.mediatype;
 import java.nio.charset.StandardCharsets;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 import org.junit.Test;
 
 /**
@@ -83,4 +86,84 @@ public class ContentTypeTest {
         assertThat(contentType.getCharset(), is(nullValue()));
     }
     
+    @Test
+    public void parseParameters() {
+        ContentType contentType = ContentType.parse("Text/Plain;format=flowed; CHARSET=\"UTF-8\";");
+        
+        assertThat(contentType.getKnownMediaType(), is(KnownMediaType.TEXT_PLAIN));
+        assertThat(contentType.getType(), is("text"));
+        assertThat(contentType.getSubType(), is("plain"));
+        assertThat(contentType.getCharset(), is(StandardCharsets.UTF_8));
+        
+        // lenient with single quotes and repeated (but same) charsets
+        contentType = ContentType.parse("text/plain; charset='utf-8'; charset=UTF-8");
+        
+        assertThat(contentType.getCharset(), is(StandardCharsets.UTF_8));
+    }
+    
+    @Test
+    public void parseInvalid() {
+        try {
+            ContentType.parse("application");
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("No subtype found for: \"application\""));
+        }
+        
+        try {
+            ContentType.parse("text/plain ; charset=utf-8");
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("Parameter is not formatted correctly: \" ; charset=utf-8\" for: \"text/plain ; charset=utf-8\""));
+        }
+        
+        try {
+            ContentType.parse("text/plain; charset=\"utf-8");
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("Parameter is not formatted correctly: \"charset=\"utf-8\" for: \"text/plain; charset=\"utf-8\""));
+        }
+        
+        try {
+            ContentType.parse("text/plain; charset=utf-8; charset=us-ascii");
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("Multiple charsets defined: \"utf-8\" and: \"us-ascii\" for: \"text/plain; charset=utf-8; charset=us-ascii\""));
+        }
+    }
+    
+    @Test
+    public void parseCached() {
+        ContentTypeCache cache = new ContentTypeCache(2, 32);
+        
+        ContentType a = cache.parse("application/json; charset=utf-8");
+        
+        assertThat(a.getKnownMediaType(), is(KnownMediaType.APPLICATION_JSON));
+        assertThat(cache.parse("application/json; charset=utf-8"), is(sameInstance(a)));
+        assertThat(cache.size(), is(1));
+        
+        // too long to be cached
+        ContentType b = cache.parse("application/json; charset=utf-8; format=something");
+        
+        assertThat(cache.parse("application/json; charset=utf-8; format=something"), is(not(sameInstance(b))));
+        assertThat(cache.size(), is(1));
+        
+        // never grows past its max size
+        cache.parse("text/plain");
+        cache.parse("text/html");
+        cache.parse("text/css");
+        
+        assertThat(cache.size() <= 2, is(true));
+        
+        // invalid values are not cached
+        try {
+            cache.parse("text");
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        
+        assertThat(cache.parse(null).getKnownMediaType(), is(KnownMediaType.APPLICATION_OCTET_STREAM));
+    }
+    
 }
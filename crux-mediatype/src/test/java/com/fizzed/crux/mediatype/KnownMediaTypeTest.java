@@ -68,6 +68,40 @@ public class KnownMediaTypeTest {
         assertThat(KnownMediaType.fromFileName(null).orElse(null), is(nullValue()));
     }
     
+    @Test
+    public void findBy() {
+        assertThat(KnownMediaType.findByLabel(null), is(nullValue()));
+        assertThat(KnownMediaType.findByLabel(" Application/JSON\t"), is(KnownMediaType.APPLICATION_JSON));
+        assertThat(KnownMediaType.findByLabel(new StringBuilder("image/jpg")), is(KnownMediaType.IMAGE_JPEG_NON_STANDARD));
+        assertThat(KnownMediaType.findByLabel("application/json; charset=utf-8", 0, 16), is(KnownMediaType.APPLICATION_JSON));
+        assertThat(KnownMediaType.findByLabel("application/jso"), is(nullValue()));
+        assertThat(KnownMediaType.findByLabel("application/jsonx", KnownMediaType.APPLICATION_OCTET_STREAM),
+            is(KnownMediaType.APPLICATION_OCTET_STREAM));
+        
+        assertThat(KnownMediaType.findByExtension("JPEG"), is(KnownMediaType.IMAGE_JPEG));
+        assertThat(KnownMediaType.findByExtension("woff2"), is(KnownMediaType.FONT_WOFF2));
+        assertThat(KnownMediaType.findByExtension(""), is(nullValue()));
+        assertThat(KnownMediaType.findByExtension("exe", KnownMediaType.APPLICATION_OCTET_STREAM),
+            is(KnownMediaType.APPLICATION_OCTET_STREAM));
+        
+        assertThat(KnownMediaType.findByFileName("/tmp/Photo.Final.JPG"), is(KnownMediaType.IMAGE_JPEG));
+        assertThat(KnownMediaType.findByFileName(".json"), is(KnownMediaType.APPLICATION_JSON));
+        assertThat(KnownMediaType.findByFileName("json"), is(nullValue()));
+        assertThat(KnownMediaType.findByFileName("test."), is(nullValue()));
+        assertThat(KnownMediaType.findByFileName(null, KnownMediaType.APPLICATION_OCTET_STREAM),
+            is(KnownMediaType.APPLICATION_OCTET_STREAM));
+        
+        // every label and extension is found
+        for (KnownMediaType kmt : KnownMediaType.values()) {
+            assertThat(KnownMediaType.findByLabel(kmt.getLabel().toUpperCase()), is(kmt));
+            if (kmt.getOwnExtensions() != null) {
+                for (String extension : kmt.getOwnExtensions()) {
+                    assertThat(KnownMediaType.findByExtension(extension), is(kmt));
+                }
+            }
+        }
+    }
+    
     @Test
     public void fromHeader() {
         assertThat(KnownMediaType.fromHeader("image/jpeg").orElse(null), is(KnownMediaType.IMAGE_JPEG));
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2024 Fizzed, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fizzed.crux.mediatype;
+
+import com.fizzed.crux.util.ByteInput;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+public class MediaTypeSnifferTest {
+
+    static private byte[] bytes(int... values) {
+        final byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte)values[i];
+        }
+        return bytes;
+    }
+
+    static private byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    static private final byte[] PNG = bytes(0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A, 0x00, 0x00, 0x00, 0x0D, 'I', 'H', 'D', 'R');
+
+    @Test
+    public void sniffBytes() {
+        assertThat(MediaTypeSniffer.sniff(PNG), is(KnownMediaType.IMAGE_PNG));
+        assertThat(MediaTypeSniffer.sniff(bytes(0xFF, 0xD8, 0xFF, 0xE0, 0x00, 0x10)), is(KnownMediaType.IMAGE_JPEG));
+        assertThat(MediaTypeSniffer.sniff(bytes("GIF89a....")), is(KnownMediaType.IMAGE_GIF));
+        assertThat(MediaTypeSniffer.sniff(bytes("RIFF$\u0000\u0000\u0000WEBPVP8 ")), is(KnownMediaType.IMAGE_WEBP));
+        assertThat(MediaTypeSniffer.sniff(bytes("%PDF-1.7\n")), is(KnownMediaType.APPLICATION_PDF));
+        assertThat(MediaTypeSniffer.sniff(bytes("PK\u0003\u0004\u0014\u0000")), is(KnownMediaType.APPLICATION_ZIP));
+        assertThat(MediaTypeSniffer.sniff(bytes("\u0000\u0000\u0000\u0018ftypmp42\u0000\u0000\u0000\u0000")), is(KnownMediaType.VIDEO_MP4));
+        assertThat(MediaTypeSniffer.sniff(bytes("\u0000\u0000\u0000\u0014ftypqt  ")), is(KnownMediaType.VIDEO_QUICKTIME));
+        assertThat(MediaTypeSniffer.sniff(bytes(0x00, 0x00, 0x00, 0x0C, 'j', 'P', ' ', ' ', 0x0D, 0x0A, 0x87, 0x0A)), is(KnownMediaType.IMAGE_JPEG2000));
+        assertThat(MediaTypeSniffer.sniff(bytes("wOF2")), is(KnownMediaType.FONT_WOFF2));
+        // bitmap of 70 bytes, data at 54 after a 40 byte dib header
+        assertThat(MediaTypeSniffer.sniff(bytes('B', 'M', 70, 0, 0, 0, 0, 0, 0, 0, 54, 0, 0, 0, 40, 0, 0, 0)), is(KnownMediaType.IMAGE_BMP));
+        // truetype with 11 tables (search range of 8 * 16)
+        assertThat(MediaTypeSniffer.sniff(bytes(0x00, 0x01, 0x00, 0x00, 0x00, 0x0B, 0x00, 0x80)), is(KnownMediaType.FONT_TTF));
+        assertThat(MediaTypeSniffer.sniff(bytes('t', 'r', 'u', 'e', 0x00, 0x0B, 0x00, 0x80)), is(KnownMediaType.FONT_TTF));
+
+        // text after bom and whitespace
+        assertThat(MediaTypeSniffer.sniff(bytes("<!DOCTYPE HTML><html>")), is(KnownMediaType.TEXT_HTML));
+        assertThat(MediaTypeSniffer.sniff(bytes("\u00ef\u00bb\u00bf\r\n  <?xml version=\"1.0\"?>")), is(KnownMediaType.APPLICATION_XML));
+        assertThat(MediaTypeSniffer.sniff(bytes("<svg xmlns=\"http://www.w3.org/2000/svg\">")), is(KnownMediaType.IMAGE_SVG_XML));
+        assertThat(MediaTypeSniffer.sniff(bytes("<html>")), is(KnownMediaType.TEXT_HTML));
+        assertThat(MediaTypeSniffer.sniff(bytes("<HEAD/>")), is(KnownMediaType.TEXT_HTML));
+
+        // not detected
+        assertThat(MediaTypeSniffer.sniff(bytes("")), is(nullValue()));
+        assertThat(MediaTypeSniffer.sniff(bytes("GIF8")), is(nullValue()));
+        assertThat(MediaTypeSniffer.sniff(bytes("{\"a\":1}")), is(nullValue()));
+        assertThat(MediaTypeSniffer.sniff(bytes("hello <html>")), is(nullValue()));
+        // text that only starts like a signature
+        assertThat(MediaTypeSniffer.sniff(bytes("BMW of North America, LLC")), is(nullValue()));
+        assertThat(MediaTypeSniffer.sniff(bytes("BM")), is(nullValue()));
+        assertThat(MediaTypeSniffer.sniff(bytes("true")), is(nullValue()));
+        assertThat(MediaTypeSniffer.sniff(bytes("true, false")), is(nullValue()));
+        assertThat(MediaTypeSniffer.sniff(bytes("<header>a</header>")), is(nullValue()));
+        assertThat(MediaTypeSniffer.sniff(bytes("<htmlish>")), is(nullValue()));
+        assertThat(MediaTypeSniffer.sniff(bytes("<svgfoo>")), is(nullValue()));
+        assertThat(MediaTypeSniffer.sniff(bytes("<html")), is(nullValue()));
+
+        // offset and length
+        byte[] padded = new byte[PNG.length + 4];
+        System.arraycopy(PNG, 0, padded, 2, PNG.length);
+        assertThat(MediaTypeSniffer.sniff(padded, 2, PNG.length), is(KnownMediaType.IMAGE_PNG));
+        assertThat(MediaTypeSniffer.sniff(padded, 2, 4), is(nullValue()));
+    }
+
+    @Test
+    public void sniffBuffer() {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        buffer.put(bytes("junk"));
+        buffer.put(PNG);
+        buffer.flip();
+        buffer.position(4);
+
+        assertThat(MediaTypeSniffer.sniff(buffer), is(KnownMediaType.IMAGE_PNG));
+        assertThat(buffer.position(), is(4));
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(PNG.length);
+        direct.put(PNG);
+        direct.flip();
+
+        assertThat(MediaTypeSniffer.sniff(direct), is(KnownMediaType.IMAGE_PNG));
+        assertThat(direct.position(), is(0));
+    }
+
+    @Test
+    public void sniffStream() throws IOException {
+        InputStream in = new BufferedInputStream(new ByteArrayInputStream(bytes("%PDF-1.4 and then lots more")));
+
+        assertThat(MediaTypeSniffer.sniff(in), is(KnownMediaType.APPLICATION_PDF));
+        // not consumed
+        assertThat(in.read(), is((int)'%'));
+
+        try {
+            MediaTypeSniffer.sniff(new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    return -1;
+                }
+            });
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void sniffInput() throws IOException {
+        assertThat(MediaTypeSniffer.sniffInput(ByteInput.byteInput(PNG)), is(KnownMediaType.IMAGE_PNG));
+
+        ByteBuffer buffer = ByteBuffer.wrap(PNG);
+        assertThat(MediaTypeSniffer.sniffInput(ByteInput.byteInput(buffer)), is(KnownMediaType.IMAGE_PNG));
+        assertThat(buffer.position(), is(0));
+
+        // the caller's own mark is left as-is
+        buffer.mark();
+        buffer.position(1);
+        assertThat(MediaTypeSniffer.sniffInput(ByteInput.byteInput(buffer)), is(nullValue()));
+        buffer.position(2);
+        buffer.reset();
+        assertThat(buffer.position(), is(0));
+
+        InputStream in = new ByteArrayInputStream(PNG);
+        assertThat(MediaTypeSniffer.sniffInput(ByteInput.byteInput(in, false)), is(KnownMediaType.IMAGE_PNG));
+        assertThat(in.read(), is(0x89));
+
+        Path file = Files.createTempFile("crux-sniff", ".txt");
+        try {
+            Files.write(file, PNG);
+            assertThat(MediaTypeSniffer.sniffInput(ByteInput.byteInput(file)), is(KnownMediaType.IMAGE_PNG));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+}
@@ -1,20 +1,45 @@
 package com.fizzed.crux.okhttp;
 
+import com.fizzed.crux.util.TimeDuration;
 import java.io.IOException;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import oauth.signpost.signature.HmacSha1MessageSigner;
 import okhttp3.Interceptor;
 import okhttp3.Response;
 import se.akerfeldt.okhttp.signpost.OkHttpOAuthConsumer;
 import se.akerfeldt.okhttp.signpost.SigningInterceptor;
 
+/**
+ * Signs requests with OAuth v1.  The supplied credentials are copied into an
+ * immutable snapshot that is swapped atomically if the credentials change, and
+ * the supplier is consulted at most once per refresh interval (by a single
+ * thread, while any others keep signing with the current snapshot).  Since a
+ * consumer signs while synchronized, each thread lazily builds its own
+ * consumer and signer from the snapshot so threads never wait on each other.
+ */
 public class OkHttpOAuth1Interceptor implements Interceptor {
 
+    static public final TimeDuration DEFAULT_REFRESH_INTERVAL = TimeDuration.seconds(1);
+    
+    static private final class Signer {
+        
+        private final OAuth1Credentials credentials;
+        private final ThreadLocal<SigningInterceptor> signingInterceptors;
+
+        public Signer(OAuth1Credentials credentials) {
+            this.credentials = credentials;
+            this.signingInterceptors = ThreadLocal.withInitial(() -> buildSigningInterceptor(credentials));
+        }
+        
+    }
+    
     protected final IOSupplier<OAuth1Credentials> supplier;
-    // used for caching...
-    protected OAuth1Credentials lastCredentials;
-    protected OkHttpOAuthConsumer oauthConsumer;
-    protected SigningInterceptor signingInterceptor;
+    protected final TimeDuration refreshInterval;
+    private final AtomicReference<Signer> signer;
+    // nanos when the supplier should be consulted next
+    private final AtomicLong refreshAt;
     
     @Deprecated
     public OkHttpOAuth1Interceptor(
@@ -50,40 +75,98 @@ public class OkHttpOAuth1Interceptor implements Interceptor {
     public OkHttpOAuth1Interceptor(
             IOSupplier<OAuth1Credentials> supplier) {
         
+        this(supplier, DEFAULT_REFRESH_INTERVAL);
+    }
+    
+    /**
+     * Creates a new interceptor.
+     * 
+     * @param supplier The supplier of the credentials
+     * @param refreshInterval The interval to consult the supplier (for changed
+     *      credentials) at most once per, where zero is every request
+     */
+    public OkHttpOAuth1Interceptor(
+            IOSupplier<OAuth1Credentials> supplier,
+            TimeDuration refreshInterval) {
+        
         Objects.requireNonNull(supplier, "supplier was null");
+        Objects.requireNonNull(refreshInterval, "refreshInterval was null");
         this.supplier = supplier;
+        this.refreshInterval = refreshInterval;
+        this.signer = new AtomicReference<>();
+        this.refreshAt = new AtomicLong();
+    }
+
+    public TimeDuration getRefreshInterval() {
+        return refreshInterval;
     }
     
     public SigningInterceptor buildSigningInterceptor() throws IOException {
+        final Signer current = this.signer.get();
+        final long now = System.nanoTime();
+        
+        // only the one thread that claims the refresh consults the supplier,
+        // the others simply sign with the current snapshot
+        if (current != null) {
+            final long refreshAt = this.refreshAt.get();
+            if (now - refreshAt < 0
+                    || !this.refreshAt.compareAndSet(refreshAt, now + this.refreshInterval.asNanos())) {
+                return current.signingInterceptors.get();
+            }
+        }
+        
         final OAuth1Credentials credentials = this.supplier.get();
         
         // expensive to build the consumer and signer -- if the creds haven't
         // changed then we can simply use the previous version we built...
-        if (!Objects.equals(credentials, this.lastCredentials)) {
-            // build consumer
-            this.oauthConsumer = new OkHttpOAuthConsumer(
-                credentials.getConsumerKey(), credentials.getConsumerSecret());
+        if (current != null && Objects.equals(credentials, current.credentials)) {
+            return current.signingInterceptors.get();
+        }
         
-            if (credentials.getSignatureMethod() != null) {
-                switch (credentials.getSignatureMethod().toLowerCase()) {
-                    case "rsa-sha1":
-                        this.oauthConsumer.setMessageSigner(new RsaSha1OAuthMessageSigner());
-                        break;
-                    case "hmac-sha1":
-                        this.oauthConsumer.setMessageSigner(new HmacSha1MessageSigner());
-                        break;
-                    default:
-                        throw new IllegalArgumentException("Unsupported signature method " + credentials.getSignatureMethod());
-                }
-            }
-
-            this.oauthConsumer.setTokenWithSecret(
-                credentials.getAccessToken(), credentials.getAccessSecret());
-            
-            this.signingInterceptor = new SigningInterceptor(this.oauthConsumer);
+        // copied since the supplier may mutate the instance it returned
+        final Signer updated = new Signer(copy(credentials));
+        // built before the swap so invalid credentials are never installed
+        final SigningInterceptor signingInterceptor = updated.signingInterceptors.get();
+        
+        if (this.signer.compareAndSet(current, updated) && current == null) {
+            this.refreshAt.set(now + this.refreshInterval.asNanos());
         }
         
-        return this.signingInterceptor;
+        return signingInterceptor;
+    }
+    
+    static private SigningInterceptor buildSigningInterceptor(OAuth1Credentials credentials) {
+        // build consumer
+        final OkHttpOAuthConsumer oauthConsumer = new OkHttpOAuthConsumer(
+            credentials.getConsumerKey(), credentials.getConsumerSecret());
+
+        if (credentials.getSignatureMethod() != null) {
+            switch (credentials.getSignatureMethod().toLowerCase()) {
+                case "rsa-sha1":
+                    oauthConsumer.setMessageSigner(new RsaSha1OAuthMessageSigner());
+                    break;
+                case "hmac-sha1":
+                    oauthConsumer.setMessageSigner(new HmacSha1MessageSigner());
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported signature method " + credentials.getSignatureMethod());
+            }
+        }
+
+        oauthConsumer.setTokenWithSecret(
+            credentials.getAccessToken(), credentials.getAccessSecret());
+
+        return new SigningInterceptor(oauthConsumer);
+    }
+    
+    static private OAuth1Credentials copy(OAuth1Credentials credentials) {
+        final OAuth1Credentials copy = new OAuth1Credentials();
+        copy.setConsumerKey(credentials.getConsumerKey());
+        copy.setConsumerSecret(credentials.getConsumerSecret());
+        copy.setAccessToken(credentials.getAccessToken());
+        copy.setAccessSecret(credentials.getAccessSecret());
+        copy.setSignatureMethod(credentials.getSignatureMethod());
+        return copy;
     }
     
     @Override
@@ -93,4 +176,4 @@ public class OkHttpOAuth1Interceptor implements Interceptor {
         return si.intercept(chain);
     }
 
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -1,5 +1,7 @@
 package com.fizzed.crux.okhttp;
 
+import com.fizzed.crux.util.BoundedConcurrentCache;
+import com.fizzed.crux.util.BoundedConcurrentCache.WhenFull;
 import java.io.UnsupportedEncodingException;
 import java.security.GeneralSecurityException;
 import java.security.PrivateKey;
@@ -21,6 +23,9 @@ import oauth.signpost.signature.SignatureBaseString;
  *  openssl req -new -x509 -key privatekey.pem -out publickey.cer -days 1825
  *  openssl pkcs8 -topk8 -inform PEM -in privatekey.pem -out privatekey.pem.pkcs8 -nocrypt
  * 
+ * Parsed private keys are cached (by the consumer secret) and each thread
+ * reuses its own Signature, so signing only costs the RSA operation itself.
+ * 
  * @author jjlauer
  */
 @SuppressWarnings("serial")
@@ -28,6 +33,22 @@ public class RsaSha1OAuthMessageSigner extends OAuthMessageSigner {
 
     static public final String METHOD = "RSA-SHA1";
     static private final String SIGNATURE_ALGORITHM = "SHA1withRSA";
+    // keys beyond the max are parsed on every sign (rather than cached)
+    static private final int MAX_CACHED_KEYS = 64;
+    static private final BoundedConcurrentCache<String,PrivateKey> PRIVATE_KEYS = new BoundedConcurrentCache<>(MAX_CACHED_KEYS, WhenFull.REJECT);
+    static private final ThreadLocal<Signer> SIGNERS = new ThreadLocal<>();
+    
+    static private final class Signer {
+        
+        private final Signature signature;
+        // key the signature was last initialized with
+        private PrivateKey privateKey;
+
+        public Signer(Signature signature) {
+            this.signature = signature;
+        }
+        
+    }
     
 	@Override
     public String getSignatureMethod() {
@@ -46,13 +67,11 @@ public class RsaSha1OAuthMessageSigner extends OAuthMessageSigner {
     // package-level for testing
     String sign(String data) throws OAuthMessageSignerException {
         try {
-            final Signature signature = Signature.getInstance(SIGNATURE_ALGORITHM);
-            
-            PrivateKey privateKey = Cryptos.loadRSAPrivateKey(this.getConsumerSecret());
+            final PrivateKey privateKey = privateKey(this.getConsumerSecret());
             
             final byte[] dataBytes = data.getBytes(OAuth.ENCODING);
 
-            signature.initSign(privateKey);
+            final Signature signature = signature(privateKey);
             signature.update(dataBytes);
 
             byte[] signatureBytes = signature.sign();
@@ -63,4 +82,35 @@ public class RsaSha1OAuthMessageSigner extends OAuthMessageSigner {
         }
     }
     
-}
\ No newline at end of file
+    static PrivateKey privateKey(String consumerSecret) throws GeneralSecurityException {
+        PrivateKey privateKey = PRIVATE_KEYS.get(consumerSecret);
+        
+        if (privateKey == null) {
+            privateKey = Cryptos.loadRSAPrivateKey(consumerSecret);
+            PRIVATE_KEYS.putIfAbsent(consumerSecret, privateKey);
+        }
+        
+        return privateKey;
+    }
+    
+    static private Signature signature(PrivateKey privateKey) throws GeneralSecurityException {
+        Signer signer = SIGNERS.get();
+        
+        if (signer == null) {
+            signer = new Signer(Signature.getInstance(SIGNATURE_ALGORITHM));
+            SIGNERS.set(signer);
+        }
+        
+        // a signature resets to its initialized state after signing, so it
+        // only needs initialized again if the key changed
+        if (signer.privateKey != privateKey) {
+            // if init fails, the signature is left uninitialized
+            signer.privateKey = null;
+            signer.signature.initSign(privateKey);
+            signer.privateKey = privateKey;
+        }
+        
+        return signer.signature;
+    }
+    
+}
\ No newline at end of file
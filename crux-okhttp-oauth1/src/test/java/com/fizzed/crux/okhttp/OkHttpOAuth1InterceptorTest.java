@@ -0,0 +1,97 @@
+package com.fizzed.crux.okhttp;
+
+import com.fizzed.crux.util.TimeDuration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import se.akerfeldt.okhttp.signpost.SigningInterceptor;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import org.junit.Test;
+
+public class OkHttpOAuth1InterceptorTest {
+    
+    @Test
+    public void refreshInterval() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        final OAuth1Credentials credentials = new OAuth1Credentials("key", "secret", "token", "tokenSecret", null);
+        
+        OkHttpOAuth1Interceptor interceptor = new OkHttpOAuth1Interceptor(() -> {
+            calls.incrementAndGet();
+            return credentials;
+        }, TimeDuration.minutes(1));
+        
+        SigningInterceptor si = interceptor.buildSigningInterceptor();
+        
+        assertThat(interceptor.buildSigningInterceptor(), sameInstance(si));
+        assertThat(interceptor.buildSigningInterceptor(), sameInstance(si));
+        assertThat(calls.get(), is(1));
+    }
+    
+    @Test
+    public void rotatesCredentials() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        final AtomicReference<OAuth1Credentials> credentials = new AtomicReference<>(
+            new OAuth1Credentials("key", "secret", "token", "tokenSecret", null));
+        
+        OkHttpOAuth1Interceptor interceptor = new OkHttpOAuth1Interceptor(() -> {
+            calls.incrementAndGet();
+            return credentials.get();
+        }, TimeDuration.millis(0));
+        
+        SigningInterceptor si1 = interceptor.buildSigningInterceptor();
+        
+        // unchanged (but a new instance)
+        credentials.set(new OAuth1Credentials("key", "secret", "token", "tokenSecret", null));
+        
+        assertThat(interceptor.buildSigningInterceptor(), sameInstance(si1));
+        
+        // mutated in place
+        credentials.get().setAccessToken("token2");
+        
+        SigningInterceptor si2 = interceptor.buildSigningInterceptor();
+        
+        assertThat(si2, not(sameInstance(si1)));
+        assertThat(interceptor.buildSigningInterceptor(), sameInstance(si2));
+        assertThat(calls.get(), is(4));
+    }
+    
+    @Test
+    public void signerPerThread() throws Exception {
+        final AtomicReference<OAuth1Credentials> credentials = new AtomicReference<>(
+            new OAuth1Credentials("key", "secret", "token", "tokenSecret", null));
+        
+        OkHttpOAuth1Interceptor interceptor = new OkHttpOAuth1Interceptor(
+            credentials::get, TimeDuration.millis(0));
+        
+        SigningInterceptor si1 = interceptor.buildSigningInterceptor();
+        
+        assertThat(interceptor.buildSigningInterceptor(), sameInstance(si1));
+        
+        // consumers sign while synchronized, so another thread gets its own
+        final AtomicReference<SigningInterceptor> other = new AtomicReference<>();
+        final Thread thread = new Thread(() -> {
+            try {
+                other.set(interceptor.buildSigningInterceptor());
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        thread.start();
+        thread.join();
+        
+        assertThat(other.get(), not(nullValue()));
+        assertThat(other.get(), not(sameInstance(si1)));
+        
+        // rotated credentials are a new snapshot for every thread
+        credentials.set(new OAuth1Credentials("key", "secret", "token2", "tokenSecret", null));
+        
+        SigningInterceptor si2 = interceptor.buildSigningInterceptor();
+        
+        assertThat(si2, not(sameInstance(si1)));
+        assertThat(interceptor.buildSigningInterceptor(), sameInstance(si2));
+    }
+    
+}
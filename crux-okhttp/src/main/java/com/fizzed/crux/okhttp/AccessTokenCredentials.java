@@ -15,12 +15,14 @@
  */
 package com.fizzed.crux.okhttp;
 
+import java.time.Instant;
 import java.util.Objects;
 
 public class AccessTokenCredentials {
  
     protected String tokenType;
     protected String accessToken;
+    protected Instant expiresAt;
 
     public AccessTokenCredentials() {
     }
@@ -34,6 +36,12 @@ public class AccessTokenCredentials {
         this.accessToken = accessToken;
     }
 
+    public AccessTokenCredentials(String accessToken, String tokenType, Instant expiresAt) {
+        this.tokenType = tokenType;
+        this.accessToken = accessToken;
+        this.expiresAt = expiresAt;
+    }
+
     public String getTokenType() {
         return tokenType;
     }
@@ -50,11 +58,29 @@ public class AccessTokenCredentials {
         this.accessToken = accessToken;
     }
 
+    /**
+     * Gets when the access token expires.
+     * 
+     * @return When the token expires or null if it never does (or is unknown)
+     */
+    public Instant getExpiresAt() {
+        return expiresAt;
+    }
+
+    public void setExpiresAt(Instant expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    public boolean isExpired() {
+        return this.expiresAt != null && !this.expiresAt.isAfter(Instant.now());
+    }
+
     @Override
     public int hashCode() {
         int hash = 5;
         hash = 59 * hash + Objects.hashCode(this.tokenType);
         hash = 59 * hash + Objects.hashCode(this.accessToken);
+        hash = 59 * hash + Objects.hashCode(this.expiresAt);
         return hash;
     }
 
@@ -76,6 +102,9 @@ public class AccessTokenCredentials {
         if (!Objects.equals(this.accessToken, other.accessToken)) {
             return false;
         }
+        if (!Objects.equals(this.expiresAt, other.expiresAt)) {
+            return false;
+        }
         return true;
     }
 
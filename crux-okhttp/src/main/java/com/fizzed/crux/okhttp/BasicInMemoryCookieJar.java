@@ -26,7 +26,11 @@ import okhttp3.HttpUrl;
 /**
  * Basic in-memory cookie jar for OkHttp3. Does not try to do any handling of
  * cookies across domains, etc.  Does not enforce domains, paths, secure flags, etc.
+ * 
+ * @deprecated Every response replaces all cookies and every request gets them
+ *      all, use ConcurrentCookieJar instead
  */
+@Deprecated
 public class BasicInMemoryCookieJar implements CookieJar {
 
     private final AtomicReference<List<Cookie>> cookiesRef;
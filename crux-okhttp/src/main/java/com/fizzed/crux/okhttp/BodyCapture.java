@@ -0,0 +1,159 @@
+/*
+ * Copyright 2024 Fizzed, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fizzed.crux.okhttp;
+
+import java.io.EOFException;
+import java.io.IOException;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSink;
+import okio.GzipSource;
+import okio.Sink;
+
+/**
+ * Copy of only the first max bytes of a body (along with a count of all the
+ * bytes seen), so a body can be logged without it ever being buffered in its
+ * entirety a second time.
+ */
+final class BodyCapture {
+
+    private final long maxSize;
+    private final Buffer buffer;
+    private long size;
+    private boolean complete;
+
+    BodyCapture(long maxSize) {
+        this.maxSize = Math.max(0L, maxSize);
+        this.buffer = new Buffer();
+    }
+
+    long getMaxSize() {
+        return this.maxSize;
+    }
+
+    /**
+     * Gets the captured bytes (at most the max size).
+     */
+    Buffer getBuffer() {
+        return this.buffer;
+    }
+
+    /**
+     * Gets the number of bytes seen, which is the size of the entire body
+     * only once it is complete.
+     */
+    long getSize() {
+        return this.size;
+    }
+
+    /**
+     * Whether the entire body was seen.
+     */
+    boolean isComplete() {
+        return this.complete;
+    }
+
+    void setComplete(boolean complete) {
+        this.complete = complete;
+    }
+
+    boolean isTruncated() {
+        return !this.complete || this.size > this.buffer.size();
+    }
+
+    void reset() {
+        this.buffer.clear();
+        this.size = 0L;
+        this.complete = false;
+    }
+
+    /**
+     * Copies this capture (the bytes are shared till either is modified).
+     */
+    BodyCapture copy() {
+        final BodyCapture copy = new BodyCapture(this.maxSize);
+        copy.buffer.write(this.buffer.clone(), this.buffer.size());
+        copy.size = this.size;
+        copy.complete = this.complete;
+        return copy;
+    }
+
+    /**
+     * Captures the bytes of the source (up to the max size) without consuming
+     * them.
+     */
+    void capture(Buffer source, long offset, long byteCount) {
+        final long keep = Math.min(byteCount, this.maxSize - this.buffer.size());
+        if (keep > 0) {
+            source.copyTo(this.buffer, offset, keep);
+        }
+        this.size += byteCount;
+    }
+
+    /**
+     * Wraps a sink so every byte written to it is also captured.
+     */
+    Sink tee(Sink sink) {
+        return new ForwardingSink(sink) {
+            @Override
+            public void write(Buffer source, long byteCount) throws IOException {
+                // capture first since writing consumes the source
+                capture(source, 0, byteCount);
+                super.write(source, byteCount);
+            }
+        };
+    }
+
+    /**
+     * Captures the first max bytes of a source by only buffering as much of
+     * it as needed (rather than the entire body). Nothing is consumed, so the
+     * source is still read in full by whoever owns it.
+     */
+    static BodyCapture peek(BufferedSource source, long maxSize) throws IOException {
+        final BodyCapture capture = new BodyCapture(maxSize);
+        // one more byte tells whether there's more than the max
+        final boolean more = source.request(capture.maxSize < Long.MAX_VALUE ? capture.maxSize + 1 : capture.maxSize);
+        final Buffer buffer = source.buffer();
+        final long available = more ? Math.min(buffer.size(), capture.maxSize) : buffer.size();
+        capture.capture(buffer, 0, available);
+        capture.complete = !more;
+        return capture;
+    }
+
+    /**
+     * Decompresses a captured gzipped body into a new capture of at most the
+     * max size. If only a prefix of the gzipped body was captured, as much of
+     * it as possible is decompressed.
+     */
+    BodyCapture gunzip(long maxSize) throws IOException {
+        final BodyCapture capture = new BodyCapture(maxSize);
+        final Buffer chunk = new Buffer();
+        try (GzipSource source = new GzipSource(this.buffer.clone())) {
+            while (capture.size <= capture.maxSize) {
+                if (source.read(chunk, 8192L) == -1) {
+                    capture.complete = this.complete;
+                    break;
+                }
+                capture.capture(chunk, 0, chunk.size());
+                chunk.clear();
+            }
+        } catch (EOFException e) {
+            // the gzipped prefix ended mid-stream
+        }
+        return capture;
+    }
+
+}
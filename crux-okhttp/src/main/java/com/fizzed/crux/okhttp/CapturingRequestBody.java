@@ -0,0 +1,74 @@
+/*
+ * Copyright 2024 Fizzed, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fizzed.crux.okhttp;
+
+import java.io.IOException;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import okio.Okio;
+
+/**
+ * Request body that captures the first max bytes of another body while it is
+ * actually written to the connection.  The body is still only written once,
+ * so a body that can't be replayed streams through untouched.
+ */
+final class CapturingRequestBody extends RequestBody {
+
+    private final RequestBody delegate;
+    private final BodyCapture capture;
+    private volatile boolean written;
+
+    CapturingRequestBody(RequestBody delegate, long maxSize) {
+        this.delegate = delegate;
+        this.capture = new BodyCapture(maxSize);
+    }
+
+    RequestBody getDelegate() {
+        return this.delegate;
+    }
+
+    /**
+     * Gets the capture of the last write of the body.
+     *
+     * @return The capture or null if the body was never written
+     */
+    BodyCapture getCapture() {
+        return this.written ? this.capture : null;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return this.delegate.contentType();
+    }
+
+    @Override
+    public long contentLength() throws IOException {
+        return this.delegate.contentLength();
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        // a retry or redirect writes the body again
+        this.capture.reset();
+        this.written = true;
+        final BufferedSink teeSink = Okio.buffer(this.capture.tee(sink));
+        this.delegate.writeTo(teeSink);
+        teeSink.emit();
+        this.capture.setComplete(true);
+    }
+
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright 2024 Fizzed, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fizzed.crux.okhttp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import okhttp3.Cookie;
+import okhttp3.CookieJar;
+import okhttp3.HttpUrl;
+
+/**
+ * In-memory cookie jar for OkHttp3 that is safe for concurrent use (without a
+ * global lock) and only returns the cookies matching a request (domain, path,
+ * secure flag and expiry).  Cookies are indexed by the registrable domain of
+ * the url (e.g. example.com for www.example.com) and then by path, so a
+ * lookup only visits the cookies of its site with a path that could match.
+ * Expired cookies are evicted lazily (when visited) and a site (or path) is
+ * dropped once it has no cookies left.
+ *
+ * The number of cookies may optionally be capped per site (cookies that
+ * expire soonest are evicted first) and in total (the least recently used
+ * sites are evicted first).
+ */
+public class ConcurrentCookieJar implements CookieJar {
+
+    static private final class Site {
+
+        private final String key;
+        // cookies by path and then by name and domain (their identity)
+        private final ConcurrentHashMap<String,ConcurrentHashMap<String,Cookie>> paths = new ConcurrentHashMap<>();
+        private final AtomicInteger size = new AtomicInteger();
+        // nanos, only to order sites by when they were last used
+        private volatile long accessedAt;
+
+        public Site(String key) {
+            this.key = key;
+        }
+
+    }
+
+    private final ConcurrentHashMap<String,Site> sites;
+    private final AtomicInteger size;
+    private final int maxCookies;
+    private final int maxCookiesPerSite;
+
+    public ConcurrentCookieJar() {
+        this(0, 0);
+    }
+
+    /**
+     * Creates a new cookie jar.
+     *
+     * @param maxCookies The max cookies in total or 0 for no max
+     * @param maxCookiesPerSite The max cookies per registrable domain or 0 for
+     *      no max
+     */
+    public ConcurrentCookieJar(int maxCookies, int maxCookiesPerSite) {
+        if (maxCookies < 0 || maxCookiesPerSite < 0) {
+            throw new IllegalArgumentException("max cookies must be >= 0");
+        }
+        this.sites = new ConcurrentHashMap<>();
+        this.size = new AtomicInteger();
+        this.maxCookies = maxCookies;
+        this.maxCookiesPerSite = maxCookiesPerSite;
+    }
+
+    /**
+     * Gets the number of cookies (including any expired ones not yet
+     * evicted).
+     *
+     * @return The number of cookies
+     */
+    public int size() {
+        return this.size.get();
+    }
+
+    // only for testing (the sites and paths with cookies)
+    int siteCount() {
+        return this.sites.size();
+    }
+
+    int pathCount() {
+        return this.sites.values().stream().mapToInt((site) -> site.paths.size()).sum();
+    }
+
+    public void clear() {
+        for (Map.Entry<String,Site> entry : this.sites.entrySet()) {
+            this.evict(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public void saveFromResponse(HttpUrl url, List<Cookie> cookies) {
+        final long now = System.currentTimeMillis();
+        final String siteKey = siteOf(url);
+        Site site;
+
+        while (true) {
+            site = this.sites.computeIfAbsent(siteKey, Site::new);
+            site.accessedAt = System.nanoTime();
+            this.save(site, cookies, now);
+
+            // a site emptied (e.g. by deleting its last cookie) is simply gone
+            if (this.sites.get(siteKey) == site || site.size.get() <= 0) {
+                break;
+            }
+
+            // the site was evicted (e.g. cleared or emptied) while saving to
+            // it, so what was saved to it is dropped (and its counts with it)
+            // and saved again to the site that replaces it
+            this.drain(site);
+        }
+
+        if (this.maxCookiesPerSite > 0 && site.size.get() > this.maxCookiesPerSite) {
+            this.trim(site, this.maxCookiesPerSite, now);
+        }
+
+        if (this.maxCookies > 0 && this.size.get() > this.maxCookies) {
+            this.trim(siteKey, now);
+        }
+    }
+
+    private void save(Site site, List<Cookie> cookies, long now) {
+        for (Cookie cookie : cookies) {
+            final String key = keyOf(cookie);
+            if (cookie.expiresAt() <= now) {
+                // an expired cookie deletes an existing one
+                final Map<String,Cookie> byKey = site.paths.get(cookie.path());
+                if (byKey != null) {
+                    this.remove(site, cookie.path(), byKey, key);
+                }
+            } else {
+                while (true) {
+                    final Map<String,Cookie> byKey = site.paths.computeIfAbsent(cookie.path(), (p) -> new ConcurrentHashMap<>());
+                    if (byKey.put(key, cookie) == null) {
+                        site.size.incrementAndGet();
+                        this.size.incrementAndGet();
+                    }
+                    if (site.paths.get(cookie.path()) == byKey) {
+                        break;
+                    }
+                    // the path was dropped (since it was empty) before the
+                    // cookie was put, so its put again to the path replacing it
+                    this.remove(site, cookie.path(), byKey, key);
+                }
+            }
+        }
+    }
+
+    @Override
+    public List<Cookie> loadForRequest(HttpUrl url) {
+        final Site site = this.sites.get(siteOf(url));
+
+        if (site == null) {
+            return Collections.emptyList();
+        }
+
+        final long now = System.currentTimeMillis();
+        site.accessedAt = System.nanoTime();
+
+        final String path = url.encodedPath();
+        List<Cookie> matches = null;
+
+        // every path a matching cookie could have (longest first), which is
+        // the path itself and each prefix ending at (or just before) a slash
+        if (path.charAt(path.length() - 1) != '/') {
+            matches = this.collect(site, path, url, now, matches);
+        }
+        for (int i = path.length() - 1; i >= 0; i--) {
+            if (path.charAt(i) == '/') {
+                matches = this.collect(site, path.substring(0, i + 1), url, now, matches);
+                if (i > 0) {
+                    matches = this.collect(site, path.substring(0, i), url, now, matches);
+                }
+            }
+        }
+
+        return matches != null ? matches : Collections.emptyList();
+    }
+
+    private List<Cookie> collect(Site site, String path, HttpUrl url, long now, List<Cookie> matches) {
+        final Map<String,Cookie> byKey = site.paths.get(path);
+
+        if (byKey != null) {
+            for (Map.Entry<String,Cookie> entry : byKey.entrySet()) {
+                final Cookie cookie = entry.getValue();
+                if (cookie.expiresAt() <= now) {
+                    this.remove(site, path, byKey, entry.getKey());
+                } else if (cookie.matches(url)) {
+                    if (matches == null) {
+                        matches = new ArrayList<>();
+                    }
+                    matches.add(cookie);
+                }
+            }
+        }
+
+        return matches;
+    }
+
+    private void remove(Site site, String path, Map<String,Cookie> byKey, String key) {
+        if (byKey.remove(key) != null) {
+            site.size.decrementAndGet();
+            this.size.decrementAndGet();
+
+            // drop an empty path or site (only if still empty, since a save
+            // to one dropped concurrently notices and saves again)
+            if (byKey.isEmpty()) {
+                site.paths.computeIfPresent(path, (p, m) -> m == byKey && m.isEmpty() ? null : m);
+            }
+            if (site.size.get() <= 0) {
+                this.sites.computeIfPresent(site.key, (k, s) -> s == site && s.size.get() <= 0 ? null : s);
+            }
+        }
+    }
+
+    /**
+     * Trims a site to a max by evicting expired cookies and then the ones
+     * that expire soonest (session cookies last).
+     */
+    private void trim(Site site, int max, long now) {
+        final List<Cookie> cookies = new ArrayList<>();
+        for (ConcurrentHashMap<String,Cookie> byKey : site.paths.values()) {
+            cookies.addAll(byKey.values());
+        }
+
+        cookies.sort(Comparator.comparingLong(Cookie::expiresAt));
+
+        for (Cookie cookie : cookies) {
+            if (site.size.get() <= max && cookie.expiresAt() > now) {
+                break;
+            }
+            final Map<String,Cookie> byKey = site.paths.get(cookie.path());
+            if (byKey != null) {
+                this.remove(site, cookie.path(), byKey, keyOf(cookie));
+            }
+        }
+    }
+
+    /**
+     * Trims the jar to its max by evicting expired cookies, then the least
+     * recently used sites (other than the site just saved to) and then, if
+     * that still isn't enough, the cookies of the site just saved to.
+     */
+    private void trim(String savedSiteKey, long now) {
+        for (Site site : this.sites.values()) {
+            for (Map.Entry<String,ConcurrentHashMap<String,Cookie>> path : site.paths.entrySet()) {
+                final Map<String,Cookie> byKey = path.getValue();
+                for (Map.Entry<String,Cookie> entry : byKey.entrySet()) {
+                    if (entry.getValue().expiresAt() <= now) {
+                        this.remove(site, path.getKey(), byKey, entry.getKey());
+                    }
+                }
+            }
+        }
+
+        if (this.size.get() <= this.maxCookies) {
+            return;
+        }
+
+        final List<Map.Entry<String,Site>> sites = new ArrayList<>(this.sites.entrySet());
+        sites.sort(Comparator.comparingLong((entry) -> entry.getValue().accessedAt));
+
+        for (Map.Entry<String,Site> entry : sites) {
+            if (this.size.get() <= this.maxCookies) {
+                break;
+            }
+            if (!entry.getKey().equals(savedSiteKey)) {
+                this.evict(entry.getKey(), entry.getValue());
+            }
+        }
+
+        final Site savedSite = this.sites.get(savedSiteKey);
+        final int excess = this.size.get() - this.maxCookies;
+
+        if (savedSite != null && excess > 0) {
+            this.trim(savedSite, Math.max(0, savedSite.size.get() - excess), now);
+        }
+    }
+
+    private void evict(String siteKey, Site site) {
+        this.sites.remove(siteKey, site);
+        this.drain(site);
+    }
+
+    private void drain(Site site) {
+        for (Map.Entry<String,ConcurrentHashMap<String,Cookie>> path : site.paths.entrySet()) {
+            final Map<String,Cookie> byKey = path.getValue();
+            for (String key : byKey.keySet()) {
+                this.remove(site, path.getKey(), byKey, key);
+            }
+        }
+    }
+
+    static private String siteOf(HttpUrl url) {
+        // null for ip addresses and public suffixes (e.g. localhost)
+        final String domain = url.topPrivateDomain();
+        return domain != null ? domain : url.host();
+    }
+
+    static private String keyOf(Cookie cookie) {
+        return cookie.name() + ';' + cookie.domain();
+    }
+
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2024 Fizzed, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fizzed.crux.okhttp;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies with log-linear buckets: every power of 2
+ * (of microseconds) is split into 8 linear sub-buckets, so any value is
+ * reported within 12.5% while the histogram is a fixed array of counters that
+ * is simply incremented to record.
+ */
+public class LatencyHistogram {
+
+    static private final int SUB_BITS = 3;
+    static private final int SUB_COUNT = 1 << SUB_BITS;
+    // 2^40 micros is over 12 days, anything larger goes in the last bucket
+    static private final int MAX_EXPONENT = 40;
+    static private final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_COUNT;
+
+    private final AtomicLongArray counts;
+    private final AtomicLong sum;
+    private final AtomicLong max;
+
+    public LatencyHistogram() {
+        this.counts = new AtomicLongArray(BUCKETS);
+        this.sum = new AtomicLong();
+        this.max = new AtomicLong();
+    }
+
+    static int bucketOf(long micros) {
+        if (micros < SUB_COUNT) {
+            return (int)Math.max(0L, micros);
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        final int shift = exponent - SUB_BITS;
+        return ((shift + 1) << SUB_BITS) + (int)((micros >>> shift) & (SUB_COUNT - 1));
+    }
+
+    /**
+     * The smallest value of a bucket.
+     */
+    static long lowestOf(int bucket) {
+        if (bucket < SUB_COUNT) {
+            return bucket;
+        }
+        final int shift = (bucket >>> SUB_BITS) - 1;
+        return ((long)(SUB_COUNT + (bucket & (SUB_COUNT - 1)))) << shift;
+    }
+
+    /**
+     * The largest value of a bucket.
+     */
+    static long highestOf(int bucket) {
+        if (bucket < SUB_COUNT) {
+            return bucket;
+        }
+        final int shift = (bucket >>> SUB_BITS) - 1;
+        return lowestOf(bucket) + (1L << shift) - 1;
+    }
+
+    public void record(long duration, TimeUnit unit) {
+        this.recordMicros(unit.toMicros(duration));
+    }
+
+    public void recordNanos(long nanos) {
+        this.recordMicros(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    public void recordMicros(long micros) {
+        if (micros < 0) {
+            micros = 0;
+        }
+        this.counts.incrementAndGet(bucketOf(micros));
+        this.sum.addAndGet(micros);
+        long current;
+        while (micros > (current = this.max.get()) && !this.max.compareAndSet(current, micros)) {
+            // retry
+        }
+    }
+
+    /**
+     * Takes a snapshot of the histogram.  Recording is never blocked, so a
+     * snapshot taken while values are recorded may be off by those values.
+     *
+     * @return The snapshot
+     */
+    public Snapshot snapshot() {
+        final long[] counts = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = this.counts.get(i);
+            count += counts[i];
+        }
+        return new Snapshot(counts, count, this.sum.get(), this.max.get());
+    }
+
+    /**
+     * Immutable snapshot of a histogram (all values in milliseconds).
+     */
+    static public class Snapshot {
+
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return this.count;
+        }
+
+        public double getMean() {
+            return this.count > 0 ? (this.sum / (double)this.count) / 1000d : 0d;
+        }
+
+        public double getMax() {
+            return this.max / 1000d;
+        }
+
+        /**
+         * Gets the value at a percentile (e.g. 99.0) as the highest value of
+         * the bucket it's in (capped at the max recorded).
+         *
+         * @param percentile The percentile between 0 and 100
+         * @return The value in millis or 0 if nothing was recorded
+         */
+        public double getPercentile(double percentile) {
+            if (percentile < 0d || percentile > 100d) {
+                throw new IllegalArgumentException("percentile must be between 0 and 100");
+            }
+            if (this.count == 0) {
+                return 0d;
+            }
+            final long rank = Math.max(1L, (long)Math.ceil((percentile / 100d) * this.count));
+            long seen = 0;
+            for (int i = 0; i < this.counts.length; i++) {
+                seen += this.counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestOf(i), this.max) / 1000d;
+                }
+            }
+            return this.max / 1000d;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d, mean=%.3fms, p50=%.3fms, p99=%.3fms, max=%.3fms",
+                this.count, this.getMean(), this.getPercentile(50d), this.getPercentile(99d), this.getMax());
+        }
+
+    }
+
+}
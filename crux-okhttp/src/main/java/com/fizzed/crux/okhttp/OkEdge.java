@@ -16,10 +16,16 @@
 package com.fizzed.crux.okhttp;
 
 import com.fizzed.crux.util.MessageLevel;
-import com.fizzed.crux.util.SecureUtil;
-import com.fizzed.crux.util.TrustAllTrustManager;
 import java.io.IOException;
-import java.util.concurrent.TimeUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.CookieJar;
 import okhttp3.Credentials;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
@@ -27,14 +33,12 @@ import okhttp3.Response;
 
 public class OkEdge {
     
-//    private final HttpLoggingInterceptor loggingInterceptor;
-    private final OkHttpLoggingInterceptor loggingInterceptor;
-    private final OkHttpClient.Builder clientBuilder;
+    // clients are shared (by their effective options) so connections are reused
+    private final OkHttpOptions options;
     private final Request.Builder requestBuilder;
-    private Boolean insecure;
+    private OkHttpClientRegistry clientRegistry;
+    private CookieJar cookieJar;
     private OkLoggingLevel loggingLevel;
-    private Long connectTimeout;
-    private Long readTimeout;
     
     public OkEdge() {
         this(null, null, null);
@@ -58,20 +62,10 @@ public class OkEdge {
             OkLoggingLevel loggingLevel,
             MessageLevel messageLevel) {
         
-        OkHttpOptions options = new OkHttpOptions();
-        options.setLoggingLevel(loggingLevel);
-        options.setLoggerName("okedge");
-        options.setMessageLevel(messageLevel);
-        
-//        this.loggingInterceptor  = OkHttpUtils.createLoggingInterceptor(
-//            loggingLevel, "okedge", messageLevel);
-//        this.clientBuilder = new OkHttpClient.Builder()
-//            .addNetworkInterceptor(this.loggingInterceptor);
-        
-        this.clientBuilder = OkHttpUtils.createBuilder(options);
-        
-        // the first network interceptor will be the logging one...
-        this.loggingInterceptor = (OkHttpLoggingInterceptor)this.clientBuilder.networkInterceptors().get(0);
+        this.options = new OkHttpOptions();
+        this.options.setLoggingLevel(loggingLevel);
+        this.options.setLoggerName("okedge");
+        this.options.setMessageLevel(messageLevel);
         
         this.requestBuilder = new Request.Builder();
         // other initial state passed on from state
@@ -100,8 +94,11 @@ public class OkEdge {
     }
     
     private void init(OkEdgeState state) {
+        if (state.clientRegistry() != null) {
+            this.clientRegistry = state.clientRegistry();
+        }
         if (state.cookieJar() != null) {
-            this.clientBuilder.cookieJar(state.cookieJar());
+            this.cookieJar = state.cookieJar();
         }
         if (state.logging() != null) {
             this.logging(state.logging());
@@ -115,24 +112,34 @@ public class OkEdge {
         this.requestBuilder.headers(state.headersBuilder().build());
     }
     
+    /**
+     * The registry the client is taken from (and thus the connection pool and
+     * dispatcher that are shared).
+     * @param clientRegistry The registry or null for the default registry
+     * @return This instance
+     */
+    public OkEdge clientRegistry(OkHttpClientRegistry clientRegistry) {
+        this.clientRegistry = clientRegistry;
+        return this;
+    }
+    
     public OkEdge connectTimeout(Long millis) {
-        this.connectTimeout = millis;
+        this.options.setConnectTimeout(millis);
         return this;
     }
     
     public OkEdge readTimeout(Long millis) {
-        this.readTimeout = millis;
+        this.options.setReadTimeout(millis);
         return this;
     }
     
     public OkEdge followRedirects(boolean followRedirects) {
-        this.clientBuilder.followRedirects(followRedirects);
-        this.clientBuilder.followSslRedirects(followRedirects);
+        this.options.setFollowRedirects(followRedirects);
         return this;
     }
     
     public OkEdge insecure(Boolean insecure) {
-        this.insecure = insecure;
+        this.options.setInsecure(insecure);
         return this;
     }
     
@@ -151,8 +158,7 @@ public class OkEdge {
             loggingLevel = OkLoggingLevel.NONE;
         }
         
-        loggingInterceptor.setRequestLoggingLevel(loggingLevel);
-        loggingInterceptor.setResponseLoggingLevel(loggingLevel);
+        this.options.setLoggingLevel(loggingLevel);
         
         return this;
     }
@@ -240,24 +246,39 @@ public class OkEdge {
         return body;
     }
     
-    public Response execute() throws IOException {
-        // swap in values before client built...
-        if (insecure != null && insecure) {
-            this.clientBuilder.sslSocketFactory(OkHttpUtils.TRUST_ALL_SSL_SOCKET_FACTORY, TrustAllTrustManager.INSTANCE);
-            this.clientBuilder.hostnameVerifier(OkHttpUtils.TRUST_ALL_HOSTNAME_VERIFIER);
-        }
+    private OkHttpClientRegistry registry() {
+        return this.clientRegistry != null
+            ? this.clientRegistry : OkHttpClientRegistry.getDefault();
+    }
+    
+    OkHttpClient client() {
+        OkHttpClient client = this.registry().get(this.options);
         
-        if (this.connectTimeout != null) {
-            this.clientBuilder.connectTimeout(this.connectTimeout, TimeUnit.MILLISECONDS);
+        if (this.cookieJar != null) {
+            // still shares the pool and dispatcher
+            client = client.newBuilder()
+                .cookieJar(this.cookieJar)
+                .build();
         }
         
-        if (this.readTimeout != null) {
-            this.clientBuilder.readTimeout(this.readTimeout, TimeUnit.MILLISECONDS);
+        return client;
+    }
+    
+    Call newCall() {
+        final OkHttpClient client = this.client();
+        final Request request = this.requestBuilder.build();
+        
+        // retried (and hedged) with the final client, e.g. with its cookie jar
+        final OkHttpRetryPolicy retryPolicy = this.registry().getRetryPolicy(this.options);
+        if (retryPolicy != null) {
+            return retryPolicy.newCall(client, request);
         }
         
-        OkHttpClient client = this.clientBuilder.build();
-        Request request = this.requestBuilder.build();
-        Response response = client.newCall(request).execute();
+        return client.newCall(request);
+    }
+    
+    public Response execute() throws IOException {
+        Response response = this.newCall().execute();
         
         // network-level logging interceptor won't log encoded bodies
         if (this.loggingLevel != null && this.loggingLevel == OkLoggingLevel.BODY) {
@@ -267,4 +288,118 @@ public class OkEdge {
         return response;
     }
     
+    /**
+     * Executes the request asynchronously on the dispatcher of the client, so
+     * no thread is parked while waiting on the response.  Cancelling the
+     * future cancels the call (and closes the response if it already arrived).
+     * @return The future response, which must be closed like any other
+     */
+    public CompletableFuture<Response> executeAsync() {
+        final Call call = this.newCall();
+        final OkLoggingLevel _loggingLevel = this.loggingLevel;
+        
+        final CompletableFuture<Response> future = new CompletableFuture<>();
+        
+        future.whenComplete((response, e) -> {
+            if (e instanceof CancellationException) {
+                call.cancel();
+            }
+        });
+        
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                try {
+                    // network-level logging interceptor won't log encoded bodies
+                    if (_loggingLevel != null && _loggingLevel == OkLoggingLevel.BODY) {
+                        ResponseBodyLogger.log(response, response.body());
+                    }
+                } catch (IOException | RuntimeException e) {
+                    response.close();
+                    future.completeExceptionally(e);
+                    return;
+                }
+                if (!future.complete(response)) {
+                    // cancelled while in-flight
+                    response.close();
+                }
+            }
+        });
+        
+        return future;
+    }
+    
+    /**
+     * Executes a batch of requests asynchronously with at most a limited
+     * number of them in-flight at once (the dispatcher of the client may limit
+     * them further, e.g. its max requests per host).  The next request is
+     * started as soon as any in-flight one completes, so there is never a
+     * thread per outstanding request.  Cancelling one of the futures cancels
+     * the call (or skips it if not yet started).
+     * @param edges The requests to execute
+     * @param maxInFlight The max number of requests in-flight at once
+     * @return The future responses in the same order as the requests
+     */
+    static public List<CompletableFuture<Response>> executeAsync(Collection<OkEdge> edges, int maxInFlight) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("maxInFlight must be > 0");
+        }
+        
+        final OkEdge[] _edges = edges.toArray(new OkEdge[0]);
+        final List<CompletableFuture<Response>> futures = new ArrayList<>(_edges.length);
+        for (int i = 0; i < _edges.length; i++) {
+            futures.add(new CompletableFuture<>());
+        }
+        
+        final AtomicInteger next = new AtomicInteger();
+        final int initial = Math.min(maxInFlight, _edges.length);
+        for (int i = 0; i < initial; i++) {
+            executeNext(_edges, futures, next);
+        }
+        
+        return futures;
+    }
+    
+    static private void executeNext(OkEdge[] edges, List<CompletableFuture<Response>> futures, AtomicInteger next) {
+        int i;
+        while ((i = next.getAndIncrement()) < edges.length) {
+            final CompletableFuture<Response> future = futures.get(i);
+            
+            if (future.isDone()) {
+                continue;       // cancelled before it was started
+            }
+            
+            final CompletableFuture<Response> call;
+            try {
+                call = edges[i].executeAsync();
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+                continue;
+            }
+            
+            future.whenComplete((response, e) -> {
+                if (e instanceof CancellationException) {
+                    call.cancel(true);
+                }
+            });
+            
+            call.whenComplete((response, e) -> {
+                if (e != null) {
+                    future.completeExceptionally(e);
+                } else if (!future.complete(response)) {
+                    response.close();
+                }
+                // the slot is free for the next one
+                executeNext(edges, futures, next);
+            });
+            
+            return;
+        }
+    }
+    
 }
@@ -30,6 +30,7 @@ public class OkEdgeState {
     private Boolean followRedirects;
     private Boolean insecure;
     private CookieJar cookieJar;
+    private OkHttpClientRegistry clientRegistry;
     private final Headers.Builder headersBuilder;
 
     public OkEdgeState() {
@@ -71,7 +72,7 @@ public class OkEdgeState {
     public OkEdgeState cookies(boolean cookies) {
         if (cookies) {
             if (this.cookieJar == null) {
-                this.cookieJar = new BasicInMemoryCookieJar();
+                this.cookieJar = new ConcurrentCookieJar();
             }
         } else {
             this.cookieJar = null;
@@ -79,6 +80,21 @@ public class OkEdgeState {
         return this;
     }
     
+    OkHttpClientRegistry clientRegistry() {
+        return this.clientRegistry;
+    }
+    
+    /**
+     * The registry of clients (and thus the connection pool and dispatcher)
+     * shared by OkEdge instances created with this state.
+     * @param clientRegistry The registry or null for the default registry
+     * @return This instance
+     */
+    public OkEdgeState clientRegistry(OkHttpClientRegistry clientRegistry) {
+        this.clientRegistry = clientRegistry;
+        return this;
+    }
+    
     public OkEdgeState basicAuth(String username, String password) {
         this.header(
             "Authorization",
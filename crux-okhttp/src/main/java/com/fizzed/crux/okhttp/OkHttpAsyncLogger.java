@@ -0,0 +1,224 @@
+/*
+ * Copyright 2024 Fizzed, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fizzed.crux.okhttp;
+
+import com.fizzed.crux.util.MessageLevel;
+import com.fizzed.crux.util.Slf4jUtil;
+import com.fizzed.crux.util.TimeDuration;
+import java.io.Closeable;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded queue of log messages that are formatted and logged by a single
+ * background (daemon) thread, so a thread executing a call never pays for
+ * formatting its request and response.  When the queue is full a message is
+ * dropped (and counted) rather than ever blocking the call.  Messages are
+ * logged in the order they were queued.  The background thread runs until the
+ * logger is closed, other than the default logger which lives as long as the
+ * jvm.
+ */
+public class OkHttpAsyncLogger implements Closeable {
+    static private final Logger log = LoggerFactory.getLogger(OkHttpAsyncLogger.class);
+
+    static public final int DEFAULT_QUEUE_SIZE = 1024;
+    // queued by close to stop the background thread
+    static private final Runnable CLOSE = () -> {};
+
+    static private class DefaultHolder {
+        static private final OkHttpAsyncLogger INSTANCE = new OkHttpAsyncLogger(DEFAULT_QUEUE_SIZE, false);
+    }
+
+    /**
+     * Gets the async logger shared by the entire jvm (e.g. used by clients
+     * configured with async logging).
+     *
+     * @return The shared async logger
+     */
+    static public OkHttpAsyncLogger getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    private final BlockingQueue<Runnable> queue;
+    private final AtomicLong dropped;
+    private final Thread thread;
+    private final boolean closeable;
+    private volatile boolean closed;
+
+    public OkHttpAsyncLogger(int queueSize) {
+        this(queueSize, true);
+    }
+
+    private OkHttpAsyncLogger(int queueSize, boolean closeable) {
+        if (queueSize <= 0) {
+            throw new IllegalArgumentException("queueSize must be > 0");
+        }
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.dropped = new AtomicLong();
+        this.closeable = closeable;
+        this.thread = new Thread(this::run, "okhttp-async-logger");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Gets the number of messages dropped since the queue was full.
+     *
+     * @return The number of dropped messages
+     */
+    public long getDropped() {
+        return this.dropped.get();
+    }
+
+    /**
+     * Gets the number of messages waiting to be logged.
+     *
+     * @return The number of queued messages
+     */
+    public int getQueued() {
+        return this.queue.size();
+    }
+
+    /**
+     * Queues a message to be formatted and then logged on the background
+     * thread.
+     *
+     * @param messageLevel The level to log at
+     * @param logger The logger to log to
+     * @param message Formats the message (on the background thread)
+     * @return True if queued or false if dropped since the queue was full
+     *      (or the logger is closed)
+     */
+    public boolean log(MessageLevel messageLevel, Logger logger, Callable<? extends CharSequence> message) {
+        Objects.requireNonNull(logger, "logger was null");
+        Objects.requireNonNull(message, "message was null");
+
+        final Runnable task = () -> {
+            try {
+                Slf4jUtil.log(messageLevel, logger, "{}", message.call());
+            } catch (Exception e) {
+                log.warn("Unable to format okhttp log message", e);
+            }
+        };
+
+        final boolean queued = !this.closed && this.queue.offer(task)
+            && !this.unqueuedAfterClose(task);
+
+        if (!queued) {
+            this.dropped.incrementAndGet();
+        }
+
+        return queued;
+    }
+
+    /**
+     * Waits for every message queued so far to be logged (and if closed, for
+     * the background thread to exit).
+     *
+     * @param timeout The max time to wait
+     * @return True if logged or false if the timeout elapsed
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public boolean flush(TimeDuration timeout) throws InterruptedException {
+        Objects.requireNonNull(timeout, "timeout was null");
+
+        final long deadline = System.nanoTime() + timeout.asNanos();
+
+        if (!this.closed) {
+            final CountDownLatch latch = new CountDownLatch(1);
+            final Runnable task = latch::countDown;
+
+            if (!this.queue.offer(task, timeout.asNanos(), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+
+            if (!this.unqueuedAfterClose(task)) {
+                return latch.await(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            }
+        }
+
+        // once closed, everything queued is logged by the time the thread exits
+        this.thread.join(Math.max(1L, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+        return !this.thread.isAlive();
+    }
+
+    /**
+     * Closes the logger, so the background thread logs whatever messages are
+     * still queued and then exits.  Messages logged after its closed are
+     * dropped.  Closing the default logger does nothing, since it lives as
+     * long as the jvm.
+     */
+    @Override
+    public void close() {
+        if (!this.closeable || this.closed) {
+            return;
+        }
+        this.closed = true;
+        // wakes up the thread (rather than interrupting whatever it's logging)
+        try {
+            this.queue.put(CLOSE);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            this.thread.interrupt();
+        }
+    }
+
+    /**
+     * Whether a task queued just as the logger was closed was taken back out
+     * (since the thread may have already exited).  Any task not taken back out
+     * was taken by the thread, which always runs it.
+     */
+    private boolean unqueuedAfterClose(Runnable task) {
+        return this.closed && this.queue.remove(task);
+    }
+
+    private void run() {
+        while (true) {
+            try {
+                final Runnable message = this.queue.take();
+                if (message == CLOSE) {
+                    break;
+                }
+                message.run();
+            } catch (InterruptedException e) {
+                break;
+            } catch (Throwable t) {
+                log.warn("Unexpected failure in okhttp async logger", t);
+            }
+        }
+
+        // never log while interrupted (e.g. appenders doing interruptible io)
+        Thread.interrupted();
+
+        // log whatever was queued before it was closed
+        Runnable message;
+        while ((message = this.queue.poll()) != null) {
+            try {
+                message.run();
+            } catch (Throwable t) {
+                log.warn("Unexpected failure in okhttp async logger", t);
+            }
+        }
+    }
+
+}
@@ -19,6 +19,19 @@ public abstract class OkHttpAuthorizationInterceptor implements Interceptor {
 
     abstract public String buildAuthorizationHeader() throws IOException;
     
+    /**
+     * Builds the authorization header to retry a request with (once) after it
+     * was rejected with a 401.  By default there are no other credentials to
+     * try, so the 401 is simply returned.
+     * 
+     * @param rejectedHeader The authorization header that was rejected
+     * @return The header to retry with or null to not retry
+     * @throws IOException
+     */
+    public String buildRetryAuthorizationHeader(String rejectedHeader) throws IOException {
+        return null;
+    }
+    
     @Override
     public Response intercept(Chain chain) throws IOException {
         if (this.isAlwaysOverride() ||
@@ -31,10 +44,34 @@ public abstract class OkHttpAuthorizationInterceptor implements Interceptor {
                 .header("Authorization", authorizationHeader)
                 .build();
             
+            final Response response = chain.proceed(request);
+            
+            if (response.code() != 401) {
+                return response;
+            }
+            
+            final String retryHeader;
+            try {
+                retryHeader = this.buildRetryAuthorizationHeader(authorizationHeader);
+            } catch (IOException | RuntimeException e) {
+                response.close();
+                throw e;
+            }
+            
+            if (retryHeader == null || retryHeader.equals(authorizationHeader)) {
+                return response;
+            }
+            
+            response.close();
+            
+            request = request.newBuilder()
+                .header("Authorization", retryHeader)
+                .build();
+            
             return chain.proceed(request);
         } else {
             return chain.proceed(chain.request());
         }
     }
 
-}
\ No newline at end of file
+}
\ No newline at end of file
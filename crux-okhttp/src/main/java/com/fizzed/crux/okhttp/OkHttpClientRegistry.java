@@ -0,0 +1,249 @@
+/*
+ * Copyright 2024 Fizzed, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fizzed.crux.okhttp;
+
+import com.fizzed.crux.util.BoundedConcurrentCache;
+import com.fizzed.crux.util.BoundedConcurrentCache.WhenFull;
+import com.fizzed.crux.util.TimeDuration;
+import java.util.Arrays;
+import java.util.Objects;
+import okhttp3.OkHttpClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registry of OkHttp clients that all share the connection pool and dispatcher
+ * of a single root client.  Each OkHttpClient built from scratch has its own
+ * pool and dispatcher, so connections are never reused between them and each
+ * leaks idle threads till they are evicted.  A client is instead derived from
+ * the root (via newBuilder) for each distinct effective configuration (e.g.
+ * timeouts, insecure, redirects and logging) and then cached.  So is the retry
+ * policy of each configuration that enables retries or hedging, since it
+ * tracks the latencies of the hosts it calls.
+ *
+ * The registry has an explicit lifecycle: once shutdown its pool is evicted,
+ * its dispatcher is stopped and it will no longer return clients.
+ */
+public class OkHttpClientRegistry {
+    static private final Logger log = LoggerFactory.getLogger(OkHttpClientRegistry.class);
+
+    // clients are cheap to derive again, so the cache is simply cleared once full
+    static private final int MAX_CLIENTS = 128;
+
+    static private class DefaultHolder {
+        static private final OkHttpClientRegistry INSTANCE = new OkHttpClientRegistry();
+    }
+
+    /**
+     * Gets the registry shared by the entire jvm (e.g. used by OkEdge when a
+     * registry is not set on its state).
+     *
+     * @return The shared registry
+     */
+    static public OkHttpClientRegistry getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    static private final class Key {
+
+        private final Object[] values;
+        private final int hashCode;
+
+        Key(OkHttpOptions<?> options) {
+            // every option that configureBuilder applies to a client (or
+            // buildRetryPolicy to its retry policy)
+            this.values = new Object[] {
+                options.getInsecure(),
+                options.getConnectTimeout(),
+                options.getWriteTimeout(),
+                options.getReadTimeout(),
+                options.getFollowRedirects(),
+                options.getLoggingLevel(),
+                options.getRequestLoggingLevel(),
+                options.getResponseLoggingLevel(),
+                options.getMaxBodySize(),
+                options.getMaxRequestBodySize(),
+                options.getMaxResponseBodySize(),
+                options.getVerboseOnFailure(),
+                options.getLoggerName(),
+                options.getLoggingRedactHeaders(),
+                options.getLoggingAsync(),
+                options.getMetrics(),
+                options.getRetryMax(),
+                options.getRetryBackoff(),
+                options.getRetryMaxBackoff(),
+                options.getHedging(),
+                options.getHedgePercentile(),
+                options.getMessageLevel() };
+            this.hashCode = Arrays.hashCode(this.values);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && Arrays.equals(this.values, ((Key)other).values);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hashCode;
+        }
+
+    }
+
+    private final OkHttpClient root;
+    private final BoundedConcurrentCache<Key,OkHttpClient> clients;
+    private final BoundedConcurrentCache<Key,OkHttpRetryPolicy> retryPolicies;
+    private volatile boolean shutdown;
+
+    public OkHttpClientRegistry() {
+        this(new OkHttpClient());
+    }
+
+    /**
+     * Creates a new registry.
+     *
+     * @param root The client whose connection pool and dispatcher (as well as
+     *      any interceptors) are shared by every client of the registry
+     */
+    public OkHttpClientRegistry(OkHttpClient root) {
+        Objects.requireNonNull(root, "root was null");
+        this.root = root;
+        this.clients = new BoundedConcurrentCache<>(MAX_CLIENTS, WhenFull.CLEAR);
+        this.retryPolicies = new BoundedConcurrentCache<>(MAX_CLIENTS, WhenFull.CLEAR);
+    }
+
+    public OkHttpClient getRoot() {
+        return this.root;
+    }
+
+    public int size() {
+        return this.clients.size();
+    }
+
+    public boolean isShutdown() {
+        return this.shutdown;
+    }
+
+    /**
+     * Gets the client for the effective configuration of the options, which is
+     * derived from the root client the first time it is needed.  The base uri
+     * of the options is not part of a client.
+     *
+     * @param options The options to configure the client with
+     * @return The client
+     * @throws IllegalStateException If the registry was shutdown
+     */
+    public OkHttpClient get(OkHttpOptions<?> options) {
+        Objects.requireNonNull(options, "options was null");
+
+        if (this.shutdown) {
+            throw new IllegalStateException("Client registry was shutdown");
+        }
+
+        final Key key = new Key(options);
+
+        OkHttpClient client = this.clients.get(key);
+
+        if (client == null) {
+            final OkHttpClient.Builder builder = this.root.newBuilder();
+            OkHttpUtils.configureBuilder(builder, options, this.root.dns(), this.root.socketFactory());
+            client = builder.build();
+
+            final OkHttpClient existing = this.clients.putIfAbsent(key, client);
+            if (existing != null) {
+                client = existing;
+            }
+        }
+
+        return client;
+    }
+
+    /**
+     * Gets the retry policy for the effective configuration of the options,
+     * which is built the first time it is needed.  Its calls should be made
+     * of the client of the same options (or one derived from it).
+     *
+     * @param options The options to configure the retry policy with
+     * @return The retry policy or null if neither retries nor hedging are
+     *      enabled by the options
+     */
+    public OkHttpRetryPolicy getRetryPolicy(OkHttpOptions<?> options) {
+        Objects.requireNonNull(options, "options was null");
+
+        if (options.getRetryMax() == null && (options.getHedging() == null || !options.getHedging())) {
+            return null;
+        }
+
+        final Key key = new Key(options);
+
+        OkHttpRetryPolicy retryPolicy = this.retryPolicies.get(key);
+
+        if (retryPolicy == null) {
+            retryPolicy = OkHttpUtils.buildRetryPolicy(options);
+
+            final OkHttpRetryPolicy existing = this.retryPolicies.putIfAbsent(key, retryPolicy);
+            if (existing != null) {
+                retryPolicy = existing;
+            }
+        }
+
+        return retryPolicy;
+    }
+
+    /**
+     * Shuts down the registry by evicting all connections from the shared
+     * pool and gracefully shutting down the shared dispatcher.
+     *
+     * @param timeout The max time to wait for in-flight calls
+     * @throws InterruptedException If interrupted while waiting
+     * @see OkHttpUtils#shutdownGracefully(okhttp3.OkHttpClient, com.fizzed.crux.util.TimeDuration)
+     */
+    public void shutdown(TimeDuration timeout) throws InterruptedException {
+        this.shutdown = true;
+        this.clients.clear();
+        this.retryPolicies.clear();
+        OkHttpUtils.shutdownGracefully(this.root, timeout);
+    }
+
+    public void shutdownNow() {
+        this.shutdown = true;
+        this.clients.clear();
+        this.retryPolicies.clear();
+        OkHttpUtils.shutdownNow(this.root);
+    }
+
+    /**
+     * Registers a jvm shutdown hook that will gracefully shutdown this
+     * registry.
+     *
+     * @param timeout The max time to wait for in-flight calls
+     * @return This registry
+     */
+    public OkHttpClientRegistry registerShutdownHook(TimeDuration timeout) {
+        Objects.requireNonNull(timeout, "timeout was null");
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                this.shutdown(timeout);
+            } catch (InterruptedException e) {
+                log.warn("Interrupted while shutting down okhttp clients");
+            }
+        }, "okhttp-registry-shutdown"));
+
+        return this;
+    }
+
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2024 Fizzed, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fizzed.crux.okhttp;
+
+import com.fizzed.crux.util.TimeDuration;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+
+/**
+ * Application interceptor that coalesces identical concurrent GET requests
+ * (same url and headers) into a single upstream call.  While a call is in
+ * flight, any duplicate request waits for it and every caller is handed its
+ * own copy of the buffered response body.  The body is only buffered if some
+ * request is actually waiting, otherwise the response is returned untouched
+ * (so a streamed body isn't held back).  A response with a body larger than
+ * the max body size can't be shared, nor can a call that fails (e.g. it was
+ * canceled, interrupted or timed out), so the waiting requests then simply
+ * proceed on their own.
+ */
+public class OkHttpCoalescingInterceptor implements Interceptor {
+
+    static public final long DEFAULT_MAX_BODY_SIZE = 1024L * 1024L;
+    // same as the default read timeout of okhttp
+    static public final TimeDuration DEFAULT_MAX_WAIT = TimeDuration.seconds(10L);
+
+    static private final class Shared {
+
+        // response with its body already read
+        private final Response response;
+        private final MediaType contentType;
+        private final byte[] body;
+
+        public Shared(Response response, MediaType contentType, byte[] body) {
+            this.response = response;
+            this.contentType = contentType;
+            this.body = body;
+        }
+
+        public Response newResponse(Request request) {
+            final Response.Builder builder = this.response.newBuilder()
+                .request(request);
+
+            // each caller reads its own source over the same bytes
+            if (this.body != null) {
+                builder.body(ResponseBody.create(this.contentType, this.body));
+            }
+
+            return builder.build();
+        }
+
+    }
+
+    static private final class InFlight {
+
+        // completed with null if not shareable
+        private final CompletableFuture<Shared> future;
+        private final AtomicInteger waiters;
+
+        public InFlight() {
+            this.future = new CompletableFuture<>();
+            this.waiters = new AtomicInteger();
+        }
+
+    }
+
+    private final long maxBodySize;
+    private final TimeDuration maxWait;
+    private final ConcurrentHashMap<String,InFlight> inflight;
+    private final AtomicLong coalesced;
+
+    public OkHttpCoalescingInterceptor() {
+        this(DEFAULT_MAX_BODY_SIZE);
+    }
+
+    public OkHttpCoalescingInterceptor(long maxBodySize) {
+        this(maxBodySize, DEFAULT_MAX_WAIT);
+    }
+
+    /**
+     * Creates a new interceptor.
+     *
+     * @param maxBodySize The max size of a response body to buffer and share
+     * @param maxWait The max time a duplicate request waits on the in-flight
+     *      call before it fails with a timeout (should be the read timeout of
+     *      the client since okhttp 3.8 doesn't expose it to interceptors)
+     */
+    public OkHttpCoalescingInterceptor(long maxBodySize, TimeDuration maxWait) {
+        if (maxBodySize < 0) {
+            throw new IllegalArgumentException("maxBodySize must be >= 0");
+        }
+        if (maxWait == null || maxWait.asMillis() <= 0) {
+            throw new IllegalArgumentException("maxWait must be > 0");
+        }
+        this.maxBodySize = maxBodySize;
+        this.maxWait = maxWait;
+        this.inflight = new ConcurrentHashMap<>();
+        this.coalesced = new AtomicLong();
+    }
+
+    public long getMaxBodySize() {
+        return maxBodySize;
+    }
+
+    public TimeDuration getMaxWait() {
+        return maxWait;
+    }
+
+    /**
+     * Gets the number of requests that were attached to another in-flight
+     * call (rather than making their own).
+     *
+     * @return The number of coalesced requests
+     */
+    public long getCoalesced() {
+        return this.coalesced.get();
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        final Request request = chain.request();
+
+        if (!request.method().equals("GET")) {
+            return chain.proceed(request);
+        }
+
+        final String key = request.url() + "\n" + request.headers();
+        final InFlight call = new InFlight();
+        final InFlight existing = this.inflight.putIfAbsent(key, call);
+
+        if (existing != null) {
+            existing.waiters.incrementAndGet();
+            final Shared shared = this.await(existing.future);
+            if (shared == null) {
+                return chain.proceed(request);
+            }
+            this.coalesced.incrementAndGet();
+            return shared.newResponse(request);
+        }
+
+        final Response response;
+        try {
+            response = chain.proceed(request);
+        } catch (IOException | RuntimeException | Error e) {
+            // the failure is the leader's own (canceled, interrupted, its
+            // timeout, etc.) and okhttp 3.8 doesn't tell them apart from an
+            // upstream failure, so the waiters make their own calls
+            this.inflight.remove(key, call);
+            call.future.complete(null);
+            throw e;
+        }
+
+        // no longer attachable, so the waiters are now counted for good (any
+        // waiter attaching late is fine, it will see null and proceed itself)
+        this.inflight.remove(key, call);
+
+        if (call.waiters.get() <= 0) {
+            call.future.complete(null);
+            return response;
+        }
+
+        final Shared shared;
+        try {
+            shared = this.buffer(response);
+        } catch (IOException | RuntimeException | Error e) {
+            call.future.complete(null);
+            throw e;
+        }
+
+        call.future.complete(shared);
+
+        return shared != null ? shared.newResponse(request) : response;
+    }
+
+    /**
+     * Buffers the body of a response so it can be shared.
+     *
+     * @return The shared response or null if its too large to share (and the
+     *      response is left as-is)
+     */
+    private Shared buffer(Response response) throws IOException {
+        final ResponseBody body = response.body();
+
+        if (body == null) {
+            return new Shared(response, null, null);
+        }
+
+        if (body.contentLength() > this.maxBodySize) {
+            return null;
+        }
+
+        final BufferedSource source = body.source();
+
+        // buffered by the source (not consumed), so its still readable as-is
+        if (source.request(this.maxBodySize + 1)) {
+            return null;
+        }
+
+        final byte[] bytes;
+        try {
+            bytes = source.readByteArray();
+        } finally {
+            body.close();
+        }
+
+        return new Shared(response, body.contentType(), bytes);
+    }
+
+    private Shared await(CompletableFuture<Shared> future) throws IOException {
+        try {
+            return future.get(this.maxWait.asMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting on coalesced call");
+        } catch (TimeoutException e) {
+            throw new SocketTimeoutException("Timeout while waiting on coalesced call");
+        } catch (ExecutionException e) {
+            // never completed exceptionally, but just in case
+            throw new IOException("Coalesced call failed", e.getCause());
+        }
+    }
+
+}
@@ -25,15 +25,17 @@ import java.util.Set;
 import java.util.TreeSet;
 import okhttp3.Connection;
 import okhttp3.Headers;
+import okhttp3.HttpUrl;
 import okhttp3.MediaType;
+import okhttp3.Protocol;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
 import okhttp3.internal.http.HttpHeaders;
 import okio.Buffer;
-import okio.BufferedSource;
-import okio.GzipSource;
+import okio.BufferedSink;
+import okio.Okio;
 import org.slf4j.Logger;
 
 /**
@@ -55,6 +57,74 @@ public class OkHttpLogger {
         this.headersToRedact.add(name);
     }
     
+    /**
+     * Immutable snapshot of everything logged about a request, so it can be
+     * formatted later (e.g. on another thread).
+     */
+    static final class RequestSnapshot {
+        
+        private final String method;
+        private final HttpUrl url;
+        private final Protocol protocol;
+        private final Headers headers;
+        private final boolean hasBody;
+        private final MediaType contentType;
+        private final long contentLength;
+        private final boolean logHeaders;
+        private final boolean logBody;
+        private final BodyCapture body;
+
+        RequestSnapshot(String method, HttpUrl url, Protocol protocol, Headers headers, boolean hasBody,
+                MediaType contentType, long contentLength, boolean logHeaders, boolean logBody, BodyCapture body) {
+            this.method = method;
+            this.url = url;
+            this.protocol = protocol;
+            this.headers = headers;
+            this.hasBody = hasBody;
+            this.contentType = contentType;
+            this.contentLength = contentLength;
+            this.logHeaders = logHeaders;
+            this.logBody = logBody;
+            this.body = body;
+        }
+        
+    }
+    
+    /**
+     * Immutable snapshot of everything logged about a response, so it can be
+     * formatted later (e.g. on another thread).
+     */
+    static final class ResponseSnapshot {
+        
+        private final int code;
+        private final String message;
+        private final HttpUrl url;
+        private final long tookMs;
+        private final Headers headers;
+        private final boolean hasBody;
+        private final MediaType contentType;
+        private final long contentLength;
+        private final boolean logHeaders;
+        private final boolean logBody;
+        private final BodyCapture body;
+
+        ResponseSnapshot(int code, String message, HttpUrl url, long tookMs, Headers headers, boolean hasBody,
+                MediaType contentType, long contentLength, boolean logHeaders, boolean logBody, BodyCapture body) {
+            this.code = code;
+            this.message = message;
+            this.url = url;
+            this.tookMs = tookMs;
+            this.headers = headers;
+            this.hasBody = hasBody;
+            this.contentType = contentType;
+            this.contentLength = contentLength;
+            this.logHeaders = logHeaders;
+            this.logBody = logBody;
+            this.body = body;
+        }
+        
+    }
+    
     public void logRequest(
             MessageLevel messageLevel,
             Logger logger,
@@ -64,35 +134,72 @@ public class OkHttpLogger {
             boolean logBody,
             long maxBodySize) throws IOException {
         
+        final RequestSnapshot snapshot = captureRequest(request, connection, logHeaders, logBody, maxBodySize);
+        
+        Slf4jUtil.log(messageLevel, logger, "{}", this.format(snapshot));
+    }
+    
+    /**
+     * Captures what will be logged about a request.  Only a request body that
+     * will be logged is captured (its first max bytes).
+     */
+    static RequestSnapshot captureRequest(
+            Request request,
+            Connection connection,
+            boolean logHeaders,
+            boolean logBody,
+            long maxBodySize) throws IOException {
+        
         final RequestBody requestBody = request.body();
         final boolean hasRequestBody = requestBody != null;
+        
+        BodyCapture body = null;
+        if (logHeaders && logBody && hasRequestBody && !bodyHasUnknownEncoding(request.headers())) {
+            // a copy since a capture is reset if the body is written again
+            body = captureRequestBody(requestBody, maxBodySize).copy();
+        }
+        
+        return new RequestSnapshot(
+            request.method(),
+            request.url(),
+            (connection != null ? connection.protocol() : null),
+            request.headers(),
+            hasRequestBody,
+            (hasRequestBody ? requestBody.contentType() : null),
+            (hasRequestBody ? requestBody.contentLength() : -1L),
+            logHeaders,
+            logBody,
+            body);
+    }
+    
+    String format(RequestSnapshot request) {
         final StringBuilder sb = new StringBuilder();
         
-        sb.append("--> ").append(request.method()).append(' ').append(request.url());
-        sb.append((connection != null ? " " + connection.protocol() : ""));
+        sb.append("--> ").append(request.method).append(' ').append(request.url);
+        sb.append((request.protocol != null ? " " + request.protocol : ""));
         
-        if (!logHeaders && hasRequestBody) {
-            sb.append(" (").append(requestBody.contentLength()).append("-byte body)");
+        if (!request.logHeaders && request.hasBody) {
+            sb.append(" (").append(request.contentLength).append("-byte body)");
         }
         
         //Slf4jUtil.log(messageLevel, logger, requestStartMessage);
         sb.append("\n");
 
-        if (logHeaders) {
-            if (hasRequestBody) {
+        if (request.logHeaders) {
+            if (request.hasBody) {
                 // Request body headers are only present when installed as a network interceptor. Force
                 // them to be included (when available) so there values are known.
-                if (requestBody.contentType() != null) {
+                if (request.contentType != null) {
                     //Slf4jUtil.log(messageLevel, logger, "Content-Type: {}", requestBody.contentType());
-                    sb.append("Content-Type: ").append(requestBody.contentType()).append("\n");
+                    sb.append("Content-Type: ").append(request.contentType).append("\n");
                 }
-                if (requestBody.contentLength() != -1) {
+                if (request.contentLength != -1) {
                     //Slf4jUtil.log(messageLevel, logger, "Content-Length: {}", requestBody.contentLength());
-                    sb.append("Content-Length: ").append(requestBody.contentLength()).append("\n");
+                    sb.append("Content-Length: ").append(request.contentLength).append("\n");
                 }
             }
 
-            final Headers headers = request.headers();
+            final Headers headers = request.headers;
             for (int i = 0, count = headers.size(); i < count; i++) {
                 final String name = headers.name(i);
                 // Skip headers from the request body as they are explicitly logged above.
@@ -102,20 +209,19 @@ public class OkHttpLogger {
                 }
             }
 
-            if (!logBody || !hasRequestBody) {
+            if (!request.logBody || !request.hasBody) {
                 //Slf4jUtil.log(messageLevel, logger, "--> END {}", request.method());
-                sb.append("--> END ").append(request.method()).append("\n");
-            } else if (bodyHasUnknownEncoding(request.headers())) {
+                sb.append("--> END ").append(request.method).append("\n");
+            } else if (request.body == null) {
                 //Slf4jUtil.log(messageLevel, logger, "--> END {} (encoded body omitted)", request.method());
-                sb.append("--> END ").append(request.method()).append(" encoded body omitted)").append("\n");
+                sb.append("--> END ").append(request.method).append(" encoded body omitted)").append("\n");
 //            } else if (requestBody.isDuplex()) {
 //                Slf4jUtil.log(messageLevel, logger, "--> END " + request.method() + " (duplex request body omitted)");
             } else {
-                final Buffer buffer = new Buffer();
-                requestBody.writeTo(buffer);
+                final BodyCapture capture = request.body;
 
                 Charset charset = StandardCharsets.UTF_8;
-                final MediaType contentType = requestBody.contentType();
+                final MediaType contentType = request.contentType;
                 if (contentType != null) {
                     charset = contentType.charset(StandardCharsets.UTF_8);
                 }
@@ -123,31 +229,26 @@ public class OkHttpLogger {
                 //Slf4jUtil.log(messageLevel, logger, "");
                 sb.append("\n");
                 
-                final long contentLength = requestBody.contentLength();
+                final String bodySize = bodySize(capture, request.contentLength);
+                final Buffer buffer = capture.getBuffer();
                 
-                if (isPlaintext(contentType, buffer) && contentLength > 0) {
-                    long stringLength = contentLength;
-                    boolean truncated = false;
-                    if (stringLength > maxBodySize) {
-                        stringLength = maxBodySize;
-                        truncated = true;
-                    }
-                    //Slf4jUtil.log(messageLevel, logger, buffer.snapshot((int)stringLength).string(charset));
-                    sb.append(buffer.snapshot((int)stringLength).string(charset)).append("\n");
-                    if (truncated) {
+                if (isPlaintext(contentType, buffer) && capture.getSize() > 0) {
+                    //Slf4jUtil.log(messageLevel, logger, buffer.snapshot().string(charset));
+                    sb.append(buffer.snapshot().string(charset)).append("\n");
+                    if (capture.isTruncated()) {
                         //Slf4jUtil.log(messageLevel, logger, "--- TRUNCATED BODY ({} of {} bytes)", maxBodySize, contentLength);
-                        sb.append("--- TRUNCATED BODY (").append(maxBodySize).append(" of ").append(contentLength).append(" bytes)").append("\n");
+                        sb.append("--- TRUNCATED BODY (").append(buffer.size()).append(" of ").append(bodySize).append(" body)").append("\n");
                     }
                     //Slf4jUtil.log(messageLevel, logger, "--> END {} ({}-byte body)", request.method(), contentLength);
-                    sb.append("--> END ").append(request.method()).append(" (").append(contentLength).append("-byte body)").append("\n");
+                    sb.append("--> END ").append(request.method).append(" (").append(bodySize).append(" body)").append("\n");
                 } else {
                     //Slf4jUtil.log(messageLevel, logger, "--> END {} (binary {}-byte body omitted)", request.method(), contentLength);
-                    sb.append("--> END ").append(request.method()).append(" (binary ").append(contentLength).append("-byte body omitted)").append("\n");
+                    sb.append("--> END ").append(request.method).append(" (binary ").append(bodySize).append(" body omitted)").append("\n");
                 }
             }
         }
         
-        Slf4jUtil.log(messageLevel, logger, "{}", sb);
+        return sb.toString();
     }
     
     public void logResponse(
@@ -159,94 +260,160 @@ public class OkHttpLogger {
             boolean logBody,
             long maxBodySize) throws IOException {
         
+        final ResponseSnapshot snapshot = captureResponse(response, tookMs, logHeaders, logBody, maxBodySize);
+        
+        Slf4jUtil.log(messageLevel, logger, "{}", this.format(snapshot));
+    }
+    
+    /**
+     * Captures what will be logged about a response.  Only a response body
+     * that will be logged is captured (its first max bytes, as received and
+     * without being consumed).
+     */
+    static ResponseSnapshot captureResponse(
+            Response response,
+            long tookMs,
+            boolean logHeaders,
+            boolean logBody,
+            long maxBodySize) throws IOException {
+        
         final ResponseBody responseBody = response.body();
-        final long contentLength = responseBody.contentLength();
+        final boolean hasBody = HttpHeaders.hasBody(response);
+        
+        BodyCapture body = null;
+        if (logHeaders && logBody && hasBody && !bodyHasUnknownEncoding(response.headers())) {
+            // only buffers (never consumes) as much of the body as will be logged
+            body = BodyCapture.peek(responseBody.source(), maxBodySize);
+        }
+        
+        return new ResponseSnapshot(
+            response.code(),
+            response.message(),
+            response.request().url(),
+            tookMs,
+            response.headers(),
+            hasBody,
+            responseBody.contentType(),
+            responseBody.contentLength(),
+            logHeaders,
+            logBody,
+            body);
+    }
+    
+    String format(ResponseSnapshot response) throws IOException {
+        final long contentLength = response.contentLength;
         final String bodySize = contentLength != -1 ? contentLength + "-byte" : "unknown-length";
         final StringBuilder sb = new StringBuilder();
         
-        sb.append("<-- ").append(response.code())
-            .append(response.message().isEmpty() ? "" : ' ' + response.message()).append(' ')
-            .append(response.request().url())
-            .append(" (").append(tookMs).append("ms")
-            .append(!logHeaders ? ", " + bodySize + " body" : "")
+        sb.append("<-- ").append(response.code)
+            .append(response.message.isEmpty() ? "" : ' ' + response.message).append(' ')
+            .append(response.url)
+            .append(" (").append(response.tookMs).append("ms")
+            .append(!response.logHeaders ? ", " + bodySize + " body" : "")
             .append(')').append("\n");
 
-        if (logHeaders) {
-            final Headers headers = response.headers();
+        if (response.logHeaders) {
+            final Headers headers = response.headers;
             for (int i = 0, count = headers.size(); i < count; i++) {
                 //logHeader(messageLevel, logger, headers, i);
                 logHeader(sb, headers, i);
             }
 
-            if (!logBody || !HttpHeaders.hasBody(response)) {
+            if (!response.logBody || !response.hasBody) {
                 //Slf4jUtil.log(messageLevel, logger, "<-- END HTTP");
                 sb.append("<-- END HTTP").append("\n");
-            } else if (bodyHasUnknownEncoding(response.headers())) {
+            } else if (response.body == null) {
                 //Slf4jUtil.log(messageLevel, logger, "<-- END HTTP (encoded body omitted)");
                 sb.append("<-- END HTTP (encoded body omitted)").append("\n");
             } else {
-                BufferedSource source = responseBody.source();
-                source.request(Long.MAX_VALUE);     // Buffer the entire body.
-                Buffer buffer = source.buffer();
+                BodyCapture capture = response.body;
+                long totalSize = contentLength;
 
                 Long gzippedLength = null;
                 
                 if ("gzip".equalsIgnoreCase(headers.get("Content-Encoding"))) {
-                    gzippedLength = buffer.size();
+                    gzippedLength = capture.isComplete() ? capture.getSize() : contentLength;
                     // to avoid an EOFException on write, we need check any content exists
-                    if (gzippedLength > 0) {
-                        try (GzipSource gzippedResponseBody = new GzipSource(buffer.clone())) {
-                            buffer = new Buffer();
-                            buffer.writeAll(gzippedResponseBody);
-                        }
+                    if (capture.getSize() > 0) {
+                        capture = capture.gunzip(capture.getMaxSize());
                     }
+                    totalSize = -1L;
                 }
 
                 Charset charset = StandardCharsets.UTF_8;
-                MediaType contentType = responseBody.contentType();
+                MediaType contentType = response.contentType;
                 if (contentType != null) {
                     charset = contentType.charset(StandardCharsets.UTF_8);
                 }
                 
-                long bufferSize = buffer.size();
+                final String bufferSize = bodySize(capture, totalSize);
+                final Buffer buffer = capture.getBuffer();
 
                 if (!isPlaintext(contentType, buffer)) {
                     //Slf4jUtil.log(messageLevel, logger, "");
                     sb.append("\n");
                     //Slf4jUtil.log(messageLevel, logger, "<-- END HTTP (binary {}-byte body omitted)", bufferSize);
-                    sb.append("<-- END HTTP (binary ").append(bufferSize).append("-byte body omitted)").append("\n");
+                    sb.append("<-- END HTTP (binary ").append(bufferSize).append(" body omitted)").append("\n");
                 }
                 else {
                     if (contentLength != 0) {
-                        long stringLength = bufferSize;
-                        boolean truncated = false;
-                        if (stringLength > maxBodySize) {
-                            stringLength = maxBodySize;
-                            truncated = true;
-                        }
-
                         //Slf4jUtil.log(messageLevel, logger, "");
                         sb.append("\n");
-                        //Slf4jUtil.log(messageLevel, logger, buffer.snapshot((int)stringLength).string(charset));
-                        sb.append(buffer.snapshot((int)stringLength).string(charset)).append("\n");
-                        if (truncated) {
+                        //Slf4jUtil.log(messageLevel, logger, buffer.snapshot().string(charset));
+                        sb.append(buffer.snapshot().string(charset)).append("\n");
+                        if (capture.isTruncated()) {
                             //Slf4jUtil.log(messageLevel, logger, "--- TRUNCATED BODY ({} of {} bytes)", maxBodySize, bufferSize);
-                            sb.append("--- TRUNCATED BODY (").append(maxBodySize).append(" of ").append(bufferSize).append(" bytes)").append("\n");
+                            sb.append("--- TRUNCATED BODY (").append(buffer.size()).append(" of ").append(bufferSize).append(" body)").append("\n");
                         }
                     }
 
                     if (gzippedLength != null) {
                         //Slf4jUtil.log(messageLevel, logger, "<-- END HTTP ({}-byte, {}-gzipped-byte body)", buffer.size(), gzippedLength);
-                        sb.append("<-- END HTTP (").append(buffer.size()).append("-byte, ").append(gzippedLength).append("-gzipped-byte body)").append("\n");
+                        sb.append("<-- END HTTP (").append(bufferSize).append(", ").append(gzippedLength != -1 ? gzippedLength + "-gzipped-byte" : "unknown-length gzipped").append(" body)").append("\n");
                     } else {
                         //Slf4jUtil.log(messageLevel, logger, "<-- END HTTP ({}-byte body)", bufferSize);
-                        sb.append("<-- END HTTP (").append(bufferSize).append("-byte body)").append("\n");
+                        sb.append("<-- END HTTP (").append(bufferSize).append(" body)").append("\n");
                     }
                 }
             }
         }
         
-        Slf4jUtil.log(messageLevel, logger, "{}", sb);
+        return sb.toString();
+    }
+    
+    /**
+     * Captures the first max bytes of a request body. A body wrapped by the
+     * interceptor was already captured while it was sent, otherwise it's
+     * written once more, keeping only the max bytes.
+     */
+    static private BodyCapture captureRequestBody(RequestBody requestBody, long maxBodySize) throws IOException {
+        if (requestBody instanceof CapturingRequestBody) {
+            final BodyCapture capture = ((CapturingRequestBody)requestBody).getCapture();
+            if (capture != null) {
+                return capture;
+            }
+            requestBody = ((CapturingRequestBody)requestBody).getDelegate();
+        }
+        
+        final BodyCapture capture = new BodyCapture(maxBodySize);
+        final BufferedSink sink = Okio.buffer(capture.tee(Okio.blackhole()));
+        requestBody.writeTo(sink);
+        sink.flush();
+        capture.setComplete(true);
+        return capture;
+    }
+    
+    /**
+     * Size of an entire body as known from its capture (once complete) or its
+     * content length.
+     */
+    static private String bodySize(BodyCapture capture, long contentLength) {
+        if (capture.isComplete()) {
+            return capture.getSize() + "-byte";
+        } else if (contentLength != -1) {
+            return contentLength + "-byte";
+        }
+        return "unknown-length";
     }
     
     private void logHeader(
@@ -303,7 +470,7 @@ public class OkHttpLogger {
         }
     }
 
-    private static boolean bodyHasUnknownEncoding(Headers headers) {
+    static private boolean bodyHasUnknownEncoding(Headers headers) {
         String contentEncoding = headers.get("Content-Encoding");
         return contentEncoding != null
             && !contentEncoding.equalsIgnoreCase("identity")
@@ -20,6 +20,7 @@ import com.fizzed.crux.util.Slf4jUtil;
 import java.io.IOException;
 import java.util.Objects;
 import java.util.concurrent.TimeUnit;
+import okhttp3.Connection;
 import okhttp3.Interceptor;
 import okhttp3.Request;
 import okhttp3.Response;
@@ -36,6 +37,7 @@ public class OkHttpLoggingInterceptor implements Interceptor {
     private long maxResponseBodySize;
     private final OkHttpLogger loggerHelper;
     private boolean verboseOnFailure;
+    private OkHttpAsyncLogger asyncLogger;
     
     public OkHttpLoggingInterceptor() {
         this.logger = LoggerFactory.getLogger("okhttp");
@@ -94,6 +96,21 @@ public class OkHttpLoggingInterceptor implements Interceptor {
         this.verboseOnFailure = verboseOnFailure;
     }
 
+    public OkHttpAsyncLogger getAsyncLogger() {
+        return asyncLogger;
+    }
+
+    /**
+     * Sets the async logger that formats and logs requests and responses on
+     * its background thread.  Only a compact snapshot of each (e.g. headers
+     * and the first max bytes of bodies) is captured on the calling thread.
+     * 
+     * @param asyncLogger The async logger or null to log on the calling thread
+     */
+    public void setAsyncLogger(OkHttpAsyncLogger asyncLogger) {
+        this.asyncLogger = asyncLogger;
+    }
+
     public long getMaxRequestBodySize() {
         return maxRequestBodySize;
     }
@@ -113,6 +130,11 @@ public class OkHttpLoggingInterceptor implements Interceptor {
     @Override
     public Response intercept(Chain chain) throws IOException {
 
+        // nothing is ever captured or formatted if it'd never be logged
+        if (!Slf4jUtil.isEnabled(this.messageLevel, this.logger)) {
+            return chain.proceed(chain.request());
+        }
+        
         //
         // global vs. context logging
         //
@@ -145,17 +167,27 @@ public class OkHttpLoggingInterceptor implements Interceptor {
             }
         }
         
-        final Request request = chain.request();
+        Request request = chain.request();
         boolean loggedRequest = false;
+        final boolean reqLogBody = reqLogLevel == OkLoggingLevel.BODY && reqBodyAllowed;
+        
+        // a request body is captured (up to its max size) while it's actually
+        // sent (rather than written an extra time just to log it), which means
+        // logging the request is deferred till its body was sent
+        if (request.body() != null && (reqLogBody || this.verboseOnFailure)) {
+            request = request.newBuilder()
+                .method(request.method(), new CapturingRequestBody(request.body(), reqMaxBodySize))
+                .build();
+        }
+        
+        final boolean deferRequest = reqLogBody && request.body() != null;
 
-        if (reqLogLevel != OkLoggingLevel.NONE) {
-            this.loggerHelper.logRequest(
-                this.messageLevel,
-                this.logger,
+        if (reqLogLevel != OkLoggingLevel.NONE && !deferRequest) {
+            this.logRequest(
                 request,
                 chain.connection(),
                 (reqLogLevel == OkLoggingLevel.HEADERS || reqLogLevel == OkLoggingLevel.BODY),
-                (reqLogLevel == OkLoggingLevel.BODY && reqBodyAllowed),
+                reqLogBody,
                 reqMaxBodySize
             );
             loggedRequest = true;
@@ -168,17 +200,23 @@ public class OkHttpLoggingInterceptor implements Interceptor {
         } catch (Exception e) {
             long failureMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs);
             
+            if (deferRequest) {
+                this.logRequest(
+                    request,
+                    chain.connection(),
+                    true, true, reqMaxBodySize);
+                loggedRequest = true;
+            }
+            
             if (resLogLevel != OkLoggingLevel.NONE || this.verboseOnFailure) {
                 // if we haven't logged the request yet, do it now...
                 if (!loggedRequest) {
-                    this.loggerHelper.logRequest(
-                        this.messageLevel,
-                        this.logger,
+                    this.logRequest(
                         request,
                         chain.connection(),
                         true, true, reqMaxBodySize);
                 }
-                Slf4jUtil.log(this.messageLevel, this.logger, "<-- HTTP FAILED ({} ms): " + e, failureMillis);
+                this.logFailure(e, failureMillis);
             }
             
             throw e;
@@ -186,22 +224,26 @@ public class OkHttpLoggingInterceptor implements Interceptor {
         
         
         long responseMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs);
+        
+        if (deferRequest) {
+            this.logRequest(
+                request,
+                chain.connection(),
+                true, true, reqMaxBodySize);
+            loggedRequest = true;
+        }
         boolean resVerboseFailure = this.verboseOnFailure && !response.isSuccessful();
         
         if (resLogLevel != OkLoggingLevel.NONE || resVerboseFailure) {
             // if verbose on failure was requested and the request not logged yet...
             if (resVerboseFailure && !loggedRequest) {
-                this.loggerHelper.logRequest(
-                    this.messageLevel,
-                    this.logger,
+                this.logRequest(
                     request,
                     chain.connection(),
                     true, true, reqMaxBodySize);
             }
             
-            this.loggerHelper.logResponse(
-                this.messageLevel,
-                this.logger,
+            this.logResponse(
                 response,
                 responseMillis,
                 (resLogLevel == OkLoggingLevel.HEADERS || resLogLevel == OkLoggingLevel.BODY || resVerboseFailure),
@@ -213,4 +255,49 @@ public class OkHttpLoggingInterceptor implements Interceptor {
         return response;
     }
 
-}
\ No newline at end of file
+    private void logRequest(
+            Request request,
+            Connection connection,
+            boolean logHeaders,
+            boolean logBody,
+            long maxBodySize) throws IOException {
+        
+        if (this.asyncLogger == null) {
+            this.loggerHelper.logRequest(this.messageLevel, this.logger, request, connection, logHeaders, logBody, maxBodySize);
+            return;
+        }
+        
+        final OkHttpLogger.RequestSnapshot snapshot = OkHttpLogger.captureRequest(
+            request, connection, logHeaders, logBody, maxBodySize);
+        
+        this.asyncLogger.log(this.messageLevel, this.logger, () -> this.loggerHelper.format(snapshot));
+    }
+    
+    private void logResponse(
+            Response response,
+            long tookMs,
+            boolean logHeaders,
+            boolean logBody,
+            long maxBodySize) throws IOException {
+        
+        if (this.asyncLogger == null) {
+            this.loggerHelper.logResponse(this.messageLevel, this.logger, response, tookMs, logHeaders, logBody, maxBodySize);
+            return;
+        }
+        
+        final OkHttpLogger.ResponseSnapshot snapshot = OkHttpLogger.captureResponse(
+            response, tookMs, logHeaders, logBody, maxBodySize);
+        
+        this.asyncLogger.log(this.messageLevel, this.logger, () -> this.loggerHelper.format(snapshot));
+    }
+    
+    private void logFailure(Exception e, long failureMillis) {
+        if (this.asyncLogger == null) {
+            Slf4jUtil.log(this.messageLevel, this.logger, "<-- HTTP FAILED ({} ms): " + e, failureMillis);
+            return;
+        }
+        
+        this.asyncLogger.log(this.messageLevel, this.logger, () -> "<-- HTTP FAILED (" + failureMillis + " ms): " + e);
+    }
+
+}
@@ -0,0 +1,421 @@
+/*
+ * Copyright 2024 Fizzed, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fizzed.crux.okhttp;
+
+import com.fizzed.crux.util.BoundedConcurrentCache;
+import com.fizzed.crux.util.BoundedConcurrentCache.WhenFull;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.net.SocketFactory;
+import okhttp3.Dns;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Client-side metrics of OkHttp clients: latency histograms per host and
+ * method (along with counts per status class), dns, connect and tls phase
+ * timings, and how often pooled connections are reused.  Everything is
+ * recorded lock-free and read via a snapshot.
+ *
+ * OkHttp 3.8 has no public EventListener, so the phases are timed by wrapping
+ * the client's dns and socket factory, while a network interceptor records
+ * each exchange.  A connection is new if a socket was connected on the thread
+ * executing the call since the call (or its last exchange) started, otherwise
+ * it was reused, and tls is the time from that connect till the exchange
+ * starts.
+ */
+public class OkHttpMetrics {
+
+    // endpoints beyond the max are all recorded together
+    static public final int MAX_ENDPOINTS = 256;
+    static public final String OTHER_ENDPOINT = "*";
+
+    static private class DefaultHolder {
+        static private final OkHttpMetrics INSTANCE = new OkHttpMetrics();
+    }
+
+    /**
+     * Gets the metrics shared by the entire jvm (e.g. used by clients
+     * configured with metrics enabled).
+     *
+     * @return The shared metrics
+     */
+    static public OkHttpMetrics getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    static private final class Endpoint {
+
+        private final LatencyHistogram latency = new LatencyHistogram();
+        // 1xx thru 5xx and then failures (no response)
+        private final AtomicLongArray statuses = new AtomicLongArray(6);
+
+    }
+
+    static private final class Phases {
+
+        private boolean connected;
+        private long connectEndNs;
+
+    }
+
+    private final BoundedConcurrentCache<String,Endpoint> endpoints;
+    private final Endpoint otherEndpoint;
+    private final LatencyHistogram dns;
+    private final LatencyHistogram connect;
+    private final LatencyHistogram tls;
+    private final AtomicLong connectionsOpened;
+    private final AtomicLong connectionsReused;
+    private final ThreadLocal<Phases> phases;
+    private final Interceptor callInterceptor;
+    private final Interceptor interceptor;
+
+    public OkHttpMetrics() {
+        this.endpoints = new BoundedConcurrentCache<>(MAX_ENDPOINTS, WhenFull.REJECT);
+        this.otherEndpoint = new Endpoint();
+        this.dns = new LatencyHistogram();
+        this.connect = new LatencyHistogram();
+        this.tls = new LatencyHistogram();
+        this.connectionsOpened = new AtomicLong();
+        this.connectionsReused = new AtomicLong();
+        this.phases = ThreadLocal.withInitial(Phases::new);
+        this.callInterceptor = this::interceptCall;
+        this.interceptor = this::intercept;
+    }
+
+    /**
+     * Configures a client builder to record into these metrics by adding the
+     * call and network interceptors and wrapping its dns and socket factory.
+     *
+     * @param clientBuilder The builder to configure
+     * @param dns The dns the client would otherwise use
+     * @param socketFactory The socket factory the client would otherwise use
+     * @return The builder
+     */
+    public OkHttpClient.Builder configure(OkHttpClient.Builder clientBuilder, Dns dns, SocketFactory socketFactory) {
+        return clientBuilder
+            .dns(this.dns(dns))
+            .socketFactory(this.socketFactory(socketFactory))
+            .addInterceptor(this.callInterceptor)
+            .addNetworkInterceptor(this.interceptor);
+    }
+
+    /**
+     * Gets the interceptor that starts each call without any phases left over
+     * on its thread (e.g. a connect whose tls handshake failed).
+     *
+     * @return The interceptor
+     */
+    public Interceptor callInterceptor() {
+        return this.callInterceptor;
+    }
+
+    /**
+     * Gets the network interceptor that records the latency of each exchange
+     * (till its response headers are received) and whether its connection was
+     * reused.
+     *
+     * @return The network interceptor
+     */
+    public Interceptor interceptor() {
+        return this.interceptor;
+    }
+
+    /**
+     * Wraps a dns so every lookup is timed.
+     *
+     * @param delegate The dns to wrap
+     * @return The timed dns
+     */
+    public Dns dns(Dns delegate) {
+        Objects.requireNonNull(delegate, "delegate was null");
+        return (hostname) -> {
+            final long startNs = System.nanoTime();
+            final List<InetAddress> addresses = delegate.lookup(hostname);
+            this.dns.recordNanos(System.nanoTime() - startNs);
+            return addresses;
+        };
+    }
+
+    /**
+     * Wraps a socket factory so every connect is timed.  Only the default
+     * socket factory can be timed (its sockets are plain sockets), any other
+     * factory is returned as-is.
+     *
+     * @param delegate The socket factory to wrap
+     * @return The timed socket factory
+     */
+    public SocketFactory socketFactory(SocketFactory delegate) {
+        Objects.requireNonNull(delegate, "delegate was null");
+        if (delegate != SocketFactory.getDefault()) {
+            return delegate;
+        }
+        return new TimedSocketFactory();
+    }
+
+    private Response interceptCall(Interceptor.Chain chain) throws IOException {
+        this.phases.get().connected = false;
+        return chain.proceed(chain.request());
+    }
+
+    private Response intercept(Interceptor.Chain chain) throws IOException {
+        final long startNs = System.nanoTime();
+        final Request request = chain.request();
+        final Phases phases = this.phases.get();
+
+        if (phases.connected) {
+            phases.connected = false;
+            this.connectionsOpened.incrementAndGet();
+            if (request.isHttps()) {
+                this.tls.recordNanos(startNs - phases.connectEndNs);
+            }
+        } else {
+            this.connectionsReused.incrementAndGet();
+        }
+
+        final Endpoint endpoint = this.endpoint(request.url().host(), request.method());
+
+        final Response response;
+        try {
+            response = chain.proceed(request);
+        } catch (IOException | RuntimeException e) {
+            endpoint.latency.recordNanos(System.nanoTime() - startNs);
+            endpoint.statuses.incrementAndGet(5);
+            throw e;
+        }
+
+        endpoint.latency.recordNanos(System.nanoTime() - startNs);
+        endpoint.statuses.incrementAndGet(Math.max(0, Math.min(4, response.code() / 100 - 1)));
+
+        return response;
+    }
+
+    private Endpoint endpoint(String host, String method) {
+        final String key = method + " " + host;
+
+        final Endpoint endpoint = this.endpoints.computeIfAbsent(key, (k) -> new Endpoint());
+
+        return endpoint != null ? endpoint : this.otherEndpoint;
+    }
+
+    private void connected(long startNs) {
+        final long endNs = System.nanoTime();
+        this.connect.recordNanos(endNs - startNs);
+        final Phases phases = this.phases.get();
+        phases.connected = true;
+        phases.connectEndNs = endNs;
+    }
+
+    private final class TimedSocketFactory extends SocketFactory {
+
+        @Override
+        public Socket createSocket() throws IOException {
+            return new Socket() {
+                @Override
+                public void connect(SocketAddress endpoint, int timeout) throws IOException {
+                    final long startNs = System.nanoTime();
+                    // a failed connect must not leave an earlier one behind
+                    phases.get().connected = false;
+                    super.connect(endpoint, timeout);
+                    connected(startNs);
+                }
+            };
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException, UnknownHostException {
+            return SocketFactory.getDefault().createSocket(host, port);
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException, UnknownHostException {
+            return SocketFactory.getDefault().createSocket(host, port, localHost, localPort);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return SocketFactory.getDefault().createSocket(host, port);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+            return SocketFactory.getDefault().createSocket(address, port, localAddress, localPort);
+        }
+
+    }
+
+    /**
+     * Takes a snapshot of the metrics.
+     *
+     * @return The snapshot
+     */
+    public Snapshot snapshot() {
+        final Map<String,EndpointSnapshot> endpointSnapshots = new TreeMap<>();
+        this.endpoints.forEach((key, endpoint) -> {
+            endpointSnapshots.put(key, snapshot(endpoint));
+        });
+
+        final EndpointSnapshot other = snapshot(this.otherEndpoint);
+        if (other.getLatency().getCount() > 0) {
+            endpointSnapshots.put(OTHER_ENDPOINT, other);
+        }
+
+        return new Snapshot(
+            Collections.unmodifiableMap(endpointSnapshots),
+            this.dns.snapshot(),
+            this.connect.snapshot(),
+            this.tls.snapshot(),
+            this.connectionsOpened.get(),
+            this.connectionsReused.get());
+    }
+
+    static private EndpointSnapshot snapshot(Endpoint endpoint) {
+        final long[] statuses = new long[6];
+        for (int i = 0; i < statuses.length; i++) {
+            statuses[i] = endpoint.statuses.get(i);
+        }
+        return new EndpointSnapshot(endpoint.latency.snapshot(), statuses);
+    }
+
+    /**
+     * Immutable snapshot of the metrics of a host and method.
+     */
+    static public class EndpointSnapshot {
+
+        private final LatencyHistogram.Snapshot latency;
+        private final long[] statuses;
+
+        EndpointSnapshot(LatencyHistogram.Snapshot latency, long[] statuses) {
+            this.latency = latency;
+            this.statuses = statuses;
+        }
+
+        public LatencyHistogram.Snapshot getLatency() {
+            return this.latency;
+        }
+
+        /**
+         * Gets the number of responses with a status class.
+         *
+         * @param statusClass The class (1 thru 5, e.g. 5 for 5xx)
+         * @return The number of responses
+         */
+        public long getStatusCount(int statusClass) {
+            if (statusClass < 1 || statusClass > 5) {
+                throw new IllegalArgumentException("statusClass must be between 1 and 5");
+            }
+            return this.statuses[statusClass - 1];
+        }
+
+        /**
+         * Gets the number of exchanges that failed without a response.
+         *
+         * @return The number of failures
+         */
+        public long getFailureCount() {
+            return this.statuses[5];
+        }
+
+        @Override
+        public String toString() {
+            return this.latency + ", 2xx=" + this.statuses[1] + ", 4xx=" + this.statuses[3]
+                + ", 5xx=" + this.statuses[4] + ", failed=" + this.statuses[5];
+        }
+
+    }
+
+    /**
+     * Immutable snapshot of the metrics.
+     */
+    static public class Snapshot {
+
+        private final Map<String,EndpointSnapshot> endpoints;
+        private final LatencyHistogram.Snapshot dns;
+        private final LatencyHistogram.Snapshot connect;
+        private final LatencyHistogram.Snapshot tls;
+        private final long connectionsOpened;
+        private final long connectionsReused;
+
+        Snapshot(Map<String,EndpointSnapshot> endpoints, LatencyHistogram.Snapshot dns,
+                LatencyHistogram.Snapshot connect, LatencyHistogram.Snapshot tls,
+                long connectionsOpened, long connectionsReused) {
+            this.endpoints = endpoints;
+            this.dns = dns;
+            this.connect = connect;
+            this.tls = tls;
+            this.connectionsOpened = connectionsOpened;
+            this.connectionsReused = connectionsReused;
+        }
+
+        /**
+         * Gets the snapshot of every endpoint, keyed by method and host (e.g.
+         * "GET example.com").
+         *
+         * @return The endpoints
+         */
+        public Map<String,EndpointSnapshot> getEndpoints() {
+            return this.endpoints;
+        }
+
+        public EndpointSnapshot getEndpoint(String method, String host) {
+            return this.endpoints.get(method + " " + host);
+        }
+
+        public LatencyHistogram.Snapshot getDns() {
+            return this.dns;
+        }
+
+        public LatencyHistogram.Snapshot getConnect() {
+            return this.connect;
+        }
+
+        public LatencyHistogram.Snapshot getTls() {
+            return this.tls;
+        }
+
+        public long getConnectionsOpened() {
+            return this.connectionsOpened;
+        }
+
+        public long getConnectionsReused() {
+            return this.connectionsReused;
+        }
+
+        /**
+         * Gets the ratio of exchanges that reused a pooled connection.
+         *
+         * @return The ratio between 0 and 1 (or 0 if nothing was exchanged)
+         */
+        public double getReuseRatio() {
+            final long total = this.connectionsOpened + this.connectionsReused;
+            return total > 0 ? this.connectionsReused / (double)total : 0d;
+        }
+
+    }
+
+}
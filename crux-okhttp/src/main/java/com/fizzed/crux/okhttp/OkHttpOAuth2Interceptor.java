@@ -1,12 +1,68 @@
 package com.fizzed.crux.okhttp;
 
 import static com.fizzed.crux.util.Maybe.maybe;
+import com.fizzed.crux.util.TimeDuration;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Instant;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+/**
+ * Authorizes requests with an OAuth v2 access token.  The authorization header
+ * is cached along with the credentials it was built from.  Credentials that
+ * expire are refreshed (by consulting the supplier) in the background once
+ * they're within the refresh-ahead of expiring, or synchronously once expired,
+ * but in either case with only one refresh in flight.  Background refreshes
+ * start at most once per min refresh interval (the supplier may keep returning
+ * the same credentials), and after a failed refresh requests fail fast with
+ * that failure until the interval passes.  Credentials without an expiry are
+ * supplied for every request.  A request rejected with a 401 is retried once
+ * if a refresh yields a different token.
+ */
 public class OkHttpOAuth2Interceptor extends OkHttpAuthorizationInterceptor {
+    static private final Logger log = LoggerFactory.getLogger(OkHttpOAuth2Interceptor.class);
 
+    static public final TimeDuration DEFAULT_REFRESH_AHEAD = TimeDuration.seconds(60);
+    static public final TimeDuration DEFAULT_MIN_REFRESH_INTERVAL = TimeDuration.seconds(5);
+    
+    static private class ExecutorHolder {
+        static private final Executor INSTANCE = Executors.newCachedThreadPool((runnable) -> {
+            final Thread thread = new Thread(runnable, "okhttp-oauth2-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    static private final class Token {
+        
+        private final AccessTokenCredentials credentials;
+        private final String header;
+
+        public Token(AccessTokenCredentials credentials, String header) {
+            this.credentials = credentials;
+            this.header = header;
+        }
+        
+    }
+    
     protected final IOSupplier<AccessTokenCredentials> supplier;
+    protected TimeDuration refreshAhead;
+    protected TimeDuration minRefreshInterval;
+    protected Executor executor;
+    private final AtomicReference<Token> token;
+    private final AtomicReference<CompletableFuture<Token>> refreshing;
+    // nanos before which no background refresh starts (nor any refresh once
+    // the last one failed)
+    private final AtomicLong refreshAfter;
+    private volatile Throwable refreshFailure;
     
     public OkHttpOAuth2Interceptor(String accessToken) {
         this(null, accessToken);
@@ -24,12 +80,206 @@ public class OkHttpOAuth2Interceptor extends OkHttpAuthorizationInterceptor {
     public OkHttpOAuth2Interceptor(IOSupplier<AccessTokenCredentials> supplier) {
         Objects.requireNonNull(supplier, "supplier was null");
         this.supplier = supplier;
+        this.refreshAhead = DEFAULT_REFRESH_AHEAD;
+        this.minRefreshInterval = DEFAULT_MIN_REFRESH_INTERVAL;
+        this.executor = ExecutorHolder.INSTANCE;
+        this.token = new AtomicReference<>();
+        this.refreshing = new AtomicReference<>();
+        this.refreshAfter = new AtomicLong(System.nanoTime());
+    }
+
+    public TimeDuration getRefreshAhead() {
+        return refreshAhead;
+    }
+
+    /**
+     * Sets how long before credentials expire that they are refreshed in the
+     * background.
+     * 
+     * @param refreshAhead The duration before expiry
+     */
+    public void setRefreshAhead(TimeDuration refreshAhead) {
+        Objects.requireNonNull(refreshAhead, "refreshAhead was null");
+        this.refreshAhead = refreshAhead;
+    }
+
+    public TimeDuration getMinRefreshInterval() {
+        return minRefreshInterval;
+    }
+
+    /**
+     * Sets the min interval between background refreshes, which is also how
+     * long requests fail fast after a failed refresh.
+     * 
+     * @param minRefreshInterval The min interval
+     */
+    public void setMinRefreshInterval(TimeDuration minRefreshInterval) {
+        Objects.requireNonNull(minRefreshInterval, "minRefreshInterval was null");
+        this.minRefreshInterval = minRefreshInterval;
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Sets the executor background refreshes are run on (defaults to a shared
+     * pool of daemon threads).
+     * 
+     * @param executor The executor
+     */
+    public void setExecutor(Executor executor) {
+        Objects.requireNonNull(executor, "executor was null");
+        this.executor = executor;
     }
     
     @Override
     public String buildAuthorizationHeader() throws IOException {
+        final Token current = this.token.get();
+        
+        if (current != null && current.credentials.getExpiresAt() != null) {
+            final Instant expiresAt = current.credentials.getExpiresAt();
+            final Instant now = Instant.now();
+            
+            if (expiresAt.isAfter(now)) {
+                if (!expiresAt.minusNanos(this.refreshAhead.asNanos()).isAfter(now) && this.claimBackgroundRefresh()) {
+                    this.refresh(current, true);
+                }
+                return current.header;
+            }
+            
+            return await(this.refresh(current, false)).header;
+        }
+        
+        if (current == null) {
+            return await(this.refresh(null, false)).header;
+        }
+        
+        // without an expiry the supplier is consulted every time
+        return this.load(current).header;
+    }
+
+    @Override
+    public String buildRetryAuthorizationHeader(String rejectedHeader) throws IOException {
+        final Token current = this.token.get();
+        
+        if (current == null) {
+            return null;
+        }
+        
+        // another request may have already refreshed it
+        if (!current.header.equals(rejectedHeader)) {
+            return current.header;
+        }
+        
+        return await(this.refresh(current, false)).header;
+    }
+    
+    private boolean claimBackgroundRefresh() {
+        final long nowNs = System.nanoTime();
+        final long refreshAfter = this.refreshAfter.get();
+        
+        return nowNs - refreshAfter >= 0
+            && this.refreshAfter.compareAndSet(refreshAfter, nowNs + this.minRefreshInterval.asNanos());
+    }
+    
+    private CompletableFuture<Token> refresh(Token current, boolean background) {
+        while (true) {
+            final CompletableFuture<Token> inflight = this.refreshing.get();
+            
+            if (inflight != null) {
+                return inflight;
+            }
+            
+            // a refresh may have completed since the caller got its token
+            final Token latest = this.token.get();
+            
+            if (latest != current) {
+                return CompletableFuture.completedFuture(latest);
+            }
+            
+            final Throwable failure = this.refreshFailure;
+            
+            if (!background && failure != null && System.nanoTime() - this.refreshAfter.get() < 0) {
+                final CompletableFuture<Token> failed = new CompletableFuture<>();
+                failed.completeExceptionally(failure);
+                return failed;
+            }
+            
+            final CompletableFuture<Token> future = new CompletableFuture<>();
+            
+            if (!this.refreshing.compareAndSet(null, future)) {
+                continue;
+            }
+            
+            final Runnable task = () -> {
+                try {
+                    final Token refreshed = this.load(current);
+                    this.refreshFailure = null;
+                    this.refreshing.set(null);
+                    future.complete(refreshed);
+                } catch (Throwable t) {
+                    this.refreshFailure = t;
+                    this.refreshAfter.set(System.nanoTime() + this.minRefreshInterval.asNanos());
+                    this.refreshing.set(null);
+                    future.completeExceptionally(t);
+                    if (background) {
+                        log.warn("Unable to refresh oauth2 access token (ahead of its expiry)", t);
+                    }
+                }
+            };
+            
+            if (!background) {
+                task.run();
+            } else {
+                try {
+                    this.executor.execute(task);
+                } catch (RuntimeException e) {
+                    this.refreshing.set(null);
+                    future.completeExceptionally(e);
+                }
+            }
+            
+            return future;
+        }
+    }
+    
+    private Token load(Token current) throws IOException {
         final AccessTokenCredentials creds = this.supplier.get();
         
+        if (current != null && Objects.equals(creds, current.credentials)) {
+            return current;
+        }
+        
+        // copied since the supplier may mutate the instance it returned
+        final Token loaded = new Token(
+            new AccessTokenCredentials(creds.getAccessToken(), creds.getTokenType(), creds.getExpiresAt()),
+            buildAuthorizationHeader(creds));
+        
+        this.token.set(loaded);
+        
+        return loaded;
+    }
+    
+    static private Token await(CompletableFuture<Token> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while refreshing oauth2 access token");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw new IOException("Unable to refresh oauth2 access token", cause);
+        }
+    }
+    
+    static private String buildAuthorizationHeader(AccessTokenCredentials creds) {
         final String tt = maybe(creds.getTokenType())
             .orElse("Bearer");
         
@@ -44,4 +294,4 @@ public class OkHttpOAuth2Interceptor extends OkHttpAuthorizationInterceptor {
             .toString();
     }
     
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -51,6 +51,15 @@ public class OkHttpOptions<A extends OkHttpOptions<A>> implements BindingPropert
         .bindString("logger_name", OkHttpOptions::setLoggerName)
         .bindBoolean("verbose_on_failure", A::setVerboseOnFailure)
         .bindString("logging_redact_headers", A::setLoggingRedactHeaders)
+        .bindBoolean("logging_async", A::setLoggingAsync)
+        .bindBoolean("metrics", A::setMetrics)
+        // retries and hedging are not part of a client, they only take effect
+        // thru OkEdge or OkHttpUtils.buildRetryPolicy(options).wrap(client)
+        .bindInteger("retry_max", A::setRetryMax)
+        .bindLong("retry_backoff", A::setRetryBackoff)
+        .bindLong("retry_max_backoff", A::setRetryMaxBackoff)
+        .bindBoolean("hedging", A::setHedging)
+        .bindType("hedge_percentile", A::setHedgePercentile, Double.class, Double::valueOf)
         .bindType("message_level", A::setMessageLevel, MessageLevel.class, (s) -> {
             MessageLevel level = MessageLevel.valueOf(s.toUpperCase());
             if (level == null) {
@@ -74,6 +83,13 @@ public class OkHttpOptions<A extends OkHttpOptions<A>> implements BindingPropert
     private Boolean verboseOnFailure;
     private String loggerName;
     private String loggingRedactHeaders;
+    private Boolean loggingAsync;
+    private Boolean metrics;
+    private Integer retryMax;
+    private Long retryBackoff;
+    private Long retryMaxBackoff;
+    private Boolean hedging;
+    private Double hedgePercentile;
     private MessageLevel messageLevel;
 
     @SuppressWarnings("OverridableMethodCallInConstructor")
@@ -228,6 +244,62 @@ public class OkHttpOptions<A extends OkHttpOptions<A>> implements BindingPropert
         this.loggingRedactHeaders = loggingRedactHeaders;
     }
 
+    public Boolean getLoggingAsync() {
+        return loggingAsync;
+    }
+
+    public void setLoggingAsync(Boolean loggingAsync) {
+        this.loggingAsync = loggingAsync;
+    }
+
+    public Boolean getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(Boolean metrics) {
+        this.metrics = metrics;
+    }
+
+    public Integer getRetryMax() {
+        return retryMax;
+    }
+
+    public void setRetryMax(Integer retryMax) {
+        this.retryMax = retryMax;
+    }
+
+    public Long getRetryBackoff() {
+        return retryBackoff;
+    }
+
+    public void setRetryBackoff(Long retryBackoff) {
+        this.retryBackoff = retryBackoff;
+    }
+
+    public Long getRetryMaxBackoff() {
+        return retryMaxBackoff;
+    }
+
+    public void setRetryMaxBackoff(Long retryMaxBackoff) {
+        this.retryMaxBackoff = retryMaxBackoff;
+    }
+
+    public Boolean getHedging() {
+        return hedging;
+    }
+
+    public void setHedging(Boolean hedging) {
+        this.hedging = hedging;
+    }
+
+    public Double getHedgePercentile() {
+        return hedgePercentile;
+    }
+
+    public void setHedgePercentile(Double hedgePercentile) {
+        this.hedgePercentile = hedgePercentile;
+    }
+
     public MessageLevel getMessageLevel() {
         return messageLevel;
     }
@@ -0,0 +1,686 @@
+/*
+ * Copyright 2024 Fizzed, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fizzed.crux.okhttp;
+
+import com.fizzed.crux.util.BoundedConcurrentCache;
+import com.fizzed.crux.util.BoundedConcurrentCache.WhenFull;
+import com.fizzed.crux.util.TimeDuration;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Policy that retries idempotent requests that failed (with an exception or a
+ * 502, 503 or 504) with exponential backoff and full jitter, and optionally
+ * hedges requests without a body: if a response hasn't arrived after a
+ * percentile of the latencies observed for its host, a second identical
+ * request is sent, the first response wins and the other call is canceled.
+ * Every retry and hedge is withdrawn from a retry budget (shared by the jvm by
+ * default), so they can't amplify an outage.
+ *
+ * Every request (including its retries and hedge) is a new call of the call
+ * factory the policy is given, so it should be the final client (e.g. with its
+ * cookie jar).  The policy owns those calls, so canceling its call cancels all
+ * of them and a call that was canceled (or interrupted other than by a
+ * timeout) is never retried.  An executed call sends the primary request on
+ * the caller's thread and a hedge on a pool thread with the caller's logging
+ * context, while an enqueued call sends both on the client's dispatcher.
+ */
+public class OkHttpRetryPolicy {
+    static private final Logger log = LoggerFactory.getLogger(OkHttpRetryPolicy.class);
+
+    static public final TimeDuration DEFAULT_BACKOFF = TimeDuration.millis(100L);
+    static public final TimeDuration DEFAULT_MAX_BACKOFF = TimeDuration.seconds(5L);
+    static public final double DEFAULT_HEDGE_PERCENTILE = 95d;
+    // latencies observed of a host before any of its requests are hedged
+    static public final int MIN_HEDGE_SAMPLES = 20;
+    // hosts beyond the max are simply not hedged
+    static public final int MAX_HOSTS = 256;
+    static private final long DELAY_RECOMPUTE_NANOS = TimeUnit.SECONDS.toNanos(1L);
+
+    static private class SchedulerHolder {
+        static private final ScheduledExecutorService INSTANCE = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+            final Thread thread = new Thread(runnable, "okhttp-retry-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    static private class ExecutorHolder {
+        static private final Executor INSTANCE = Executors.newCachedThreadPool((runnable) -> {
+            final Thread thread = new Thread(runnable, "okhttp-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    static private final class Host {
+
+        private final LatencyHistogram latency = new LatencyHistogram();
+        // -1 until there are enough samples
+        private volatile long delayNanos = -1L;
+        private volatile long computedAt;
+
+    }
+
+    protected int maxRetries;
+    protected TimeDuration backoff;
+    protected TimeDuration maxBackoff;
+    protected RetryBudget retryBudget;
+    protected boolean hedging;
+    protected double hedgePercentile;
+    private final BoundedConcurrentCache<String,Host> hosts;
+    private final AtomicLong retries;
+    private final AtomicLong hedges;
+
+    public OkHttpRetryPolicy() {
+        this.backoff = DEFAULT_BACKOFF;
+        this.maxBackoff = DEFAULT_MAX_BACKOFF;
+        this.retryBudget = RetryBudget.getDefault();
+        this.hedgePercentile = DEFAULT_HEDGE_PERCENTILE;
+        this.hosts = new BoundedConcurrentCache<>(MAX_HOSTS, WhenFull.REJECT);
+        this.retries = new AtomicLong();
+        this.hedges = new AtomicLong();
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public void setMaxRetries(int maxRetries) {
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("maxRetries must be >= 0");
+        }
+        this.maxRetries = maxRetries;
+    }
+
+    public TimeDuration getBackoff() {
+        return backoff;
+    }
+
+    /**
+     * Sets the backoff before the first retry, which doubles for every retry
+     * after it (up to the max backoff).  The actual backoff is a random
+     * duration between zero and that.
+     *
+     * @param backoff The backoff
+     */
+    public void setBackoff(TimeDuration backoff) {
+        Objects.requireNonNull(backoff, "backoff was null");
+        this.backoff = backoff;
+    }
+
+    public TimeDuration getMaxBackoff() {
+        return maxBackoff;
+    }
+
+    public void setMaxBackoff(TimeDuration maxBackoff) {
+        Objects.requireNonNull(maxBackoff, "maxBackoff was null");
+        this.maxBackoff = maxBackoff;
+    }
+
+    public RetryBudget getRetryBudget() {
+        return retryBudget;
+    }
+
+    public void setRetryBudget(RetryBudget retryBudget) {
+        Objects.requireNonNull(retryBudget, "retryBudget was null");
+        this.retryBudget = retryBudget;
+    }
+
+    public boolean isHedging() {
+        return hedging;
+    }
+
+    public void setHedging(boolean hedging) {
+        this.hedging = hedging;
+    }
+
+    public double getHedgePercentile() {
+        return hedgePercentile;
+    }
+
+    /**
+     * Sets the percentile of the latencies observed for a host after which a
+     * request to it is hedged.
+     *
+     * @param hedgePercentile The percentile (e.g. 95.0)
+     */
+    public void setHedgePercentile(double hedgePercentile) {
+        if (hedgePercentile <= 0d || hedgePercentile > 100d) {
+            throw new IllegalArgumentException("hedgePercentile must be > 0 and <= 100");
+        }
+        this.hedgePercentile = hedgePercentile;
+    }
+
+    /**
+     * Gets the number of retries made.
+     *
+     * @return The number of retries
+     */
+    public long getRetries() {
+        return this.retries.get();
+    }
+
+    /**
+     * Gets the number of hedged requests sent.
+     *
+     * @return The number of hedges
+     */
+    public long getHedges() {
+        return this.hedges.get();
+    }
+
+    /**
+     * Creates a call of the request that is retried (and hedged) by this
+     * policy.  A request that is not idempotent is simply a call of the
+     * factory.
+     *
+     * @param callFactory The factory of every call made for the request (e.g.
+     *      the final client)
+     * @param request The request
+     * @return The call
+     */
+    public Call newCall(Call.Factory callFactory, Request request) {
+        Objects.requireNonNull(callFactory, "callFactory was null");
+        Objects.requireNonNull(request, "request was null");
+
+        if (!isIdempotent(request.method())) {
+            return callFactory.newCall(request);
+        }
+
+        return new RetryCall(callFactory, request);
+    }
+
+    /**
+     * Wraps a call factory so all of its calls are retried (and hedged) by this
+     * policy.
+     *
+     * @param callFactory The factory to wrap (e.g. the final client)
+     * @return The wrapped factory
+     */
+    public Call.Factory wrap(Call.Factory callFactory) {
+        Objects.requireNonNull(callFactory, "callFactory was null");
+        return (request) -> this.newCall(callFactory, request);
+    }
+
+    private Response execute(RetryCall call) throws IOException {
+        this.retryBudget.deposit();
+
+        for (int attempt = 0; ; attempt++) {
+            if (call.isCanceled()) {
+                throw new IOException("Canceled");
+            }
+
+            Response response = null;
+            IOException failure = null;
+            try {
+                response = this.attempt(call);
+            } catch (IOException e) {
+                failure = e;
+            }
+
+            if (!this.shouldRetry(call, attempt, response, failure)) {
+                if (failure != null) {
+                    throw failure;
+                }
+                return response;
+            }
+
+            try {
+                // canceling the call ends the backoff early
+                if (call.canceled.await(this.backoffNanos(attempt), TimeUnit.NANOSECONDS)) {
+                    throw new IOException("Canceled");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while backing off to retry");
+            }
+        }
+    }
+
+    private Response attempt(RetryCall call) throws IOException {
+        final Request request = call.request;
+        final Host host = this.hedging && request.body() == null ? this.host(request.url().host()) : null;
+        final long startNs = System.nanoTime();
+        final long delayNanos = host != null ? this.delayNanos(host, startNs) : -1L;
+
+        final Race race = call.newRace();
+
+        ScheduledFuture<?> scheduled = null;
+        if (delayNanos >= 0) {
+            // the hedge is sent on a pool thread, but as the caller
+            final OkLoggingContext context = OkLoggingContext.current();
+            scheduled = this.schedule(() -> this.hedge(call, race, context), delayNanos);
+        }
+
+        try {
+            try {
+                race.succeeded(race.primary, race.primary.execute());
+            } catch (IOException e) {
+                race.failed(e);
+            }
+
+            if (scheduled != null) {
+                // not worth sending a hedge anymore
+                scheduled.cancel(false);
+            }
+
+            final Response response = race.await();
+
+            if (host != null) {
+                host.latency.recordNanos(System.nanoTime() - startNs);
+            }
+
+            return response;
+        } finally {
+            if (!race.result.isDone()) {
+                // the primary threw something else, so the hedge is pointless
+                race.cancel();
+            }
+        }
+    }
+
+    private void enqueue(RetryCall call, Callback callback) {
+        this.retryBudget.deposit();
+        this.enqueueAttempt(call, 0, callback);
+    }
+
+    private void enqueueAttempt(RetryCall call, int attempt, Callback callback) {
+        if (call.isCanceled()) {
+            callback.onFailure(call, new IOException("Canceled"));
+            return;
+        }
+
+        final Request request = call.request;
+        final Host host = this.hedging && request.body() == null ? this.host(request.url().host()) : null;
+        final long startNs = System.nanoTime();
+        final long delayNanos = host != null ? this.delayNanos(host, startNs) : -1L;
+
+        final Race race = call.newRace();
+
+        final ScheduledFuture<?> scheduled = delayNanos >= 0
+            ? this.schedule(() -> this.hedge(call, race, null), delayNanos) : null;
+
+        race.result.whenComplete((response, e) -> {
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+
+            final IOException failure = e == null ? null
+                : e instanceof IOException ? (IOException)e : new IOException("Call failed", e);
+
+            if (response != null && host != null) {
+                host.latency.recordNanos(System.nanoTime() - startNs);
+            }
+
+            if (this.shouldRetry(call, attempt, response, failure)) {
+                // canceling the call ends the backoff early
+                final CompletableFuture<Void> backoff = new CompletableFuture<>();
+                call.backoff = backoff;
+                this.schedule(() -> backoff.complete(null), this.backoffNanos(attempt));
+                if (call.isCanceled()) {
+                    backoff.complete(null);
+                }
+                backoff.thenRunAsync(() -> this.enqueueAttempt(call, attempt+1, callback), ExecutorHolder.INSTANCE);
+                return;
+            }
+
+            if (failure != null) {
+                callback.onFailure(call, failure);
+                return;
+            }
+
+            try {
+                callback.onResponse(call, response);
+            } catch (IOException ex) {
+                // same as okhttp, a callback that failed isn't told it did
+                log.warn("Callback failed for {}", request.url(), ex);
+            }
+        });
+
+        race.primary.enqueue(race.callback);
+    }
+
+    private void hedge(RetryCall call, Race race, OkLoggingContext context) {
+        if (!race.start()) {
+            return;
+        }
+
+        if (!this.retryBudget.tryWithdraw()) {
+            race.finished();
+            return;
+        }
+
+        this.hedges.incrementAndGet();
+
+        final Call hedge = race.newHedge(call.callFactory);
+
+        if (context == null) {
+            hedge.enqueue(race.callback);
+            return;
+        }
+
+        try {
+            ExecutorHolder.INSTANCE.execute(() -> {
+                OkLoggingContext.set(context);
+                try {
+                    race.succeeded(hedge, hedge.execute());
+                } catch (IOException e) {
+                    race.failed(e);
+                } catch (RuntimeException e) {
+                    race.result.completeExceptionally(e);
+                    race.finished();
+                } finally {
+                    OkLoggingContext.clear();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            race.finished();
+        }
+    }
+
+    private boolean shouldRetry(RetryCall call, int attempt, Response response, IOException failure) {
+        final boolean retryable = failure != null
+            ? isRetryable(call, failure)
+            : isRetryable(response.code());
+
+        if (!retryable || attempt >= this.maxRetries || !this.retryBudget.tryWithdraw()) {
+            return false;
+        }
+
+        if (response != null) {
+            response.close();
+        }
+
+        this.retries.incrementAndGet();
+
+        return true;
+    }
+
+    private ScheduledFuture<?> schedule(Runnable task, long delayNanos) {
+        return SchedulerHolder.INSTANCE.schedule(task, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private long backoffNanos(int attempt) {
+        final long maxNanos = this.maxBackoff.asNanos();
+        // shifting more than 62 bits would overflow, and is far beyond the max
+        final long nanos = attempt >= 62 ? maxNanos : Math.min(maxNanos, this.backoff.asNanos() << attempt);
+        // full jitter
+        return nanos > 0 ? ThreadLocalRandom.current().nextLong(nanos + 1) : 0L;
+    }
+
+    private Host host(String hostname) {
+        return this.hosts.computeIfAbsent(hostname, (k) -> new Host());
+    }
+
+    private long delayNanos(Host host, long nowNs) {
+        long delayNanos = host.delayNanos;
+
+        // recomputed from a snapshot at most once a second (once there are
+        // enough samples), since a snapshot copies every bucket
+        if (delayNanos < 0 || nowNs - host.computedAt > DELAY_RECOMPUTE_NANOS) {
+            final LatencyHistogram.Snapshot snapshot = host.latency.snapshot();
+            if (snapshot.getCount() >= MIN_HEDGE_SAMPLES) {
+                delayNanos = (long)(snapshot.getPercentile(this.hedgePercentile) * 1000000d);
+                host.delayNanos = delayNanos;
+                host.computedAt = nowNs;
+            }
+        }
+
+        return delayNanos;
+    }
+
+    /**
+     * The call of a request that is retried (and hedged) by this policy.
+     */
+    private final class RetryCall implements Call {
+
+        private final Call.Factory callFactory;
+        private final Request request;
+        private final AtomicBoolean executed;
+        private final CountDownLatch canceled;
+        private volatile Race race;
+        private volatile CompletableFuture<Void> backoff;
+
+        public RetryCall(Call.Factory callFactory, Request request) {
+            this.callFactory = callFactory;
+            this.request = request;
+            this.executed = new AtomicBoolean();
+            this.canceled = new CountDownLatch(1);
+        }
+
+        @Override
+        public Request request() {
+            return this.request;
+        }
+
+        @Override
+        public Response execute() throws IOException {
+            if (!this.executed.compareAndSet(false, true)) {
+                throw new IllegalStateException("Already Executed");
+            }
+            return OkHttpRetryPolicy.this.execute(this);
+        }
+
+        @Override
+        public void enqueue(Callback callback) {
+            Objects.requireNonNull(callback, "callback was null");
+            if (!this.executed.compareAndSet(false, true)) {
+                throw new IllegalStateException("Already Executed");
+            }
+            OkHttpRetryPolicy.this.enqueue(this, callback);
+        }
+
+        @Override
+        public void cancel() {
+            this.canceled.countDown();
+            final Race race = this.race;
+            if (race != null) {
+                race.cancel();
+            }
+            final CompletableFuture<Void> backoff = this.backoff;
+            if (backoff != null) {
+                backoff.complete(null);
+            }
+        }
+
+        @Override
+        public boolean isExecuted() {
+            return this.executed.get();
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return this.canceled.getCount() == 0;
+        }
+
+        @Override
+        public Call clone() {
+            return new RetryCall(this.callFactory, this.request);
+        }
+
+        private Race newRace() {
+            final Race race = new Race(this.callFactory.newCall(this.request));
+            this.race = race;
+            // canceled before it was the current race
+            if (this.isCanceled()) {
+                race.cancel();
+            }
+            return race;
+        }
+
+    }
+
+    /**
+     * The primary call of an attempt and its hedge racing for the first
+     * response, where the winner cancels the other.
+     */
+    static private final class Race {
+
+        private final Call primary;
+        private final CompletableFuture<Response> result;
+        // calls started that haven't finished yet
+        private final AtomicInteger pending;
+        private final Callback callback;
+        private volatile Call hedge;
+        private volatile boolean canceled;
+        private volatile IOException failure;
+
+        public Race(Call primary) {
+            this.primary = primary;
+            this.result = new CompletableFuture<>();
+            this.pending = new AtomicInteger(1);
+            this.callback = new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    failed(e);
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) {
+                    succeeded(call, response);
+                }
+            };
+        }
+
+        public boolean start() {
+            this.pending.incrementAndGet();
+            // already won (or lost by every call)
+            if (this.result.isDone()) {
+                this.finished();
+                return false;
+            }
+            return true;
+        }
+
+        public Call newHedge(Call.Factory callFactory) {
+            final Call call = callFactory.newCall(this.primary.request());
+            this.hedge = call;
+            // over before it was even sent
+            if (this.canceled || this.result.isDone()) {
+                call.cancel();
+            }
+            return call;
+        }
+
+        public void succeeded(Call call, Response response) {
+            if (this.result.complete(response)) {
+                // but not the winner, whose body is yet to be read
+                this.cancelCalls(call);
+            } else {
+                response.close();
+            }
+            this.finished();
+        }
+
+        public void failed(IOException e) {
+            this.failure = e;
+            this.finished();
+        }
+
+        public void finished() {
+            // the last call to fail fails the race
+            if (this.pending.decrementAndGet() == 0 && !this.result.isDone()) {
+                final IOException e = this.failure;
+                this.result.completeExceptionally(e != null ? e : new IOException("Call failed"));
+            }
+        }
+
+        public void cancel() {
+            this.canceled = true;
+            this.cancelCalls(null);
+        }
+
+        private void cancelCalls(Call except) {
+            if (this.primary != except) {
+                this.primary.cancel();
+            }
+            final Call call = this.hedge;
+            if (call != null && call != except) {
+                call.cancel();
+            }
+        }
+
+        public Response await() throws IOException {
+            try {
+                return this.result.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                this.cancel();
+                throw new InterruptedIOException("Interrupted while waiting on hedged call");
+            } catch (ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException)cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException)cause;
+                }
+                throw new IOException("Hedged call failed", cause);
+            }
+        }
+
+    }
+
+    static private boolean isIdempotent(String method) {
+        switch (method) {
+            case "GET":
+            case "HEAD":
+            case "OPTIONS":
+            case "TRACE":
+            case "PUT":
+            case "DELETE":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    static private boolean isRetryable(int code) {
+        return code == 502 || code == 503 || code == 504;
+    }
+
+    static private boolean isRetryable(Call call, IOException e) {
+        // the caller gave up on the call, so neither is worth a retry
+        if (call.isCanceled() || Thread.currentThread().isInterrupted()) {
+            return false;
+        }
+        // interrupted other than by a timeout
+        return !(e instanceof InterruptedIOException) || e instanceof SocketTimeoutException;
+    }
+
+}
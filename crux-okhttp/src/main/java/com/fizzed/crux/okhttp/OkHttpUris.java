@@ -0,0 +1,161 @@
+/*
+ * Copyright 2024 Fizzed, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fizzed.crux.okhttp;
+
+import com.fizzed.crux.uri.Uri;
+import com.fizzed.crux.uri.UriCodec;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import okhttp3.HttpUrl;
+import okio.BufferedSink;
+
+/**
+ * Bridges a Uri to okhttp/okio without first building its string value.
+ */
+public class OkHttpUris {
+
+    /**
+     * Converts the uri to an HttpUrl.
+     * @param uri The uri with an http or https scheme and a host
+     * @return The url
+     * @throws IllegalArgumentException If the scheme is not supported by okhttp
+     * @throws IllegalStateException If the uri is missing a scheme or host
+     */
+    static public HttpUrl toHttpUrl(Uri uri) {
+        return apply(new HttpUrl.Builder(), uri).build();
+    }
+
+    /**
+     * Sets each component of the uri that is present on the builder. The
+     * components are encoded exactly as they would be in the string value of
+     * the uri (e.g. a space in the query is a "+"), so the url is the same as
+     * if the string was parsed instead.
+     * @param builder The builder to set the components on
+     * @param uri The uri to take the components from
+     * @return The builder
+     */
+    static public HttpUrl.Builder apply(HttpUrl.Builder builder, Uri uri) {
+        Objects.requireNonNull(builder, "builder was null");
+        Objects.requireNonNull(uri, "uri was null");
+
+        if (uri.getScheme() != null) {
+            builder.scheme(uri.getScheme());
+        }
+
+        if (uri.getHost() != null) {
+            builder.host(uri.getHost());
+
+            final String userInfo = uri.getUserInfo();
+            if (userInfo != null) {
+                final int colonPos = userInfo.indexOf(':');
+                if (colonPos < 0) {
+                    builder.encodedUsername(UriCodec.encode(userInfo, UriCodec.Component.USERINFO));
+                } else {
+                    builder.encodedUsername(UriCodec.encode(userInfo.substring(0, colonPos), UriCodec.Component.USERINFO));
+                    builder.encodedPassword(UriCodec.encode(userInfo.substring(colonPos + 1), UriCodec.Component.USERINFO));
+                }
+            }
+
+            if (uri.getPort() != null) {
+                builder.port(uri.getPort());
+            }
+        }
+
+        final List<String> rels = uri.getRels();
+        if (rels != null && !rels.isEmpty()) {
+            // set as a whole, since adding a segment replaces a trailing empty
+            // one (e.g. "/a//b" would become "/a/b")
+            final StringBuilder path = new StringBuilder();
+            for (String rel : rels) {
+                UriCodec.encode(path.append('/'), rel, UriCodec.Component.PATH_SEGMENT);
+            }
+            builder.encodedPath(path.toString());
+        }
+
+        final Map<String,List<String>> query = uri.getQuery();
+        if (query != null) {
+            for (Map.Entry<String,List<String>> entry : query.entrySet()) {
+                final String name = UriCodec.encode(entry.getKey(), UriCodec.Component.QUERY);
+                for (String value : entry.getValue()) {
+                    builder.addEncodedQueryParameter(name, UriCodec.encode(value, UriCodec.Component.QUERY));
+                }
+            }
+        }
+
+        if (uri.getFragment() != null) {
+            builder.encodedFragment(UriCodec.encode(uri.getFragment(), UriCodec.Component.FRAGMENT));
+        }
+
+        return builder;
+    }
+
+    /**
+     * Writes the uri (the same as its string value) as UTF-8 to the sink.
+     * @param uri The uri to write
+     * @param sink The sink to write to
+     * @return The sink
+     * @throws IOException If the sink throws an exception
+     */
+    static public <S extends BufferedSink> S writeTo(Uri uri, S sink) throws IOException {
+        Objects.requireNonNull(uri, "uri was null");
+
+        uri.appendTo(appendable(sink));
+
+        return sink;
+    }
+
+    /**
+     * Adapts the sink to an appendable that writes chars as UTF-8.
+     * @param sink The sink to write to
+     * @return The appendable
+     */
+    static public Appendable appendable(BufferedSink sink) {
+        Objects.requireNonNull(sink, "sink was null");
+
+        return new Appendable() {
+            @Override
+            public Appendable append(CharSequence csq) throws IOException {
+                return this.append(csq, 0, csq.length());
+            }
+
+            @Override
+            public Appendable append(CharSequence csq, int start, int end) throws IOException {
+                if (csq instanceof String) {
+                    sink.writeUtf8((String)csq, start, end);
+                } else {
+                    for (int i = start; i < end; i++) {
+                        this.append(csq.charAt(i));
+                    }
+                }
+                return this;
+            }
+
+            @Override
+            public Appendable append(char c) throws IOException {
+                if (c < 0x80) {
+                    sink.writeByte(c);
+                } else {
+                    // surrogates are only written correctly as part of a string
+                    sink.writeUtf8CodePoint(c);
+                }
+                return this;
+            }
+        };
+    }
+
+}
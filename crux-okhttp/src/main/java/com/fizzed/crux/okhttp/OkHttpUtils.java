@@ -21,8 +21,10 @@ import com.fizzed.crux.util.TrustAllTrustManager;
 import java.io.IOException;
 import static java.util.Optional.ofNullable;
 import java.util.concurrent.TimeUnit;
+import javax.net.SocketFactory;
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.SSLSocketFactory;
+import okhttp3.Dns;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
@@ -92,10 +94,27 @@ public class OkHttpUtils {
 //        return loggingInterceptor;
 //    }
     
+    /**
+     * Builds a client with the options.  The retry and hedging options are not
+     * applied, since they are not part of a client, so wrap the client with
+     * {@link #buildRetryPolicy(OkHttpOptions)} (or use OkEdge) for those.
+     * 
+     * @param options The options
+     * @return The client
+     */
     static public OkHttpClient buildClient(OkHttpOptions options) {
         return createBuilder(options).build();
     }
     
+    /**
+     * Creates a builder configured with the options.  The retry and hedging
+     * options are not applied, since they are not part of a client, so wrap
+     * the client with {@link #buildRetryPolicy(OkHttpOptions)} (or use OkEdge)
+     * for those.
+     * 
+     * @param options The options
+     * @return The builder
+     */
     static public OkHttpClient.Builder createBuilder(OkHttpOptions options) {
         OkHttpClient.Builder clientBuilder = new OkHttpClient.Builder();
         
@@ -105,6 +124,21 @@ public class OkHttpUtils {
     }
     
     static public void configureBuilder(OkHttpClient.Builder clientBuilder, OkHttpOptions options) {
+        configureBuilder(clientBuilder, options, Dns.SYSTEM, SocketFactory.getDefault());
+    }
+    
+    /**
+     * Configures the builder with the options.  A builder does not expose its
+     * dns or socket factory, so if metrics are enabled those it was given are
+     * needed to wrap them.  The retry and hedging options are not applied (see
+     * {@link #buildRetryPolicy(OkHttpOptions)}).
+     * 
+     * @param clientBuilder The builder to configure
+     * @param options The options
+     * @param dns The dns of the builder
+     * @param socketFactory The socket factory of the builder
+     */
+    static public void configureBuilder(OkHttpClient.Builder clientBuilder, OkHttpOptions options, Dns dns, SocketFactory socketFactory) {
         if (options.getInsecure() != null && options.getInsecure()) {
             clientBuilder.sslSocketFactory(OkHttpUtils.TRUST_ALL_SSL_SOCKET_FACTORY, TrustAllTrustManager.INSTANCE);
             clientBuilder.hostnameVerifier(OkHttpUtils.TRUST_ALL_HOSTNAME_VERIFIER);
@@ -168,8 +202,50 @@ public class OkHttpUtils {
         if (options.getMessageLevel() != null) {
             loggingInterceptor.setMessageLevel(options.getMessageLevel());
         }
+        if (options.getLoggingAsync() != null && options.getLoggingAsync()) {
+            loggingInterceptor.setAsyncLogger(OkHttpAsyncLogger.getDefault());
+        }
         
         clientBuilder.addNetworkInterceptor(loggingInterceptor);
+        
+        if (options.getMetrics() != null && options.getMetrics()) {
+            // wraps the dns and socket factory the client would otherwise use
+            OkHttpMetrics.getDefault().configure(clientBuilder, dns, socketFactory);
+        }
+    }
+    
+    /**
+     * Builds the retry policy of the options, which retries (and hedges) the
+     * calls it makes of a client rather than being part of the client.
+     * 
+     * @param options The options
+     * @return The retry policy or null if neither retries nor hedging are
+     *      enabled by the options
+     */
+    static public OkHttpRetryPolicy buildRetryPolicy(OkHttpOptions options) {
+        final boolean hedging = options.getHedging() != null && options.getHedging();
+        
+        if (options.getRetryMax() == null && !hedging) {
+            return null;
+        }
+        
+        OkHttpRetryPolicy retryPolicy = new OkHttpRetryPolicy();
+        
+        if (options.getRetryMax() != null) {
+            retryPolicy.setMaxRetries(options.getRetryMax());
+        }
+        if (options.getRetryBackoff() != null) {
+            retryPolicy.setBackoff(TimeDuration.millis(options.getRetryBackoff()));
+        }
+        if (options.getRetryMaxBackoff() != null) {
+            retryPolicy.setMaxBackoff(TimeDuration.millis(options.getRetryMaxBackoff()));
+        }
+        retryPolicy.setHedging(hedging);
+        if (options.getHedgePercentile() != null) {
+            retryPolicy.setHedgePercentile(options.getHedgePercentile());
+        }
+        
+        return retryPolicy;
     }
     
     static public boolean hasStatusCode(Response response, int... statusCodes) {
@@ -255,4 +331,4 @@ public class OkHttpUtils {
         }
     }
     
-}
\ No newline at end of file
+}
\ No newline at end of file
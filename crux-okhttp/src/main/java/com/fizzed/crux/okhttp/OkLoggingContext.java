@@ -35,6 +35,10 @@ public class OkLoggingContext implements Closeable {
         CONTEXT.remove();
     }
     
+    static void set(OkLoggingContext context) {
+        CONTEXT.set(context);
+    }
+    
     private OkLoggingLevel requestLoggingLevel;
     private Boolean allowRequestBody;
     private OkLoggingLevel responseLoggingLevel;
@@ -22,27 +22,30 @@ import okhttp3.MediaType;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
 import okio.Buffer;
-import okio.BufferedSource;
 
 public class ResponseBodyLogger {
     
     static public final long MAX_BODY_SIZE_TO_LOG = 30000L;
     
     static public void log(final Response response, final ResponseBody responseBody) throws IOException {
+        log(response, responseBody, MAX_BODY_SIZE_TO_LOG);
+    }
+    
+    static public void log(final Response response, final ResponseBody responseBody, final long maxBodySize) throws IOException {
         // much safer body logger in case where the body shouldn't be logged
         // smart detection of file downloads, etc.
         long contentLength = responseBody.contentLength();
         
-        if (contentLength >= MAX_BODY_SIZE_TO_LOG) {
+        if (contentLength >= maxBodySize) {
             System.out.println("");
             System.out.println("Body content length exceeds max body size you'd want to log!");
             System.out.println("<-- END HTTP (" +contentLength + "-byte body)");
             return;
         }
         
-        BufferedSource source = responseBody.source();
-        source.request(MAX_BODY_SIZE_TO_LOG);         // Buffer up to max size we'd log
-        Buffer buffer = source.buffer();
+        // only buffers up to the max size we'd log (the body isn't consumed)
+        final BodyCapture capture = BodyCapture.peek(responseBody.source(), maxBodySize);
+        final Buffer buffer = capture.getBuffer();
 
         Charset charset = Charset.forName("UTF-8");
         MediaType contentType = responseBody.contentType();
@@ -59,10 +62,14 @@ public class ResponseBodyLogger {
 
         if (contentLength != 0) {
             System.out.println("");
-            System.out.println(buffer.clone().readString(charset));
+            System.out.println(buffer.snapshot().string(charset));
         }
 
-        System.out.println("<-- END HTTP (" + buffer.size() + "-byte body)");
+        if (capture.isTruncated()) {
+            System.out.println("<-- END HTTP (" + buffer.size() + "-byte of unknown-length body)");
+        } else {
+            System.out.println("<-- END HTTP (" + buffer.size() + "-byte body)");
+        }
     }
     
 }
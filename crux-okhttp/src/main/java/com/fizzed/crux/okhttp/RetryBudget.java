@@ -0,0 +1,112 @@
+/*
+ * Copyright 2024 Fizzed, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fizzed.crux.okhttp;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Budget of retries (and hedges) that caps them to a ratio of the requests
+ * made, so that when a service is failing the retries can't amplify the load
+ * on it beyond that ratio.  Every request deposits the ratio of a token (up to
+ * a max balance) and every retry withdraws a whole one.  The balance starts
+ * full so a few retries are possible before any requests were made.
+ */
+public class RetryBudget {
+
+    static public final double DEFAULT_RATIO = 0.1d;
+    static public final int DEFAULT_MAX_TOKENS = 10;
+
+    // tokens are tracked in thousandths
+    static private final long SCALE = 1000L;
+
+    static private class DefaultHolder {
+        static private final RetryBudget INSTANCE = new RetryBudget(DEFAULT_RATIO, DEFAULT_MAX_TOKENS);
+    }
+
+    /**
+     * Gets the budget shared by the entire jvm (e.g. used by clients
+     * configured with retries or hedging).
+     *
+     * @return The shared budget
+     */
+    static public RetryBudget getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    private final long deposit;
+    private final long maxBalance;
+    private final AtomicLong balance;
+
+    /**
+     * Creates a new retry budget.
+     *
+     * @param ratio The ratio of retries to requests (e.g. 0.1 for 10%)
+     * @param maxTokens The max number of retries that can be saved up
+     */
+    public RetryBudget(double ratio, int maxTokens) {
+        if (ratio < 0d || ratio > 1d) {
+            throw new IllegalArgumentException("ratio must be between 0 and 1");
+        }
+        if (maxTokens < 0) {
+            throw new IllegalArgumentException("maxTokens must be >= 0");
+        }
+        this.deposit = Math.round(ratio * SCALE);
+        this.maxBalance = maxTokens * SCALE;
+        this.balance = new AtomicLong(this.maxBalance);
+    }
+
+    /**
+     * Deposits the ratio of a token for a request that was made.
+     */
+    public void deposit() {
+        while (true) {
+            final long current = this.balance.get();
+            if (current >= this.maxBalance) {
+                return;
+            }
+            if (this.balance.compareAndSet(current, Math.min(this.maxBalance, current + this.deposit))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Withdraws a token for a retry (or hedge) if the balance has one.
+     *
+     * @return True if withdrawn (the retry may be made) or otherwise false
+     */
+    public boolean tryWithdraw() {
+        while (true) {
+            final long current = this.balance.get();
+            if (current < SCALE) {
+                return false;
+            }
+            if (this.balance.compareAndSet(current, current - SCALE)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Gets the number of whole tokens (retries) available.
+     *
+     * @return The number of tokens
+     */
+    public int getAvailable() {
+        return (int)(this.balance.get() / SCALE);
+    }
+
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2024 Fizzed, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fizzed.crux.okhttp;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.GzipSink;
+import okio.Okio;
+import okio.Source;
+import okio.Timeout;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import org.junit.Test;
+
+public class BodyCaptureTest {
+
+    static private String repeat(char c, int count) {
+        final StringBuilder sb = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void tee() throws IOException {
+        BodyCapture capture = new BodyCapture(10);
+        Buffer sent = new Buffer();
+
+        BufferedSink sink = Okio.buffer(capture.tee(sent));
+        sink.writeUtf8(repeat('a', 20000));
+        sink.writeUtf8("b");
+        sink.flush();
+
+        assertThat(sent.size(), is(20001L));
+        assertThat(capture.getSize(), is(20001L));
+        assertThat(capture.getBuffer().snapshot().utf8(), is("aaaaaaaaaa"));
+    }
+
+    @Test
+    public void peek() throws IOException {
+        // a source far larger than the max that counts how much is read from it
+        final AtomicInteger reads = new AtomicInteger();
+        final Buffer data = new Buffer().writeUtf8("hello " + repeat('x', 100000));
+        BufferedSource source = Okio.buffer(new Source() {
+            @Override
+            public long read(Buffer sink, long byteCount) throws IOException {
+                reads.incrementAndGet();
+                return data.read(sink, Math.min(byteCount, 8192L));
+            }
+            @Override
+            public Timeout timeout() {
+                return Timeout.NONE;
+            }
+            @Override
+            public void close() throws IOException {
+            }
+        });
+
+        BodyCapture capture = BodyCapture.peek(source, 5);
+
+        assertThat(capture.getBuffer().snapshot().utf8(), is("hello"));
+        assertThat(capture.isComplete(), is(false));
+        assertThat(capture.isTruncated(), is(true));
+        assertThat(reads.get(), is(1));
+        // nothing consumed
+        assertThat(source.readUtf8(6), is("hello "));
+
+        capture = BodyCapture.peek(Okio.buffer((Source)new Buffer().writeUtf8("hi")), 5);
+
+        assertThat(capture.getBuffer().snapshot().utf8(), is("hi"));
+        assertThat(capture.getSize(), is(2L));
+        assertThat(capture.isComplete(), is(true));
+        assertThat(capture.isTruncated(), is(false));
+    }
+
+    @Test
+    public void gunzipPrefix() throws IOException {
+        Buffer gzipped = new Buffer();
+        try (BufferedSink sink = Okio.buffer(new GzipSink(gzipped))) {
+            sink.writeUtf8("hello world " + repeat('z', 50000));
+        }
+
+        BodyCapture whole = BodyCapture.peek(Okio.buffer((Source)gzipped.clone()), 100000);
+        BodyCapture capture = whole.gunzip(11);
+
+        assertThat(capture.getBuffer().snapshot().utf8(), is("hello world"));
+        assertThat(capture.isTruncated(), is(true));
+
+        // only a prefix of the gzipped body
+        BodyCapture prefix = BodyCapture.peek(Okio.buffer((Source)gzipped.clone()), 30);
+        capture = prefix.gunzip(1000);
+
+        assertThat(capture.isComplete(), is(false));
+        assertThat(capture.getBuffer().size() <= 1000L, is(true));
+    }
+
+    @Test
+    public void capturingRequestBody() throws IOException {
+        final AtomicInteger writes = new AtomicInteger();
+        RequestBody body = new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return MediaType.parse("text/plain");
+            }
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                writes.incrementAndGet();
+                sink.writeUtf8("0123456789");
+            }
+        };
+
+        CapturingRequestBody capturing = new CapturingRequestBody(body, 4);
+
+        assertThat(capturing.getCapture(), is(nullValue()));
+
+        Buffer sent = new Buffer();
+        capturing.writeTo(sent);
+
+        assertThat(writes.get(), is(1));
+        assertThat(sent.readUtf8(), is("0123456789"));
+        assertThat(capturing.getCapture().getBuffer().snapshot().utf8(), is("0123"));
+        assertThat(capturing.getCapture().getSize(), is(10L));
+        assertThat(capturing.getCapture().isComplete(), is(true));
+
+        // written again (e.g. a retry) starts a new capture
+        capturing.writeTo(sent);
+
+        assertThat(capturing.getCapture().getSize(), is(10L));
+    }
+
+}
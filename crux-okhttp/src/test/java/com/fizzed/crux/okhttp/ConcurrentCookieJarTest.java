@@ -0,0 +1,255 @@
+/*
+ * Copyright 2024 Fizzed, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fizzed.crux.okhttp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import okhttp3.Cookie;
+import okhttp3.HttpUrl;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import org.junit.Test;
+
+public class ConcurrentCookieJarTest {
+
+    static private void save(ConcurrentCookieJar jar, String url, String... setCookies) {
+        final HttpUrl httpUrl = HttpUrl.parse(url);
+        final List<Cookie> cookies = new ArrayList<>();
+        for (String setCookie : setCookies) {
+            cookies.add(Cookie.parse(httpUrl, setCookie));
+        }
+        jar.saveFromResponse(httpUrl, cookies);
+    }
+
+    static private String load(ConcurrentCookieJar jar, String url) {
+        final List<String> pairs = new ArrayList<>();
+        for (Cookie cookie : jar.loadForRequest(HttpUrl.parse(url))) {
+            pairs.add(cookie.name() + "=" + cookie.value());
+        }
+        Collections.sort(pairs);
+        return String.join("; ", pairs);
+    }
+
+    @Test
+    public void matchesDomainAndPath() {
+        ConcurrentCookieJar jar = new ConcurrentCookieJar();
+
+        save(jar, "https://www.example.com/", "a=1", "b=2; Domain=example.com", "c=3; Path=/docs", "d=4; Secure");
+        save(jar, "https://other.com/", "e=5");
+
+        assertThat(load(jar, "https://www.example.com/"), is("a=1; b=2; d=4"));
+        assertThat(load(jar, "http://www.example.com/"), is("a=1; b=2"));
+        assertThat(load(jar, "https://www.example.com/docs"), is("a=1; b=2; c=3; d=4"));
+        assertThat(load(jar, "https://www.example.com/docs/guide/intro"), is("a=1; b=2; c=3; d=4"));
+        assertThat(load(jar, "https://www.example.com/docsx"), is("a=1; b=2; d=4"));
+        // domain cookie only
+        assertThat(load(jar, "https://api.example.com/"), is("b=2"));
+        assertThat(load(jar, "https://other.com/docs"), is("e=5"));
+        assertThat(load(jar, "https://unknown.com/"), is(""));
+        assertThat(jar.size(), is(5));
+    }
+
+    @Test
+    public void replacesAndDeletes() {
+        ConcurrentCookieJar jar = new ConcurrentCookieJar();
+
+        save(jar, "https://example.com/", "a=1", "b=2");
+        save(jar, "https://example.com/", "a=3");
+
+        assertThat(load(jar, "https://example.com/"), is("a=3; b=2"));
+        assertThat(jar.size(), is(2));
+
+        save(jar, "https://example.com/", "b=gone; Max-Age=0");
+
+        assertThat(load(jar, "https://example.com/"), is("a=3"));
+        assertThat(jar.size(), is(1));
+    }
+
+    @Test
+    public void dropsEmptySitesAndPaths() throws Exception {
+        ConcurrentCookieJar jar = new ConcurrentCookieJar();
+
+        save(jar, "https://example.com/", "a=1", "b=2; Path=/docs");
+        save(jar, "https://other.com/", "c=3; Max-Age=1");
+
+        assertThat(jar.siteCount(), is(2));
+        assertThat(jar.pathCount(), is(3));
+
+        // deleted
+        save(jar, "https://example.com/", "b=gone; Path=/docs; Max-Age=0");
+
+        assertThat(jar.siteCount(), is(2));
+        assertThat(jar.pathCount(), is(2));
+
+        save(jar, "https://example.com/", "a=gone; Max-Age=0");
+
+        assertThat(jar.siteCount(), is(1));
+        assertThat(jar.pathCount(), is(1));
+
+        // expired (and evicted lazily)
+        Thread.sleep(1100L);
+
+        assertThat(load(jar, "https://other.com/"), is(""));
+        assertThat(jar.siteCount(), is(0));
+        assertThat(jar.pathCount(), is(0));
+        assertThat(jar.size(), is(0));
+
+        // and a dropped site is simply created again
+        save(jar, "https://example.com/", "a=1");
+
+        assertThat(load(jar, "https://example.com/"), is("a=1"));
+        assertThat(jar.siteCount(), is(1));
+    }
+
+    @Test
+    public void evictsExpiredLazily() throws Exception {
+        ConcurrentCookieJar jar = new ConcurrentCookieJar();
+        HttpUrl url = HttpUrl.parse("https://example.com/");
+
+        Cookie expiring = new Cookie.Builder()
+            .name("a")
+            .value("1")
+            .domain("example.com")
+            .expiresAt(System.currentTimeMillis() + 50L)
+            .build();
+
+        jar.saveFromResponse(url, Arrays.asList(expiring));
+
+        assertThat(load(jar, "https://example.com/"), is("a=1"));
+
+        Thread.sleep(100L);
+
+        assertThat(jar.size(), is(1));
+        assertThat(load(jar, "https://example.com/"), is(""));
+        assertThat(jar.size(), is(0));
+    }
+
+    @Test
+    public void maxCookies() {
+        ConcurrentCookieJar jar = new ConcurrentCookieJar(4, 2);
+
+        save(jar, "https://a.com/", "a=1; Max-Age=100", "b=2", "c=3; Max-Age=50");
+
+        // the soonest to expire evicted first
+        assertThat(load(jar, "https://a.com/"), is("a=1; b=2"));
+
+        save(jar, "https://b.com/", "d=4", "e=5");
+        load(jar, "https://a.com/");
+        save(jar, "https://c.com/", "f=6");
+
+        // least recently used site evicted
+        assertThat(jar.size(), is(3));
+        assertThat(load(jar, "https://b.com/"), is(""));
+        assertThat(load(jar, "https://a.com/"), is("a=1; b=2"));
+        assertThat(load(jar, "https://c.com/"), is("f=6"));
+    }
+
+    @Test
+    public void maxCookiesOfSingleSite() {
+        ConcurrentCookieJar jar = new ConcurrentCookieJar(3, 0);
+
+        save(jar, "https://a.com/", "a=1; Max-Age=100", "b=2", "c=3; Max-Age=50");
+        save(jar, "https://a.com/", "d=4; Max-Age=200", "e=5; Max-Age=10");
+
+        // no other site to evict, so the soonest to expire of the site itself
+        assertThat(jar.size(), is(3));
+        assertThat(load(jar, "https://a.com/"), is("a=1; b=2; d=4"));
+    }
+
+    @Test
+    public void concurrentSites() throws Exception {
+        ConcurrentCookieJar jar = new ConcurrentCookieJar();
+        List<Thread> threads = new ArrayList<>();
+
+        for (int t = 0; t < 8; t++) {
+            final int n = t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 200; i++) {
+                    save(jar, "https://site" + n + ".com/", "c" + i + "=" + i);
+                    load(jar, "https://site" + n + ".com/");
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(jar.size(), is(1600));
+        assertThat(jar.loadForRequest(HttpUrl.parse("https://site3.com/")).size(), is(200));
+    }
+
+    @Test
+    public void concurrentSaveAndClear() throws Exception {
+        ConcurrentCookieJar jar = new ConcurrentCookieJar();
+        List<Thread> threads = new ArrayList<>();
+
+        for (int t = 0; t < 4; t++) {
+            final int n = t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 2000; i++) {
+                    save(jar, "https://example.com/", "c" + n + "_" + (i % 50) + "=" + i);
+                }
+            }));
+        }
+        threads.add(new Thread(() -> {
+            for (int i = 0; i < 2000; i++) {
+                jar.clear();
+            }
+        }));
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // the count always matches the cookies actually in the jar
+        assertThat(jar.size(), is(jar.loadForRequest(HttpUrl.parse("https://example.com/")).size()));
+
+        jar.clear();
+
+        assertThat(jar.size(), is(0));
+    }
+
+    @Test
+    public void concurrentSaveAndDelete() throws Exception {
+        ConcurrentCookieJar jar = new ConcurrentCookieJar();
+        List<Thread> threads = new ArrayList<>();
+
+        for (int t = 0; t < 4; t++) {
+            final int n = t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 2000; i++) {
+                    // keeps emptying the site (and path) while others save to it
+                    save(jar, "https://example.com/", "c" + n + "=" + i + "; Path=/p" + (i % 3));
+                    save(jar, "https://example.com/", "c" + n + "=gone; Path=/p" + (i % 3) + "; Max-Age=0");
+                }
+                save(jar, "https://example.com/", "keep" + n + "=1");
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(load(jar, "https://example.com/"), is("keep0=1; keep1=1; keep2=1; keep3=1"));
+        assertThat(jar.size(), is(4));
+        assertThat(jar.siteCount(), is(1));
+        assertThat(jar.pathCount(), is(1));
+    }
+
+}
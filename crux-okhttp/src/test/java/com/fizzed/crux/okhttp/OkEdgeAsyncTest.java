@@ -0,0 +1,169 @@
+/*
+ * Copyright 2024 Fizzed, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fizzed.crux.okhttp;
+
+import com.fizzed.crux.util.TimeDuration;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import okhttp3.Response;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OkEdgeAsyncTest {
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private String baseUrl;
+    private OkHttpClientRegistry registry;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private volatile CountDownLatch slow = new CountDownLatch(0);
+
+    @Before
+    public void before() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.serverExecutor = Executors.newCachedThreadPool();
+        this.server.setExecutor(this.serverExecutor);
+        this.server.createContext("/", (exchange) -> {
+            final int n = this.inFlight.incrementAndGet();
+            this.maxInFlight.accumulateAndGet(n, Math::max);
+            try {
+                this.slow.await(5, TimeUnit.SECONDS);
+                Thread.sleep(20);
+                final byte[] body = exchange.getRequestURI().getPath().getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream output = exchange.getResponseBody()) {
+                    output.write(body);
+                }
+            } catch (InterruptedException e) {
+                // ignore
+            } finally {
+                this.inFlight.decrementAndGet();
+                exchange.close();
+            }
+        });
+        this.server.start();
+        this.baseUrl = "http://127.0.0.1:" + this.server.getAddress().getPort();
+        this.registry = new OkHttpClientRegistry();
+    }
+
+    @After
+    public void after() throws InterruptedException {
+        this.slow.countDown();
+        this.registry.shutdown(TimeDuration.seconds(2));
+        this.server.stop(0);
+        this.serverExecutor.shutdownNow();
+    }
+
+    private OkEdge edge(String path) {
+        return OkEdge.create()
+            .clientRegistry(this.registry)
+            .get(this.baseUrl + path);
+    }
+
+    @Test
+    public void executeAsync() throws Exception {
+        try (Response response = this.edge("/hello").executeAsync().get(5, TimeUnit.SECONDS)) {
+            assertThat(response.code(), is(200));
+            assertThat(response.body().string(), is("/hello"));
+        }
+    }
+
+    @Test
+    public void executeAsyncFailure() throws Exception {
+        CompletableFuture<Response> future = OkEdge.create()
+            .clientRegistry(this.registry)
+            .get("http://127.0.0.1:1/nothing")
+            .executeAsync();
+
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(IOException.class));
+        }
+    }
+
+    @Test
+    public void executeAsyncCancel() throws Exception {
+        this.slow = new CountDownLatch(1);
+
+        CompletableFuture<Response> future = this.edge("/slow").executeAsync();
+
+        assertThat(future.cancel(true), is(true));
+        assertThat(future.isCancelled(), is(true));
+        // nothing left running on the dispatcher
+        for (int i = 0; i < 100 && this.registry.getRoot().dispatcher().runningCallsCount() > 0; i++) {
+            Thread.sleep(20);
+        }
+        assertThat(this.registry.getRoot().dispatcher().runningCallsCount(), is(0));
+    }
+
+    @Test
+    public void executeBatch() throws Exception {
+        List<OkEdge> edges = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            edges.add(this.edge("/" + i));
+        }
+
+        List<CompletableFuture<Response>> futures = OkEdge.executeAsync(edges, 3);
+
+        assertThat(futures.size(), is(12));
+        for (int i = 0; i < 12; i++) {
+            try (Response response = futures.get(i).get(5, TimeUnit.SECONDS)) {
+                assertThat(response.body().string(), is("/" + i));
+            }
+        }
+        assertThat(this.maxInFlight.get() <= 3, is(true));
+    }
+
+    @Test
+    public void executeBatchCancelNotStarted() throws Exception {
+        List<OkEdge> edges = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            edges.add(this.edge("/" + i));
+        }
+
+        List<CompletableFuture<Response>> futures = OkEdge.executeAsync(edges, 1);
+
+        futures.get(2).cancel(true);
+
+        futures.get(3).get(5, TimeUnit.SECONDS).close();
+        assertThat(futures.get(2).isCancelled(), is(true));
+        assertThat(futures.get(0).isDone(), is(true));
+        assertThat(futures.get(1).isDone(), is(true));
+        futures.get(0).get().close();
+        futures.get(1).get().close();
+    }
+
+}
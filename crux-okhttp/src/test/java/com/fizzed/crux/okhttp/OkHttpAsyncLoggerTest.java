@@ -0,0 +1,280 @@
+/*
+ * Copyright 2024 Fizzed, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fizzed.crux.okhttp;
+
+import com.fizzed.crux.util.MessageLevel;
+import com.fizzed.crux.util.TimeDuration;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.startsWith;
+import static org.hamcrest.MatcherAssert.assertThat;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.helpers.MessageFormatter;
+
+public class OkHttpAsyncLoggerTest {
+
+    private HttpServer server;
+    private String baseUrl;
+
+    /**
+     * Logger that keeps every message logged to it (at any level).
+     */
+    static private Logger capturingLogger(boolean enabled, List<String> messages) {
+        return (Logger)Proxy.newProxyInstance(Logger.class.getClassLoader(), new Class<?>[] { Logger.class }, (proxy, method, args) -> {
+            if (method.getName().startsWith("is")) {
+                return enabled;
+            }
+            if (method.getName().equals("getName")) {
+                return "capturing";
+            }
+            if (enabled && args != null && args.length == 2 && args[1] instanceof Object[]) {
+                messages.add(MessageFormatter.arrayFormat((String)args[0], (Object[])args[1]).getMessage());
+            }
+            return null;
+        });
+    }
+
+    @Before
+    public void before() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.createContext("/", (exchange) -> {
+            try (InputStream input = exchange.getRequestBody()) {
+                while (input.read() != -1) {
+                    // drain
+                }
+            }
+            final byte[] body = "nope".getBytes("UTF-8");
+            exchange.getResponseHeaders().add("Content-Type", "text/plain");
+            exchange.sendResponseHeaders(500, body.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(body);
+            }
+            exchange.close();
+        });
+        this.server.start();
+        this.baseUrl = "http://127.0.0.1:" + this.server.getAddress().getPort();
+    }
+
+    @After
+    public void after() {
+        this.server.stop(0);
+    }
+
+    @Test
+    public void dropsWhenFull() throws Exception {
+        try (OkHttpAsyncLogger asyncLogger = new OkHttpAsyncLogger(2)) {
+            dropsWhenFull(asyncLogger);
+        }
+    }
+
+    private void dropsWhenFull(OkHttpAsyncLogger asyncLogger) throws Exception {
+        List<String> messages = new CopyOnWriteArrayList<>();
+        Logger logger = capturingLogger(true, messages);
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+
+        // occupy the background thread
+        asyncLogger.log(MessageLevel.DEBUG, logger, () -> {
+            started.countDown();
+            blocked.await(5, TimeUnit.SECONDS);
+            return "first";
+        });
+        assertThat(started.await(5, TimeUnit.SECONDS), is(true));
+
+        assertThat(asyncLogger.log(MessageLevel.DEBUG, logger, () -> "second"), is(true));
+        assertThat(asyncLogger.log(MessageLevel.DEBUG, logger, () -> "third"), is(true));
+        assertThat(asyncLogger.log(MessageLevel.DEBUG, logger, () -> "fourth"), is(false));
+        assertThat(asyncLogger.getDropped(), is(1L));
+
+        blocked.countDown();
+
+        assertThat(asyncLogger.flush(TimeDuration.seconds(5)), is(true));
+        assertThat(messages.toString(), is("[first, second, third]"));
+    }
+
+    @Test
+    public void interceptorLogsInBackground() throws Exception {
+        try (OkHttpAsyncLogger asyncLogger = new OkHttpAsyncLogger(16)) {
+            interceptorLogsInBackground(asyncLogger);
+        }
+    }
+
+    private void interceptorLogsInBackground(OkHttpAsyncLogger asyncLogger) throws Exception {
+        List<String> messages = new CopyOnWriteArrayList<>();
+
+        OkHttpLoggingInterceptor interceptor = new OkHttpLoggingInterceptor();
+        interceptor.setLogger(capturingLogger(true, messages));
+        interceptor.setAsyncLogger(asyncLogger);
+        interceptor.setRequestLoggingLevel(OkLoggingLevel.BODY);
+        interceptor.setResponseLoggingLevel(OkLoggingLevel.BODY);
+        interceptor.setMaxRequestBodySize(5);
+
+        OkHttpClient client = new OkHttpClient.Builder()
+            .addNetworkInterceptor(interceptor)
+            .build();
+
+        Request request = new Request.Builder()
+            .url(this.baseUrl + "/test")
+            .post(RequestBody.create(MediaType.parse("text/plain"), "hello world"))
+            .build();
+
+        try (Response response = client.newCall(request).execute()) {
+            assertThat(response.code(), is(500));
+            assertThat(response.body().string(), is("nope"));
+        }
+
+        assertThat(asyncLogger.flush(TimeDuration.seconds(5)), is(true));
+
+        assertThat(messages.size(), is(2));
+        assertThat(messages.get(0), startsWith("--> POST " + this.baseUrl + "/test"));
+        assertThat(messages.get(0), containsString("\nhello\n--- TRUNCATED BODY (5 of 11-byte body)"));
+        assertThat(messages.get(1), startsWith("<-- 500"));
+        assertThat(messages.get(1), containsString("\nnope\n<-- END HTTP (4-byte body)"));
+    }
+
+    @Test
+    public void closeLogsQueuedAndStops() throws Exception {
+        OkHttpAsyncLogger asyncLogger = new OkHttpAsyncLogger(16);
+        List<String> messages = new CopyOnWriteArrayList<>();
+        Logger logger = capturingLogger(true, messages);
+
+        assertThat(asyncLogger.log(MessageLevel.DEBUG, logger, () -> "first"), is(true));
+
+        asyncLogger.close();
+
+        assertThat(asyncLogger.log(MessageLevel.DEBUG, logger, () -> "second"), is(false));
+        assertThat(asyncLogger.getDropped(), is(1L));
+        // waits for the background thread to exit
+        assertThat(asyncLogger.flush(TimeDuration.seconds(5)), is(true));
+        assertThat(messages.toString(), is("[first]"));
+    }
+
+    @Test
+    public void closeDoesNotInterruptLogging() throws Exception {
+        OkHttpAsyncLogger asyncLogger = new OkHttpAsyncLogger(16);
+        List<String> messages = new CopyOnWriteArrayList<>();
+        Logger logger = capturingLogger(true, messages);
+        CountDownLatch started = new CountDownLatch(1);
+
+        asyncLogger.log(MessageLevel.DEBUG, logger, () -> {
+            started.countDown();
+            Thread.sleep(200L);
+            return "first " + Thread.currentThread().isInterrupted();
+        });
+        asyncLogger.log(MessageLevel.DEBUG, logger, () -> "second " + Thread.currentThread().isInterrupted());
+        assertThat(started.await(5, TimeUnit.SECONDS), is(true));
+
+        asyncLogger.close();
+
+        assertThat(asyncLogger.flush(TimeDuration.seconds(5)), is(true));
+        assertThat(messages.toString(), is("[first false, second false]"));
+    }
+
+    @Test
+    public void logRacingCloseIsLoggedOrDropped() throws Exception {
+        for (int n = 0; n < 20; n++) {
+            OkHttpAsyncLogger asyncLogger = new OkHttpAsyncLogger(1024);
+            List<String> messages = new CopyOnWriteArrayList<>();
+            Logger logger = capturingLogger(true, messages);
+            AtomicInteger accepted = new AtomicInteger();
+            List<Thread> threads = new ArrayList<>();
+
+            for (int t = 0; t < 4; t++) {
+                threads.add(new Thread(() -> {
+                    for (int i = 0; i < 200; i++) {
+                        if (asyncLogger.log(MessageLevel.DEBUG, logger, () -> "message")) {
+                            accepted.incrementAndGet();
+                        }
+                    }
+                }));
+            }
+            threads.forEach(Thread::start);
+            asyncLogger.close();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            // every message accepted is logged, every other one is dropped
+            assertThat(asyncLogger.flush(TimeDuration.seconds(5)), is(true));
+            assertThat(messages.size(), is(accepted.get()));
+            assertThat(asyncLogger.getDropped(), is(800L - accepted.get()));
+        }
+    }
+
+    @Test
+    public void defaultNotClosed() throws Exception {
+        OkHttpAsyncLogger asyncLogger = OkHttpAsyncLogger.getDefault();
+        List<String> messages = new CopyOnWriteArrayList<>();
+
+        // lives as long as the jvm, so closing it does nothing
+        asyncLogger.close();
+
+        assertThat(asyncLogger.log(MessageLevel.DEBUG, capturingLogger(true, messages), () -> "first"), is(true));
+        assertThat(asyncLogger.flush(TimeDuration.seconds(5)), is(true));
+        assertThat(messages.toString(), is("[first]"));
+    }
+
+    @Test
+    public void interceptorDisabledLogger() throws Exception {
+        List<String> messages = new CopyOnWriteArrayList<>();
+
+        OkHttpLoggingInterceptor interceptor = new OkHttpLoggingInterceptor();
+        interceptor.setLogger(capturingLogger(false, messages));
+        interceptor.setRequestLoggingLevel(OkLoggingLevel.BODY);
+        interceptor.setResponseLoggingLevel(OkLoggingLevel.BODY);
+
+        OkHttpClient client = new OkHttpClient.Builder()
+            .addNetworkInterceptor(interceptor)
+            .addNetworkInterceptor((chain) -> {
+                // the body was never wrapped to be captured
+                assertThat(chain.request().body() instanceof CapturingRequestBody, is(false));
+                return chain.proceed(chain.request());
+            })
+            .build();
+
+        Request request = new Request.Builder()
+            .url(this.baseUrl + "/test")
+            .post(RequestBody.create(MediaType.parse("text/plain"), "hello world"))
+            .build();
+
+        try (Response response = client.newCall(request).execute()) {
+            assertThat(response.code(), is(500));
+        }
+
+        assertThat(messages.size(), is(0));
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2024 Fizzed, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fizzed.crux.okhttp;
+
+import com.fizzed.crux.util.TimeDuration;
+import okhttp3.OkHttpClient;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+public class OkHttpClientRegistryTest {
+
+    @Test
+    public void sharedByEffectiveOptions() {
+        OkHttpClientRegistry registry = new OkHttpClientRegistry();
+
+        OkHttpOptions<?> options1 = new OkHttpOptions<>();
+        options1.setReadTimeout(5000L);
+        options1.setLoggingLevel(OkLoggingLevel.BASIC);
+
+        OkHttpOptions<?> options2 = new OkHttpOptions<>();
+        options2.setReadTimeout(5000L);
+        options2.setLoggingLevel(OkLoggingLevel.BASIC);
+
+        OkHttpClient client1 = registry.get(options1);
+        OkHttpClient client2 = registry.get(options2);
+
+        assertThat(client1, is(sameInstance(client2)));
+        assertThat(client1.readTimeoutMillis(), is(5000));
+        assertThat(registry.size(), is(1));
+
+        options2.setInsecure(true);
+        OkHttpClient client3 = registry.get(options2);
+
+        assertThat(client3, is(not(sameInstance(client1))));
+        assertThat(registry.size(), is(2));
+
+        // everything is shared with the root
+        assertThat(client3.connectionPool(), is(sameInstance(registry.getRoot().connectionPool())));
+        assertThat(client3.dispatcher(), is(sameInstance(registry.getRoot().dispatcher())));
+        assertThat(client1.connectionPool(), is(sameInstance(client3.connectionPool())));
+    }
+
+    @Test
+    public void shutdown() throws Exception {
+        OkHttpClientRegistry registry = new OkHttpClientRegistry();
+
+        registry.get(new OkHttpOptions<>());
+        registry.shutdown(TimeDuration.seconds(1));
+
+        assertThat(registry.isShutdown(), is(true));
+        assertThat(registry.size(), is(0));
+        assertThat(registry.getRoot().dispatcher().executorService().isShutdown(), is(true));
+
+        try {
+            registry.get(new OkHttpOptions<>());
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void edgeUsesRegistry() {
+        OkHttpClientRegistry registry = new OkHttpClientRegistry();
+
+        OkHttpClient client1 = OkEdge.create()
+            .clientRegistry(registry)
+            .readTimeout(2000L)
+            .client();
+
+        OkHttpClient client2 = OkEdge.create(new OkEdgeState().clientRegistry(registry))
+            .readTimeout(2000L)
+            .client();
+
+        assertThat(client1, is(sameInstance(client2)));
+        assertThat(client1.readTimeoutMillis(), is(2000));
+
+        // cookies are per state, but still share the pool
+        OkHttpClient client3 = OkEdge.create(new OkEdgeState().clientRegistry(registry).cookies(true))
+            .readTimeout(2000L)
+            .client();
+
+        assertThat(client3, is(not(sameInstance(client1))));
+        assertThat(client3.connectionPool(), is(sameInstance(client1.connectionPool())));
+        assertThat(registry.size(), is(1));
+    }
+
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright 2024 Fizzed, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fizzed.crux.okhttp;
+
+import com.fizzed.crux.util.TimeDuration;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.MatcherAssert.assertThat;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OkHttpCoalescingInterceptorTest {
+
+    private HttpServer server;
+    private String baseUrl;
+    private AtomicInteger requests;
+
+    @Before
+    public void before() throws IOException {
+        this.requests = new AtomicInteger();
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.setExecutor(Executors.newCachedThreadPool());
+        this.server.createContext("/", (exchange) -> {
+            this.requests.incrementAndGet();
+            try {
+                Thread.sleep(300L);
+            } catch (InterruptedException e) {
+                // ignore
+            }
+            final byte[] body = "hello".getBytes("UTF-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(body);
+            }
+            exchange.close();
+        });
+        this.server.createContext("/stream", (exchange) -> {
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write("hel".getBytes("UTF-8"));
+                output.flush();
+                Thread.sleep(1000L);
+                output.write("lo".getBytes("UTF-8"));
+            } catch (InterruptedException e) {
+                // ignore
+            }
+            exchange.close();
+        });
+        this.server.start();
+        this.baseUrl = "http://127.0.0.1:" + this.server.getAddress().getPort();
+    }
+
+    @After
+    public void after() {
+        this.server.stop(0);
+    }
+
+    private List<String> burst(OkHttpClient client, int count) throws Exception {
+        final CyclicBarrier barrier = new CyclicBarrier(count);
+        final List<String> bodies = new ArrayList<>();
+        final List<Thread> threads = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            threads.add(new Thread(() -> {
+                try {
+                    barrier.await();
+                    try (Response response = client.newCall(new Request.Builder().url(this.baseUrl + "/config").build()).execute()) {
+                        final String body = response.body().string();
+                        synchronized (bodies) {
+                            bodies.add(body);
+                        }
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        return bodies;
+    }
+
+    @Test
+    public void coalescesBurst() throws Exception {
+        OkHttpCoalescingInterceptor interceptor = new OkHttpCoalescingInterceptor();
+
+        OkHttpClient client = new OkHttpClient.Builder()
+            .addInterceptor(interceptor)
+            .build();
+
+        List<String> bodies = burst(client, 8);
+
+        assertThat(bodies.size(), is(8));
+        assertThat(bodies.stream().allMatch("hello"::equals), is(true));
+        assertThat(this.requests.get(), is(1));
+        assertThat(interceptor.getCoalesced(), is(7L));
+
+        // once completed, the next request goes upstream again
+        burst(client, 1);
+
+        assertThat(this.requests.get(), is(2));
+    }
+
+    @Test
+    public void bodyTooLargeToShare() throws Exception {
+        OkHttpCoalescingInterceptor interceptor = new OkHttpCoalescingInterceptor(2L);
+
+        OkHttpClient client = new OkHttpClient.Builder()
+            .addInterceptor(interceptor)
+            .build();
+
+        List<String> bodies = burst(client, 4);
+
+        assertThat(bodies.size(), is(4));
+        assertThat(bodies.stream().allMatch("hello"::equals), is(true));
+        assertThat(this.requests.get(), is(4));
+        assertThat(interceptor.getCoalesced(), is(0L));
+    }
+
+    private List<Object> waiters(OkHttpClient client, int count) throws Exception {
+        final List<Object> results = new ArrayList<>();
+        final List<Thread> threads = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            threads.add(new Thread(() -> {
+                Object result;
+                try (Response response = client.newCall(new Request.Builder().url(this.baseUrl + "/config").build()).execute()) {
+                    result = response.body().string();
+                } catch (Exception e) {
+                    result = e;
+                }
+                synchronized (results) {
+                    results.add(result);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        return results;
+    }
+
+    @Test
+    public void canceledLeaderReleasesWaiters() throws Exception {
+        OkHttpCoalescingInterceptor interceptor = new OkHttpCoalescingInterceptor();
+
+        OkHttpClient client = new OkHttpClient.Builder()
+            .addInterceptor(interceptor)
+            .build();
+
+        final Call leader = client.newCall(new Request.Builder().url(this.baseUrl + "/config").build());
+        final Thread leaderThread = new Thread(() -> {
+            try (Response response = leader.execute()) {
+                response.body().string();
+            } catch (IOException e) {
+                // expected
+            }
+        });
+        leaderThread.start();
+        Thread.sleep(100L);
+
+        final Thread canceler = new Thread(() -> {
+            try {
+                Thread.sleep(100L);
+            } catch (InterruptedException e) {
+                // ignore
+            }
+            leader.cancel();
+        });
+        canceler.start();
+
+        List<Object> results = waiters(client, 3);
+        leaderThread.join();
+        canceler.join();
+
+        // none of the waiters fail because the leader was canceled
+        assertThat(results.size(), is(3));
+        assertThat(results.stream().allMatch("hello"::equals), is(true));
+        assertThat(this.requests.get(), is(4));
+        assertThat(interceptor.getCoalesced(), is(0L));
+    }
+
+    @Test
+    public void failedLeaderReleasesWaiters() throws Exception {
+        OkHttpCoalescingInterceptor interceptor = new OkHttpCoalescingInterceptor();
+        AtomicBoolean first = new AtomicBoolean(true);
+
+        OkHttpClient client = new OkHttpClient.Builder()
+            .addInterceptor(interceptor)
+            .addInterceptor((chain) -> {
+                if (first.compareAndSet(true, false)) {
+                    try {
+                        Thread.sleep(300L);
+                    } catch (InterruptedException e) {
+                        // ignore
+                    }
+                    throw new IOException("Leader failed");
+                }
+                return chain.proceed(chain.request());
+            })
+            .build();
+
+        List<Object> results = waiters(client, 4);
+
+        // the leader fails on its own, the others make their own calls
+        assertThat(results.size(), is(4));
+        assertThat(results.stream().filter("hello"::equals).count(), is(3L));
+        assertThat(results.stream().filter((r) -> r instanceof IOException).count(), is(1L));
+        assertThat(this.requests.get(), is(3));
+        assertThat(interceptor.getCoalesced(), is(0L));
+    }
+
+    @Test
+    public void waitBoundedByMaxWait() throws Exception {
+        OkHttpCoalescingInterceptor interceptor = new OkHttpCoalescingInterceptor(
+            OkHttpCoalescingInterceptor.DEFAULT_MAX_BODY_SIZE, TimeDuration.millis(50L));
+
+        OkHttpClient client = new OkHttpClient.Builder()
+            .addInterceptor(interceptor)
+            .build();
+
+        List<Object> results = waiters(client, 4);
+
+        assertThat(results.size(), is(4));
+        assertThat(results.stream().filter("hello"::equals).count(), is(1L));
+        assertThat(results.stream().filter((r) -> r instanceof SocketTimeoutException).count(), is(3L));
+        assertThat(this.requests.get(), is(1));
+    }
+
+    @Test
+    public void streamsWithoutWaiters() throws Exception {
+        OkHttpCoalescingInterceptor interceptor = new OkHttpCoalescingInterceptor();
+
+        OkHttpClient client = new OkHttpClient.Builder()
+            .addInterceptor(interceptor)
+            .build();
+
+        final long start = System.currentTimeMillis();
+        try (Response response = client.newCall(new Request.Builder().url(this.baseUrl + "/stream").build()).execute()) {
+            // nobody waiting, so the body isn't buffered before its handed out
+            assertThat(response.body().source().readUtf8(3), is("hel"));
+            assertThat(System.currentTimeMillis() - start, lessThan(800L));
+            assertThat(response.body().source().readUtf8(), is("lo"));
+        }
+    }
+
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2024 Fizzed, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fizzed.crux.okhttp;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.net.SocketFactory;
+import okhttp3.Dns;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OkHttpMetricsTest {
+
+    private HttpServer server;
+    private String baseUrl;
+
+    @Before
+    public void before() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.createContext("/", (exchange) -> {
+            final int code = exchange.getRequestURI().getPath().equals("/missing") ? 404 : 200;
+            final byte[] body = "ok".getBytes("UTF-8");
+            exchange.sendResponseHeaders(code, body.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(body);
+            }
+            exchange.close();
+        });
+        this.server.start();
+        this.baseUrl = "http://127.0.0.1:" + this.server.getAddress().getPort();
+    }
+
+    @After
+    public void after() {
+        this.server.stop(0);
+    }
+
+    @Test
+    public void histogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i, TimeUnit.MILLISECONDS);
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+        assertThat(snapshot.getCount(), is(100L));
+        assertThat(snapshot.getMean(), is(50.5d));
+        assertThat(snapshot.getMax(), is(100d));
+        // within the 12.5% of a bucket
+        assertThat(Math.abs(snapshot.getPercentile(50d) - 50d) <= 50d * 0.125d, is(true));
+        assertThat(Math.abs(snapshot.getPercentile(99d) - 99d) <= 99d * 0.125d, is(true));
+        assertThat(snapshot.getPercentile(100d), is(100d));
+
+        // every value is in a bucket whose range includes it
+        for (long v = 0; v < 100000; v += 7) {
+            int bucket = LatencyHistogram.bucketOf(v);
+            assertThat(LatencyHistogram.lowestOf(bucket) <= v && v <= LatencyHistogram.highestOf(bucket), is(true));
+        }
+    }
+
+    @Test
+    public void recordsExchanges() throws IOException {
+        OkHttpMetrics metrics = new OkHttpMetrics();
+
+        OkHttpClient client = metrics.configure(new OkHttpClient.Builder(), Dns.SYSTEM, SocketFactory.getDefault())
+            .build();
+
+        for (String path : new String[] { "/a", "/b", "/missing" }) {
+            try (Response response = client.newCall(new Request.Builder().url(this.baseUrl + path).build()).execute()) {
+                response.body().string();
+            }
+        }
+
+        OkHttpMetrics.Snapshot snapshot = metrics.snapshot();
+        OkHttpMetrics.EndpointSnapshot endpoint = snapshot.getEndpoint("GET", "127.0.0.1");
+
+        assertThat(endpoint.getLatency().getCount(), is(3L));
+        assertThat(endpoint.getStatusCount(2), is(2L));
+        assertThat(endpoint.getStatusCount(4), is(1L));
+        assertThat(endpoint.getFailureCount(), is(0L));
+        assertThat(snapshot.getConnectionsOpened(), is(1L));
+        assertThat(snapshot.getConnectionsReused(), is(2L));
+        assertThat(snapshot.getReuseRatio(), is(2d / 3d));
+        assertThat(snapshot.getDns().getCount(), is(1L));
+        assertThat(snapshot.getConnect().getCount(), is(1L));
+        // not https
+        assertThat(snapshot.getTls().getCount(), is(0L));
+    }
+
+    @Test
+    public void failedHandshakeNotLeftBehind() throws IOException {
+        OkHttpMetrics metrics = new OkHttpMetrics();
+
+        OkHttpClient client = metrics.configure(new OkHttpClient.Builder(), Dns.SYSTEM, SocketFactory.getDefault())
+            .build();
+
+        try (Response response = client.newCall(new Request.Builder().url(this.baseUrl + "/a").build()).execute()) {
+            response.body().string();
+        }
+
+        // connects but the tls handshake fails (the server is not https)
+        try {
+            client.newCall(new Request.Builder().url(this.baseUrl.replace("http:", "https:") + "/a").build()).execute();
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+
+        try (Response response = client.newCall(new Request.Builder().url(this.baseUrl + "/b").build()).execute()) {
+            response.body().string();
+        }
+
+        OkHttpMetrics.Snapshot snapshot = metrics.snapshot();
+
+        assertThat(snapshot.getConnectionsOpened(), is(1L));
+        assertThat(snapshot.getConnectionsReused(), is(1L));
+        assertThat(snapshot.getTls().getCount(), is(0L));
+    }
+
+    @Test
+    public void enabledByProperty() {
+        OkHttpOptions<?> options = new OkHttpOptions<>();
+        Map<String,String> properties = new HashMap<>();
+        properties.put("metrics", "true");
+        options.setProperties(properties);
+
+        assertThat(options.getMetrics(), is(true));
+
+        OkHttpClient client = OkHttpUtils.buildClient(options);
+
+        assertThat(client.interceptors().contains(OkHttpMetrics.getDefault().callInterceptor()), is(true));
+        assertThat(client.networkInterceptors().contains(OkHttpMetrics.getDefault().interceptor()), is(true));
+    }
+
+}
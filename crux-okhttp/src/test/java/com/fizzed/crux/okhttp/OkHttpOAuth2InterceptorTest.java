@@ -0,0 +1,220 @@
+/*
+ * Copyright 2024 Fizzed, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fizzed.crux.okhttp;
+
+import com.fizzed.crux.util.TimeDuration;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+public class OkHttpOAuth2InterceptorTest {
+
+    @Test
+    public void cachesUntilRefreshAhead() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        final List<Runnable> tasks = new ArrayList<>();
+
+        OkHttpOAuth2Interceptor interceptor = new OkHttpOAuth2Interceptor(() -> {
+            final int n = calls.incrementAndGet();
+            return new AccessTokenCredentials("token" + n, null, Instant.now().plusSeconds(n == 1 ? 30 : 3600));
+        });
+        interceptor.setExecutor(tasks::add);
+
+        assertThat(interceptor.buildAuthorizationHeader(), is("Bearer token1"));
+        assertThat(calls.get(), is(1));
+
+        // within the refresh-ahead, so still the cached header and just one
+        // refresh in the background
+        assertThat(interceptor.buildAuthorizationHeader(), is("Bearer token1"));
+        assertThat(interceptor.buildAuthorizationHeader(), is("Bearer token1"));
+        assertThat(tasks.size(), is(1));
+        assertThat(calls.get(), is(1));
+
+        tasks.get(0).run();
+
+        assertThat(calls.get(), is(2));
+        assertThat(interceptor.buildAuthorizationHeader(), is("Bearer token2"));
+        assertThat(interceptor.buildAuthorizationHeader(), is("Bearer token2"));
+        assertThat(tasks.size(), is(1));
+        assertThat(calls.get(), is(2));
+    }
+
+    @Test
+    public void backgroundRefreshThrottledWhenUnchanged() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        final Instant expiresAt = Instant.now().plusSeconds(30);
+
+        // the supplier keeps returning the same token inside the refresh-ahead
+        OkHttpOAuth2Interceptor interceptor = new OkHttpOAuth2Interceptor(() -> {
+            calls.incrementAndGet();
+            return new AccessTokenCredentials("token1", null, expiresAt);
+        });
+        interceptor.setExecutor(Runnable::run);
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(interceptor.buildAuthorizationHeader(), is("Bearer token1"));
+        }
+
+        // initial load and then only one background refresh
+        assertThat(calls.get(), is(2));
+    }
+
+    @Test
+    public void failsFastAfterFailedRefresh() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+
+        OkHttpOAuth2Interceptor interceptor = new OkHttpOAuth2Interceptor(() -> {
+            if (calls.incrementAndGet() == 1) {
+                return new AccessTokenCredentials("token1", null, Instant.now().minusSeconds(1));
+            }
+            throw new IOException("token endpoint down");
+        });
+
+        // supplied an already expired token
+        assertThat(interceptor.buildAuthorizationHeader(), is("Bearer token1"));
+
+        for (int i = 0; i < 3; i++) {
+            try {
+                interceptor.buildAuthorizationHeader();
+                fail("expected an exception");
+            } catch (IOException e) {
+                assertThat(e.getCause().getMessage(), is("token endpoint down"));
+            }
+        }
+
+        // the failed refresh is not retried until the min interval passes
+        assertThat(calls.get(), is(2));
+    }
+
+    @Test
+    public void singleRefreshWhenExpired() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch supplying = new CountDownLatch(1);
+
+        OkHttpOAuth2Interceptor interceptor = new OkHttpOAuth2Interceptor(() -> {
+            final int n = calls.incrementAndGet();
+            if (n == 1) {
+                return new AccessTokenCredentials("token1", "Bearer", Instant.now().minusSeconds(1));
+            }
+            try {
+                supplying.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            return new AccessTokenCredentials("token2", "Bearer", Instant.now().plusSeconds(3600));
+        });
+
+        // supplied an already expired token
+        assertThat(interceptor.buildAuthorizationHeader(), is("Bearer token1"));
+
+        final List<String> headers = new ArrayList<>();
+        final List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            threads.add(new Thread(() -> {
+                try {
+                    final String header = interceptor.buildAuthorizationHeader();
+                    synchronized (headers) {
+                        headers.add(header);
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        Thread.sleep(100L);
+        supplying.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(headers.size(), is(8));
+        assertThat(headers.stream().allMatch("Bearer token2"::equals), is(true));
+        assertThat(calls.get(), is(2));
+    }
+
+    @Test
+    public void retriesOnceOn401() throws Exception {
+        final AtomicInteger requests = new AtomicInteger();
+        final HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", (exchange) -> {
+            requests.incrementAndGet();
+            final String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+            final int code = "Bearer good".equals(authorization) ? 200 : 401;
+            final byte[] body = "ok".getBytes("UTF-8");
+            exchange.sendResponseHeaders(code, body.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(body);
+            }
+            exchange.close();
+        });
+        server.start();
+
+        try {
+            final String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+            final AtomicInteger calls = new AtomicInteger();
+
+            OkHttpOAuth2Interceptor interceptor = new OkHttpOAuth2Interceptor(() -> {
+                final String token = calls.incrementAndGet() == 1 ? "revoked" : "good";
+                return new AccessTokenCredentials(token, null, Instant.now().plusSeconds(3600));
+            });
+
+            OkHttpClient client = new OkHttpClient.Builder()
+                .addInterceptor(interceptor)
+                .build();
+
+            try (Response response = client.newCall(new Request.Builder().url(url).build()).execute()) {
+                assertThat(response.code(), is(200));
+            }
+
+            assertThat(requests.get(), is(2));
+            assertThat(calls.get(), is(2));
+
+            // a token that is still rejected is only retried once
+            OkHttpOAuth2Interceptor rejected = new OkHttpOAuth2Interceptor(() -> {
+                return new AccessTokenCredentials("bad" + calls.incrementAndGet(), null, Instant.now().plusSeconds(3600));
+            });
+            rejected.setRefreshAhead(TimeDuration.seconds(1));
+
+            client = new OkHttpClient.Builder()
+                .addInterceptor(rejected)
+                .build();
+
+            try (Response response = client.newCall(new Request.Builder().url(url).build()).execute()) {
+                assertThat(response.code(), is(401));
+            }
+
+            assertThat(requests.get(), is(4));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+}
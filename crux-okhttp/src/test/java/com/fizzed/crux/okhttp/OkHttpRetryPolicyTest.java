@@ -0,0 +1,335 @@
+/*
+ * Copyright 2024 Fizzed, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fizzed.crux.okhttp;
+
+import com.fizzed.crux.util.TimeDuration;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OkHttpRetryPolicyTest {
+
+    private HttpServer server;
+    private String baseUrl;
+    private AtomicInteger requests;
+    // number of requests to fail with a 503
+    private AtomicInteger failures;
+    private AtomicBoolean stall;
+    // stalls every request (rather than just the next one)
+    private AtomicBoolean stallAll;
+
+    @Before
+    public void before() throws IOException {
+        this.requests = new AtomicInteger();
+        this.failures = new AtomicInteger();
+        this.stall = new AtomicBoolean();
+        this.stallAll = new AtomicBoolean();
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.setExecutor(Executors.newCachedThreadPool());
+        this.server.createContext("/", (exchange) -> {
+            this.requests.incrementAndGet();
+            if (this.stallAll.get() || this.stall.compareAndSet(true, false)) {
+                try {
+                    Thread.sleep(3000L);
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+            }
+            final int code = this.failures.getAndDecrement() > 0 ? 503 : 200;
+            final byte[] body = "ok".getBytes("UTF-8");
+            try {
+                exchange.sendResponseHeaders(code, body.length);
+                try (OutputStream output = exchange.getResponseBody()) {
+                    output.write(body);
+                }
+            } catch (IOException e) {
+                // canceled by the client
+            }
+            exchange.close();
+        });
+        this.server.start();
+        this.baseUrl = "http://127.0.0.1:" + this.server.getAddress().getPort();
+    }
+
+    @After
+    public void after() {
+        this.server.stop(0);
+    }
+
+    private int execute(Call.Factory client, Request request) throws IOException {
+        try (Response response = client.newCall(request).execute()) {
+            response.body().string();
+            return response.code();
+        }
+    }
+
+    private int get(Call.Factory client) throws IOException {
+        return this.execute(client, new Request.Builder().url(this.baseUrl + "/").build());
+    }
+
+    @Test
+    public void retriesWithBackoff() throws Exception {
+        OkHttpRetryPolicy policy = new OkHttpRetryPolicy();
+        policy.setMaxRetries(3);
+        policy.setBackoff(TimeDuration.millis(10L));
+        policy.setRetryBudget(new RetryBudget(0.1d, 10));
+
+        Call.Factory client = policy.wrap(new OkHttpClient());
+
+        this.failures.set(2);
+
+        assertThat(get(client), is(200));
+        assertThat(this.requests.get(), is(3));
+        assertThat(policy.getRetries(), is(2L));
+        assertThat(policy.getRetryBudget().getAvailable(), is(8));
+
+        // not idempotent
+        this.failures.set(1);
+
+        assertThat(execute(client, new Request.Builder().url(this.baseUrl + "/")
+            .post(RequestBody.create(MediaType.parse("text/plain"), "hi")).build()), is(503));
+        assertThat(this.requests.get(), is(4));
+    }
+
+    @Test
+    public void retriesEnqueued() throws Exception {
+        OkHttpRetryPolicy policy = new OkHttpRetryPolicy();
+        policy.setMaxRetries(3);
+        policy.setBackoff(TimeDuration.millis(10L));
+        policy.setRetryBudget(new RetryBudget(0.1d, 10));
+
+        Call.Factory client = policy.wrap(new OkHttpClient());
+
+        this.failures.set(2);
+
+        final CompletableFuture<Integer> code = new CompletableFuture<>();
+        client.newCall(new Request.Builder().url(this.baseUrl + "/").build()).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                code.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                try (Response r = response) {
+                    code.complete(r.code());
+                }
+            }
+        });
+
+        assertThat(code.get(5, TimeUnit.SECONDS), is(200));
+        assertThat(this.requests.get(), is(3));
+        assertThat(policy.getRetries(), is(2L));
+    }
+
+    @Test
+    public void budgetExhausted() throws Exception {
+        OkHttpRetryPolicy policy = new OkHttpRetryPolicy();
+        policy.setMaxRetries(5);
+        policy.setBackoff(TimeDuration.millis(1L));
+        policy.setRetryBudget(new RetryBudget(0d, 1));
+
+        Call.Factory client = policy.wrap(new OkHttpClient());
+
+        this.failures.set(100);
+
+        assertThat(get(client), is(503));
+        assertThat(this.requests.get(), is(2));
+        assertThat(get(client), is(503));
+        assertThat(this.requests.get(), is(3));
+        assertThat(policy.getRetries(), is(1L));
+    }
+
+    @Test
+    public void canceledNotRetried() throws Exception {
+        OkHttpRetryPolicy policy = new OkHttpRetryPolicy();
+        policy.setMaxRetries(3);
+        policy.setBackoff(TimeDuration.millis(500L));
+        policy.setRetryBudget(new RetryBudget(0.1d, 10));
+
+        Call.Factory client = policy.wrap(new OkHttpClient());
+
+        this.stall.set(true);
+
+        final Call call = client.newCall(new Request.Builder().url(this.baseUrl + "/").build());
+        final AtomicReference<IOException> failure = new AtomicReference<>();
+        final Thread thread = new Thread(() -> {
+            try (Response response = call.execute()) {
+                response.body().string();
+            } catch (IOException e) {
+                failure.set(e);
+            }
+        });
+        thread.start();
+        Thread.sleep(200L);
+
+        final long start = System.currentTimeMillis();
+
+        call.cancel();
+        thread.join(2000L);
+
+        assertThat(thread.isAlive(), is(false));
+        assertThat(System.currentTimeMillis() - start < 1000L, is(true));
+        assertThat(failure.get() != null, is(true));
+        assertThat(call.isCanceled(), is(true));
+        assertThat(policy.getRetries(), is(0L));
+        assertThat(policy.getRetryBudget().getAvailable(), is(10));
+    }
+
+    @Test
+    public void hedgesSlowRequest() throws Exception {
+        OkHttpRetryPolicy policy = new OkHttpRetryPolicy();
+        policy.setRetryBudget(new RetryBudget(0.1d, 10));
+        policy.setHedging(true);
+
+        // both requests see the logging context of the caller
+        final List<Boolean> allowed = Collections.synchronizedList(new ArrayList<>());
+        OkHttpClient okClient = new OkHttpClient.Builder()
+            .addNetworkInterceptor((chain) -> {
+                allowed.add(OkLoggingContext.current().isAllowRequestBody());
+                return chain.proceed(chain.request());
+            })
+            .build();
+        Call.Factory client = policy.wrap(okClient);
+
+        // observe enough latencies of the host
+        for (int i = 0; i < OkHttpRetryPolicy.MIN_HEDGE_SAMPLES; i++) {
+            assertThat(get(client), is(200));
+        }
+
+        assertThat(policy.getHedges(), is(0L));
+
+        this.stall.set(true);
+        allowed.clear();
+
+        final long start = System.currentTimeMillis();
+
+        try (OkLoggingContext context = OkLoggingContext.current().setAllowRequestBody(false)) {
+            assertThat(get(client), is(200));
+        }
+
+        assertThat(System.currentTimeMillis() - start < 2000L, is(true));
+        assertThat(policy.getHedges(), is(1L));
+        assertThat(this.requests.get(), is(OkHttpRetryPolicy.MIN_HEDGE_SAMPLES + 2));
+        assertThat(allowed, is(Arrays.asList(false, false)));
+
+        // the stalled primary lost, so it was canceled
+        for (int i = 0; i < 50 && okClient.dispatcher().runningCallsCount() > 0; i++) {
+            Thread.sleep(20L);
+        }
+        assertThat(okClient.dispatcher().runningCallsCount(), is(0));
+    }
+
+    @Test
+    public void canceledHedgedCall() throws Exception {
+        OkHttpRetryPolicy policy = new OkHttpRetryPolicy();
+        policy.setMaxRetries(3);
+        policy.setRetryBudget(new RetryBudget(0.1d, 10));
+        policy.setHedging(true);
+
+        OkHttpClient okClient = new OkHttpClient();
+        Call.Factory client = policy.wrap(okClient);
+
+        for (int i = 0; i < OkHttpRetryPolicy.MIN_HEDGE_SAMPLES; i++) {
+            assertThat(get(client), is(200));
+        }
+
+        this.stallAll.set(true);
+
+        final Call call = client.newCall(new Request.Builder().url(this.baseUrl + "/").build());
+        final AtomicReference<IOException> failure = new AtomicReference<>();
+        final Thread thread = new Thread(() -> {
+            try (Response response = call.execute()) {
+                response.body().string();
+            } catch (IOException e) {
+                failure.set(e);
+            }
+        });
+        thread.start();
+        Thread.sleep(500L);
+
+        // both the primary and its hedge are stalled
+        assertThat(policy.getHedges(), is(1L));
+        assertThat(okClient.dispatcher().runningCallsCount(), is(2));
+
+        final long start = System.currentTimeMillis();
+
+        call.cancel();
+        thread.join(2000L);
+
+        assertThat(thread.isAlive(), is(false));
+        assertThat(System.currentTimeMillis() - start < 1000L, is(true));
+        assertThat(failure.get() != null, is(true));
+        assertThat(policy.getRetries(), is(0L));
+
+        // the hedge was canceled too
+        for (int i = 0; i < 50 && okClient.dispatcher().runningCallsCount() > 0; i++) {
+            Thread.sleep(20L);
+        }
+        assertThat(okClient.dispatcher().runningCallsCount(), is(0));
+    }
+
+    @Test
+    public void configuredByProperties() {
+        OkHttpOptions<?> options = new OkHttpOptions<>();
+        Map<String,String> properties = new HashMap<>();
+        properties.put("retry_max", "2");
+        properties.put("retry_backoff", "50");
+        properties.put("hedging", "true");
+        properties.put("hedge_percentile", "99.9");
+        options.setProperties(properties);
+
+        OkHttpRetryPolicy policy = OkHttpUtils.buildRetryPolicy(options);
+
+        assertThat(policy.getMaxRetries(), is(2));
+        assertThat(policy.getBackoff().asMillis(), is(50L));
+        assertThat(policy.getHedgePercentile(), is(99.9d));
+        assertThat(policy.isHedging(), is(true));
+        assertThat(policy.getRetryBudget(), is(RetryBudget.getDefault()));
+
+        // one per configuration
+        OkHttpClientRegistry registry = new OkHttpClientRegistry();
+        assertThat(registry.getRetryPolicy(options) == registry.getRetryPolicy(options), is(true));
+        assertThat(registry.getRetryPolicy(new OkHttpOptions<>()) == null, is(true));
+        assertThat(OkHttpUtils.buildRetryPolicy(new OkHttpOptions<>()) == null, is(true));
+    }
+
+}
@@ -17,11 +17,13 @@ package com.fizzed.crux.uri;
 
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 
 /**
  * Helps to build a URI.  Why another one?  Unlike Java's URI this one allows
@@ -33,6 +35,18 @@ import java.util.Optional;
  */
 public class MutableUri extends Uri {
 
+    // copy-on-write: the rels and query (including its lists of values) may be
+    // shared with the uri this was copied from (or to) and are only copied
+    // right before they are modified
+    private boolean relsShared;
+    private boolean queryShared;
+    private boolean queryValuesShared;
+    private Set<String> queryValuesOwned;
+    // the rels and query (or any of its values) were handed out, so they are
+    // copied rather than shared with any uri copied from this one
+    private boolean relsExposed;
+    private boolean queryExposed;
+
     public MutableUri() {
         // empty
     }
@@ -46,16 +60,68 @@ public class MutableUri extends Uri {
         this.parse(uri);
     }
     
-    @SuppressWarnings("OverridableMethodCallInConstructor")
     public MutableUri(Uri uri) {
-        this.scheme = uri.scheme;
-        this.hasAuthority = uri.hasAuthority;
-        this.userInfo = uri.userInfo;
-        this.host = uri.host;
-        this.port = uri.port;
-        this.rels = copy(uri.rels);
-        this.query = copy(uri.query);
-        this.fragment = uri.fragment;
+        this.shared(this.copyFrom(uri));
+    }
+    
+    @Override
+    final void shared(int components) {
+        // only what was shared, whatever was copied instead is still ours
+        if ((components & PATH) != 0) {
+            this.relsShared = true;
+        }
+        if ((components & QUERY) != 0) {
+            this.queryShared = true;
+            this.queryValuesShared = true;
+            this.queryValuesOwned = null;
+        }
+    }
+    
+    @Override
+    final boolean exposed(int components) {
+        return ((components & PATH) != 0 && this.relsExposed)
+            || ((components & QUERY) != 0 && this.queryExposed);
+    }
+    
+    /**
+     * Gets the raw path components, which since this uri is mutable, can be
+     * modified directly.
+     * @return Null if no path is set or one ore more relative path components.
+     */
+    @Override
+    public List<String> getRels() {
+        this.decodeLazy(PATH);
+        if (this.rels != null) {
+            this.ownRels();
+            this.relsExposed = true;
+        }
+        return this.rels;
+    }
+    
+    @Override
+    public Map<String,List<String>> getQuery() {
+        this.decodeLazy(QUERY);
+        if (this.query != null) {
+            this.ownQuery();
+            if (this.queryValuesShared) {
+                this.query.replaceAll((name, values) -> this.isQueryValuesOwned(name) ? values : new ArrayList<>(values));
+                this.queryValuesShared = false;
+                this.queryValuesOwned = null;
+            }
+            this.queryExposed = true;
+        }
+        return this.query;
+    }
+    
+    @Override
+    public List<String> getQueryAll(String name) {
+        this.decodeLazy(QUERY);
+        if (this.query == null || !this.query.containsKey(name)) {
+            return null;
+        }
+        final List<String> values = this.getQueryValues(name);
+        this.queryExposed = true;
+        return values;
     }
     
     @Deprecated
@@ -64,7 +130,7 @@ public class MutableUri extends Uri {
     }
     
     public Uri immutable() {
-        return new Uri(this.scheme, this.hasAuthority, this.userInfo, this.host, this.port, this.rels, this.query, this.fragment);
+        return new Uri(this);
     }
     
     public Uri toUri() {
@@ -107,7 +173,7 @@ public class MutableUri extends Uri {
     public MutableUri path(String path) {
         // clear it?
         if (path == null) {
-            this.rels = null;
+            this.sharedRels(null);
             return this;
         }
 
@@ -116,16 +182,11 @@ public class MutableUri extends Uri {
         // if absolute then normalize it (chop off leading empty rel)
         if (path.length() > 0 && path.charAt(0) == '/') {
             newRels = normalizeRootPath(newRels);
-            this.rels = null;
-        }
-        
-        // create array if its missing
-        if (this.rels == null) {
-            this.rels = new ArrayList<>();
+            this.sharedRels(null);
         }
         
         // append everything
-        this.rels.addAll(newRels);
+        this.ownRels().addAll(newRels);
 
         return this;
     }
@@ -155,7 +216,7 @@ public class MutableUri extends Uri {
     /**
      * Adds one or more relative path components as-is. If the existing path
      * is "/a/b" and you supply "c@/d" to this method then the underlying
-     * path would be "/a/b/c%40%2fd". This is the recommended method to safely
+     * path would be "/a/b/c@%2Fd". This is the recommended method to safely
      * build a path in a url.
      * @param rels One or more relative path components to add
      * @return This instance
@@ -179,7 +240,7 @@ public class MutableUri extends Uri {
     /**
      * Adds one or more relative path components as-is. If the existing path
      * is "/a/b" and you supply "c@/d" to this method then the underlying
-     * path would be "/a/b/c%40%2fd". This is the recommended method to safely
+     * path would be "/a/b/c@%2Fd". This is the recommended method to safely
      * build a path in a url.
      * @param rels One or more relative path components to add
      * @return This instance
@@ -189,13 +250,11 @@ public class MutableUri extends Uri {
             return this;    // nothing to do
         }
         
-        if (this.rels == null) {
-            this.rels = new ArrayList<>();
-        }
+        final List<String> ownedRels = this.ownRels();
         
         for (String rel : rels) {
             Objects.requireNonNull(rel, "rel was null");
-            this.rels.add(rel);
+            ownedRels.add(rel);
         }
         
         return this;
@@ -281,8 +340,16 @@ public class MutableUri extends Uri {
      * @return 
      */
     public MutableUri setQuery(Map<String,?> queryMap) {
+        this.decodeLazy(QUERY);
         if (this.query != null) {
-            this.query.clear();
+            if (this.queryShared) {
+                this.query = new LinkedHashMap<>();
+                this.queryShared = false;
+            } else {
+                this.query.clear();
+            }
+            this.queryValuesShared = false;
+            this.queryValuesOwned = null;
         }
         
         if (queryMap != null) {
@@ -304,11 +371,65 @@ public class MutableUri extends Uri {
     private List<String> getQueryValues(String name) {
         Objects.requireNonNull(name, "name cannot be null");
         
+        final Map<String,List<String>> ownedQuery = this.ownQuery();
+        
+        List<String> values = ownedQuery.get(name);
+        
+        if (values != null && this.isQueryValuesOwned(name)) {
+            return values;
+        }
+        
+        values = (values == null ? new ArrayList<>() : new ArrayList<>(values));
+        ownedQuery.put(name, values);
+        
+        if (this.queryValuesShared) {
+            if (this.queryValuesOwned == null) {
+                this.queryValuesOwned = new HashSet<>();
+            }
+            this.queryValuesOwned.add(name);
+        }
+        
+        return values;
+    }
+    
+    private boolean isQueryValuesOwned(String name) {
+        return !this.queryValuesShared || (this.queryValuesOwned != null && this.queryValuesOwned.contains(name));
+    }
+    
+    private Map<String,List<String>> ownQuery() {
+        this.decodeLazy(QUERY);
         if (this.query == null) {
             this.query = new LinkedHashMap<>(); // order of insertion important
+            this.queryValuesShared = false;
+            this.queryValuesOwned = null;
+        } else if (this.queryShared) {
+            // values are still shared until each is modified
+            this.query = new LinkedHashMap<>(this.query);
         }
-        
-        return this.query.computeIfAbsent(name, (key) -> new ArrayList<>());
+        this.queryShared = false;
+        return this.query;
+    }
+    
+    private List<String> ownRels() {
+        this.decodeLazy(PATH);
+        if (this.rels == null) {
+            this.rels = new ArrayList<>();
+        } else if (this.relsShared) {
+            this.rels = new ArrayList<>(this.rels);
+            // whatever was handed out is no longer ours
+            this.relsExposed = false;
+        }
+        this.relsShared = false;
+        return this.rels;
+    }
+    
+    // not sure we want this public (so package-level for now)
+    MutableUri sharedRels(List<String> rels) {
+        this.discardLazy(PATH);
+        this.rels = rels;
+        this.relsShared = rels != null;
+        this.relsExposed = false;
+        return this;
     }
     
     /**
@@ -317,6 +438,7 @@ public class MutableUri extends Uri {
      * @return 
      */
     public MutableUri fragment(String fragment) {
+        this.discardLazy(FRAGMENT);
         this.fragment = fragment;
         return this;
     }
@@ -327,178 +449,25 @@ public class MutableUri extends Uri {
     }
 
     private MutableUri parse(String uri) {
-        // https://en.wikipedia.org/wiki/Uniform_Resource_Identifier
-        // URI = scheme ":" ["//" authority] path ["?" query] ["#" fragment]
-        // authority = [userinfo "@"] host [":" port]
-
-        // we will implement our own parsing routine
-        int pos = 0;
-        int len = uri.length();
-
-        // scheme is everything to start up to the "://" such as ldap://[2001:db8::7]/c=GB?objectClass?one
-        boolean maybeHasAuthority = false;
-
-        int schemeEndPos = uri.indexOf("://", pos);
-        if (schemeEndPos > 0) {
-            this.scheme = uri.substring(pos, schemeEndPos);
-            pos = schemeEndPos + 3; // skip over :// on next part to parse
-            maybeHasAuthority = true;
-            this.hasAuthority = true;
-        } else {
-            // this could be a scheme:path scenario such as tel:+1-816-555-1212
-            schemeEndPos = uri.indexOf(":", pos);
-            if (schemeEndPos > 0) {
-                this.scheme = uri.substring(pos, schemeEndPos);
-                pos = schemeEndPos + 1; // skip over : on next part to parse
-                // the rest is apparently always a path
-            } else {
-                // there isn't any scheme, the rest must be a path
-                // we will simply continue on parsing it as a path
-            }
-        }
-
-        boolean maybeHasPath = true;
-        boolean maybeHasQuery = true;
-
-        if (maybeHasAuthority) {
-            int authorityEndPos = uri.indexOf("/", pos);
-            if (authorityEndPos < 0) {
-                // definitely no path
-                maybeHasPath = false;
-                // was it instead a ?
-                authorityEndPos = uri.indexOf("?", pos);
-                if (authorityEndPos < 0) {
-                    maybeHasQuery = false;
-                    // was it instead a #
-                    authorityEndPos = uri.indexOf("#", pos);
-                    if (authorityEndPos < 0) {
-                        // the rest of the uri must be the authority
-                        // e.g. https://john.doe@www.example.com:123
-                        authorityEndPos = len;
-                    }
-                }
-            }
-
-            // any userinfo?
-            int userInfoPos = uri.indexOf("@", pos);
-            if (userInfoPos > 0 && userInfoPos <= authorityEndPos) {        // in case an @ symbol is AFTER the authority
-                this.userInfo = urlDecode(uri.substring(pos, userInfoPos));
-                pos = userInfoPos + 1;  // skip @ char
-            }
-
-            // we're left with a potential host[:port]
-            int hostEndPos = uri.indexOf(":", pos);
-
-            // does the host start with an "[" indicating its an ipv6 address?
-            if (pos < len && uri.charAt(pos) == '[') {
-                // find the next matching ]
-                int closingSquarePos = uri.indexOf(']', pos);
-                if (closingSquarePos < 0) {
-                    throw new IllegalArgumentException("Invalid IPv6 host (no matching ] char)");
-                }
-                hostEndPos = uri.indexOf(":", closingSquarePos);
-            }
-
-            // was no port found?
-            if (hostEndPos < 0 || hostEndPos >= authorityEndPos) {
-                // host makes up rest of authority
-                hostEndPos = authorityEndPos;
-                this.host = trimAndBlankToNull(uri.substring(pos, hostEndPos));
-            } else {
-                // a port was found and we should parse it and the host
-                this.host = trimAndBlankToNull(uri.substring(pos, hostEndPos));
-                pos = hostEndPos + 1;       // skip over : char
-                String portStr = uri.substring(pos, authorityEndPos);
-                try {
-                    this.port = Integer.parseInt(portStr);
-                } catch (Exception e) {
-                    throw new IllegalArgumentException("port " + portStr + " was not an integer in uri " + uri);
-                }
-            }
-
-            pos = authorityEndPos;
-        }
-
-        // we may be done at this point
-        if (pos >= len) {
-            return this;
-        }
-
-        if (maybeHasPath) {
-            // we're left with the path, query, fragment
-            int pathEndPos = uri.indexOf("?", pos);
-            if (pathEndPos < 0) {
-                // we know there is no query
-                maybeHasQuery = false;
-                // we may need to read to the fragment
-                pathEndPos = uri.indexOf("#", pos);
-                if (pathEndPos < 0) {
-                    // the rest of the uri is path
-                    pathEndPos = len;
-                }
-            }
-
-            final String rawPath = uri.substring(pos, pathEndPos);
-            this.path(rawPath);
-            pos = pathEndPos;
-
-            // we may be done at this point
-            if (pos >= len) {
-                return this;
-            }
-        }
-
-        if (maybeHasQuery) {
-            // there must have been a ?, we'll skip over it
-            pos++;
-
-            int queryEndPos = uri.indexOf("#", pos);
-            if (queryEndPos < 0) {
-                // the rest of the uri is query
-                queryEndPos = len;
-            }
-
-            final String rawQuery = uri.substring(pos, queryEndPos);
-            // parse raw query now
-            {
-                // get rid of map to rebuild
-                this.query = null;
-
-                // split on ampersand...
-                String[] pairs = rawQuery.split("&");
-                for (String pair : pairs) {
-                    String[] nv = pair.split("=");
-                    switch (nv.length) {
-                        case 1:
-                            this.query(urlDecode(nv[0]), null);
-                            break;
-                        case 2:
-                            this.query(urlDecode(nv[0]), urlDecode(nv[1]));
-                            break;
-                        default:
-                            throw new IllegalArgumentException("Name value pair [" + pair + "] in query [" + rawQuery + "] missing = char");
-                    }
-                }
-            }
-
-            pos = queryEndPos;
-
-            // we may be done at this point
-            if (pos >= len) {
-                return this;
-            }
-        }
-
-        // there must have been a #, we'll skip over it
-        pos++;
-
-        // remaining part is now fragment
-        String rawFragment = uri.substring(pos);
-        this.fragment = urlDecode(rawFragment);
-        
+        // single pass over the string, path, query and fragment decoded lazily
+        this.parsed(UriParser.parse(uri));
         return this;
     }
     
+    /**
+     * Builds the string value each time, since a mutable uri is never cached.
+     * @return The url-encoded string value
+     */
+    @Override
+    public String toString() {
+        return this.buildString();
+    }
+    
+    @Override
+    public int hashCode() {
+        return this.buildHashCode();
+    }
+    
     static private List<String> normalizeRootPath(List<String> rels) {
         if (rels.size() < 2) {
             // no path at all
@@ -510,7 +479,7 @@ public class MutableUri extends Uri {
     }
     
     static List<String> normalizeRels(List<String> rels) {
-        if (rels == null || rels.isEmpty()) {
+        if (rels == null || rels.isEmpty() || (!rels.contains(".") && !rels.contains(".."))) {
             return rels;
         }
         
@@ -550,14 +519,14 @@ public class MutableUri extends Uri {
             // found slash or on last char?
             if (path.charAt(i) == '/') {
                 String p = path.substring(pos, i);
-                paths.add((decode ? urlDecode(p) : p));
+                paths.add((decode ? UriCodec.decode(p, UriCodec.Component.PATH_SEGMENT) : p));
                 pos = i+1;
             }
         }
         // add last token?
         if (pos < path.length()) {
             String p = path.substring(pos);
-            paths.add((decode ? urlDecode(p) : p));
+            paths.add((decode ? UriCodec.decode(p, UriCodec.Component.PATH_SEGMENT) : p));
         } else if (pos == path.length()) {
             // add an empty string at end
             paths.add("");
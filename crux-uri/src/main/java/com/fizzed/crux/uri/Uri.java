@@ -15,10 +15,13 @@
  */
 package com.fizzed.crux.uri;
 
-import java.io.UnsupportedEncodingException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -57,21 +60,37 @@ public class Uri {
     protected List<String> rels;
     protected Map<String,List<String>> query;
     protected String fragment;
+    // if parsed from a string, the path, query and fragment are only decoded
+    // from the parser the first time they are accessed (see decodeLazy)
+    static final int PATH = 1;
+    static final int QUERY = 2;
+    static final int FRAGMENT = 4;
+    private UriParser parser;
+    private volatile int undecoded;
+    // since immutable, the canonical string and hash code are only built once
+    private String canonical;
+    // read-only view of the query handed out by getQuery
+    private Map<String,List<String>> queryView;
+    private int hash;
 
     protected Uri() {
         // do nothing
     }
     
     public Uri(String uri) {
-        this(new MutableUri(uri));
+        this.parsed(UriParser.parse(uri));
     }
     
     public Uri(URI uri) {
-        this(new MutableUri(uri));
+        // parsing a URI as a string is WAY more reliable
+        this(uri.toString());
     }
     
     public Uri(Uri uri) {
-        this(uri.scheme, uri.hasAuthority, uri.userInfo, uri.host, uri.port, uri.rels, uri.query, uri.fragment);
+        this.copyFrom(uri);
+        // a mutable uri never caches these, so they're only set if immutable
+        this.canonical = uri.canonical;
+        this.hash = uri.hash;
     }
     
     protected Uri(String scheme, boolean hasAuthority, String userInfo, String host, Integer port, List<String> rels, Map<String,List<String>> query, String fragment) {
@@ -85,6 +104,119 @@ public class Uri {
         this.fragment = fragment;
     }
     
+    final void parsed(UriParser parser) {
+        this.scheme = parser.scheme;
+        this.hasAuthority = parser.hasAuthority;
+        this.userInfo = parser.userInfo;
+        this.host = parser.host;
+        this.port = parser.port;
+        this.rels = null;
+        this.query = null;
+        this.fragment = null;
+        this.parser = parser;
+        this.undecoded = PATH | QUERY | FRAGMENT;
+    }
+    
+    /**
+     * Copies the uri, sharing its rels and query unless they were handed out.
+     * @param uri The uri to copy
+     * @return The components that are now shared with the uri (e.g. PATH or
+     *      QUERY)
+     */
+    final int copyFrom(Uri uri) {
+        // read what is undecoded first, since anything decoded after that is
+        // guaranteed to be visible to us
+        final int uriUndecoded = uri.undecoded;
+        this.scheme = uri.scheme;
+        this.hasAuthority = uri.hasAuthority;
+        this.userInfo = uri.userInfo;
+        this.host = uri.host;
+        this.port = uri.port;
+        // rels and query are shared (a mutable uri copies them before modifying)
+        this.rels = (uriUndecoded & PATH) != 0 ? null : uri.rels;
+        this.query = (uriUndecoded & QUERY) != 0 ? null : uri.query;
+        this.fragment = (uriUndecoded & FRAGMENT) != 0 ? null : uri.fragment;
+        // we can simply share the parser since its immutable
+        this.parser = uriUndecoded != 0 ? uri.parser : null;
+        this.undecoded = uriUndecoded;
+        // whatever a mutable uri handed out could still be modified by whoever
+        // holds it, so those are copied rather than shared
+        int components = 0;
+        if (this.rels != null) {
+            if (uri.exposed(PATH)) {
+                this.rels = this.copy(this.rels);
+            } else {
+                components |= PATH;
+            }
+        }
+        if (this.query != null) {
+            if (uri.exposed(QUERY)) {
+                this.query = this.copy(this.query);
+            } else {
+                components |= QUERY;
+            }
+        }
+        uri.shared(components);
+        return components;
+    }
+    
+    /**
+     * Called once the rels and/or query are shared with another uri. Since
+     * this uri is immutable, there is nothing to do.
+     * @param components The components now shared (e.g. PATH or QUERY)
+     */
+    void shared(int components) {
+        // do nothing
+    }
+    
+    /**
+     * Whether the rels or query (or any of its values) were handed out and may
+     * thus be modified outside of this uri.  Since this uri is immutable, they
+     * never are.
+     * @param components The component (e.g. PATH or QUERY)
+     * @return True if handed out or otherwise false
+     */
+    boolean exposed(int components) {
+        return false;
+    }
+    
+    /**
+     * Decodes any of the path, query, or fragment components that were parsed,
+     * but not yet decoded. Must be called before directly reading or modifying
+     * those fields.
+     * @param components The components (e.g. PATH | QUERY) to decode
+     */
+    protected final void decodeLazy(int components) {
+        if ((this.undecoded & components) != 0) {
+            this.decodeLazySync(components);
+        }
+    }
+    
+    private synchronized void decodeLazySync(int components) {
+        final int pending = this.undecoded & components;
+        if ((pending & PATH) != 0) {
+            this.rels = this.parser.rels();
+        }
+        if ((pending & QUERY) != 0) {
+            this.query = this.parser.query();
+        }
+        if ((pending & FRAGMENT) != 0) {
+            this.fragment = this.parser.fragment();
+        }
+        // volatile write publishes the decoded fields to other threads
+        this.undecoded &= ~pending;
+    }
+    
+    /**
+     * Discards any undecoded components since they are about to be replaced.
+     * @param components The components (e.g. PATH | QUERY) to discard
+     */
+    final void discardLazy(int components) {
+        if ((this.undecoded & components) != 0) {
+            this.undecoded &= ~components;
+        }
+    }
+    
     public MutableUri mutable() {
         return new MutableUri(this);
     }
@@ -129,19 +261,21 @@ public class Uri {
     
     /**
      * Gets the raw path components that will be used to build the url-encoded
-     * path.
+     * path. The list may be shared with other uris, so it can't be modified.
      * @return Null if no path is set or one ore more relative path components.
      *      The root path will always be an empty string.
      */
     public List<String> getRels() {
-        return this.rels;
+        this.decodeLazy(PATH);
+        return this.rels != null ? Collections.unmodifiableList(this.rels) : null;
     }
     
     public String getRel(int index) {
         if (index < 0) {
             throw new IllegalArgumentException("Invalid index (< 0)");
         }
-        if (rels == null || index >= this.rels.size()) {
+        this.decodeLazy(PATH);
+        if (this.rels == null || index >= this.rels.size()) {
             return null;
         }
         return this.rels.get(index);
@@ -155,15 +289,34 @@ public class Uri {
         return this.encodedQueryString();
     }
     
+    /**
+     * Gets the raw query values. The map (and its lists of values) may be
+     * shared with other uris, so it can't be modified.
+     * @return Null if no query is set or the values by name
+     */
     public Map<String,List<String>> getQuery() {
-        return this.query;
+        this.decodeLazy(QUERY);
+        if (this.query == null) {
+            return null;
+        }
+        // only built once, since the query of this uri never changes
+        Map<String,List<String>> view = this.queryView;
+        if (view == null) {
+            final Map<String,List<String>> values = new LinkedHashMap<>();
+            this.query.forEach((name, v) -> values.put(name, Collections.unmodifiableList(v)));
+            view = Collections.unmodifiableMap(values);
+            this.queryView = view;
+        }
+        return view;
     }
     
     public List<String> getQueryAll(String name) {
+        this.decodeLazy(QUERY);
         if (this.query == null) {
             return null;
         }
-        return this.query.get(name);
+        final List<String> values = this.query.get(name);
+        return values != null ? Collections.unmodifiableList(values) : null;
     }
     
     public String getQueryFirst(String name) {
@@ -177,6 +330,7 @@ public class Uri {
     }
     
     public Map<String,String> getQueryFirstMap() {
+        this.decodeLazy(QUERY);
         if (this.query == null) {
             return null;
         }
@@ -190,6 +344,7 @@ public class Uri {
     }
     
     public String getFragment() {
+        this.decodeLazy(FRAGMENT);
         return this.fragment;
     }
     
@@ -197,60 +352,15 @@ public class Uri {
         return this.scheme != null;
     }
     
+    /**
+     * Resolves the other url against this uri.  If many urls are resolved
+     * against the same uri, a UriResolver will be more efficient.
+     * @param otherUrl The absolute or relative url
+     * @return The resolved uri or null if the other url was null or blank
+     * @see UriResolver
+     */
     public Uri resolve(String otherUrl) {
-        if (otherUrl == null) {
-            return null;
-        }
-        
-        otherUrl = otherUrl.trim();
-        if (otherUrl.length() == 0) {
-            return null;
-        }
-        
-        // same scheme as us?
-        if (otherUrl.startsWith("//")) {
-            return new Uri(this.getScheme() + ":" + otherUrl);
-        }
-        
-        // time to parse the other url
-        Uri otherUri = new Uri(otherUrl);
-        
-        if (otherUri.isAbsolute()) {
-            return otherUri;
-        }
-        
-        // calculate new rels by overlying new relative path
-        List<String> newRels = null;
-        
-        if (otherUrl.startsWith("/")) {
-            // new path is absolute
-            newRels = otherUri.getRels();
-        } else {
-            newRels = new ArrayList<>();
-            
-            // copy all rels
-            if (this.getRels() != null) {
-                newRels.addAll(this.getRels());
-            }
-
-            // remove last rel (if it exists) to resolve against current directory
-            if (newRels.size() > 0) {
-                newRels.remove(newRels.size()-1);
-            }
-
-            if (otherUri.getRels() != null) {
-                newRels.addAll(otherUri.getRels());
-            }
-        }
-        
-        MutableUri resolvedUri = this.toMutableUri()
-            .setQuery(otherUri.getQuery())
-            .fragment(otherUri.getFragment());
-        
-        // TODO: should we allow users to set rels with a list?
-        resolvedUri.rels = MutableUri.normalizeRels(newRels);
-        
-        return resolvedUri.immutable();
+        return new UriResolver(this).resolve(otherUrl);
     }
     
     /**
@@ -264,6 +374,21 @@ public class Uri {
      * @return The detected, well-formed Uri
      */
     static public Uri navigate(String maybeUrl) {
+        final UriParseResult result = tryNavigate(maybeUrl);
+        
+        return result != null ? result.orElseThrow() : null;
+    }
+    
+    /**
+     * Same as navigate, but without throwing an exception if the url is
+     * invalid.  The input is classified in a single scan and then parsed only
+     * once.
+     * @param maybeUrl The possible url
+     * @return Null if the url was null or blank, otherwise the detected uri
+     *      or error of why it was invalid
+     * @see #navigate(java.lang.String)
+     */
+    static public UriParseResult tryNavigate(String maybeUrl) {
         if (maybeUrl == null) {
             return null;
         }
@@ -273,44 +398,68 @@ public class Uri {
             return null;
         }
         
-        // we parse url to see if an absolute url was provided
-        MutableUri maybeUri = null;
-        try {
-            // some case of input may cause a parsing exception, in which case
-            // we'll try to fix it and try parsing again
-            maybeUri = new MutableUri(maybeUrl);
-        } catch (IllegalArgumentException e) {
-            if (!maybeUrl.contains("://")) {
-                maybeUri = new MutableUri("http://" + maybeUrl);
-            } else {
-                throw e;    // rethrow it
-            }
-        }
-     
-        if (!maybeUri.isAbsolute()) {
-            // assume something like www.example.com was entered and the user
-            // really meant to specify the host first (rather than it being
-            // interpreted at the path per the specs of a URL
-            maybeUri = new MutableUri("http://" + maybeUrl);
+        // unless a scheme and authority were provided, assume something like
+        // www.example.com or www.example.com:81 was entered and the user really
+        // meant to specify the host first (rather than it being interpreted as
+        // the path or scheme per the specs of a URL)
+        if (!startsWithSchemeAndAuthority(maybeUrl)) {
+            maybeUrl = "http://" + maybeUrl;
         }
         
-        // edge case: www.example.com:81 would be parsed as simply a scheme
-        // with a schemeSpecificPart -- we'll detect this unique case by 
-        // determining if the scheme contains a period and assume the user
-        // really meant it as a domain name
-        if (maybeUri.getScheme() != null && maybeUri.getHost() == null) {
-            maybeUri = new MutableUri("http://" + maybeUrl);
+        final UriParser parser = UriParser.tryParse(maybeUrl);
+        if (parser.error != null) {
+            return UriParseResult.invalid(parser.error);
         }
         
+        final Uri uri = new Uri();
+        uri.parsed(parser);
+        
         // if no path was supplied then the default is / for http or https
-        String path = maybeUri.getPath();
-        if (path == null || path.equals("")) {
-            if (maybeUri.getScheme().equalsIgnoreCase("http") || maybeUri.getScheme().equalsIgnoreCase("https")) {
-                maybeUri.path("/");
+        if (parser.pathStart < 0 && ("http".equalsIgnoreCase(uri.scheme) || "https".equalsIgnoreCase(uri.scheme))) {
+            uri.discardLazy(PATH);
+            uri.rels = new ArrayList<>(1);
+            uri.rels.add("");
+        }
+        
+        return UriParseResult.valid(uri);
+    }
+    
+    static private boolean startsWithSchemeAndAuthority(String s) {
+        // same as how the parser detects a scheme such as jdbc:mysql://
+        final int len = s.length();
+        for (int i = 1; i < len; i++) {
+            final char c = s.charAt(i);
+            if (c == ':') {
+                if (i + 2 < len && s.charAt(i+1) == '/' && s.charAt(i+2) == '/') {
+                    return true;
+                }
+            } else if (c == '/' || c == '?' || c == '#') {
+                return false;
             }
         }
+        return false;
+    }
+    
+    /**
+     * Parses the uri without throwing an exception if its invalid, which is
+     * far cheaper than catching an exception when invalid input is common
+     * (e.g. crawled links or user input).
+     * @param uri The uri to parse
+     * @return The uri or error of why it was invalid
+     */
+    static public UriParseResult tryParse(String uri) {
+        if (uri == null) {
+            return UriParseResult.invalid("uri was null");
+        }
         
-        return maybeUri.toUri();
+        final UriParser parser = UriParser.tryParse(uri);
+        if (parser.error != null) {
+            return UriParseResult.invalid(parser.error);
+        }
+        
+        final Uri parsed = new Uri();
+        parsed.parsed(parser);
+        return UriParseResult.valid(parsed);
     }
     
     protected final Map<String,List<String>> copy(Map<String,List<String>> map) {
@@ -336,50 +485,104 @@ public class Uri {
     }
     
     protected String encodedPath() {
+        this.decodeLazy(PATH);
         if (this.rels == null || this.rels.isEmpty()) {
             return null;
         }
         
-        StringBuilder s = new StringBuilder();
-        
+        final StringBuilder sb = new StringBuilder();
+        try {
+            this.appendEncodedPath(sb);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);     // never happens with a StringBuilder
+        }
+        return sb.toString();
+    }
+    
+    private void appendEncodedPath(Appendable s) throws IOException {
         for (int i = 0; i < this.rels.size(); i++) {
             String path = this.rels.get(i);
             // special case: if this is the first rel and only if there was authority
             if (i > 0 || this.hasAuthority || this.host != null || this.scheme == null || this.rels.size() > 1 || path.equals("")) {
                 s.append('/');
             }
-            s.append(MutableUri.urlEncodePath(path));
+            UriCodec.encode(s, path, UriCodec.Component.PATH_SEGMENT);
         }
-        
-        return s.toString();
     }
     
     protected String encodedQueryString() {
+        this.decodeLazy(QUERY);
         if (this.query == null || this.query.isEmpty()) {
             return null;
         }
         
-        StringBuilder s = new StringBuilder();
+        final StringBuilder sb = new StringBuilder();
+        try {
+            this.appendEncodedQueryString(sb);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);     // never happens with a StringBuilder
+        }
+        return sb.toString();
+    }
+    
+    private void appendEncodedQueryString(Appendable s) throws IOException {
+        boolean first = true;
         
-        this.query.forEach((key, values) -> {
-            values.forEach((value) -> {
-                if (s.length() != 0) {
-                    s.append("&");
+        for (Map.Entry<String,List<String>> entry : this.query.entrySet()) {
+            for (String value : entry.getValue()) {
+                if (!first) {
+                    s.append('&');
                 }
-                s.append(key);
+                first = false;
+                UriCodec.encode(s, entry.getKey(), UriCodec.Component.QUERY);
                 if (value != null) {
-                    s.append("=");
-                    s.append(MutableUri.urlEncode(value));
+                    s.append('=');
+                    UriCodec.encode(s, value, UriCodec.Component.QUERY);
                 }
-            });
-        });
-        
-        return s.toString();
+            }
+        }
     }
     
     @Override
     public String toString() {
+        // racy, but safe since strings are immutable and building is idempotent
+        String s = this.canonical;
+        if (s == null) {
+            this.canonical = s = this.buildString();
+        }
+        return s;
+    }
+    
+    protected String buildString() {
         final StringBuilder sb = new StringBuilder();
+        try {
+            this.buildTo(sb);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);     // never happens with a StringBuilder
+        }
+        return sb.toString();
+    }
+    
+    /**
+     * Appends the uri (the same as its string value) to the appendable, such
+     * as a writer or buffer, without building an intermediate string.
+     * @param appendable The appendable to append to
+     * @return The appendable
+     * @throws IOException If the appendable throws an exception
+     */
+    public <A extends Appendable> A appendTo(A appendable) throws IOException {
+        // an immutable uri may have already built its string
+        final String s = this.canonical;
+        if (s != null) {
+            appendable.append(s);
+        } else {
+            this.buildTo(appendable);
+        }
+        return appendable;
+    }
+    
+    private void buildTo(Appendable sb) throws IOException {
+        this.decodeLazy(PATH | QUERY | FRAGMENT);
         
         if (this.scheme != null) {
             sb.append(this.scheme);
@@ -401,7 +604,7 @@ public class Uri {
             }
 
             if (this.userInfo != null) {
-                sb.append(MutableUri.urlEncode(this.userInfo));
+                UriCodec.encode(sb, this.userInfo, UriCodec.Component.USERINFO);
                 sb.append('@');
             }
             
@@ -409,7 +612,7 @@ public class Uri {
             
             if (this.port != null) {
                 sb.append(':');
-                sb.append(this.port);
+                sb.append(this.port.toString());
             }
         }
         
@@ -418,7 +621,7 @@ public class Uri {
                 sb.append(':');
                 _hasAuthority = true;
             }
-            sb.append(this.encodedPath());
+            this.appendEncodedPath(sb);
         }
 
         if (this.query != null && !this.query.isEmpty()) {
@@ -427,24 +630,55 @@ public class Uri {
                 _hasAuthority = true;
             }
             sb.append('?');
-            sb.append(this.encodedQueryString());
+            this.appendEncodedQueryString(sb);
         }
         
         if (this.fragment != null) {
             sb.append('#');
-            sb.append(MutableUri.urlEncode(this.fragment));
+            UriCodec.encode(sb, this.fragment, UriCodec.Component.FRAGMENT);
         }
-       
-        return sb.toString();
     }
 
     @Override
     public int hashCode() {
-        int hash = 7;
-        hash = 47 * hash + Objects.hashCode(this.toString());
-        return hash;
+        int h = this.hash;
+        if (h == 0) {
+            this.hash = h = this.buildHashCode();
+        }
+        return h;
+    }
+    
+    protected int buildHashCode() {
+        this.decodeLazy(PATH | QUERY | FRAGMENT);
+        
+        // must only include what equals() compares
+        int h = Objects.hashCode(this.scheme);
+        h = 31 * h + (this.hasAuthority || this.host != null ? 1 : 0);
+        if (this.host != null) {
+            h = 31 * h + this.host.hashCode();
+            h = 31 * h + Objects.hashCode(this.userInfo);
+            h = 31 * h + Objects.hashCode(this.port);
+        }
+        if (this.rels != null && !this.rels.isEmpty()) {
+            h = 31 * h + this.rels.hashCode();
+        }
+        if (this.query != null) {
+            // order of query is significant
+            for (Map.Entry<String,List<String>> entry : this.query.entrySet()) {
+                h = 31 * h + entry.getKey().hashCode();
+                h = 31 * h + entry.getValue().hashCode();
+            }
+        }
+        h = 31 * h + Objects.hashCode(this.fragment);
+        return h;
     }
 
+    /**
+     * Compares the components of both uris, equivalent to (but far cheaper
+     * than) comparing their string values.
+     * @param obj The other uri
+     * @return True if equal, otherwise false
+     */
     @Override
     public boolean equals(Object obj) {
         if (this == obj) {
@@ -457,38 +691,71 @@ public class Uri {
             return false;
         }
         final Uri other = (Uri) obj;
-        if (!Objects.equals(this.toString(), other.toString())) {
+        if (this.hash != 0 && other.hash != 0 && this.hash != other.hash) {
+            return false;
+        }
+        
+        this.decodeLazy(PATH | QUERY | FRAGMENT);
+        other.decodeLazy(PATH | QUERY | FRAGMENT);
+        
+        final boolean _hasAuthority = this.hasAuthority || this.host != null;
+        if (_hasAuthority != (other.hasAuthority || other.host != null)) {
+            return false;
+        }
+        if (!Objects.equals(this.scheme, other.scheme)) {
+            return false;
+        }
+        if (!Objects.equals(this.host, other.host)) {
+            return false;
+        }
+        // userinfo and port are only included if there is a host
+        if (this.host != null && (!Objects.equals(this.userInfo, other.userInfo) || !Objects.equals(this.port, other.port))) {
+            return false;
+        }
+        if (!relsEquals(this.rels, other.rels)) {
+            return false;
+        }
+        if (!queryEquals(this.query, other.query)) {
+            return false;
+        }
+        // edge case: a query after a scheme w/o authority is preceded by ":" only if the rels are null vs. empty
+        if (this.scheme != null && !_hasAuthority && this.query != null && !this.query.isEmpty()
+                && (this.rels == null) != (other.rels == null)) {
+            return false;
+        }
+        if (!Objects.equals(this.fragment, other.fragment)) {
             return false;
         }
         return true;
     }
     
-    static String urlEncode(String value) {
-        try {
-            return java.net.URLEncoder.encode(value, "UTF-8");
-        } catch (UnsupportedEncodingException e) {
-            throw new IllegalArgumentException(e.getMessage());
-        }
-    }
-
-    static String urlEncodePath(String value) {
-        try {
-            String encoded = java.net.URLEncoder.encode(value, "UTF-8");
-            // hack: we don't want to encode @, : symbols
-            encoded = encoded.replace("%40", "@");
-            encoded = encoded.replace("%3A", ":");
-            return encoded;
-        } catch (UnsupportedEncodingException e) {
-            throw new IllegalArgumentException(e.getMessage());
+    static private boolean relsEquals(List<String> a, List<String> b) {
+        final boolean aEmpty = a == null || a.isEmpty();
+        final boolean bEmpty = b == null || b.isEmpty();
+        if (aEmpty || bEmpty) {
+            return aEmpty == bEmpty;
         }
+        return a.equals(b);
     }
     
-    static String urlDecode(String value) {
-        try {
-            return java.net.URLDecoder.decode(value, "UTF-8");
-        } catch (UnsupportedEncodingException e) {
-            throw new IllegalArgumentException(e.getMessage());
+    static private boolean queryEquals(Map<String,List<String>> a, Map<String,List<String>> b) {
+        final boolean aEmpty = a == null || a.isEmpty();
+        final boolean bEmpty = b == null || b.isEmpty();
+        if (aEmpty || bEmpty) {
+            return aEmpty == bEmpty;
         }
+        if (a.size() != b.size()) {
+            return false;
+        }
+        // unlike Map.equals() the order is significant
+        final Iterator<Map.Entry<String,List<String>>> bIterator = b.entrySet().iterator();
+        for (Map.Entry<String,List<String>> aEntry : a.entrySet()) {
+            final Map.Entry<String,List<String>> bEntry = bIterator.next();
+            if (!aEntry.getKey().equals(bEntry.getKey()) || !aEntry.getValue().equals(bEntry.getValue())) {
+                return false;
+            }
+        }
+        return true;
     }
     
-}
+}
\ No newline at end of file
@@ -0,0 +1,320 @@
+/*
+ * Copyright 2024 Fizzed, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fizzed.crux.uri;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Percent-encoding (and decoding) of the components of a uri with UTF-8. Each
+ * component has its own set of characters that are allowed as-is, which are
+ * looked up in a table so a value is encoded in a single pass.  If nothing
+ * needs to be encoded (or decoded) then the value itself is returned.
+ *
+ * RFC 3986
+ *
+ *  unreserved  = ALPHA / DIGIT / "-" / "." / "_" / "~"
+ *  sub-delims  = "!" / "$" / "&" / "'" / "(" / ")"
+ *              / "*" / "+" / "," / ";" / "="
+ *  userinfo    = *( unreserved / pct-encoded / sub-delims / ":" )
+ *  segment     = *( unreserved / pct-encoded / sub-delims / ":" / "@" )
+ *  fragment    = *( segment / "/" / "?" )
+ *
+ * Query names and values are instead encoded the same as the widely used
+ * application/x-www-form-urlencoded format (where only ALPHA / DIGIT / "-" /
+ * "." / "_" / "*" are allowed and a space is a "+") since that's how nearly
+ * every server will decode them.
+ */
+public class UriCodec {
+
+    public enum Component {
+
+        USERINFO(0x01, false),
+        PATH_SEGMENT(0x02, false),
+        QUERY(0x04, true),
+        FRAGMENT(0x08, false);
+
+        private final int mask;
+        private final boolean plusIsSpace;
+
+        Component(int mask, boolean plusIsSpace) {
+            this.mask = mask;
+            this.plusIsSpace = plusIsSpace;
+        }
+
+    }
+
+    static private final char[] HEX_CHARS = "0123456789ABCDEF".toCharArray();
+    static private final byte[] ALLOWED = new byte[128];
+    static {
+        final int all = Component.USERINFO.mask | Component.PATH_SEGMENT.mask | Component.QUERY.mask | Component.FRAGMENT.mask;
+        for (char c = 'a'; c <= 'z'; c++) {
+            ALLOWED[c] = (byte)all;
+        }
+        for (char c = 'A'; c <= 'Z'; c++) {
+            ALLOWED[c] = (byte)all;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            ALLOWED[c] = (byte)all;
+        }
+        allow("-._*", all);
+        allow("~", all & ~Component.QUERY.mask);
+        allow("!$&'()+,;=:", all & ~Component.QUERY.mask);
+        allow("@", Component.PATH_SEGMENT.mask | Component.FRAGMENT.mask);
+        allow("/?", Component.FRAGMENT.mask);
+    }
+
+    static private void allow(String chars, int mask) {
+        for (int i = 0; i < chars.length(); i++) {
+            ALLOWED[chars.charAt(i)] |= (byte)mask;
+        }
+    }
+
+    static public boolean isAllowed(char c, Component component) {
+        return c < 128 && (ALLOWED[c] & component.mask) != 0;
+    }
+
+    /**
+     * Encodes the value for the component of a uri.
+     * @param value The value to encode
+     * @param component The component of the uri the value is for
+     * @return The encoded value, which is the value itself if nothing needed
+     *      to be encoded. Null if the value was null.
+     */
+    static public String encode(String value, Component component) {
+        if (value == null) {
+            return null;
+        }
+
+        final int pos = indexOfEncode(value, component);
+        if (pos < 0) {
+            return value;
+        }
+
+        final StringBuilder sb = new StringBuilder(value.length() + 16);
+        sb.append(value, 0, pos);
+        try {
+            encodeTo(sb, value, pos, component);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);     // never happens with a StringBuilder
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Encodes the value for the component of a uri and appends it to the
+     * builder.
+     * @param sb The builder to append to
+     * @param value The value to encode
+     * @param component The component of the uri the value is for
+     * @return The builder
+     */
+    static public StringBuilder encode(StringBuilder sb, String value, Component component) {
+        try {
+            encode((Appendable)sb, value, component);
+            return sb;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);     // never happens with a StringBuilder
+        }
+    }
+
+    /**
+     * Encodes the value for the component of a uri and appends it to the
+     * appendable, without building an intermediate string.
+     * @param appendable The appendable to append to
+     * @param value The value to encode
+     * @param component The component of the uri the value is for
+     * @return The appendable
+     * @throws IOException If the appendable throws an exception
+     */
+    static public <A extends Appendable> A encode(A appendable, String value, Component component) throws IOException {
+        final int pos = indexOfEncode(value, component);
+        if (pos < 0) {
+            appendable.append(value);
+            return appendable;
+        }
+
+        appendable.append(value, 0, pos);
+        encodeTo(appendable, value, pos, component);
+        return appendable;
+    }
+
+    static private int indexOfEncode(String value, Component component) {
+        final int len = value.length();
+        for (int i = 0; i < len; i++) {
+            final char c = value.charAt(i);
+            if (c >= 128 || (ALLOWED[c] & component.mask) == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static private void encodeTo(Appendable sb, String value, int pos, Component component) throws IOException {
+        final int len = value.length();
+        for (int i = pos; i < len; i++) {
+            final char c = value.charAt(i);
+            if (c < 0x80 && (ALLOWED[c] & component.mask) != 0) {
+                sb.append(c);
+            } else if (c == ' ' && component.plusIsSpace) {
+                sb.append('+');
+            } else {
+                i = escape(sb, value, i);
+            }
+        }
+    }
+
+    /**
+     * Percent-encodes the char at the index as its UTF-8 bytes (along with
+     * the next char if they are a surrogate pair).
+     * @return The index of the last char that was encoded
+     */
+    static int escape(StringBuilder sb, CharSequence value, int i) {
+        try {
+            return escape((Appendable)sb, value, i);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);     // never happens with a StringBuilder
+        }
+    }
+
+    static int escape(Appendable sb, CharSequence value, int i) throws IOException {
+        final char c = value.charAt(i);
+        if (c < 0x80) {
+            appendEscape(sb, c);
+        } else if (c < 0x800) {
+            appendEscape(sb, 0xC0 | (c >> 6));
+            appendEscape(sb, 0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i+1))) {
+            final int cp = Character.toCodePoint(c, value.charAt(++i));
+            appendEscape(sb, 0xF0 | (cp >> 18));
+            appendEscape(sb, 0x80 | ((cp >> 12) & 0x3F));
+            appendEscape(sb, 0x80 | ((cp >> 6) & 0x3F));
+            appendEscape(sb, 0x80 | (cp & 0x3F));
+        } else if (Character.isSurrogate(c)) {
+            // unpaired surrogate is replaced the same as String.getBytes() would
+            appendEscape(sb, '?');
+        } else {
+            appendEscape(sb, 0xE0 | (c >> 12));
+            appendEscape(sb, 0x80 | ((c >> 6) & 0x3F));
+            appendEscape(sb, 0x80 | (c & 0x3F));
+        }
+        return i;
+    }
+
+    static private void appendEscape(Appendable sb, int b) throws IOException {
+        sb.append('%');
+        sb.append(HEX_CHARS[(b >> 4) & 0x0F]);
+        sb.append(HEX_CHARS[b & 0x0F]);
+    }
+
+    /**
+     * Decodes the value of a component of a uri.
+     * @param value The value to decode
+     * @param component The component of the uri the value is from
+     * @return The decoded value, which is the value itself if nothing needed
+     *      to be decoded. Null if the value was null.
+     * @throws IllegalArgumentException If the value has an invalid escape (%)
+     *      sequence
+     */
+    static public String decode(String value, Component component) {
+        if (value == null) {
+            return null;
+        }
+        return decode(value, 0, value.length(), component);
+    }
+
+    /**
+     * Decodes a region of a value of a component of a uri, without first
+     * needing to extract it as a substring.
+     * @param value The value containing the region to decode
+     * @param start The start of the region (inclusive)
+     * @param end The end of the region (exclusive)
+     * @param component The component of the uri the region is from
+     * @return The decoded region
+     * @throws IllegalArgumentException If the region has an invalid escape (%)
+     *      sequence
+     */
+    static public String decode(String value, int start, int end, Component component) {
+        int i = start;
+        for (; i < end; i++) {
+            final char c = value.charAt(i);
+            if (c == '%' || (c == '+' && component.plusIsSpace)) {
+                break;
+            }
+        }
+
+        if (i >= end) {
+            // nothing to decode
+            return start == 0 && end == value.length() ? value : value.substring(start, end);
+        }
+
+        final StringBuilder sb = new StringBuilder(end - start);
+        sb.append(value, start, i);
+
+        byte[] bytes = null;
+
+        while (i < end) {
+            final char c = value.charAt(i);
+            if (c == '%') {
+                // a run of escapes is decoded together since they are utf-8 bytes
+                if (bytes == null) {
+                    bytes = new byte[(end - i) / 3];
+                }
+                int n = 0;
+                boolean ascii = true;
+                while (i < end && value.charAt(i) == '%') {
+                    final int hi = (i + 2 < end ? hexValue(value.charAt(i+1)) : -1);
+                    final int lo = (i + 2 < end ? hexValue(value.charAt(i+2)) : -1);
+                    if (hi < 0 || lo < 0) {
+                        throw new IllegalArgumentException("Invalid escape (%) sequence at index " + i + " in " + value);
+                    }
+                    final int b = (hi << 4) | lo;
+                    ascii &= b < 0x80;
+                    bytes[n++] = (byte)b;
+                    i += 3;
+                }
+                if (ascii) {
+                    for (int j = 0; j < n; j++) {
+                        sb.append((char)bytes[j]);
+                    }
+                } else {
+                    sb.append(new String(bytes, 0, n, StandardCharsets.UTF_8));
+                }
+            } else if (c == '+' && component.plusIsSpace) {
+                sb.append(' ');
+                i++;
+            } else {
+                sb.append(c);
+                i++;
+            }
+        }
+
+        return sb.toString();
+    }
+
+    static int hexValue(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        } else if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        } else if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        return -1;
+    }
+
+}
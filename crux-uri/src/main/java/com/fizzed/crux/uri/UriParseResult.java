@@ -0,0 +1,85 @@
+/*
+ * Copyright 2024 Fizzed, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fizzed.crux.uri;
+
+import java.util.Optional;
+
+/**
+ * Result of parsing a uri that is either the uri or the error of why it was
+ * invalid.
+ *
+ * @see Uri#tryParse(java.lang.String)
+ */
+public class UriParseResult {
+
+    private final Uri uri;
+    private final String error;
+
+    private UriParseResult(Uri uri, String error) {
+        this.uri = uri;
+        this.error = error;
+    }
+
+    static UriParseResult valid(Uri uri) {
+        return new UriParseResult(uri, null);
+    }
+
+    static UriParseResult invalid(String error) {
+        return new UriParseResult(null, error);
+    }
+
+    public boolean isValid() {
+        return this.error == null;
+    }
+
+    /**
+     * Gets the uri.
+     * @return The uri or null if it was invalid
+     */
+    public Uri getUri() {
+        return this.uri;
+    }
+
+    /**
+     * Gets the error of why the uri was invalid.
+     * @return The error or null if the uri was valid
+     */
+    public String getError() {
+        return this.error;
+    }
+
+    public Optional<Uri> toOptional() {
+        return Optional.ofNullable(this.uri);
+    }
+
+    /**
+     * Gets the uri or throws the same exception as parsing it would have.
+     * @return The uri
+     * @throws IllegalArgumentException If the uri was invalid
+     */
+    public Uri orElseThrow() {
+        if (this.error != null) {
+            throw new IllegalArgumentException(this.error);
+        }
+        return this.uri;
+    }
+
+    @Override
+    public String toString() {
+        return this.error != null ? "invalid: " + this.error : this.uri.toString();
+    }
+
+}
@@ -0,0 +1,416 @@
+/*
+ * Copyright 2024 Fizzed, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fizzed.crux.uri;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Single-pass parser of a uri string.  The scheme and authority are extracted
+ * immediately, while only the offsets of the path, query and fragment are
+ * recorded so they can be decoded later (if they are ever accessed).  The
+ * entire string is still validated up front, so decoding later on never fails.
+ *
+ * https://en.wikipedia.org/wiki/Uniform_Resource_Identifier
+ * URI = scheme ":" ["//" authority] path ["?" query] ["#" fragment]
+ * authority = [userinfo "@"] host [":" port]
+ */
+final class UriParser {
+
+    final String uri;
+    String scheme;
+    boolean hasAuthority;
+    String userInfo;
+    String host;
+    Integer port;
+    // offsets of the raw (still url-encoded) components, -1 if not present
+    int pathStart = -1;
+    int pathEnd;
+    int queryStart = -1;
+    int queryEnd;
+    int fragmentStart = -1;
+    // message of why the uri is invalid, null if its valid
+    String error;
+
+    private UriParser(String uri) {
+        this.uri = uri;
+    }
+
+    static UriParser parse(String uri) {
+        final UriParser parser = tryParse(uri);
+        if (parser.error != null) {
+            throw new IllegalArgumentException(parser.error);
+        }
+        return parser;
+    }
+
+    /**
+     * Parses the uri without throwing an exception if its invalid, since
+     * building an exception (and its stack trace) is expensive if invalid
+     * input is common.
+     * @param uri The uri to parse
+     * @return The parser, with its error set if the uri was invalid
+     */
+    static UriParser tryParse(String uri) {
+        Objects.requireNonNull(uri, "uri was null");
+
+        final UriParser parser = new UriParser(uri);
+        parser.parse();
+        return parser;
+    }
+
+    private boolean fail(String error) {
+        this.error = error;
+        return false;
+    }
+
+    private void parse() {
+        final String s = this.uri;
+        final int len = s.length();
+
+        // scheme is everything up to the first "://" such as jdbc:mysql://localhost
+        // or if that's missing the first ":" such as tel:+1-816-555-1212, but it
+        // can never span a "/", "?" or "#" char
+        int pos = 0;
+        int firstColonPos = -1;
+        int i = 0;
+        for (; i < len; i++) {
+            final char c = s.charAt(i);
+            if (c == ':') {
+                if (i == 0) {
+                    break;      // an empty scheme is not a scheme
+                }
+                if (i + 2 < len && s.charAt(i+1) == '/' && s.charAt(i+2) == '/') {
+                    this.scheme = s.substring(0, i);
+                    this.hasAuthority = true;
+                    break;
+                }
+                if (firstColonPos < 0) {
+                    firstColonPos = i;
+                }
+            } else if (c == '/' || c == '?' || c == '#') {
+                break;
+            } else if (c == '%' && !this.checkEscape(i)) {
+                return;
+            }
+        }
+
+        if (this.hasAuthority) {
+            // skip over :// and the authority, path must then start with a "/"
+            i = pos = this.parseAuthority(i + 3);
+            if (pos < 0) {
+                return;
+            }
+            if (pos >= len) {
+                return;
+            }
+            if (s.charAt(pos) == '/') {
+                this.pathStart = pos;
+            }
+        } else {
+            if (firstColonPos > 0) {
+                // this is a scheme:path scenario, the rest is apparently always a path
+                this.scheme = s.substring(0, firstColonPos);
+                pos = firstColonPos + 1;
+            }
+            if (pos >= len) {
+                return;
+            }
+            // everything up to i was already scanned and belongs to the path
+            this.pathStart = pos;
+        }
+
+        // path runs until the query or fragment
+        for (; i < len; i++) {
+            final char c = s.charAt(i);
+            if (c == '?' || c == '#') {
+                break;
+            } else if (c == '%' && !this.checkEscape(i)) {
+                return;
+            }
+        }
+        this.pathEnd = i;
+
+        if (i < len && s.charAt(i) == '?') {
+            i = this.scanQuery(i + 1);
+            if (i < 0) {
+                return;
+            }
+        }
+
+        if (i < len) {
+            // must be a "#" and the remaining part is the fragment
+            this.fragmentStart = ++i;
+            for (; i < len; i++) {
+                if (s.charAt(i) == '%' && !this.checkEscape(i)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private int parseAuthority(int start) {
+        final String s = this.uri;
+        final int len = s.length();
+
+        int userInfoPos = -1;
+        int hostPos = start;
+        int portPos = -1;
+        boolean inBrackets = false;
+
+        int i = start;
+        for (; i < len; i++) {
+            final char c = s.charAt(i);
+            if (c == '/' || c == '?' || c == '#') {
+                break;
+            } else if (c == '@') {
+                if (userInfoPos < 0) {
+                    userInfoPos = i;
+                    hostPos = i + 1;
+                    portPos = -1;       // ":" was part of userinfo
+                }
+            } else if (c == '[') {
+                // host that starts with a "[" is an ipv6 address
+                if (i == hostPos) {
+                    inBrackets = true;
+                }
+            } else if (c == ']') {
+                inBrackets = false;
+            } else if (c == ':') {
+                if (!inBrackets && portPos < 0) {
+                    portPos = i;
+                }
+            }
+        }
+
+        if (inBrackets) {
+            this.fail("Invalid IPv6 host (no matching ] char)");
+            return -1;
+        }
+
+        if (userInfoPos >= 0) {
+            for (int j = start; j < userInfoPos; j++) {
+                if (s.charAt(j) == '%' && !this.checkEscape(j)) {
+                    return -1;
+                }
+            }
+            this.userInfo = UriCodec.decode(s, start, userInfoPos, UriCodec.Component.USERINFO);
+        }
+
+        if (portPos < 0) {
+            // host makes up rest of authority
+            this.host = MutableUri.trimAndBlankToNull(s.substring(hostPos, i));
+        } else {
+            // a port was found and we should parse it and the host
+            this.host = MutableUri.trimAndBlankToNull(s.substring(hostPos, portPos));
+            this.port = parseInt(s, portPos + 1, i);
+            if (this.port == null) {
+                this.fail("port " + s.substring(portPos + 1, i) + " was not an integer in uri " + s);
+                return -1;
+            }
+        }
+
+        return i;
+    }
+
+    /**
+     * Same as Integer.parseInt for a region of the string, but returns null
+     * rather than throwing an exception.
+     */
+    static private Integer parseInt(String s, int start, int end) {
+        boolean negative = false;
+        if (start < end && (s.charAt(start) == '-' || s.charAt(start) == '+')) {
+            negative = s.charAt(start) == '-';
+            start++;
+        }
+        if (start >= end) {
+            return null;
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            final char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return null;
+            }
+            value = value * 10 + (c - '0');
+            if (value > (long)Integer.MAX_VALUE + 1) {
+                return null;
+            }
+        }
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE) {
+            return null;
+        }
+        return (int)value;
+    }
+
+    private int scanQuery(int start) {
+        final String s = this.uri;
+        final int len = s.length();
+
+        this.queryStart = start;
+
+        // validate each name value pair as we go: a pair is split on "=" and
+        // any trailing empty values are ignored (e.g. "a=" and "a==" are valid)
+        int pairPos = start;
+        int equalsCount = 0;
+        int trailingEqualsCount = 0;
+
+        int i = start;
+        for (; i <= len; i++) {
+            final char c = (i < len ? s.charAt(i) : '#');
+            if (c == '&' || c == '#') {
+                int pairLen = i - pairPos;
+                if ((pairLen > 0 && pairLen == trailingEqualsCount) || (equalsCount - trailingEqualsCount) > 1) {
+                    this.fail("Name value pair [" + s.substring(pairPos, i)
+                        + "] in query [" + s.substring(start, this.queryEnd(i)) + "] missing = char");
+                    return -1;
+                }
+                if (c == '#') {
+                    break;
+                }
+                pairPos = i + 1;
+                equalsCount = 0;
+                trailingEqualsCount = 0;
+            } else if (c == '=') {
+                equalsCount++;
+                trailingEqualsCount++;
+            } else {
+                trailingEqualsCount = 0;
+                if (c == '%' && !this.checkEscape(i)) {
+                    return -1;
+                }
+            }
+        }
+
+        this.queryEnd = i;
+
+        return i;
+    }
+
+    private int queryEnd(int from) {
+        int pos = this.uri.indexOf('#', from);
+        return pos < 0 ? this.uri.length() : pos;
+    }
+
+    private boolean checkEscape(int pos) {
+        final String s = this.uri;
+        if (pos + 2 >= s.length() || !isHex(s.charAt(pos+1)) || !isHex(s.charAt(pos+2))) {
+            return this.fail("Invalid escape (%) sequence at index " + pos + " in uri " + s);
+        }
+        return true;
+    }
+
+    static private boolean isHex(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+
+    List<String> rels() {
+        if (this.pathStart < 0) {
+            return null;
+        }
+
+        final String s = this.uri;
+        final List<String> rels = new ArrayList<>();
+
+        int pos = this.pathStart;
+        // an absolute path does not include the empty root
+        if (pos < this.pathEnd && s.charAt(pos) == '/') {
+            pos++;
+        }
+
+        for (int i = pos; i < this.pathEnd; i++) {
+            if (s.charAt(i) == '/') {
+                rels.add(decode(pos, i, UriCodec.Component.PATH_SEGMENT));
+                pos = i + 1;
+            }
+        }
+
+        // last token (which is an empty string if the path ended with a "/")
+        rels.add(decode(pos, this.pathEnd, UriCodec.Component.PATH_SEGMENT));
+
+        return rels;
+    }
+
+    Map<String,List<String>> query() {
+        if (this.queryStart < 0) {
+            return null;
+        }
+
+        final String s = this.uri;
+
+        // trailing empty pairs are ignored (an empty query is still one empty pair)
+        int end = this.queryEnd;
+        while (end > this.queryStart && s.charAt(end-1) == '&') {
+            end--;
+        }
+        if (end == this.queryStart && end < this.queryEnd) {
+            return null;
+        }
+
+        final Map<String,List<String>> query = new LinkedHashMap<>();   // order of insertion important
+
+        int pairPos = this.queryStart;
+        for (int i = pairPos; i <= end; i++) {
+            if (i == end || s.charAt(i) == '&') {
+                // any trailing "=" chars are ignored
+                int pairEnd = i;
+                while (pairEnd > pairPos && s.charAt(pairEnd-1) == '=') {
+                    pairEnd--;
+                }
+
+                int equalsPos = pairPos;
+                while (equalsPos < pairEnd && s.charAt(equalsPos) != '=') {
+                    equalsPos++;
+                }
+
+                String name;
+                String value = null;
+                if (equalsPos >= pairEnd) {
+                    name = decode(pairPos, pairEnd, UriCodec.Component.QUERY);
+                } else {
+                    name = decode(pairPos, equalsPos, UriCodec.Component.QUERY);
+                    value = decode(equalsPos + 1, pairEnd, UriCodec.Component.QUERY);
+                }
+
+                query.computeIfAbsent(name, (key) -> new ArrayList<>()).add(value);
+
+                pairPos = i + 1;
+            }
+        }
+
+        return query;
+    }
+
+    String fragment() {
+        if (this.fragmentStart < 0) {
+            return null;
+        }
+
+        return decode(this.fragmentStart, this.uri.length(), UriCodec.Component.FRAGMENT);
+    }
+
+    private String decode(int start, int end, UriCodec.Component component) {
+        if (start >= end) {
+            return "";
+        }
+        return UriCodec.decode(this.uri, start, end, component);
+    }
+
+}
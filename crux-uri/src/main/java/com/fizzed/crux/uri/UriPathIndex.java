@@ -0,0 +1,318 @@
+/*
+ * Copyright 2024 Fizzed, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fizzed.crux.uri;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of path patterns (routes) such as "/api/{tenant}/items/{id}" that
+ * matches the path of a uri in time proportional to its depth rather than
+ * the number of routes.  The patterns are stored in a trie by path segment,
+ * where each segment is either a literal, a parameter such as "{id}" (which
+ * matches any non-empty segment) or a trailing wildcard of "*" or "{name*}"
+ * (which matches the remaining segments).  A literal is preferred over a
+ * parameter, which is preferred over a wildcard.
+ *
+ * Routes are added one at a time (under a lock) by linking a new route, or a
+ * branch of new nodes that is already complete, into the trie.  So adding a
+ * route costs the same no matter how many routes there are, and any number of
+ * threads can match while routes are being added (each sees a route either
+ * entirely or not at all).
+ *
+ * @param <T> The type of value of each route
+ */
+public class UriPathIndex<T> {
+
+    static private final class Route<T> {
+
+        private final String pattern;
+        private final T value;
+        private final String[] paramNames;
+        private final String wildcardName;       // null if not named
+
+        Route(String pattern, T value, String[] paramNames, String wildcardName) {
+            this.pattern = pattern;
+            this.value = value;
+            this.paramNames = paramNames;
+            this.wildcardName = wildcardName;
+        }
+
+    }
+
+    static private final class Node<T> {
+
+        // only ever written while holding the lock of the index
+        private volatile Map<String,Node<T>> literals = Collections.emptyMap();
+        private volatile Node<T> param;
+        private volatile Route<T> route;
+        private volatile Route<T> wildcard;
+
+    }
+
+    /**
+     * A matched route along with the values of its variables.
+     * @param <T> The type of value of the route
+     */
+    static public class Match<T> {
+
+        private final String pattern;
+        private final T value;
+        private final Map<String,String> variables;
+
+        Match(String pattern, T value, Map<String,String> variables) {
+            this.pattern = pattern;
+            this.value = value;
+            this.variables = variables;
+        }
+
+        public String getPattern() {
+            return this.pattern;
+        }
+
+        public T getValue() {
+            return this.value;
+        }
+
+        /**
+         * Gets the decoded values of the parameters (and named wildcard) of
+         * the route.
+         * @return The values by name in the order they are in the pattern
+         */
+        public Map<String,String> getVariables() {
+            return this.variables;
+        }
+
+        public String getVariable(String name) {
+            return this.variables.get(name);
+        }
+
+        @Override
+        public String toString() {
+            return this.pattern + " " + this.variables;
+        }
+
+    }
+
+    private final Node<T> root;
+    private volatile int size;
+
+    public UriPathIndex() {
+        this.root = new Node<>();
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Adds the route to the index, replacing the value of an existing route
+     * with the same segments (even if its parameters are named differently).
+     * @param pattern The path pattern such as "/api/{tenant}/items/{id}" or
+     *      "/static/*"
+     * @param value The value of the route
+     * @return This index
+     * @throws IllegalArgumentException If the pattern is invalid
+     */
+    public UriPathIndex<T> add(String pattern, T value) {
+        Objects.requireNonNull(pattern, "pattern was null");
+
+        final List<String> segments = splitPattern(pattern);
+        final List<String> paramNames = new ArrayList<>();
+        String wildcardName = null;
+        boolean wildcard = false;
+
+        // the decoded literal of each segment (or null if a param)
+        final List<String> literals = new ArrayList<>();
+
+        for (int i = 0; i < segments.size(); i++) {
+            final String segment = segments.get(i);
+            if (segment.equals("*") || (isParam(segment) && segment.endsWith("*}"))) {
+                if (i != segments.size() - 1) {
+                    throw new IllegalArgumentException("Wildcard must be the last segment in pattern " + pattern);
+                }
+                wildcard = true;
+                wildcardName = segment.equals("*") ? null : paramName(segment.substring(0, segment.length()-2) + "}", pattern);
+            } else if (isParam(segment)) {
+                paramNames.add(paramName(segment, pattern));
+                literals.add(null);
+            } else if (segment.indexOf('{') >= 0 || segment.indexOf('}') >= 0) {
+                throw new IllegalArgumentException("Segment [" + segment + "] must entirely be a {param} in pattern " + pattern);
+            } else {
+                literals.add(UriCodec.decode(segment, UriCodec.Component.PATH_SEGMENT));
+            }
+        }
+
+        final Route<T> route = new Route<>(pattern, value, paramNames.toArray(new String[0]), wildcardName);
+
+        synchronized (this) {
+            // follow the nodes that already exist
+            Node<T> node = this.root;
+            int i = 0;
+            for (; i < literals.size(); i++) {
+                final String literal = literals.get(i);
+                final Node<T> child = literal == null ? node.param : node.literals.get(literal);
+                if (child == null) {
+                    break;
+                }
+                node = child;
+            }
+
+            if (i == literals.size()) {
+                final Route<T> existing = wildcard ? node.wildcard : node.route;
+                setRoute(node, wildcard, route);
+                if (existing == null) {
+                    this.size++;
+                }
+            } else {
+                // the rest are new nodes that are completed before linked in
+                final Node<T> branch = new Node<>();
+                Node<T> last = branch;
+                for (int j = i+1; j < literals.size(); j++) {
+                    final Node<T> child = new Node<>();
+                    link(last, literals.get(j), child);
+                    last = child;
+                }
+                setRoute(last, wildcard, route);
+                link(node, literals.get(i), branch);
+                this.size++;
+            }
+        }
+
+        return this;
+    }
+
+    static private <T> void setRoute(Node<T> node, boolean wildcard, Route<T> route) {
+        if (wildcard) {
+            node.wildcard = route;
+        } else {
+            node.route = route;
+        }
+    }
+
+    static private <T> void link(Node<T> node, String literal, Node<T> child) {
+        if (literal == null) {
+            node.param = child;
+        } else {
+            if (node.literals.isEmpty()) {
+                node.literals = new ConcurrentHashMap<>();
+            }
+            node.literals.put(literal, child);
+        }
+    }
+
+    static private List<String> splitPattern(String pattern) {
+        // same as how the path of a uri is split into its rels
+        final List<String> segments = new ArrayList<>();
+        int pos = pattern.startsWith("/") ? 1 : 0;
+        for (int i = pos; i <= pattern.length(); i++) {
+            if (i == pattern.length() || pattern.charAt(i) == '/') {
+                segments.add(pattern.substring(pos, i));
+                pos = i + 1;
+            }
+        }
+        return segments;
+    }
+
+    static private boolean isParam(String segment) {
+        return segment.length() > 2 && segment.charAt(0) == '{' && segment.charAt(segment.length()-1) == '}';
+    }
+
+    static private String paramName(String segment, String pattern) {
+        final String name = segment.substring(1, segment.length()-1);
+        if (name.isEmpty() || name.indexOf('{') >= 0 || name.indexOf('}') >= 0 || name.indexOf('*') >= 0) {
+            throw new IllegalArgumentException("Invalid param " + segment + " in pattern " + pattern);
+        }
+        return name;
+    }
+
+    /**
+     * Matches the path of the uri.
+     * @param uri The uri to match
+     * @return The matched route or null if none matched
+     */
+    public Match<T> match(Uri uri) {
+        Objects.requireNonNull(uri, "uri was null");
+
+        return this.match(uri.getRels());
+    }
+
+    /**
+     * Matches the decoded segments of a path (e.g. the rels of a uri).
+     * @param rels The segments of the path, where null or an empty list is
+     *      the same as the root path
+     * @return The matched route or null if none matched
+     */
+    public Match<T> match(List<String> rels) {
+        if (rels == null || rels.isEmpty()) {
+            rels = Collections.singletonList("");
+        }
+
+        return find(this.root, rels, 0, new String[rels.size()], 0);
+    }
+
+    static private <T> Match<T> find(Node<T> node, List<String> rels, int i, String[] params, int paramCount) {
+        if (i == rels.size()) {
+            if (node.route != null) {
+                return match(node.route, params, paramCount, null);
+            } else if (node.wildcard != null) {
+                return match(node.wildcard, params, paramCount, "");
+            }
+            return null;
+        }
+
+        final String rel = rels.get(i);
+
+        final Node<T> literal = node.literals.get(rel);
+        if (literal != null) {
+            final Match<T> match = find(literal, rels, i+1, params, paramCount);
+            if (match != null) {
+                return match;
+            }
+        }
+
+        if (node.param != null && !rel.isEmpty()) {
+            params[paramCount] = rel;
+            final Match<T> match = find(node.param, rels, i+1, params, paramCount+1);
+            if (match != null) {
+                return match;
+            }
+        }
+
+        if (node.wildcard != null) {
+            return match(node.wildcard, params, paramCount, String.join("/", rels.subList(i, rels.size())));
+        }
+
+        return null;
+    }
+
+    static private <T> Match<T> match(Route<T> route, String[] params, int paramCount, String rest) {
+        final Map<String,String> variables = new LinkedHashMap<>();
+        for (int i = 0; i < paramCount; i++) {
+            variables.put(route.paramNames[i], params[i]);
+        }
+        if (route.wildcardName != null) {
+            variables.put(route.wildcardName, rest);
+        }
+        return new Match<>(route.pattern, route.value, variables);
+    }
+
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2024 Fizzed, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fizzed.crux.uri;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+/**
+ * Resolves other urls against a single base uri, such as the links on a
+ * crawled page.  Everything about the base (its scheme, authority and the
+ * rels of its "directory") is computed once, so each url only needs to be
+ * parsed and have its rels combined with the base.  A resolver is immutable
+ * and safe to share between threads.
+ *
+ * @see Uri#resolve(java.lang.String)
+ */
+public class UriResolver {
+
+    private final Uri base;
+    // rels of the base without its last rel (to resolve against its current directory)
+    private final List<String> directoryRels;
+
+    public UriResolver(Uri base) {
+        Objects.requireNonNull(base, "base was null");
+
+        // a mutable uri could be modified, so we'll resolve against a snapshot
+        this.base = base instanceof MutableUri ? new Uri(base) : base;
+
+        final List<String> rels = this.base.getRels();
+        if (rels == null || rels.size() < 2) {
+            this.directoryRels = Collections.emptyList();
+        } else {
+            this.directoryRels = rels.subList(0, rels.size()-1);
+        }
+    }
+
+    public Uri getBase() {
+        return this.base;
+    }
+
+    /**
+     * Resolves the other url against the base.
+     * @param otherUrl The absolute or relative url
+     * @return The resolved uri or null if the other url was null or blank
+     * @throws IllegalArgumentException If the other url is invalid
+     */
+    public Uri resolve(String otherUrl) {
+        if (otherUrl == null) {
+            return null;
+        }
+
+        otherUrl = otherUrl.trim();
+        if (otherUrl.length() == 0) {
+            return null;
+        }
+
+        // same scheme as us?
+        if (otherUrl.startsWith("//")) {
+            return new Uri(this.base.scheme + ":" + otherUrl);
+        }
+
+        // time to parse the other url
+        final Uri otherUri = new Uri();
+        otherUri.parsed(UriParser.parse(otherUrl));
+
+        if (otherUri.isAbsolute()) {
+            return otherUri;
+        }
+
+        // calculate new rels by overlying new relative path
+        otherUri.decodeLazy(Uri.PATH | Uri.QUERY);
+        final List<String> otherRels = otherUri.rels;
+        List<String> newRels;
+
+        if (otherUrl.startsWith("/")) {
+            // new path is absolute
+            newRels = otherRels;
+        } else {
+            newRels = new ArrayList<>(this.directoryRels.size() + (otherRels != null ? otherRels.size() : 0));
+            newRels.addAll(this.directoryRels);
+            if (otherRels != null) {
+                newRels.addAll(otherRels);
+            }
+        }
+
+        // the other uri is ours alone, so its rels and query can simply be shared
+        final Uri resolvedUri = new Uri();
+        resolvedUri.scheme = this.base.scheme;
+        resolvedUri.hasAuthority = this.base.hasAuthority;
+        resolvedUri.userInfo = this.base.userInfo;
+        resolvedUri.host = this.base.host;
+        resolvedUri.port = this.base.port;
+        resolvedUri.rels = MutableUri.normalizeRels(newRels);
+        resolvedUri.query = otherUri.query;
+        resolvedUri.fragment = otherUri.getFragment();
+
+        return resolvedUri;
+    }
+
+    /**
+     * Resolves each of the other urls against the base.
+     * @param otherUrls The absolute or relative urls
+     * @return The resolved uris in the same order, with a null for any url
+     *      that was null or blank
+     * @throws IllegalArgumentException If any other url is invalid
+     */
+    public Uri[] resolveAll(String... otherUrls) {
+        final Uri[] uris = new Uri[otherUrls.length];
+        for (int i = 0; i < otherUrls.length; i++) {
+            uris[i] = this.resolve(otherUrls[i]);
+        }
+        return uris;
+    }
+
+    /**
+     * Resolves each of the other urls against the base.
+     * @param otherUrls The absolute or relative urls
+     * @return The resolved uris in the same order, with a null for any url
+     *      that was null or blank
+     * @throws IllegalArgumentException If any other url is invalid
+     */
+    public List<Uri> resolveAll(Iterable<String> otherUrls) {
+        final List<Uri> uris = new ArrayList<>();
+        for (String otherUrl : otherUrls) {
+            uris.add(this.resolve(otherUrl));
+        }
+        return uris;
+    }
+
+    /**
+     * Lazily resolves each of the other urls against the base.
+     * @param otherUrls The absolute or relative urls
+     * @return The resolved uris, with any url that was null or blank skipped
+     */
+    public Stream<Uri> resolveAll(Stream<String> otherUrls) {
+        return otherUrls
+            .map(this::resolve)
+            .filter(Objects::nonNull);
+    }
+
+}
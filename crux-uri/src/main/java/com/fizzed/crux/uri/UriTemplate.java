@@ -0,0 +1,555 @@
+/*
+ * Copyright 2024 Fizzed, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fizzed.crux.uri;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Uri template (RFC 6570) up to and including level 4.  A template is parsed
+ * (compiled) once with its literal parts already url-encoded, so expanding it
+ * only needs to encode the values of its variables and append everything to
+ * a builder.  A template is immutable and safe to share between threads.
+ *
+ * <pre>
+ * UriTemplate template = UriTemplate.compile("/v1/accounts/{id}/orders{?since}");
+ *
+ * String path = template.expand(vars);             // "/v1/accounts/1/orders?since=2"
+ * template.expand(sb, vars);                       // appended to a reusable builder
+ * </pre>
+ *
+ * The value of a variable may be null (undefined), an Iterable or array (a
+ * list), a Map (an associative array), an Optional or any other object (its
+ * string value).
+ *
+ * https://tools.ietf.org/html/rfc6570
+ */
+public class UriTemplate {
+
+    static private final boolean[] UNRESERVED = new boolean[128];
+    static private final boolean[] RESERVED = new boolean[128];
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            UNRESERVED[c] = RESERVED[c] = true;
+        }
+        for (char c = 'A'; c <= 'Z'; c++) {
+            UNRESERVED[c] = RESERVED[c] = true;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            UNRESERVED[c] = RESERVED[c] = true;
+        }
+        for (char c : "-._~".toCharArray()) {
+            UNRESERVED[c] = RESERVED[c] = true;
+        }
+        for (char c : ":/?#[]@!$&'()*+,;=".toCharArray()) {
+            RESERVED[c] = true;
+        }
+    }
+
+    private enum Operator {
+
+        //      op    first  sep   named  ifemp  allowReserved
+        SIMPLE(  0,   null,  ',',  false, "",    false),
+        RESERVED('+', null,  ',',  false, "",    true),
+        LABEL(   '.', '.',   '.',  false, "",    false),
+        PATH(    '/', '/',   '/',  false, "",    false),
+        PARAM(   ';', ';',   ';',  true,  "",    false),
+        QUERY(   '?', '?',   '&',  true,  "=",   false),
+        CONTINUATION('&', '&', '&', true, "=",   false),
+        FRAGMENT('#', '#',   ',',  false, "",    true);
+
+        private final char op;
+        private final Character first;
+        private final char sep;
+        private final boolean named;
+        private final String ifemp;
+        private final boolean allowReserved;
+
+        Operator(int op, Character first, char sep, boolean named, String ifemp, boolean allowReserved) {
+            this.op = (char)op;
+            this.first = first;
+            this.sep = sep;
+            this.named = named;
+            this.ifemp = ifemp;
+            this.allowReserved = allowReserved;
+        }
+
+        static Operator of(char c) {
+            for (Operator operator : values()) {
+                // simple has no operator char (so a NUL is not one)
+                if (operator != SIMPLE && operator.op == c) {
+                    return operator;
+                }
+            }
+            return null;
+        }
+
+    }
+
+    static private class VarSpec {
+
+        private final String name;
+        private final int prefix;           // -1 if none
+        private final boolean explode;
+
+        VarSpec(String name, int prefix, boolean explode) {
+            this.name = name;
+            this.prefix = prefix;
+            this.explode = explode;
+        }
+
+    }
+
+    static private class Expression {
+
+        private final Operator operator;
+        private final VarSpec[] varSpecs;
+
+        Expression(Operator operator, VarSpec[] varSpecs) {
+            this.operator = operator;
+            this.varSpecs = varSpecs;
+        }
+
+    }
+
+    private final String template;
+    // compiled parts are either a pre-encoded literal String or an Expression
+    private final Object[] parts;
+    private final List<String> variableNames;
+    private final int literalLength;
+
+    private UriTemplate(String template, Object[] parts, List<String> variableNames, int literalLength) {
+        this.template = template;
+        this.parts = parts;
+        this.variableNames = variableNames;
+        this.literalLength = literalLength;
+    }
+
+    /**
+     * Parses the template into its compiled form.
+     * @param template The uri template such as "/accounts/{id}{?since,limit}"
+     * @return The compiled template
+     * @throws IllegalArgumentException If the template is invalid
+     */
+    static public UriTemplate compile(String template) {
+        Objects.requireNonNull(template, "template was null");
+
+        final List<Object> parts = new ArrayList<>();
+        final List<String> variableNames = new ArrayList<>();
+        final StringBuilder literal = new StringBuilder();
+        int literalLength = 0;
+
+        final int len = template.length();
+        int i = 0;
+        while (i < len) {
+            final char c = template.charAt(i);
+            if (c == '{') {
+                final int end = template.indexOf('}', i + 1);
+                if (end < 0) {
+                    throw new IllegalArgumentException("Expression at index " + i + " in template " + template + " missing } char");
+                }
+                if (literal.length() > 0) {
+                    literalLength += literal.length();
+                    parts.add(literal.toString());
+                    literal.setLength(0);
+                }
+                final Expression expression = parseExpression(template, i + 1, end);
+                for (VarSpec varSpec : expression.varSpecs) {
+                    if (!variableNames.contains(varSpec.name)) {
+                        variableNames.add(varSpec.name);
+                    }
+                }
+                parts.add(expression);
+                i = end + 1;
+            } else if (c == '}') {
+                throw new IllegalArgumentException("Unexpected } char at index " + i + " in template " + template);
+            } else if (c == '%' && isPctEncoded(template, i, len)) {
+                literal.append(template, i, i + 3);
+                i += 3;
+            } else if (c < 128 && RESERVED[c]) {
+                literal.append(c);
+                i++;
+            } else {
+                i = UriCodec.escape(literal, template, i) + 1;
+            }
+        }
+
+        if (literal.length() > 0) {
+            literalLength += literal.length();
+            parts.add(literal.toString());
+        }
+
+        return new UriTemplate(template, parts.toArray(), Collections.unmodifiableList(variableNames), literalLength);
+    }
+
+    static private Expression parseExpression(String template, int start, int end) {
+        if (start >= end) {
+            throw new IllegalArgumentException("Empty expression at index " + (start-1) + " in template " + template);
+        }
+
+        Operator operator = Operator.of(template.charAt(start));
+        if (operator != null) {
+            start++;
+        } else {
+            operator = Operator.SIMPLE;
+            final char c = template.charAt(start);
+            if (c == '=' || c == ',' || c == '!' || c == '@' || c == '|') {
+                throw new IllegalArgumentException("Reserved operator " + c + " at index " + start + " in template " + template);
+            }
+        }
+
+        final List<VarSpec> varSpecs = new ArrayList<>();
+        int pos = start;
+        for (int i = start; i <= end; i++) {
+            if (i == end || template.charAt(i) == ',') {
+                varSpecs.add(parseVarSpec(template, pos, i));
+                pos = i + 1;
+            }
+        }
+
+        return new Expression(operator, varSpecs.toArray(new VarSpec[0]));
+    }
+
+    static private VarSpec parseVarSpec(String template, int start, int end) {
+        int nameEnd = end;
+        int prefix = -1;
+        boolean explode = false;
+
+        if (end > start && template.charAt(end-1) == '*') {
+            explode = true;
+            nameEnd = end - 1;
+        } else {
+            final int colonPos = template.indexOf(':', start);
+            if (colonPos >= 0 && colonPos < end) {
+                nameEnd = colonPos;
+                final String prefixStr = template.substring(colonPos + 1, end);
+                try {
+                    prefix = Integer.parseInt(prefixStr);
+                } catch (NumberFormatException e) {
+                    prefix = -1;
+                }
+                if (prefix <= 0 || prefix > 9999 || prefixStr.length() > 4 || prefixStr.charAt(0) == '0') {
+                    throw new IllegalArgumentException("Prefix " + prefixStr + " was not an integer from 1 to 9999 in template " + template);
+                }
+            }
+        }
+
+        // varname = varchar *( ["."] varchar ) and varchar = ALPHA / DIGIT / "_" / pct-encoded
+        boolean valid = nameEnd > start && template.charAt(start) != '.' && template.charAt(nameEnd-1) != '.';
+        for (int i = start; valid && i < nameEnd; i++) {
+            final char c = template.charAt(i);
+            if (c == '%') {
+                valid = isPctEncoded(template, i, nameEnd);
+                i += 2;
+            } else if (c == '.') {
+                valid = template.charAt(i-1) != '.';
+            } else {
+                valid = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+            }
+        }
+
+        if (!valid) {
+            throw new IllegalArgumentException("Invalid variable name [" + template.substring(start, nameEnd) + "] in template " + template);
+        }
+
+        return new VarSpec(template.substring(start, nameEnd), prefix, explode);
+    }
+
+    static private boolean isPctEncoded(CharSequence s, int i, int end) {
+        return i + 2 < end
+            && UriCodec.hexValue(s.charAt(i+1)) >= 0
+            && UriCodec.hexValue(s.charAt(i+2)) >= 0;
+    }
+
+    public String getTemplate() {
+        return this.template;
+    }
+
+    /**
+     * Gets the names of all the variables in the template.
+     * @return The unique variable names in the order they first appear
+     */
+    public List<String> getVariableNames() {
+        return this.variableNames;
+    }
+
+    /**
+     * Expands the template into a string.
+     * @param vars The values of the variables by name
+     * @return The expanded template
+     */
+    public String expand(Map<String,?> vars) {
+        return this.expand(new StringBuilder(this.literalLength + 16 * this.variableNames.size()), vars).toString();
+    }
+
+    /**
+     * Expands the template into a uri.
+     * @param vars The values of the variables by name
+     * @return The expanded template as a uri
+     * @throws IllegalArgumentException If the expanded template is not a valid
+     *      uri
+     */
+    public Uri toUri(Map<String,?> vars) {
+        return new Uri(this.expand(vars));
+    }
+
+    /**
+     * Expands the template and appends it to the builder, which can be reused
+     * to avoid any allocation other than encoding the values of variables.
+     * @param sb The builder to append to
+     * @param vars The values of the variables by name
+     * @return The builder
+     */
+    public StringBuilder expand(StringBuilder sb, Map<String,?> vars) {
+        try {
+            return this.appendTo(sb, vars);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);     // never happens with a StringBuilder
+        }
+    }
+
+    /**
+     * Expands the template and appends it to the appendable, without building
+     * an intermediate string.
+     * @param appendable The appendable to append to
+     * @param vars The values of the variables by name
+     * @return The appendable
+     * @throws IOException If the appendable throws an exception
+     */
+    public <A extends Appendable> A appendTo(A appendable, Map<String,?> vars) throws IOException {
+        Objects.requireNonNull(vars, "vars was null");
+
+        for (Object part : this.parts) {
+            if (part instanceof String) {
+                appendable.append((String)part);
+            } else {
+                expand(appendable, (Expression)part, vars);
+            }
+        }
+
+        return appendable;
+    }
+
+    static private void expand(Appendable sb, Expression expression, Map<String,?> vars) throws IOException {
+        final Operator op = expression.operator;
+        boolean first = true;
+
+        for (VarSpec varSpec : expression.varSpecs) {
+            final Object value = unwrap(vars.get(varSpec.name));
+
+            if (isUndefined(value)) {
+                continue;
+            }
+
+            if (first) {
+                if (op.first != null) {
+                    sb.append(op.first.charValue());
+                }
+                first = false;
+            } else {
+                sb.append(op.sep);
+            }
+
+            if (value instanceof Map) {
+                expandMap(sb, op, varSpec, (Map<?,?>)value);
+            } else if (value instanceof Iterable || value instanceof Object[]) {
+                expandList(sb, op, varSpec, iterator(value));
+            } else {
+                String s = value.toString();
+                if (op.named) {
+                    appendName(sb, op, varSpec.name, s.isEmpty());
+                }
+                if (varSpec.prefix > 0 && varSpec.prefix < s.length()) {
+                    final int n = s.codePointCount(0, s.length());
+                    if (varSpec.prefix < n) {
+                        s = s.substring(0, s.offsetByCodePoints(0, varSpec.prefix));
+                    }
+                }
+                encode(sb, s, op.allowReserved);
+            }
+        }
+    }
+
+    static private void expandList(Appendable sb, Operator op, VarSpec varSpec, Iterator<?> it) throws IOException {
+        if (!varSpec.explode) {
+            if (op.named) {
+                sb.append(varSpec.name).append('=');
+            }
+            boolean first = true;
+            while (it.hasNext()) {
+                final Object item = unwrap(it.next());
+                if (item != null) {
+                    if (!first) {
+                        sb.append(',');
+                    }
+                    encode(sb, item.toString(), op.allowReserved);
+                    first = false;
+                }
+            }
+        } else {
+            boolean first = true;
+            while (it.hasNext()) {
+                final Object item = unwrap(it.next());
+                if (item != null) {
+                    if (!first) {
+                        sb.append(op.sep);
+                    }
+                    final String s = item.toString();
+                    if (op.named) {
+                        appendName(sb, op, varSpec.name, s.isEmpty());
+                    }
+                    encode(sb, s, op.allowReserved);
+                    first = false;
+                }
+            }
+        }
+    }
+
+    static private void expandMap(Appendable sb, Operator op, VarSpec varSpec, Map<?,?> map) throws IOException {
+        if (!varSpec.explode) {
+            if (op.named) {
+                sb.append(varSpec.name).append('=');
+            }
+            boolean first = true;
+            for (Map.Entry<?,?> entry : map.entrySet()) {
+                final Object value = unwrap(entry.getValue());
+                if (entry.getKey() != null && value != null) {
+                    if (!first) {
+                        sb.append(',');
+                    }
+                    encode(sb, entry.getKey().toString(), op.allowReserved);
+                    sb.append(',');
+                    encode(sb, value.toString(), op.allowReserved);
+                    first = false;
+                }
+            }
+        } else {
+            boolean first = true;
+            for (Map.Entry<?,?> entry : map.entrySet()) {
+                final Object value = unwrap(entry.getValue());
+                if (entry.getKey() != null && value != null) {
+                    if (!first) {
+                        sb.append(op.sep);
+                    }
+                    final String s = value.toString();
+                    encode(sb, entry.getKey().toString(), op.allowReserved);
+                    if (op.named && s.isEmpty()) {
+                        sb.append(op.ifemp);
+                    } else {
+                        sb.append('=');
+                    }
+                    encode(sb, s, op.allowReserved);
+                    first = false;
+                }
+            }
+        }
+    }
+
+    static private void appendName(Appendable sb, Operator op, String name, boolean empty) throws IOException {
+        sb.append(name);
+        if (empty) {
+            sb.append(op.ifemp);
+        } else {
+            sb.append('=');
+        }
+    }
+
+    static private void encode(Appendable sb, String value, boolean allowReserved) throws IOException {
+        final boolean[] allowed = allowReserved ? RESERVED : UNRESERVED;
+        final int len = value.length();
+        for (int i = 0; i < len; i++) {
+            final char c = value.charAt(i);
+            if (c < 128 && allowed[c]) {
+                sb.append(c);
+            } else if (allowReserved && c == '%' && isPctEncoded(value, i, len)) {
+                // already pct-encoded triplets are kept as-is
+                sb.append(c);
+            } else {
+                i = UriCodec.escape(sb, value, i);
+            }
+        }
+    }
+
+    static private Object unwrap(Object value) {
+        if (value instanceof Optional) {
+            return ((Optional<?>)value).orElse(null);
+        }
+        return value;
+    }
+
+    /**
+     * Whether the value is undefined, which a list (or map) is if it has no
+     * defined (non-null) items since those are all skipped when expanded.
+     */
+    static private boolean isUndefined(Object value) {
+        if (value == null) {
+            return true;
+        } else if (value instanceof Map) {
+            for (Map.Entry<?,?> entry : ((Map<?,?>)value).entrySet()) {
+                if (entry.getKey() != null && unwrap(entry.getValue()) != null) {
+                    return false;
+                }
+            }
+            return true;
+        } else if (value instanceof Iterable || value instanceof Object[]) {
+            final Iterator<?> it = iterator(value);
+            while (it.hasNext()) {
+                if (unwrap(it.next()) != null) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    static private Iterator<?> iterator(Object value) {
+        if (value instanceof Object[]) {
+            return Arrays.asList((Object[])value).iterator();
+        }
+        return ((Iterable<?>)value).iterator();
+    }
+
+    @Override
+    public int hashCode() {
+        return this.template.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        return this.template.equals(((UriTemplate)obj).template);
+    }
+
+    @Override
+    public String toString() {
+        return this.template;
+    }
+
+}
@@ -392,6 +392,86 @@ public class MutableUriTest {
         assertThat(uri.getFragment(), is(nullValue()));
     }
     
+    @Test
+    public void parseDelimitersInLaterComponents() {
+        MutableUri uri;
+
+        // colon in query is not a scheme
+        uri = new MutableUri("/a?t=1:2");
+
+        assertThat(uri.getScheme(), is(nullValue()));
+        assertThat(uri.getRels(), is(asList("a")));
+        assertThat(uri.getQueryFirst("t"), is("1:2"));
+
+        // slash in query does not end the authority
+        uri = new MutableUri("http://localhost?r=/x");
+
+        assertThat(uri.getHost(), is("localhost"));
+        assertThat(uri.getRels(), is(nullValue()));
+        assertThat(uri.getQueryFirst("r"), is("/x"));
+
+        // question mark in fragment is not a query
+        uri = new MutableUri("/p#a?b");
+
+        assertThat(uri.getRels(), is(asList("p")));
+        assertThat(uri.getQuery(), is(nullValue()));
+        assertThat(uri.getFragment(), is("a?b"));
+    }
+
+    @Test
+    public void parseLazilyDecoded() {
+        MutableUri uri;
+
+        uri = new MutableUri("http://localhost/a%20b/c?d=%41&e#f%20g");
+
+        // modifying before decoding is accessed
+        uri.rel("h").query("i", 1).fragment("j");
+
+        assertThat(uri.getRels(), is(asList("a b", "c", "h")));
+        assertThat(uri.getQueryFirst("d"), is("A"));
+        assertThat(uri.getQuery(), hasKey("e"));
+        assertThat(uri.getQueryFirst("i"), is("1"));
+        assertThat(uri.getFragment(), is("j"));
+
+        // copies of an undecoded uri are independent
+        Uri uri1 = new Uri("http://localhost/a?b=1");
+        MutableUri uri2 = uri1.mutable().rel("c");
+
+        assertThat(uri1.toString(), is("http://localhost/a?b=1"));
+        assertThat(uri2.toString(), is("http://localhost/a/c?b=1"));
+    }
+
+    @Test
+    public void parseInvalid() {
+        try {
+            new MutableUri("http://localhost/a%zz");
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        try {
+            new MutableUri("http://localhost?a=1#b%2");
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        try {
+            new MutableUri("http://localhost?a=b=c");
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        try {
+            new MutableUri("http://localhost:abc/");
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
     @Test
     public void stringify() {
         MutableUri uri;
@@ -491,7 +571,8 @@ public class MutableUriTest {
             .query("c", null)
             .fragment("fr@g");
         
-        assertThat(uri.toString(), is("http://user%401@localhost:8080/this/is/a/path?a=%40&a=2&b=2&c#fr%40g"));
+        // "@" is only allowed as-is in the path and fragment
+        assertThat(uri.toString(), is("http://user%401@localhost:8080/this/is/a/path?a=%40&a=2&b=2&c#fr@g"));
     }
     
     @Test
@@ -735,6 +816,59 @@ public class MutableUriTest {
         assertThat(uri.toString(), is("http://localhost/test?a=1"));
     }
     
+    @Test
+    public void modifyHandedOutCollectionsAfterToUri() {
+        MutableUri mutable = new MutableUri("http://localhost/a?b=1");
+        
+        List<String> rels = mutable.getRels();
+        Map<String,List<String>> query = mutable.getQuery();
+        
+        Uri uri = mutable.toUri();
+        String s = uri.toString();
+        int hash = uri.hashCode();
+        
+        rels.add("c");
+        query.get("b").add("2");
+        query.put("d", new java.util.ArrayList<>(asList("3")));
+        
+        assertThat(uri.toString(), is("http://localhost/a?b=1"));
+        assertThat(uri.toString(), is(s));
+        assertThat(uri.hashCode(), is(hash));
+        assertThat(uri, is(new Uri("http://localhost/a?b=1")));
+        assertThat(uri.getRels(), is(asList("a")));
+        assertThat(uri.getQueryAll("b"), is(asList("1")));
+        
+        // still modifies the mutable uri itself
+        assertThat(mutable.toString(), is("http://localhost/a/c?b=1&b=2&d=3"));
+        
+        // a value list handed out is copied too
+        mutable = new MutableUri("http://localhost/a?b=1");
+        List<String> values = mutable.getQueryAll("b");
+        uri = mutable.toUri();
+        values.add("2");
+        
+        assertThat(uri.toString(), is("http://localhost/a?b=1"));
+    }
+    
+    @Test
+    public void handedOutCollectionsStayLiveAfterToUri() {
+        MutableUri mutable = new MutableUri("http://localhost/a?b=1");
+        
+        List<String> rels = mutable.getRels();
+        Map<String,List<String>> query = mutable.getQuery();
+        
+        Uri uri = mutable.toUri();
+        
+        // copied (not shared) with the uri, so the mutable uri still owns them
+        mutable.rel("c");
+        mutable.query("d", "2");
+        
+        assertThat(rels, is(asList("a", "c")));
+        assertThat(query.get("d"), is(asList("2")));
+        assertThat(mutable.toString(), is("http://localhost/a/c?b=1&d=2"));
+        assertThat(uri.toString(), is("http://localhost/a?b=1"));
+    }
+    
     @Test
     public void pathWithNull() {
         MutableUri uri;
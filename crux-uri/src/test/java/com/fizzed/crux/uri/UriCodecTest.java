@@ -0,0 +1,96 @@
+/*
+ * Copyright 2024 Fizzed, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fizzed.crux.uri;
+
+import com.fizzed.crux.uri.UriCodec.Component;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+public class UriCodecTest {
+    
+    @Test
+    public void encodeUnchanged() {
+        String s = "abcXYZ019-._";
+        
+        assertThat(UriCodec.encode(s, Component.USERINFO), sameInstance(s));
+        assertThat(UriCodec.encode(s, Component.PATH_SEGMENT), sameInstance(s));
+        assertThat(UriCodec.encode(s, Component.QUERY), sameInstance(s));
+        assertThat(UriCodec.encode(s, Component.FRAGMENT), sameInstance(s));
+        assertThat(UriCodec.encode(null, Component.QUERY), is(nullValue()));
+    }
+    
+    @Test
+    public void encodeByComponent() {
+        String s = "a b+c@d:e/f?g&h=i~j";
+        
+        assertThat(UriCodec.encode(s, Component.USERINFO), is("a%20b+c%40d:e%2Ff%3Fg&h=i~j"));
+        assertThat(UriCodec.encode(s, Component.PATH_SEGMENT), is("a%20b+c@d:e%2Ff%3Fg&h=i~j"));
+        assertThat(UriCodec.encode(s, Component.QUERY), is("a+b%2Bc%40d%3Ae%2Ff%3Fg%26h%3Di%7Ej"));
+        assertThat(UriCodec.encode(s, Component.FRAGMENT), is("a%20b+c@d:e/f?g&h=i~j"));
+    }
+    
+    @Test
+    public void encodeUtf8() {
+        assertThat(UriCodec.encode("caf\u00e9", Component.PATH_SEGMENT), is("caf%C3%A9"));
+        assertThat(UriCodec.encode("\u20ac", Component.QUERY), is("%E2%82%AC"));
+        assertThat(UriCodec.encode("\ud83d\ude00", Component.FRAGMENT), is("%F0%9F%98%80"));
+        
+        StringBuilder sb = new StringBuilder("/");
+        UriCodec.encode(sb, "a b", Component.PATH_SEGMENT);
+        
+        assertThat(sb.toString(), is("/a%20b"));
+    }
+    
+    @Test
+    public void decode() {
+        String s = "abc";
+        
+        assertThat(UriCodec.decode(s, Component.QUERY), sameInstance(s));
+        assertThat(UriCodec.decode(null, Component.QUERY), is(nullValue()));
+        
+        // plus is only a space in a query
+        assertThat(UriCodec.decode("a+b%20c", Component.QUERY), is("a b c"));
+        assertThat(UriCodec.decode("a+b%20c", Component.PATH_SEGMENT), is("a+b c"));
+        assertThat(UriCodec.decode("caf%C3%A9%2f", Component.PATH_SEGMENT), is("caf\u00e9/"));
+        assertThat(UriCodec.decode("%F0%9F%98%80", Component.FRAGMENT), is("\ud83d\ude00"));
+        
+        // region
+        assertThat(UriCodec.decode("/a%20b?c", 1, 6, Component.PATH_SEGMENT), is("a b"));
+        assertThat(UriCodec.decode("/ab?c", 1, 3, Component.PATH_SEGMENT), is("ab"));
+    }
+    
+    @Test
+    public void decodeInvalid() {
+        try {
+            UriCodec.decode("a%zz", Component.PATH_SEGMENT);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        
+        try {
+            UriCodec.decode("a%2", Component.QUERY);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+    
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2024 Fizzed, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fizzed.crux.uri;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+public class UriPathIndexTest {
+
+    @Test
+    public void match() {
+        UriPathIndex<String> index = new UriPathIndex<String>()
+            .add("/", "root")
+            .add("/api/{tenant}/items", "items")
+            .add("/api/{tenant}/items/{id}", "item")
+            .add("/api/{tenant}/items/new", "new")
+            .add("/static/*", "static")
+            .add("/files/{path*}", "files");
+
+        assertThat(index.size(), is(6));
+
+        UriPathIndex.Match<String> match = index.match(new Uri("http://localhost/api/acme/items/1?a=b"));
+
+        assertThat(match.getValue(), is("item"));
+        assertThat(match.getPattern(), is("/api/{tenant}/items/{id}"));
+        assertThat(match.getVariable("tenant"), is("acme"));
+        assertThat(match.getVariable("id"), is("1"));
+
+        // literal is preferred over a param
+        assertThat(index.match(new Uri("/api/acme/items/new")).getValue(), is("new"));
+        assertThat(index.match(new Uri("/api/acme/items")).getValue(), is("items"));
+
+        // variables are decoded
+        match = index.match(new Uri("/api/a%2Fb/items/c%20d"));
+
+        assertThat(match.getVariable("tenant"), is("a/b"));
+        assertThat(match.getVariable("id"), is("c d"));
+
+        assertThat(index.match(new Uri("http://localhost")).getValue(), is("root"));
+        assertThat(index.match(new Uri("/")).getValue(), is("root"));
+        assertThat(index.match(new Uri("/static")).getValue(), is("static"));
+        assertThat(index.match(new Uri("/static/a/b.css")).getValue(), is("static"));
+        assertThat(index.match(new Uri("/files/a/b.txt")).getVariable("path"), is("a/b.txt"));
+
+        // params never match an empty segment
+        assertThat(index.match(new Uri("/api//items")), is(nullValue()));
+        assertThat(index.match(new Uri("/api/acme/items/1/2")), is(nullValue()));
+        assertThat(index.match(new Uri("/nope")), is(nullValue()));
+    }
+
+    @Test
+    public void backtracks() {
+        UriPathIndex<String> index = new UriPathIndex<String>()
+            .add("/a/b/c", "literal")
+            .add("/a/{x}/d", "param")
+            .add("/a/*", "wildcard");
+
+        assertThat(index.match(new Uri("/a/b/c")).getValue(), is("literal"));
+        assertThat(index.match(new Uri("/a/b/d")).getValue(), is("param"));
+        assertThat(index.match(new Uri("/a/b/d")).getVariable("x"), is("b"));
+        assertThat(index.match(new Uri("/a/b/e")).getValue(), is("wildcard"));
+    }
+
+    @Test
+    public void replaces() {
+        UriPathIndex<String> index = new UriPathIndex<String>()
+            .add("/a/{x}", "1")
+            .add("/a/{y}", "2");
+
+        assertThat(index.size(), is(1));
+        assertThat(index.match(new Uri("/a/b")).getValue(), is("2"));
+        assertThat(index.match(new Uri("/a/b")).getVariable("y"), is("b"));
+    }
+
+    @Test
+    public void invalid() {
+        for (String pattern : Arrays.asList("/a/*/b", "/a/{b", "/a/b}", "/a/x{b}", "/{}")) {
+            try {
+                new UriPathIndex<String>().add(pattern, "x");
+                fail("pattern " + pattern + " should have been invalid");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void concurrentReaders() throws Exception {
+        final UriPathIndex<Integer> index = new UriPathIndex<>();
+        index.add("/fixed/{id}", -1);
+
+        final AtomicReference<String> failure = new AtomicReference<>();
+        final Thread reader = new Thread(() -> {
+            for (int i = 0; i < 20000; i++) {
+                UriPathIndex.Match<Integer> m = index.match(Arrays.asList("fixed", "1"));
+                if (m == null || m.getValue() != -1) {
+                    failure.set("fixed route not matched");
+                }
+            }
+        });
+        reader.start();
+
+        for (int i = 0; i < 1000; i++) {
+            index.add("/r" + i + "/{id}", i);
+        }
+        reader.join();
+
+        assertThat(failure.get(), is(nullValue()));
+        assertThat(index.size(), is(1001));
+        assertThat(index.match(Arrays.asList("r999", "x")).getValue(), is(999));
+    }
+
+}
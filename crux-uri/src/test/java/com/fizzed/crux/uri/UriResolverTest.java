@@ -0,0 +1,84 @@
+/*
+ * Copyright 2024 Fizzed, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fizzed.crux.uri;
+
+import java.util.Arrays;
+import java.util.List;
+import static java.util.stream.Collectors.toList;
+import java.util.stream.Stream;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import org.junit.Test;
+
+public class UriResolverTest {
+
+    @Test
+    public void resolve() {
+        Uri base = new Uri("http://joe@www.fizzed.com:81/a/b/c?q=1#f");
+        UriResolver resolver = new UriResolver(base);
+
+        assertThat(resolver.resolve(null), is(nullValue()));
+        assertThat(resolver.resolve("  "), is(nullValue()));
+        assertThat(resolver.resolve("d").toString(), is("http://joe@www.fizzed.com:81/a/b/d"));
+        assertThat(resolver.resolve("../d?x=1&x=2#g").toString(), is("http://joe@www.fizzed.com:81/a/d?x=1&x=2#g"));
+        assertThat(resolver.resolve("/d/./e/../f").toString(), is("http://joe@www.fizzed.com:81/d/f"));
+        assertThat(resolver.resolve("//www.example.com/a").toString(), is("http://www.example.com/a"));
+        assertThat(resolver.resolve("https://www.example.com/a").toString(), is("https://www.example.com/a"));
+
+        // same as resolving against the uri itself
+        for (String other : Arrays.asList("d", "./d/", "../../../d", "/", "?x", "#y", "d%20e", "mailto:a@b.com")) {
+            assertThat(other, resolver.resolve(other), is(base.resolve(other)));
+        }
+
+        // base is never modified
+        assertThat(base.toString(), is("http://joe@www.fizzed.com:81/a/b/c?q=1#f"));
+    }
+
+    @Test
+    public void resolveAll() {
+        UriResolver resolver = new UriResolver(new Uri("http://www.fizzed.com/a/"));
+
+        Uri[] uris = resolver.resolveAll("b", null, "/c");
+
+        assertThat(uris.length, is(3));
+        assertThat(uris[0].toString(), is("http://www.fizzed.com/a/b"));
+        assertThat(uris[1], is(nullValue()));
+        assertThat(uris[2].toString(), is("http://www.fizzed.com/c"));
+
+        List<Uri> list = resolver.resolveAll(Arrays.asList("b", "../c"));
+
+        assertThat(list.get(1).toString(), is("http://www.fizzed.com/c"));
+
+        List<String> strs = resolver.resolveAll(Stream.of("b", "", "c"))
+            .map(Uri::toString)
+            .collect(toList());
+
+        assertThat(strs, is(Arrays.asList("http://www.fizzed.com/a/b", "http://www.fizzed.com/a/c")));
+    }
+
+    @Test
+    public void mutableBase() {
+        MutableUri base = new MutableUri("http://www.fizzed.com/a/b");
+        UriResolver resolver = new UriResolver(base);
+
+        base.rel("c");
+
+        // resolver uses a snapshot of the base
+        assertThat(resolver.resolve("d").toString(), is("http://www.fizzed.com/a/d"));
+    }
+
+}
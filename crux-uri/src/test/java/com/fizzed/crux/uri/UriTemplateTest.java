@@ -0,0 +1,205 @@
+/*
+ * Copyright 2024 Fizzed, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fizzed.crux.uri;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+public class UriTemplateTest {
+
+    // variables from the examples in RFC 6570
+    static private final Map<String,Object> VARS = new HashMap<>();
+    static {
+        Map<String,String> keys = new LinkedHashMap<>();
+        keys.put("semi", ";");
+        keys.put("dot", ".");
+        keys.put("comma", ",");
+
+        VARS.put("count", Arrays.asList("one", "two", "three"));
+        VARS.put("dom", Arrays.asList("example", "com"));
+        VARS.put("dub", "me/too");
+        VARS.put("hello", "Hello World!");
+        VARS.put("half", "50%");
+        VARS.put("var", "value");
+        VARS.put("who", "fred");
+        VARS.put("base", "http://example.com/home/");
+        VARS.put("path", "/foo/bar");
+        VARS.put("list", new String[] { "red", "green", "blue" });
+        VARS.put("keys", keys);
+        VARS.put("v", 6);
+        VARS.put("x", 1024);
+        VARS.put("y", 768);
+        VARS.put("empty", "");
+        VARS.put("empty_keys", Collections.emptyMap());
+        VARS.put("undef", null);
+    }
+
+    static private String expand(String template) {
+        return UriTemplate.compile(template).expand(VARS);
+    }
+
+    @Test
+    public void level1() {
+        assertThat(expand("{var}"), is("value"));
+        assertThat(expand("{hello}"), is("Hello%20World%21"));
+    }
+
+    @Test
+    public void level2() {
+        assertThat(expand("{+var}"), is("value"));
+        assertThat(expand("{+hello}"), is("Hello%20World!"));
+        assertThat(expand("{+path}/here"), is("/foo/bar/here"));
+        assertThat(expand("here?ref={+path}"), is("here?ref=/foo/bar"));
+        assertThat(expand("X{#var}"), is("X#value"));
+        assertThat(expand("X{#hello}"), is("X#Hello%20World!"));
+    }
+
+    @Test
+    public void level3() {
+        assertThat(expand("map?{x,y}"), is("map?1024,768"));
+        assertThat(expand("{x,hello,y}"), is("1024,Hello%20World%21,768"));
+        assertThat(expand("{+x,hello,y}"), is("1024,Hello%20World!,768"));
+        assertThat(expand("{+path,x}/here"), is("/foo/bar,1024/here"));
+        assertThat(expand("{#x,hello,y}"), is("#1024,Hello%20World!,768"));
+        assertThat(expand("{#path,x}/here"), is("#/foo/bar,1024/here"));
+        assertThat(expand("X{.var}"), is("X.value"));
+        assertThat(expand("X{.x,y}"), is("X.1024.768"));
+        assertThat(expand("{/var}"), is("/value"));
+        assertThat(expand("{/var,x}/here"), is("/value/1024/here"));
+        assertThat(expand("{;x,y}"), is(";x=1024;y=768"));
+        assertThat(expand("{;x,y,empty}"), is(";x=1024;y=768;empty"));
+        assertThat(expand("{?x,y}"), is("?x=1024&y=768"));
+        assertThat(expand("{?x,y,empty}"), is("?x=1024&y=768&empty="));
+        assertThat(expand("?fixed=yes{&x}"), is("?fixed=yes&x=1024"));
+        assertThat(expand("{&x,y,empty}"), is("&x=1024&y=768&empty="));
+    }
+
+    @Test
+    public void level4() {
+        assertThat(expand("{var:3}"), is("val"));
+        assertThat(expand("{var:30}"), is("value"));
+        assertThat(expand("{list}"), is("red,green,blue"));
+        assertThat(expand("{list*}"), is("red,green,blue"));
+        assertThat(expand("{keys}"), is("semi,%3B,dot,.,comma,%2C"));
+        assertThat(expand("{keys*}"), is("semi=%3B,dot=.,comma=%2C"));
+        assertThat(expand("{+path:6}/here"), is("/foo/b/here"));
+        assertThat(expand("{+list}"), is("red,green,blue"));
+        assertThat(expand("{+keys*}"), is("semi=;,dot=.,comma=,"));
+        assertThat(expand("{#path:6}/here"), is("#/foo/b/here"));
+        assertThat(expand("X{.list*}"), is("X.red.green.blue"));
+        assertThat(expand("X{.keys}"), is("X.semi,%3B,dot,.,comma,%2C"));
+        assertThat(expand("{/var:1,var}"), is("/v/value"));
+        assertThat(expand("{/list*,path:4}"), is("/red/green/blue/%2Ffoo"));
+        assertThat(expand("{/keys*}"), is("/semi=%3B/dot=./comma=%2C"));
+        assertThat(expand("{;hello:5}"), is(";hello=Hello"));
+        assertThat(expand("{;list}"), is(";list=red,green,blue"));
+        assertThat(expand("{;list*}"), is(";list=red;list=green;list=blue"));
+        assertThat(expand("{;keys*}"), is(";semi=%3B;dot=.;comma=%2C"));
+        assertThat(expand("{?var:3}"), is("?var=val"));
+        assertThat(expand("{?list}"), is("?list=red,green,blue"));
+        assertThat(expand("{?list*}"), is("?list=red&list=green&list=blue"));
+        assertThat(expand("{?keys}"), is("?keys=semi,%3B,dot,.,comma,%2C"));
+        assertThat(expand("{?keys*}"), is("?semi=%3B&dot=.&comma=%2C"));
+        assertThat(expand("{&var:3}"), is("&var=val"));
+        assertThat(expand("{&list*}"), is("&list=red&list=green&list=blue"));
+    }
+
+    @Test
+    public void undefined() {
+        assertThat(expand("{undef}"), is(""));
+        assertThat(expand("{?undef,empty_keys,var}"), is("?var=value"));
+        assertThat(expand("{/nope}/a"), is("/a"));
+        assertThat(UriTemplate.compile("{a}{?b}").expand(Collections.singletonMap("a", Optional.empty())), is(""));
+
+        // a list (or map) of only undefined items is undefined too
+        Map<String,Object> vars = new HashMap<>();
+        vars.put("list", Arrays.asList((Object)null));
+        vars.put("array", new Object[] { null, Optional.empty() });
+        vars.put("keys", Collections.singletonMap("a", null));
+        vars.put("var", "value");
+        assertThat(UriTemplate.compile("{?list}").expand(vars), is(""));
+        assertThat(UriTemplate.compile("{/list*}").expand(vars), is(""));
+        assertThat(UriTemplate.compile("{?array,keys,var}").expand(vars), is("?var=value"));
+        assertThat(UriTemplate.compile("{;keys*}{#array}").expand(vars), is(""));
+        assertThat(UriTemplate.compile("{list,var}").expand(vars), is("value"));
+    }
+
+    @Test
+    public void literals() {
+        // literals are url-encoded once when compiled
+        assertThat(expand("/a b/caf\u00e9/{var}"), is("/a%20b/caf%C3%A9/value"));
+        assertThat(expand("/a%20b?c=d&e"), is("/a%20b?c=d&e"));
+        assertThat(expand("{+half}"), is("50%25"));
+        assertThat(expand("{half}"), is("50%25"));
+    }
+
+    @Test
+    public void reusableBuilder() throws Exception {
+        UriTemplate template = UriTemplate.compile("/v1/accounts/{id}/orders{?since}");
+
+        StringBuilder sb = new StringBuilder();
+        template.expand(sb, Collections.singletonMap("id", 1));
+        sb.setLength(0);
+        template.expand(sb, Collections.singletonMap("id", "a/b"));
+
+        assertThat(sb.toString(), is("/v1/accounts/a%2Fb/orders"));
+        assertThat(template.appendTo(new StringBuilder("x"), Collections.singletonMap("since", 2)).toString(),
+            is("x/v1/accounts//orders?since=2"));
+        assertThat(template.getVariableNames(), is(Arrays.asList("id", "since")));
+
+        // any appendable is written to directly
+        StringWriter writer = new StringWriter();
+        template.appendTo(writer, Collections.singletonMap("id", "a b"));
+
+        assertThat(writer.toString(), is("/v1/accounts/a%20b/orders"));
+    }
+
+    @Test
+    public void toUri() {
+        Map<String,Object> vars = new HashMap<>();
+        vars.put("host", "www.fizzed.com");
+        vars.put("id", "a b");
+        vars.put("since", "1&2");
+
+        Uri uri = UriTemplate.compile("https://{host}/accounts/{id}{?since}").toUri(vars);
+
+        assertThat(uri.getHost(), is("www.fizzed.com"));
+        assertThat(uri.getRels(), is(Arrays.asList("accounts", "a b")));
+        assertThat(uri.getQueryFirst("since"), is("1&2"));
+    }
+
+    @Test
+    public void invalid() {
+        for (String template : Arrays.asList("{var", "var}", "{}", "{=var}", "{var:0}", "{var:10000}", "{v a}", "{.}", "{\0x}", "{x\0}")) {
+            try {
+                UriTemplate.compile(template);
+                fail("template " + template + " should have been invalid");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+}
@@ -19,9 +19,12 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.hamcrest.Matchers.hasEntry;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 import org.junit.Test;
 
 public class UriTest {
@@ -37,6 +40,48 @@ public class UriTest {
         assertThat(uri, is(new Uri("/")));
     }
     
+    @Test
+    public void equalsStructurally() {
+        Uri uri = new Uri("http://www.fizzed.com/a%20b?c=1&d=2#e");
+
+        assertThat(uri, is(new MutableUri()
+            .scheme("http")
+            .host("www.fizzed.com")
+            .rel("a b")
+            .query("c", 1)
+            .query("d", 2)
+            .fragment("e")
+            .toUri()));
+
+        // order of query is significant
+        assertThat(uri, is(not(new Uri("http://www.fizzed.com/a%20b?d=2&c=1#e"))));
+
+        // userinfo and port are not part of a uri without a host
+        assertThat(new MutableUri().scheme("local").userInfo("joe").path("/a").toUri(),
+            is(new Uri("local:/a")));
+
+        // mutable and immutable are never equal
+        assertThat(uri.equals(uri.mutable()), is(false));
+    }
+
+    @Test
+    public void hashAndStringCached() {
+        Uri uri = new Uri("http://www.fizzed.com/a?b=1");
+
+        assertThat(uri.toString(), sameInstance(uri.toString()));
+        assertThat(uri.hashCode(), is(new Uri(uri).hashCode()));
+        assertThat(new Uri(uri).toString(), sameInstance(uri.toString()));
+
+        // mutable uri must reflect any modifications
+        MutableUri muri = uri.mutable();
+        int hash = muri.hashCode();
+        muri.rel("c");
+
+        assertThat(muri.toString(), is("http://www.fizzed.com/a/c?b=1"));
+        assertThat(muri.hashCode(), is(not(hash)));
+        assertThat(muri.toUri().toString(), is("http://www.fizzed.com/a/c?b=1"));
+    }
+
     @Test
     public void hash() {
         Map<Uri,String> map = new HashMap<>();
@@ -92,6 +137,72 @@ public class UriTest {
         assertThat(uri.toString(), is("http://www.fizzed.com?a=1&b=2"));
     }
     
+    @Test
+    public void copyOnWrite() {
+        Uri base = new Uri("http://www.fizzed.com/a?b=1&b=2");
+
+        // derived builders share the rels and query with the base until modified
+        MutableUri muri1 = base.mutable().rel("c").query("b", 3);
+        MutableUri muri2 = base.mutable().path("/d").setQuery("b", 4);
+        MutableUri muri3 = base.mutable();
+        muri3.getQueryAll("b").add("5");
+
+        assertThat(base.toString(), is("http://www.fizzed.com/a?b=1&b=2"));
+        assertThat(base.getQueryAll("b"), is(Arrays.asList("1", "2")));
+        assertThat(muri1.toString(), is("http://www.fizzed.com/a/c?b=1&b=2&b=3"));
+        assertThat(muri2.toString(), is("http://www.fizzed.com/d?b=4"));
+        assertThat(muri3.toString(), is("http://www.fizzed.com/a?b=1&b=2&b=5"));
+
+        // snapshot is unaffected by further modifications of its builder
+        Uri snapshot = muri1.toUri();
+        muri1.rel("e").query("b", 6);
+        muri1.getRels().add("f");
+
+        assertThat(snapshot.toString(), is("http://www.fizzed.com/a/c?b=1&b=2&b=3"));
+        assertThat(muri1.toString(), is("http://www.fizzed.com/a/c/e/f?b=1&b=2&b=3&b=6"));
+    }
+
+    @Test
+    public void sharedCollectionsAreReadOnly() {
+        MutableUri muri = new MutableUri("http://www.fizzed.com/a?b=1");
+        Uri uri = muri.toUri();
+        Uri copy = new Uri(uri);
+        String s = uri.toString();
+        int hash = uri.hashCode();
+
+        try {
+            uri.getRels().add("c");
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        try {
+            uri.getQuery().put("d", Arrays.asList("2"));
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        try {
+            uri.getQuery().get("b").add("2");
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        try {
+            uri.getQueryAll("b").add("2");
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+
+        // none of the uris sharing them were modified
+        assertThat(uri.toString(), is(s));
+        assertThat(uri.hashCode(), is(hash));
+        assertThat(copy.toString(), is("http://www.fizzed.com/a?b=1"));
+        assertThat(muri.toString(), is("http://www.fizzed.com/a?b=1"));
+        assertThat(uri.getQuery().get("b"), is(Arrays.asList("1")));
+    }
+
     @Test
     public void rels() {
         Uri uri;
@@ -287,6 +398,51 @@ public class UriTest {
         
         uri = Uri.navigate("localhost");
         assertThat(uri.toString(), is("http://localhost/"));
+
+        // a "://" later on is not a scheme
+        uri = Uri.navigate("www.fizzed.com/?u=http://www.example.com");
+        assertThat(uri.getHost(), is("www.fizzed.com"));
+        assertThat(uri.getQueryFirst("u"), is("http://www.example.com"));
+
+        try {
+            Uri.navigate("http://www.fizzed.com:abc");
+            fail("expected exception");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        assertThat(Uri.tryNavigate("   "), is(nullValue()));
+        assertThat(Uri.tryNavigate("www.fizzed.com:abc").isValid(), is(false));
+        assertThat(Uri.tryNavigate("www.fizzed.com:81").getUri().getPort(), is(81));
+    }
+
+    @Test
+    public void tryParse() {
+        UriParseResult result = Uri.tryParse("http://www.fizzed.com/a?b=1");
+
+        assertThat(result.isValid(), is(true));
+        assertThat(result.getError(), is(nullValue()));
+        assertThat(result.getUri(), is(new Uri("http://www.fizzed.com/a?b=1")));
+        assertThat(result.orElseThrow().getQueryFirst("b"), is("1"));
+
+        for (String invalid : Arrays.asList(null, "http://[::1/a", "http://localhost:x/", "http://localhost:99999999999",
+                "http://a%zz@localhost", "/a%2", "/a?b=c=d", "/a#%g0")) {
+            result = Uri.tryParse(invalid);
+            assertThat(invalid, result.isValid(), is(false));
+            assertThat(result.getUri(), is(nullValue()));
+            assertThat(result.toOptional().isPresent(), is(false));
+            try {
+                result.orElseThrow();
+                fail("expected exception");
+            } catch (IllegalArgumentException e) {
+                assertThat(e.getMessage(), is(result.getError()));
+            }
+        }
+
+        // same as integer parsing of the port
+        assertThat(Uri.tryParse("http://localhost:+81").getUri().getPort(), is(81));
+        assertThat(Uri.tryParse("http://localhost:2147483647").getUri().getPort(), is(Integer.MAX_VALUE));
+        assertThat(Uri.tryParse("http://localhost:2147483648").isValid(), is(false));
     }
     
 }
\ No newline at end of file
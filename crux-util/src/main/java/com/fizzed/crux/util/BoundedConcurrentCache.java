@@ -0,0 +1,126 @@
+/*
+ * Copyright 2024 Fizzed, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fizzed.crux.util;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Thread-safe cache backed by a ConcurrentHashMap whose size is bounded by a
+ * cheap, racy check before each new entry.  Concurrent inserts may overshoot
+ * the max size by a few entries (at most one per racing thread), but it can
+ * never grow without bound (e.g. from unique keys sent by a client).  What
+ * happens once it is full depends on its policy.
+ */
+public class BoundedConcurrentCache<K,V> {
+
+    static public enum WhenFull {
+        /**
+         * The entire cache is cleared and the new entry is cached.  Cheap,
+         * and the working set is simply cached again.
+         */
+        CLEAR,
+        /**
+         * The new entry is not cached and the existing entries are kept.
+         */
+        REJECT
+    }
+
+    private final int maxSize;
+    private final WhenFull whenFull;
+    private final ConcurrentHashMap<K,V> map;
+
+    public BoundedConcurrentCache(int maxSize, WhenFull whenFull) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be > 0");
+        }
+        Objects.requireNonNull(whenFull, "whenFull was null");
+        this.maxSize = maxSize;
+        this.whenFull = whenFull;
+        this.map = new ConcurrentHashMap<>();
+    }
+
+    public int getMaxSize() {
+        return this.maxSize;
+    }
+
+    public WhenFull getWhenFull() {
+        return this.whenFull;
+    }
+
+    public int size() {
+        return this.map.size();
+    }
+
+    public void clear() {
+        this.map.clear();
+    }
+
+    public V get(K key) {
+        return this.map.get(key);
+    }
+
+    /**
+     * Caches the value unless a value is already cached for the key.
+     *
+     * @param key The key
+     * @param value The value
+     * @return The value already cached for the key or null if there was none
+     *      (including if the cache was full and rejected the value)
+     */
+    public V putIfAbsent(K key, V value) {
+        if (!this.makeRoom()) {
+            return this.map.get(key);
+        }
+        return this.map.putIfAbsent(key, value);
+    }
+
+    /**
+     * Gets the value cached for the key or computes and caches it.
+     *
+     * @param key The key
+     * @param mappingFunction The function to compute the value
+     * @return The cached value or null if the cache was full and rejected it
+     */
+    public V computeIfAbsent(K key, Function<? super K,? extends V> mappingFunction) {
+        final V value = this.map.get(key);
+        if (value != null) {
+            return value;
+        }
+        if (!this.makeRoom()) {
+            return this.map.get(key);
+        }
+        return this.map.computeIfAbsent(key, mappingFunction);
+    }
+
+    public void forEach(BiConsumer<? super K,? super V> action) {
+        this.map.forEach(action);
+    }
+
+    private boolean makeRoom() {
+        if (this.map.size() < this.maxSize) {
+            return true;
+        }
+        if (this.whenFull == WhenFull.REJECT) {
+            return false;
+        }
+        this.map.clear();
+        return true;
+    }
+
+}
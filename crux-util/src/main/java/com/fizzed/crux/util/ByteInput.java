@@ -97,6 +97,15 @@ public class ByteInput {
         return this.size;
     }
 
+    /**
+     * Gets the buffer this input represents, so it can be read without opening
+     * a stream over it (which would share its position and mark).
+     * @return The buffer or null if this input is not a byte buffer
+     */
+    public ByteBuffer getBuffer() {
+        return this.buffer;
+    }
+
     public InputStream open() throws IOException {
         if (this.file != null) {
             return Files.newInputStream(this.file);
@@ -19,6 +19,33 @@ import org.slf4j.Logger;
 
 public class Slf4jUtil {
  
+    /**
+     * Whether the logger is enabled for the message level, so callers can
+     * skip building an expensive message that would never be logged.
+     * 
+     * @param messageLevel The level (null is treated as DEBUG, the same as log)
+     * @param log The logger
+     * @return True if a message at the level would be logged
+     */
+    static public boolean isEnabled(
+            MessageLevel messageLevel,
+            Logger log) {
+        
+        switch ((messageLevel != null ? messageLevel : MessageLevel.DEBUG)) {
+            case ERROR:
+                return log.isErrorEnabled();
+            case WARN:
+                return log.isWarnEnabled();
+            case INFO:
+                return log.isInfoEnabled();
+            case TRACE:
+                return log.isTraceEnabled();
+            default:
+                return log.isDebugEnabled();
+        }
+    }
+    
+
     static public void log(
             MessageLevel messageLevel,
             Logger log,
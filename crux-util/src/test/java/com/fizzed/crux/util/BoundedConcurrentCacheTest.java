@@ -0,0 +1,59 @@
+/*
+ * Copyright 2024 Fizzed, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fizzed.crux.util;
+
+import com.fizzed.crux.util.BoundedConcurrentCache.WhenFull;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class BoundedConcurrentCacheTest {
+
+    @Test
+    public void clearWhenFull() {
+        final BoundedConcurrentCache<String,Integer> cache = new BoundedConcurrentCache<>(2, WhenFull.CLEAR);
+
+        assertThat(cache.putIfAbsent("a", 1), is(nullValue()));
+        assertThat(cache.putIfAbsent("a", 9), is(1));
+        assertThat(cache.computeIfAbsent("b", (k) -> 2), is(2));
+        assertThat(cache.size(), is(2));
+
+        // full, so cleared before the new entry
+        assertThat(cache.computeIfAbsent("c", (k) -> 3), is(3));
+        assertThat(cache.size(), is(1));
+        assertThat(cache.get("a"), is(nullValue()));
+        assertThat(cache.get("c"), is(3));
+    }
+
+    @Test
+    public void rejectWhenFull() {
+        final BoundedConcurrentCache<String,Integer> cache = new BoundedConcurrentCache<>(2, WhenFull.REJECT);
+
+        cache.putIfAbsent("a", 1);
+        cache.putIfAbsent("b", 2);
+
+        // full, so new entries are not cached but existing ones still are
+        assertThat(cache.computeIfAbsent("c", (k) -> 3), is(nullValue()));
+        assertThat(cache.putIfAbsent("c", 3), is(nullValue()));
+        assertThat(cache.computeIfAbsent("a", (k) -> 9), is(1));
+        assertThat(cache.putIfAbsent("b", 9), is(2));
+        assertThat(cache.size(), is(2));
+        assertThat(cache.get("c"), is(nullValue()));
+    }
+
+}